@@ -1,7 +1,13 @@
 package com.levelpixel.nextbrowser;
 
 // Import statement section only
-import com.levelpixel.nextwebview.interfaces.OnAdBlockedListener;
+import com.levelpixel.nextwebview.NextWebView;
+import com.levelpixel.nextwebview.NextWebViewPool;
+import com.levelpixel.nextwebview.SessionStore;
+import com.levelpixel.nextwebview.TabManager;
+import com.levelpixel.nextwebview.components.AdBlockSummary;
+import com.levelpixel.nextwebview.interfaces.OnAdBlockSummaryListener;
+import com.levelpixel.nextwebview.interfaces.PageLifecycleObserver;
 
 import android.content.Context;
 import android.content.Intent;
@@ -26,27 +32,29 @@ import com.levelpixel.nextbrowser.databinding.ActivityMainBinding;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.regex.Pattern;
 
-public class MainActivity extends AppCompatActivity implements OnAdBlockedListener {
+public class MainActivity extends AppCompatActivity implements OnAdBlockSummaryListener {
     
     // Default URL to load
     private static final String DEFAULT_URL = "https://www.google.com";
     private static final int REQUEST_BOOKMARK = 1001;
     private static final int REQUEST_TABS = 1002;
     
+    // Tabs that keep a live WebView, older ones are restored from saved state
+    private static final int MAX_LIVE_TABS = 3;
+    
     private ActivityMainBinding binding;
     private SharedPreferences preferences;
     
-    // Stats counters
+    // Stats counters, saved to preferences when the activity pauses
     private int requestsBlocked = 0;
     private int elementsHidden = 0;
+    private boolean statsChanged = false;
     
     // Tab management
-    private List<Tab> tabs = new ArrayList<>();
-    private int currentTabIndex = 0;
+    private NextWebViewPool webViewPool;
+    private TabManager tabManager;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -73,45 +81,96 @@ public class MainActivity extends AppCompatActivity implements OnAdBlockedListen
     }
 
     /**
-     * Initializes all UI components and configures nextwebview settings.
+     * Initializes all UI components and opens the first tab.
      */
     private void initializeViews() {
-        // Configure nextwebview with security and privacy settings from preferences
-        binding.nextwebview.setAdBlockEnabled(preferences.getBoolean("ad_block_enabled", true));
-        binding.nextwebview.setAggressiveAdBlockMode(preferences.getBoolean("aggressive_ad_block", false));
-        binding.nextwebview.setPopupBlockEnabled(preferences.getBoolean("popup_block_enabled", true));
-        binding.nextwebview.setRedirectBlockEnabled(preferences.getBoolean("redirect_block_enabled", true));
-        binding.nextwebview.setUseSystemDownloader(preferences.getBoolean("use_system_downloader", true));
-        binding.nextwebview.setJavaScriptEnabled(preferences.getBoolean("javascript_enabled", true));
-        binding.nextwebview.setCookieBlockingEnabled(preferences.getBoolean("cookie_block_enabled", false));
-        binding.nextwebview.setIntelligentTrackingPrevention(preferences.getBoolean("tracking_prevention", true));
-
-        // Set ad block listener to track stats
-        binding.nextwebview.setAdBlockListener(this);
+        // Views come from a pool that shares one copy of the ad blocklist
+        webViewPool = new NextWebViewPool(this);
+        tabManager = new TabManager(binding.tabContainer, webViewPool, MAX_LIVE_TABS);
+        tabManager.setListener(new TabManager.Listener() {
+            @Override
+            public void onViewCreated(TabManager.Tab tab, NextWebView webView) {
+                configureWebView(webView);
+            }
+
+            @Override
+            public void onTabSelected(TabManager.Tab tab) {
+                binding.urlInput.setText(tab.getUrl());
+                updateSecurityIndicator(tab.getUrl());
+                updateNavigationButtonStates();
+            }
+
+            @Override
+            public void onRenderProcessGone(TabManager.Tab tab, boolean crashed, int goneCount, int restoredCount) {
+                Log.w("MainActivity", "Renderer gone (crashed=" + crashed + "), " + goneCount + " losses, "
+                        + restoredCount + " tabs restored");
+                if (tab == tabManager.getCurrentTab()) {
+                    Toast.makeText(MainActivity.this, "Page reloaded after the renderer stopped", Toast.LENGTH_SHORT).show();
+                }
+            }
+        });
+
+        // Restore the tabs of the last session once it is read, or load the default URL in a first tab
+        SessionStore session = SessionStore.getInstance(this);
+        session.whenReady(() -> {
+            if (isDestroyed()) return;
+            tabManager.attachSession(session);
+            if (tabManager.getTabs().isEmpty()) {
+                tabManager.openTab(DEFAULT_URL);
+            }
+        });
+    }
+
+    /**
+     * Configures a tab's nextwebview with security and privacy settings from preferences.
+     */
+    private void configureWebView(NextWebView webView) {
+        applySettings(webView);
+
+        // Set ad block summary listener to track stats
+        webView.setAdBlockSummaryListener(this);
         
-        // Load default ad blocklist
-        binding.nextwebview.loadAdBlockListFromResource(true, null);
+        // Log load metrics per page, with the requests ad blocking saved
+        webView.setPageMetricsListener(metrics -> Log.d("MainActivity", "Page metrics: " + metrics));
 
         // Set up progress view listener to track page loading
-        binding.nextwebview.setProgressListener(progress -> {
+        webView.setProgressListener(progress -> {
+            if (webView != webView()) return;
             binding.progressBar.setVisibility(View.VISIBLE);
             binding.progressBar.setProgress(progress);
             if (progress == 100) {
                 binding.progressBar.setVisibility(View.INVISIBLE);
             }
-            binding.urlInput.setText(binding.nextwebview.getUrl());
+            binding.urlInput.setText(webView.getUrl());
         });
 
-        // Load the default URL in nextwebview
-        binding.nextwebview.loadUrl(DEFAULT_URL);
+        // Update security indicator when page loads
+        webView.addPageLifecycleObserver("browser-ui", new PageLifecycleObserver() {
+            @Override
+            public void onPageFinished(android.webkit.WebView view, String url) {
+                if (view != webView()) return;
+                updateSecurityIndicator(url);
+                updateNavigationButtonStates();
+            }
+        });
+    }
+
+    /**
+     * @return the selected tab's nextwebview
+     */
+    private NextWebView webView() {
+        return tabManager.getCurrentWebView();
     }
 
     /**
      * Configures SwipeRefreshLayout to refresh the page on swipe gesture.
      */
     private void setupSwipeRefresh() {
+        // The container never scrolls itself, so ask the selected tab
+        binding.swipeRefreshLayout.setOnChildScrollUpCallback((parent, child) ->
+                webView() != null && webView().getScrollY() > 0);
         binding.swipeRefreshLayout.setOnRefreshListener(() -> {
-             binding.nextwebview.reload();
+             webView().reload();
             new Handler().postDelayed(() ->  binding.swipeRefreshLayout.setRefreshing(false), 500);
         });
 
@@ -160,20 +219,20 @@ public class MainActivity extends AppCompatActivity implements OnAdBlockedListen
         });
 
         binding.backButton.setOnClickListener(v -> {
-            if (binding.nextwebview.canGoBack()) {
-                binding.nextwebview.goBack();
+            if (webView().canGoBack()) {
+                webView().goBack();
             } else {
-                binding.nextwebview.loadUrl(DEFAULT_URL);
+                webView().loadUrl(DEFAULT_URL);
             }
         });
 
         binding.forwardButton.setOnClickListener(v -> {
-            if (binding.nextwebview.canGoForward()) {
-                binding.nextwebview.goForward();
+            if (webView().canGoForward()) {
+                webView().goForward();
             }
         });
 
-        binding.refreshButton.setOnClickListener(v -> binding.nextwebview.reload());
+        binding.refreshButton.setOnClickListener(v -> webView().reload());
 
         binding.settingsButton.setOnClickListener(v -> {
             // Open settings activity
@@ -182,7 +241,7 @@ public class MainActivity extends AppCompatActivity implements OnAdBlockedListen
         
         // Share button - Share current URL
         binding.shareButton.setOnClickListener(v -> {
-            String url = binding.nextwebview.getUrl();
+            String url = webView().getUrl();
             if (url != null && !url.isEmpty()) {
                 Intent shareIntent = new Intent(Intent.ACTION_SEND);
                 shareIntent.setType("text/plain");
@@ -192,7 +251,7 @@ public class MainActivity extends AppCompatActivity implements OnAdBlockedListen
         });
         
         // Home button
-        binding.homeButton.setOnClickListener(v -> binding.nextwebview.loadUrl(DEFAULT_URL));
+        binding.homeButton.setOnClickListener(v -> webView().loadUrl(DEFAULT_URL));
         
         // Tabs button
         binding.tabsButton.setOnClickListener(v -> showTabsMenu());
@@ -205,16 +264,6 @@ public class MainActivity extends AppCompatActivity implements OnAdBlockedListen
             hideKeyboard();
             return true;
         });
-
-        // Update security indicator when page loads
-        binding.nextwebview.setWebViewClient(new android.webkit.WebViewClient() {
-            @Override
-            public void onPageFinished(android.webkit.WebView view, String url) {
-                super.onPageFinished(view, url);
-                updateSecurityIndicator(url);
-                updateNavigationButtonStates();
-            }
-        });
     }
     
     /**
@@ -253,7 +302,7 @@ public class MainActivity extends AppCompatActivity implements OnAdBlockedListen
                 boolean newValue = !item.isChecked();
                 item.setChecked(newValue);
                 preferences.edit().putBoolean("desktop_site", newValue).apply();
-                binding.nextwebview.setDesktopMode(newValue);
+                webView().setDesktopMode(newValue);
                 return true;
             } else if (itemId == R.id.menu_settings) {
                 // Settings already handled in main buttons
@@ -267,34 +316,17 @@ public class MainActivity extends AppCompatActivity implements OnAdBlockedListen
     }
     
     /**
-     * Shows the tabs menu
+     * Shows the tabs menu. Both activities work on the shared session, so only
+     * tab ids cross the Intent. The current tab is captured first so its thumbnail is fresh.
      */
     private void showTabsMenu() {
-        Intent intent = new Intent(this, TabsActivity.class);
-        
-        // Prepare tab data to send
-        if (tabs.isEmpty()) {
-            Tab currentTab = new Tab(
-                binding.nextwebview.getTitle() != null ? binding.nextwebview.getTitle() : "New Tab",
-                binding.nextwebview.getUrl() != null ? binding.nextwebview.getUrl() : DEFAULT_URL
-            );
-            tabs.add(currentTab);
-            currentTabIndex = 0;
-        }
-        
-        String[] titles = new String[tabs.size()];
-        String[] urls = new String[tabs.size()];
-        
-        for (int i = 0; i < tabs.size(); i++) {
-            titles[i] = tabs.get(i).title;
-            urls[i] = tabs.get(i).url;
+        TabManager.Tab current = tabManager.getCurrentTab();
+        if (current == null) {
+            startActivityForResult(new Intent(this, TabsActivity.class), REQUEST_TABS);
+            return;
         }
-        
-        intent.putExtra("tab_titles", titles);
-        intent.putExtra("tab_urls", urls);
-        intent.putExtra("current_tab", currentTabIndex);
-        
-        startActivityForResult(intent, REQUEST_TABS);
+        tabManager.captureThumbnail(current, () ->
+                startActivityForResult(new Intent(this, TabsActivity.class), REQUEST_TABS));
     }
     
     /**
@@ -310,8 +342,8 @@ public class MainActivity extends AppCompatActivity implements OnAdBlockedListen
      */
     private void addToBookmarks() {
         Intent intent = new Intent(this, BookmarkActivity.class);
-        intent.putExtra("url", binding.nextwebview.getUrl());
-        intent.putExtra("title", binding.nextwebview.getTitle());
+        intent.putExtra("url", webView().getUrl());
+        intent.putExtra("title", webView().getTitle());
         startActivityForResult(intent, REQUEST_BOOKMARK);
     }
     
@@ -319,37 +351,10 @@ public class MainActivity extends AppCompatActivity implements OnAdBlockedListen
      * Opens a new tab
      */
     private void openNewTab() {
-        // Save current tab state
-        saveCurrentTab();
-        
-        // Create and add new tab
-        Tab newTab = new Tab("New Tab", DEFAULT_URL);
-        tabs.add(newTab);
-        currentTabIndex = tabs.size() - 1;
-        
-        // Load the new tab
-        binding.nextwebview.loadUrl(DEFAULT_URL);
+        tabManager.openTab(DEFAULT_URL);
         Toast.makeText(this, "New Tab opened", Toast.LENGTH_SHORT).show();
     }
     
-    /**
-     * Save current tab state
-     */
-    private void saveCurrentTab() {
-        if (currentTabIndex >= 0 && currentTabIndex < tabs.size()) {
-            tabs.get(currentTabIndex).url = binding.nextwebview.getUrl();
-            tabs.get(currentTabIndex).title = binding.nextwebview.getTitle();
-        } else if (binding.nextwebview.getUrl() != null) {
-            // Create new tab entry if none exists
-            Tab currentTab = new Tab(
-                binding.nextwebview.getTitle() != null ? binding.nextwebview.getTitle() : "Tab",
-                binding.nextwebview.getUrl()
-            );
-            tabs.add(currentTab);
-            currentTabIndex = tabs.size() - 1;
-        }
-    }
-    
     @Override
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
         super.onActivityResult(requestCode, resultCode, data);
@@ -359,27 +364,13 @@ public class MainActivity extends AppCompatActivity implements OnAdBlockedListen
                 // Handle bookmark selection
                 String url = data.getStringExtra("url");
                 if (url != null && !url.isEmpty()) {
-                    binding.nextwebview.loadUrl(url);
+                    webView().loadUrl(url);
                 }
-            } else if (requestCode == REQUEST_TABS && data != null) {
-                // Handle tabs result
-                String[] tabTitles = data.getStringArrayExtra("tab_titles");
-                String[] tabUrls = data.getStringArrayExtra("tab_urls");
-                int newCurrentTabIndex = data.getIntExtra("current_tab", 0);
-                
-                if (tabTitles != null && tabUrls != null && tabTitles.length == tabUrls.length) {
-                    // Update tabs list
-                    tabs.clear();
-                    for (int i = 0; i < tabTitles.length; i++) {
-                        Tab tab = new Tab(tabTitles[i], tabUrls[i]);
-                        tabs.add(tab);
-                    }
-                    
-                    // Switch to selected tab
-                    currentTabIndex = newCurrentTabIndex;
-                    if (currentTabIndex >= 0 && currentTabIndex < tabs.size()) {
-                        binding.nextwebview.loadUrl(tabs.get(currentTabIndex).url);
-                    }
+            } else if (requestCode == REQUEST_TABS) {
+                // Close, open and switch tabs as edited in the tabs screen
+                tabManager.syncWithSession();
+                if (tabManager.getTabs().isEmpty()) {
+                    tabManager.openTab(DEFAULT_URL);
                 }
             }
         }
@@ -389,37 +380,24 @@ public class MainActivity extends AppCompatActivity implements OnAdBlockedListen
      * Opens an incognito tab (simplified implementation)
      */
     private void openIncognitoTab() {
-        binding.nextwebview.clearHistory();
-        binding.nextwebview.clearCache(true);
-        binding.nextwebview.loadUrl(DEFAULT_URL);
+        webView().clearHistory();
+        webView().clearCache(true);
+        webView().loadUrl(DEFAULT_URL);
         Toast.makeText(this, "Incognito mode activated", Toast.LENGTH_SHORT).show();
     }
     
-    /**
-     * Tab data class
-     */
-    private static class Tab {
-        String title;
-        String url;
-        
-        Tab(String title, String url) {
-            this.title = title;
-            this.url = url;
-        }
-    }
-    
     /**
      * Update the state of navigation buttons based on WebView state
      */
     private void updateNavigationButtonStates() {
-        binding.backButton.setAlpha(binding.nextwebview.canGoBack() ? 1.0f : 0.5f);
-        binding.forwardButton.setAlpha(binding.nextwebview.canGoForward() ? 1.0f : 0.5f);
+        binding.backButton.setAlpha(webView().canGoBack() ? 1.0f : 0.5f);
+        binding.forwardButton.setAlpha(webView().canGoForward() ? 1.0f : 0.5f);
     }
 
     @Override
     public void onBackPressed() {
-        if (binding.nextwebview.canGoBack()) {
-            binding.nextwebview.goBack();
+        if (webView().canGoBack()) {
+            webView().goBack();
         } else {
             super.onBackPressed();
         }
@@ -440,25 +418,61 @@ public class MainActivity extends AppCompatActivity implements OnAdBlockedListen
     protected void onResume() {
         super.onResume();
         
+        // The settings screen may have reset the stats
+        requestsBlocked = preferences.getInt("requests_blocked", 0);
+        elementsHidden = preferences.getInt("elements_hidden", 0);
+        
         // Apply any settings that might have changed
         applySettingsChanges();
     }
     
+    @Override
+    protected void onPause() {
+        super.onPause();
+        
+        // Save stats for the settings screen
+        if (statsChanged) {
+            statsChanged = false;
+            SharedPreferences.Editor editor = preferences.edit();
+            editor.putInt("requests_blocked", requestsBlocked);
+            editor.putInt("elements_hidden", elementsHidden);
+            editor.apply();
+        }
+    }
+    
+    @Override
+    protected void onDestroy() {
+        tabManager.shutdown();
+        webViewPool.shutdown();
+        super.onDestroy();
+    }
+    
     /**
-     * Apply settings changes when returning from settings screen
+     * Apply settings changes to every live tab when returning from settings screen
      */
     private void applySettingsChanges() {
-        binding.nextwebview.setAdBlockEnabled(preferences.getBoolean("ad_block_enabled", true));
-        binding.nextwebview.setAggressiveAdBlockMode(preferences.getBoolean("aggressive_ad_block", false));
-        binding.nextwebview.setPopupBlockEnabled(preferences.getBoolean("popup_block_enabled", true));
-        binding.nextwebview.setRedirectBlockEnabled(preferences.getBoolean("redirect_block_enabled", true));
-        binding.nextwebview.setUseSystemDownloader(preferences.getBoolean("use_system_downloader", true));
-        binding.nextwebview.setJavaScriptEnabled(preferences.getBoolean("javascript_enabled", true));
-        binding.nextwebview.setCookieBlockingEnabled(preferences.getBoolean("cookie_block_enabled", false));
-        binding.nextwebview.setIntelligentTrackingPrevention(preferences.getBoolean("tracking_prevention", true));
-        
-        // Apply protection scripts immediately
-        binding.nextwebview.applyProtectionScripts();
+        for (TabManager.Tab tab : tabManager.getTabs()) {
+            NextWebView webView = tab.getWebView();
+            if (webView == null) continue;
+            applySettings(webView);
+            
+            // Apply protection scripts immediately
+            webView.applyProtectionScripts();
+        }
+    }
+    
+    /**
+     * Apply the security and privacy preferences to a nextwebview
+     */
+    private void applySettings(NextWebView webView) {
+        webView.setAdBlockEnabled(preferences.getBoolean("ad_block_enabled", true));
+        webView.setAggressiveAdBlockMode(preferences.getBoolean("aggressive_ad_block", false));
+        webView.setPopupBlockEnabled(preferences.getBoolean("popup_block_enabled", true));
+        webView.setRedirectBlockEnabled(preferences.getBoolean("redirect_block_enabled", true));
+        webView.setUseSystemDownloader(preferences.getBoolean("use_system_downloader", true));
+        webView.setJavaScriptEnabled(preferences.getBoolean("javascript_enabled", true));
+        webView.setCookieBlockingEnabled(preferences.getBoolean("cookie_block_enabled", false));
+        webView.setIntelligentTrackingPrevention(preferences.getBoolean("tracking_prevention", true));
     }
 
     /**
@@ -477,7 +491,7 @@ public class MainActivity extends AppCompatActivity implements OnAdBlockedListen
      */
     private void clearUrlInputFocus() {
         binding.urlInput.clearFocus();
-         binding.nextwebview.requestFocus();
+         webView().requestFocus();
     }
 
     // URL processing configurations
@@ -502,7 +516,7 @@ public class MainActivity extends AppCompatActivity implements OnAdBlockedListen
         }
 
         String processedUrl = processInput(input);
-         binding.nextwebview.loadUrl(processedUrl);
+         webView().loadUrl(processedUrl);
     }
 
     /**
@@ -576,28 +590,17 @@ public class MainActivity extends AppCompatActivity implements OnAdBlockedListen
     }
     
     /**
-     * Called when an ad is blocked
+     * Called on the main thread with the ads a tab blocked since its last summary
      */
     @Override
-    public void onAdBlocked(String url, String reason) {
+    public void onAdBlockSummary(AdBlockSummary summary) {
         // Optionally show a notification or log for debugging
-        Log.d("DuneBrowser", "Blocked: " + url + " - Reason: " + reason);
-    }
-    
-    /**
-     * Called with ad blocking statistics
-     */
-    @Override
-    public void onAdBlockStats(int requests, int elements) {
-        // Update our counters
-        this.requestsBlocked = requests;
-        this.elementsHidden = elements;
+        Log.d("DuneBrowser", "Blocked: " + summary);
         
-        // Save to preferences for the settings screen
-        SharedPreferences.Editor editor = preferences.edit();
-        editor.putInt("requests_blocked", requests);
-        editor.putInt("elements_hidden", elements);
-        editor.apply();
+        // Update our counters, every tab adds its own share
+        requestsBlocked += summary.getNewlyBlockedRequests();
+        elementsHidden += summary.getNewlyHiddenElements();
+        statsChanged = true;
     }
 
     /**
@@ -617,17 +620,17 @@ public class MainActivity extends AppCompatActivity implements OnAdBlockedListen
         builder.setPositiveButton("Find", (dialog, which) -> {
             String query = input.getText().toString();
             if (!query.isEmpty()) {
-                binding.nextwebview.findInPage(query);
+                webView().findInPage(query);
             }
         });
         
         builder.setNegativeButton("Cancel", (dialog, which) -> {
-            binding.nextwebview.stopFindInPage();
+            webView().stopFindInPage();
             dialog.cancel();
         });
         
         android.app.AlertDialog dialog = builder.create();
-        dialog.setOnDismissListener(d -> binding.nextwebview.stopFindInPage());
+        dialog.setOnDismissListener(d -> webView().stopFindInPage());
         dialog.show();
     }
 }
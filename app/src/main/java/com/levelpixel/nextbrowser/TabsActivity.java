@@ -1,12 +1,12 @@
 package com.levelpixel.nextbrowser;
 
-import android.content.Intent;
 import android.os.Bundle;
 import android.view.LayoutInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageButton;
+import android.widget.ImageView;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
@@ -16,22 +16,24 @@ import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
+import com.levelpixel.nextwebview.SessionStore;
+import com.levelpixel.nextwebview.components.ThumbnailCache;
 
 import java.util.ArrayList;
 import java.util.List;
 
 /**
- * Activity to manage browser tabs
+ * Activity to manage browser tabs. Changes go straight to the shared session,
+ * MainActivity picks them up when this activity returns.
  */
 public class TabsActivity extends AppCompatActivity {
     
     private RecyclerView tabsRecyclerView;
     private FloatingActionButton fabAddTab;
     private TabAdapter tabAdapter;
-    private List<TabItem> tabs;
-    
-    // Tab currently in use
-    private int currentTabIndex = 0;
+    private SessionStore session;
+    private ThumbnailCache thumbnails;
+    private List<SessionStore.TabRecord> tabs;
     
     // Request codes
     public static final int REQUEST_CODE = 1001;
@@ -48,26 +50,9 @@ public class TabsActivity extends AppCompatActivity {
             actionBar.setTitle("Tabs");
         }
         
-        // Initialize tabs from Intent data
+        session = SessionStore.getInstance(this);
         tabs = new ArrayList<>();
-        String[] tabTitles = getIntent().getStringArrayExtra("tab_titles");
-        String[] tabUrls = getIntent().getStringArrayExtra("tab_urls");
-        currentTabIndex = getIntent().getIntExtra("current_tab", 0);
-        
-        if (tabTitles != null && tabUrls != null && tabTitles.length == tabUrls.length) {
-            for (int i = 0; i < tabTitles.length; i++) {
-                TabItem tab = new TabItem();
-                tab.title = tabTitles[i];
-                tab.url = tabUrls[i];
-                tabs.add(tab);
-            }
-        } else {
-            // Add a default tab if no tabs were sent
-            TabItem defaultTab = new TabItem();
-            defaultTab.title = "New Tab";
-            defaultTab.url = "https://www.google.com";
-            tabs.add(defaultTab);
-        }
+        thumbnails = ThumbnailCache.getInstance(this);
         
         // Initialize views
         tabsRecyclerView = findViewById(R.id.tabs_recycler_view);
@@ -78,6 +63,12 @@ public class TabsActivity extends AppCompatActivity {
         tabAdapter = new TabAdapter();
         tabsRecyclerView.setAdapter(tabAdapter);
         
+        // Read tabs from the session shared with MainActivity once it is restored
+        session.whenReady(() -> {
+            tabs.addAll(session.getTabs());
+            tabAdapter.notifyDataSetChanged();
+        });
+        
         // Set up FAB
         fabAddTab.setOnClickListener(v -> addNewTab());
     }
@@ -86,14 +77,11 @@ public class TabsActivity extends AppCompatActivity {
      * Add a new tab
      */
     private void addNewTab() {
-        TabItem newTab = new TabItem();
-        newTab.title = "New Tab";
-        newTab.url = "https://www.google.com";
-        tabs.add(newTab);
-        tabAdapter.notifyItemInserted(tabs.size() - 1);
+        long id = session.nextTabId();
+        session.recordOpen(id, tabs.size(), "https://www.google.com", "New Tab");
         
         // Return the new tab result
-        currentTabIndex = tabs.size() - 1;
+        session.recordSelect(id);
         setResultAndFinish();
     }
     
@@ -101,39 +89,20 @@ public class TabsActivity extends AppCompatActivity {
      * Remove a tab at specified position
      */
     private void removeTab(int position) {
-        tabs.remove(position);
+        session.recordClose(tabs.remove(position).getId());
         tabAdapter.notifyItemRemoved(position);
         
         // If no tabs left, add one
         if (tabs.isEmpty()) {
             addNewTab();
         }
-        
-        // Fix currentTabIndex if needed
-        if (currentTabIndex >= position) {
-            currentTabIndex = Math.max(0, currentTabIndex - 1);
-        }
     }
     
     /**
      * Set result and finish activity
      */
     private void setResultAndFinish() {
-        // Convert tabs to arrays for intent
-        String[] titles = new String[tabs.size()];
-        String[] urls = new String[tabs.size()];
-        
-        for (int i = 0; i < tabs.size(); i++) {
-            titles[i] = tabs.get(i).title;
-            urls[i] = tabs.get(i).url;
-        }
-        
-        Intent resultIntent = new Intent();
-        resultIntent.putExtra("tab_titles", titles);
-        resultIntent.putExtra("tab_urls", urls);
-        resultIntent.putExtra("current_tab", currentTabIndex);
-        setResult(RESULT_OK, resultIntent);
-        
+        setResult(RESULT_OK);
         finish();
     }
     
@@ -152,14 +121,6 @@ public class TabsActivity extends AppCompatActivity {
         super.onBackPressed();
     }
     
-    /**
-     * Tab data class
-     */
-    private static class TabItem {
-        String title;
-        String url;
-    }
-    
     /**
      * Adapter for tabs RecyclerView
      */
@@ -177,16 +138,26 @@ public class TabsActivity extends AppCompatActivity {
         public void onBindViewHolder(@NonNull TabViewHolder holder, int position) {
             // Store position in a final local variable to use in click listeners
             final int itemPosition = position;
-            TabItem tab = tabs.get(itemPosition);
-            holder.titleTextView.setText(tab.title);
-            holder.urlTextView.setText(tab.url);
+            SessionStore.TabRecord tab = tabs.get(itemPosition);
+            holder.titleTextView.setText(tab.getTitle().isEmpty() ? "New Tab" : tab.getTitle());
+            holder.urlTextView.setText(tab.getUrl());
+            
+            // Thumbnails decode in the background; a recycled holder ignores stale results
+            long tabId = tab.getId();
+            holder.thumbnailTabId = tabId;
+            holder.thumbnailImageView.setImageBitmap(null);
+            thumbnails.load(tabId, (id, thumbnail) -> {
+                if (holder.thumbnailTabId == id) {
+                    holder.thumbnailImageView.setImageBitmap(thumbnail);
+                }
+            });
             
             // Highlight current tab
-            holder.itemView.setSelected(itemPosition == currentTabIndex);
+            holder.itemView.setSelected(tab.getId() == session.getSelectedId());
             
             // Click to switch to this tab
             holder.itemView.setOnClickListener(v -> {
-                currentTabIndex = holder.getAdapterPosition();
+                session.recordSelect(tabs.get(holder.getAdapterPosition()).getId());
                 setResultAndFinish();
             });
             
@@ -204,12 +175,15 @@ public class TabsActivity extends AppCompatActivity {
      * ViewHolder for tabs
      */
     private static class TabViewHolder extends RecyclerView.ViewHolder {
+        ImageView thumbnailImageView;
         TextView titleTextView;
         TextView urlTextView;
         ImageButton closeButton;
+        long thumbnailTabId = -1;
         
         TabViewHolder(@NonNull View itemView) {
             super(itemView);
+            thumbnailImageView = itemView.findViewById(R.id.image_tab_thumbnail);
             titleTextView = itemView.findViewById(R.id.text_tab_title);
             urlTextView = itemView.findViewById(R.id.text_tab_url);
             closeButton = itemView.findViewById(R.id.button_close_tab);
@@ -0,0 +1,111 @@
+package com.levelpixel.nextwebview;
+
+import android.app.Activity;
+import android.app.Application;
+import android.content.Context;
+import android.os.Bundle;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Follows the activities NextWebViews are shown in. A view is paused while its
+ * activity is paused; JavaScript timers are paused while no activity of the app
+ * is resumed, since pauseTimers applies to every WebView in the process.
+ * Main thread only.
+ */
+final class HostLifecycleTracker implements Application.ActivityLifecycleCallbacks {
+
+    private static HostLifecycleTracker instance;
+
+    private final Set<NextWebView> views = Collections.newSetFromMap(new WeakHashMap<>());
+    private final Set<Activity> resumed = Collections.newSetFromMap(new WeakHashMap<>());
+    private final Set<Activity> paused = Collections.newSetFromMap(new WeakHashMap<>());
+    private boolean timersPaused = false;
+
+    /**
+     * @return the tracker, or null if the context does not lead to the Application
+     */
+    @Nullable
+    static HostLifecycleTracker get(Context context) {
+        if (instance == null) {
+            Context appContext = context.getApplicationContext();
+            if (!(appContext instanceof Application)) return null;
+            instance = new HostLifecycleTracker();
+            ((Application) appContext).registerActivityLifecycleCallbacks(instance);
+        }
+        return instance;
+    }
+
+    void register(NextWebView view) {
+        views.add(view);
+    }
+
+    void unregister(NextWebView view) {
+        views.remove(view);
+    }
+
+    /**
+     * @return true if the activity is known to be paused; activities created
+     * before the tracker count as resumed
+     */
+    boolean isPaused(@Nullable Activity activity) {
+        return activity != null && paused.contains(activity);
+    }
+
+    @Override
+    public void onActivityResumed(Activity activity) {
+        resumed.add(activity);
+        paused.remove(activity);
+        if (timersPaused && !views.isEmpty()) {
+            timersPaused = false;
+            views.iterator().next().resumeTimers();
+        }
+        dispatch(activity, false);
+    }
+
+    @Override
+    public void onActivityPaused(Activity activity) {
+        resumed.remove(activity);
+        paused.add(activity);
+        dispatch(activity, true);
+        if (resumed.isEmpty() && !timersPaused && !views.isEmpty()) {
+            timersPaused = true;
+            views.iterator().next().pauseTimers();
+        }
+    }
+
+    @Override
+    public void onActivityDestroyed(Activity activity) {
+        resumed.remove(activity);
+        paused.remove(activity);
+    }
+
+    private void dispatch(Activity activity, boolean hostPaused) {
+        for (NextWebView view : new ArrayList<>(views)) {
+            if (view.findActivity() == activity) {
+                view.setHostPaused(hostPaused);
+            }
+        }
+    }
+
+    @Override
+    public void onActivityCreated(Activity activity, @Nullable Bundle savedInstanceState) {
+    }
+
+    @Override
+    public void onActivityStarted(Activity activity) {
+    }
+
+    @Override
+    public void onActivityStopped(Activity activity) {
+    }
+
+    @Override
+    public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+    }
+}
@@ -1,23 +1,61 @@
 package com.levelpixel.nextwebview;
 
+import android.app.Activity;
 import android.content.Context;
+import android.content.ContextWrapper;
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.AttributeSet;
+import android.util.Log;
+import android.view.PixelCopy;
+import android.view.ViewGroup;
+import android.view.ViewParent;
+import android.view.Window;
 import android.webkit.DownloadListener;
-import android.webkit.WebResourceRequest;
-import android.webkit.WebResourceResponse;
 import android.webkit.WebSettings;
 import android.webkit.WebView;
 import android.webkit.WebViewClient;
 
 import androidx.annotation.Nullable;
 
+import com.levelpixel.nextwebview.components.AdBlockEventDispatcher;
 import com.levelpixel.nextwebview.components.AdBlockingComponent;
+import com.levelpixel.nextwebview.components.BackgroundRequestThrottle;
+import com.levelpixel.nextwebview.components.BlockReason;
+import com.levelpixel.nextwebview.components.CachePolicy;
 import com.levelpixel.nextwebview.components.DownloadHandlerComponent;
+import com.levelpixel.nextwebview.components.DownloadTask;
+import com.levelpixel.nextwebview.components.InterceptorPipeline;
+import com.levelpixel.nextwebview.components.MetricsRegistry;
+import com.levelpixel.nextwebview.components.NetworkInspector;
+import com.levelpixel.nextwebview.components.PageMetricsComponent;
 import com.levelpixel.nextwebview.components.PrivacyEnhancementComponent;
 import com.levelpixel.nextwebview.components.RedirectProtectionComponent;
+import com.levelpixel.nextwebview.components.RuleMatch;
 import com.levelpixel.nextwebview.components.SecurityComponent;
+import com.levelpixel.nextwebview.components.StaticResourceCache;
+import com.levelpixel.nextwebview.interfaces.CnameResolver;
+import com.levelpixel.nextwebview.interfaces.DownloadEventListener;
+import com.levelpixel.nextwebview.interfaces.NavigationInterceptor;
+import com.levelpixel.nextwebview.interfaces.OnAdBlockSummaryListener;
 import com.levelpixel.nextwebview.interfaces.OnAdBlockedListener;
+import com.levelpixel.nextwebview.interfaces.OnDownloadInspectedListener;
+import com.levelpixel.nextwebview.interfaces.OnMediaDetectedListener;
+import com.levelpixel.nextwebview.interfaces.OnNavigationBlockedListener;
 import com.levelpixel.nextwebview.interfaces.OnProgressChangedListener;
+import com.levelpixel.nextwebview.interfaces.OnRenderProcessGoneListener;
+import com.levelpixel.nextwebview.interfaces.OnThumbnailCapturedListener;
+import com.levelpixel.nextwebview.interfaces.PageMetricsListener;
+import com.levelpixel.nextwebview.interfaces.PageLifecycleObserver;
+import com.levelpixel.nextwebview.interfaces.RequestInterceptor;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * nextwebview extends Android's WebView with additional security and user experience features:
@@ -31,19 +69,77 @@ import com.levelpixel.nextwebview.interfaces.OnProgressChangedListener;
  * This implementation uses a modular component architecture for better maintainability.
  */
 public class NextWebView extends WebView {
+    private static final String TAG = "NextWebView";
+    private static final MetricsRegistry.Histogram AD_BLOCK_SCRIPT_LATENCY =
+            MetricsRegistry.getInstance().histogram("scripts.ad-blocking");
+    private static final MetricsRegistry.Histogram REDIRECT_SCRIPT_LATENCY =
+            MetricsRegistry.getInstance().histogram("scripts.redirect-protection");
+    private static final MetricsRegistry.Histogram PRIVACY_SCRIPT_LATENCY =
+            MetricsRegistry.getInstance().histogram("scripts.privacy");
+    private static final String PAUSE_MEDIA_SCRIPT =
+            "document.querySelectorAll('video,audio').forEach(function(m){m.pause();});";
+    
+    // Names of the built-in pipeline stages
+    public static final String STAGE_AD_BLOCKING = "ad-blocking";
+    public static final String STAGE_BACKGROUND_THROTTLE = "background-throttle";
+    public static final String STAGE_MEDIA_DETECTION = "media-detection";
+    public static final String STAGE_STATIC_CACHE = "static-cache";
+    public static final String STAGE_REDIRECT_PROTECTION = "redirect-protection";
+    public static final String STAGE_NAVIGATION_BLOCKLIST = "navigation-blocklist";
+    public static final String STAGE_TRACKING_PARAMETERS = "tracking-parameters";
+    public static final String STAGE_HISTORY_RESET = "history-reset";
+    public static final String STAGE_REDIRECT_TRACKING = "redirect-tracking";
+    public static final String STAGE_MEDIA_RESET = "media-reset";
+    public static final String STAGE_PROTECTION_SCRIPTS = "protection-scripts";
+    public static final String STAGE_CACHE_POLICY = "cache-policy";
+    public static final String STAGE_PAGE_METRICS = "page-metrics";
+
     // Component modules
     private AdBlockingComponent adBlocker;
+    private AdBlockEventDispatcher adBlockEvents;
     private RedirectProtectionComponent redirectProtection;
     private PrivacyEnhancementComponent privacyEnhancement;
     private DownloadHandlerComponent downloadHandler;
     private SecurityComponent securityComponent;
+    private CachePolicy cachePolicy;
+    private BackgroundRequestThrottle backgroundThrottle;
+    private PageMetricsComponent pageMetrics;
+    private NetworkInspector networkInspector;
 
     // Feature flags
     private boolean javascriptEnabled = true;
+    
+    // Request, navigation and page lifecycle stages
+    private final InterceptorPipeline interceptors = new InterceptorPipeline();
+    private InterceptorPipeline.PipelineWebViewClient pipelineClient;
+    private final Set<String> builtInStages = new HashSet<>();
+    
+    // Set when a recycled view must drop the history entry of its blank page
+    private boolean clearHistoryOnPageFinished = false;
+    
+    // Latest successful snapshot, handed out while the view cannot be captured
+    private Bitmap lastThumbnail;
+    
+    // Optional disk cache for fingerprinted subresources, shared between views by the app
+    private volatile StaticResourceCache staticResourceCache;
+    // WebSettings must not be read from the IO threads the cache stage runs on
+    private volatile String userAgent;
+    // Page the cache stage's requests belong to, for telling third-party ones apart
+    private volatile String cachePageUrl;
+    
+    // The view pauses itself while it is off screen or its activity is paused
+    private HostLifecycleTracker hostLifecycle;
+    private boolean shownOnScreen = false;
+    private boolean hostPaused = false;
+    private boolean pausedBySelf = false;
+    // Set once the renderer is gone; the view must not be used afterwards
+    private boolean renderProcessGone = false;
+    private OnRenderProcessGoneListener renderProcessGoneListener;
 
     // Interfaces for callback functionality
     private OnProgressChangedListener progressListener;
     private OnAdBlockedListener adBlockedListener;
+    private OnNavigationBlockedListener navigationBlockedListener;
 
     /**
      * Constructor for programmatic instantiation
@@ -71,12 +167,29 @@ public class NextWebView extends WebView {
         privacyEnhancement = new PrivacyEnhancementComponent();
         downloadHandler = new DownloadHandlerComponent(getContext());
         securityComponent = new SecurityComponent();
+        cachePolicy = new CachePolicy(getContext());
+        backgroundThrottle = new BackgroundRequestThrottle();
+        pageMetrics = new PageMetricsComponent(adBlocker);
+        networkInspector = new NetworkInspector();
+        
+        // Blocking events reach the app in batches on the main thread
+        adBlockEvents = new AdBlockEventDispatcher(adBlocker);
+        adBlocker.setEventDispatcher(adBlockEvents);
+        redirectProtection.setEventDispatcher(adBlockEvents);
+        securityComponent.setEventDispatcher(adBlockEvents);
         
         // Set up the WebView
         setupWebView();
+        privacyEnhancement.applyCookiePolicy(this);
         setupWebViewClient();
         setupWebChromeClient();
         setupDownloadListener();
+        setupJavascriptBridges();
+        
+        hostLifecycle = HostLifecycleTracker.get(getContext());
+        if (hostLifecycle != null) {
+            hostLifecycle.register(this);
+        }
     }
 
     /**
@@ -89,7 +202,8 @@ public class NextWebView extends WebView {
         settings.setSupportZoom(true);
         settings.setDisplayZoomControls(false);
         settings.setDomStorageEnabled(true);
-        settings.setCacheMode(WebSettings.LOAD_CACHE_ELSE_NETWORK);
+        // The cache policy picks the mode per navigation
+        settings.setCacheMode(WebSettings.LOAD_DEFAULT);
         settings.setJavaScriptCanOpenWindowsAutomatically(false);
         settings.setMediaPlaybackRequiresUserGesture(true);
         settings.setLayoutAlgorithm(WebSettings.LayoutAlgorithm.NARROW_COLUMNS);
@@ -114,49 +228,238 @@ public class NextWebView extends WebView {
         
         // Set user agent
         settings.setUserAgentString(settings.getUserAgentString());
+        userAgent = settings.getUserAgentString();
+        
+        // Hidden views give up their claim on the renderer, so the visible tab wins CPU and memory
+        setRendererPriorityPolicy(RENDERER_PRIORITY_IMPORTANT, true);
     }
 
     /**
-     * Sets up the WebViewClient for content filtering
+     * Registers the components as pipeline stages and installs the pipeline's WebViewClient
      */
     private void setupWebViewClient() {
-        setWebViewClient(new WebViewClient() {
+        // A recycled view drops the history entry of its blank page
+        interceptors.addPageLifecycleObserver(STAGE_HISTORY_RESET, new PageLifecycleObserver() {
+            @Override
+            public void onPageFinished(WebView view, String url) {
+                if (clearHistoryOnPageFinished) {
+                    clearHistoryOnPageFinished = false;
+                    view.clearHistory();
+                }
+            }
+        });
+        
+        // Process page navigation through redirect protection
+        interceptors.addPageLifecycleObserver(STAGE_REDIRECT_TRACKING, new PageLifecycleObserver() {
             @Override
-            public void onPageStarted(WebView view, String url, android.graphics.Bitmap favicon) {
-                super.onPageStarted(view, url, favicon);
-                
-                // Process page navigation through redirect protection
+            public void onPageStarted(WebView view, String url) {
                 redirectProtection.processPageStarted(url, view);
             }
-
+        });
+        interceptors.addPageLifecycleObserver(STAGE_MEDIA_RESET, new PageLifecycleObserver() {
+            @Override
+            public void onPageStarted(WebView view, String url) {
+                downloadHandler.clearDetectedMedia();
+            }
+        });
+        
+        // Apply components to the loaded page
+        interceptors.addPageLifecycleObserver(STAGE_PROTECTION_SCRIPTS, new PageLifecycleObserver() {
             @Override
             public void onPageFinished(WebView view, String url) {
-                super.onPageFinished(view, url);
-                
-                // Apply components to the loaded page
-                adBlocker.injectAdBlockingScripts(view);
-                redirectProtection.injectRedirectProtectionScripts(view);
-                privacyEnhancement.applyPrivacyProtections(view);
+                applyProtectionScripts();
             }
-
+        });
+        
+        // Check if request should be blocked by ad blocker
+        interceptors.addRequestInterceptor(STAGE_AD_BLOCKING, (view, request) -> {
+            RuleMatch match = adBlocker.matchRequest(request);
+            if (match == null) return null;
+            networkInspector.annotate(match.getReason(), match.getRuleId());
+            return adBlocker.blockRequest(request, match);
+        });
+        
+        // Hidden pages get their pings answered empty and their polling held until visible
+        interceptors.addRequestInterceptor(STAGE_BACKGROUND_THROTTLE,
+                (view, request) -> backgroundThrottle.intercept(request));
+        interceptors.addPageLifecycleObserver(STAGE_BACKGROUND_THROTTLE, new PageLifecycleObserver() {
             @Override
-            public WebResourceResponse shouldInterceptRequest(WebView view, WebResourceRequest request) {
-                // Check if request should be blocked by ad blocker
-                WebResourceResponse blockedResponse = adBlocker.processRequest(request);
-                if (blockedResponse != null) {
-                    return blockedResponse;
-                }
-                return super.shouldInterceptRequest(view, request);
+            public void onPageStarted(WebView view, String url) {
+                backgroundThrottle.setPageLoaded(false);
             }
-
+            
+            @Override
+            public void onPageFinished(WebView view, String url) {
+                backgroundThrottle.setPageLoaded(true);
+            }
+        });
+        
+        // Players fetch their manifests here, never through the download listener
+        interceptors.addRequestInterceptor(STAGE_MEDIA_DETECTION, (view, request) -> {
+            downloadHandler.observeRequest(request.getUrl().toString());
+            return null;
+        });
+        
+        // Serve fingerprinted scripts, styles, fonts and images from disk, off until a cache is set
+        interceptors.addRequestInterceptor(STAGE_STATIC_CACHE, (view, request) -> {
+            StaticResourceCache cache = staticResourceCache;
+            return cache != null ? cache.intercept(request, userAgent, cachePageUrl) : null;
+        });
+        interceptors.addPageLifecycleObserver(STAGE_STATIC_CACHE, new PageLifecycleObserver() {
             @Override
-            public boolean shouldOverrideUrlLoading(WebView view, WebResourceRequest request) {
-                // Check if navigation should be blocked
-                return redirectProtection.shouldBlockNavigation(request);
+            public void onPageStarted(WebView view, String url) {
+                cachePageUrl = url;
             }
         });
+        interceptors.setStageEnabled(STAGE_STATIC_CACHE, false);
+        
+        // Check if navigation should be blocked
+        interceptors.addNavigationInterceptor(STAGE_REDIRECT_PROTECTION, (view, request) -> {
+            BlockReason reason = redirectProtection.matchNavigation(request);
+            if (reason == null) return false;
+            networkInspector.annotate(reason, null);
+            return true;
+        });
+        
+        // Stop known-bad landing pages before anything loads; runs on the UI thread, so
+        // CNAME chains come from the cache only
+        interceptors.addNavigationInterceptor(STAGE_NAVIGATION_BLOCKLIST, (view, request) -> {
+            if (!request.isForMainFrame()) return false;
+            RuleMatch match = adBlocker.matchNavigation(request);
+            if (match == null) return false;
+            networkInspector.annotate(match.getReason(), match.getRuleId());
+            if (navigationBlockedListener != null) {
+                navigationBlockedListener.onNavigationBlocked(request.getUrl().toString(), match.describe());
+            }
+            return true;
+        });
+        
+        // Send top-level navigations to their URL without tracking parameters, in place of
+        // the original one and with its headers and referrer
+        interceptors.addNavigationInterceptor(STAGE_TRACKING_PARAMETERS, (view, request) -> {
+            if (!request.isForMainFrame() || !"GET".equalsIgnoreCase(request.getMethod())) return false;
+            String cleanUrl = privacyEnhancement.stripTrackingParameters(request.getUrl().toString());
+            if (cleanUrl == null) return false;
+            networkInspector.annotate(BlockReason.TRACKING_PARAMETERS, null);
+            view.loadUrl(cleanUrl, PrivacyEnhancementComponent.navigationHeaders(request, view.getUrl()));
+            return true;
+        });
+        
+        // Pick the cache mode for link navigations and remember when pages were fresh
+        interceptors.addNavigationInterceptor(STAGE_CACHE_POLICY, (view, request) -> {
+            if (request.isForMainFrame()) {
+                applyCachePolicy(request.getUrl().toString(), CachePolicy.NavigationIntent.NAVIGATE);
+            }
+            return false;
+        });
+        interceptors.addPageLifecycleObserver(STAGE_CACHE_POLICY, new PageLifecycleObserver() {
+            @Override
+            public void onPageFinished(WebView view, String url) {
+                cachePolicy.recordPageLoaded(url);
+                // A cache-first mode picked for the navigation must not outlive it
+                getSettings().setCacheMode(cachePolicy.getIdleCacheMode());
+            }
+        });
+        
+        // Measure each page load, only while a metrics listener is set
+        interceptors.addPageLifecycleObserver(STAGE_PAGE_METRICS, new PageLifecycleObserver() {
+            @Override
+            public void onPageStarted(WebView view, String url) {
+                pageMetrics.onPageStarted(view);
+            }
+            
+            @Override
+            public void onPageFinished(WebView view, String url) {
+                pageMetrics.onPageFinished(view);
+            }
+        });
+        
+        for (InterceptorPipeline.StageStats stage : interceptors.getStageStats()) {
+            builtInStages.add(stage.getName());
+        }
+        interceptors.setDecisionObserver(networkInspector);
+        pipelineClient = interceptors.createWebViewClient();
+        pipelineClient.setRenderProcessGoneListener((view, crashed) -> handleRenderProcessGone(crashed));
+        super.setWebViewClient(pipelineClient);
     }
     
+    /**
+     * Set a client that runs after the interceptor pipeline. Unlike a plain WebView,
+     * this keeps ad blocking and redirect protection active.
+     * @param client the app's client, or null to remove it
+     */
+    @Override
+    public void setWebViewClient(WebViewClient client) {
+        if (pipelineClient == null) {
+            super.setWebViewClient(client);
+        } else {
+            pipelineClient.setDelegate(client);
+        }
+    }
+    
+    @Override
+    public void loadUrl(String url) {
+        if (isNavigationBlocked(url)) return;
+        applyCachePolicy(url, CachePolicy.NavigationIntent.NAVIGATE);
+        super.loadUrl(url);
+    }
+    
+    @Override
+    public void loadUrl(String url, Map<String, String> additionalHttpHeaders) {
+        if (isNavigationBlocked(url)) return;
+        applyCachePolicy(url, CachePolicy.NavigationIntent.NAVIGATE);
+        super.loadUrl(url, additionalHttpHeaders);
+    }
+    
+    /**
+     * Typed and bookmarked URLs never reach shouldOverrideUrlLoading, so the
+     * navigation blocklist is checked here too, from the CNAME cache only
+     */
+    private boolean isNavigationBlocked(String url) {
+        if (url == null || !interceptors.isStageEnabled(STAGE_NAVIGATION_BLOCKLIST)) return false;
+        Uri uri = Uri.parse(url);
+        if (!"http".equals(uri.getScheme()) && !"https".equals(uri.getScheme())) return false;
+        RuleMatch match = adBlocker.matchNavigation(uri);
+        if (match == null) return false;
+        if (navigationBlockedListener != null) {
+            navigationBlockedListener.onNavigationBlocked(url, match.describe());
+        }
+        return true;
+    }
+    
+    @Override
+    public void reload() {
+        applyCachePolicy(getUrl(), CachePolicy.NavigationIntent.RELOAD);
+        super.reload();
+    }
+    
+    @Override
+    public void goBack() {
+        applyCachePolicy(null, CachePolicy.NavigationIntent.BACK_FORWARD);
+        super.goBack();
+    }
+    
+    @Override
+    public void goForward() {
+        applyCachePolicy(null, CachePolicy.NavigationIntent.BACK_FORWARD);
+        super.goForward();
+    }
+    
+    @Override
+    public void goBackOrForward(int steps) {
+        applyCachePolicy(null, CachePolicy.NavigationIntent.BACK_FORWARD);
+        super.goBackOrForward(steps);
+    }
+    
+    /**
+     * Set the cache mode for the navigation about to start
+     */
+    private void applyCachePolicy(@Nullable String url, CachePolicy.NavigationIntent intent) {
+        // WebView's constructor may navigate before init has run
+        if (cachePolicy == null || !interceptors.isStageEnabled(STAGE_CACHE_POLICY)) return;
+        getSettings().setCacheMode(cachePolicy.resolve(url, intent));
+    }
+
     /**
      * Sets up the WebChromeClient for handling JavaScript dialogs and progress
      */
@@ -171,8 +474,124 @@ public class NextWebView extends WebView {
         setDownloadListener(downloadHandler.getDownloadListener());
     }
 
+    /**
+     * Registers the JavaScript bridges used by injected scripts to report back
+     */
+    private void setupJavascriptBridges() {
+        addJavascriptInterface(redirectProtection.getJavascriptBridge(),
+                RedirectProtectionComponent.BRIDGE_NAME);
+        addJavascriptInterface(pageMetrics.getJavascriptBridge(), PageMetricsComponent.BRIDGE_NAME);
+        downloadHandler.attachWebView(this);
+    }
+
     // Public API methods
 
+    /**
+     * Add a stage that sees every request after the built-in stages
+     * @param name unique stage name, used to enable, disable or remove it
+     * @param interceptor stage to add, called on the WebView's IO threads
+     */
+    public void addRequestInterceptor(String name, RequestInterceptor interceptor) {
+        interceptors.addRequestInterceptor(name, interceptor);
+    }
+    
+    /**
+     * Add a stage that sees navigations after the built-in stages
+     * @param name unique stage name
+     * @param interceptor stage to add, return true from it to cancel the navigation
+     */
+    public void addNavigationInterceptor(String name, NavigationInterceptor interceptor) {
+        interceptors.addNavigationInterceptor(name, interceptor);
+    }
+    
+    /**
+     * Add an observer for page started and finished events
+     * @param name unique stage name
+     * @param observer observer to add
+     */
+    public void addPageLifecycleObserver(String name, PageLifecycleObserver observer) {
+        interceptors.addPageLifecycleObserver(name, observer);
+    }
+    
+    /**
+     * Remove a pipeline stage, including built-in ones
+     * @param name stage name
+     * @return true if a stage was removed
+     */
+    public boolean removePipelineStage(String name) {
+        return interceptors.removeStage(name);
+    }
+    
+    /**
+     * Enable or disable a pipeline stage, disabled stages are skipped entirely
+     * @param name stage name, e.g. one of the STAGE_ constants
+     * @param enabled whether the stage runs
+     * @return true if the stage exists
+     */
+    public boolean setPipelineStageEnabled(String name, boolean enabled) {
+        return interceptors.setStageEnabled(name, enabled);
+    }
+    
+    /**
+     * Get counters and latency histograms of every NextWebView in the process,
+     * e.g. getMetricsSnapshot().toJson() for an export
+     * @return snapshot of the shared MetricsRegistry
+     */
+    public static MetricsRegistry.Snapshot getMetricsSnapshot() {
+        return MetricsRegistry.getInstance().snapshot();
+    }
+    
+    /**
+     * Get call counts and time spent per pipeline stage
+     * @return stats of every stage in pipeline order
+     */
+    public List<InterceptorPipeline.StageStats> getPipelineStats() {
+        return interceptors.getStageStats();
+    }
+    
+    /**
+     * Reset the pipeline timing counters
+     */
+    public void resetPipelineStats() {
+        interceptors.resetStageStats();
+    }
+
+    /**
+     * Get the policy that picks the cache mode per navigation
+     * @return the current cache policy
+     */
+    public CachePolicy getCachePolicy() {
+        return cachePolicy;
+    }
+    
+    /**
+     * Replace the cache policy, e.g. with a subclass that has its own rules
+     * @param policy policy to use
+     */
+    public void setCachePolicy(CachePolicy policy) {
+        cachePolicy = policy;
+    }
+    
+    /**
+     * Serve immutable static subresources through a disk cache. The cache is not
+     * closed when this view is destroyed, so one instance can back every tab.
+     * @param cache cache to use, or null to turn the cache stage off
+     */
+    public void setStaticResourceCache(@Nullable StaticResourceCache cache) {
+        staticResourceCache = cache;
+        interceptors.setStageEnabled(STAGE_STATIC_CACHE, cache != null);
+    }
+    
+    /**
+     * Get hit, miss and size counters of the static resource cache
+     * @return stats, or null if no cache is set
+     */
+    @Nullable
+    public StaticResourceCache.CacheStats getStaticResourceCacheStats() {
+        StaticResourceCache cache = staticResourceCache;
+        return cache != null ? cache.getStats() : null;
+    }
+
     /**
      * Enable/disable ad blocking
      * @param enabled true to enable ad blocking
@@ -216,6 +635,7 @@ public class NextWebView extends WebView {
 
     /**
      * Enable/disable system download manager
+     * When disabled, files are fetched by the built-in segmented downloader
      * @param enabled true to use system downloader
      */
     public void setUseSystemDownloader(boolean enabled) {
@@ -233,11 +653,153 @@ public class NextWebView extends WebView {
     }
     
     /**
-     * Enable/disable intelligent tracking prevention
+     * Enable/disable intelligent tracking prevention, off by default
+     * Blocks third-party cookies and strips tracking parameters from navigations
      * @param enabled true to enable tracking prevention
      */
     public void setIntelligentTrackingPrevention(boolean enabled) {
         privacyEnhancement.setIntelligentTrackingPrevention(enabled);
+        privacyEnhancement.applyCookiePolicy(this);
+    }
+
+    /**
+     * Set the directory the built-in downloader saves files to
+     * @param directory destination directory
+     */
+    public void setDownloadDirectory(java.io.File directory) {
+        downloadHandler.setDownloadDirectory(directory);
+    }
+    
+    /**
+     * Set how many parallel range requests the built-in downloader uses per file
+     * @param maxSegments segment count, at least 1
+     */
+    public void setMaxDownloadSegments(int maxSegments) {
+        downloadHandler.setMaxDownloadSegments(maxSegments);
+    }
+    
+    /**
+     * Queue a download on the built-in downloader
+     * @param url URL to download
+     * @param fileName file name in the download directory
+     * @param background true to use the background lane, which waits for user-initiated downloads
+     * @return id of the queued download
+     */
+    public long enqueueDownload(String url, String fileName, boolean background) {
+        return downloadHandler.enqueueDownload(url, getSettings().getUserAgentString(), fileName,
+                background ? DownloadTask.Priority.BACKGROUND : DownloadTask.Priority.USER_INITIATED);
+    }
+    
+    /**
+     * Pause a built-in download, keeping its progress
+     * @param id download id
+     * @return true if the download was paused
+     */
+    public boolean pauseDownload(long id) {
+        return downloadHandler.pauseDownload(id);
+    }
+    
+    /**
+     * Resume a paused or failed built-in download
+     * @param id download id
+     * @return true if the download was queued again
+     */
+    public boolean resumeDownload(long id) {
+        return downloadHandler.resumeDownload(id);
+    }
+    
+    /**
+     * Cancel a built-in download and delete its partial file
+     * @param id download id
+     * @return true if the download was cancelled
+     */
+    public boolean cancelDownload(long id) {
+        return downloadHandler.cancelDownload(id);
+    }
+    
+    /**
+     * Get all built-in downloads of this session
+     * @return downloads in the order they were queued
+     */
+    public List<DownloadTask> getDownloads() {
+        return downloadHandler.getDownloads();
+    }
+    
+    /**
+     * Set how many built-in downloads may run at once
+     * @param max concurrent download limit
+     */
+    public void setMaxConcurrentDownloads(int max) {
+        downloadHandler.setMaxConcurrentDownloads(max);
+    }
+    
+    /**
+     * Set how many built-in downloads may run at once against a single host
+     * @param max per-host download limit
+     */
+    public void setMaxDownloadsPerHost(int max) {
+        downloadHandler.setMaxDownloadsPerHost(max);
+    }
+    
+    /**
+     * Limit the combined bandwidth of built-in downloads, can be changed while they run
+     * @param bytesPerSecond rate limit, 0 for unlimited
+     */
+    public void setDownloadBandwidthLimit(long bytesPerSecond) {
+        downloadHandler.setDownloadBandwidthLimit(bytesPerSecond);
+    }
+    
+    /**
+     * Set listener for sniffed content types and SHA-256 hashes of built-in downloads.
+     * Both are computed while the file is written, without reading it back.
+     * @param listener the listener to use, called on download threads
+     */
+    public void setDownloadInspectedListener(OnDownloadInspectedListener listener) {
+        downloadHandler.setDownloadInspectedListener(listener);
+    }
+    
+    /**
+     * Set listener for the lifecycle of built-in downloads. Progress is throttled per
+     * download and delivered in batches, so many transfers never flood the UI thread.
+     * @param listener the listener to use, called on the main thread
+     */
+    public void setDownloadEventListener(@Nullable DownloadEventListener listener) {
+        downloadHandler.setDownloadEventListener(listener);
+    }
+    
+    /**
+     * Download an HLS or DASH stream into a single file with the built-in engine
+     * @param manifestUrl URL of the .m3u8 or .mpd manifest
+     * @param fileName file name in the download directory
+     * @return id of the queued download
+     */
+    public long downloadMedia(String manifestUrl, String fileName) {
+        return downloadHandler.enqueueMediaDownload(manifestUrl, getSettings().getUserAgentString(),
+                fileName, DownloadTask.Priority.USER_INITIATED);
+    }
+    
+    /**
+     * Get the HLS and DASH manifests the current page has requested
+     * @return manifest URLs in request order
+     */
+    public List<String> getDetectedMedia() {
+        return downloadHandler.getDetectedMedia();
+    }
+    
+    /**
+     * Set listener for HLS and DASH manifests requested by the page
+     * @param listener the listener to use, called on the WebView's IO thread
+     */
+    public void setMediaDetectedListener(OnMediaDetectedListener listener) {
+        downloadHandler.setMediaDetectedListener(listener);
+    }
+    
+    /**
+     * Resume built-in downloads interrupted by process death
+     * @return number of downloads resumed
+     */
+    public int resumeInterruptedDownloads() {
+        return downloadHandler.resumeInterruptedDownloads();
     }
 
     /**
@@ -257,16 +819,61 @@ public class NextWebView extends WebView {
     }
     
     /**
-     * Set ad blocked listener to receive notifications about blocked ads
+     * Set ad blocked listener to receive every blocked ad. Events are delivered on the
+     * main thread once per dispatch interval; use setAdBlockSummaryListener if counts suffice.
      * @param listener the ad blocked listener to use
      */
     public void setAdBlockListener(OnAdBlockedListener listener) {
         this.adBlockedListener = listener;
-        
-        // Propagate listener to components
-        adBlocker.setAdBlockListener(listener);
-        redirectProtection.setAdBlockedListener(listener);
-        securityComponent.setAdBlockedListener(listener);
+        adBlockEvents.setAdBlockedListener(listener);
+    }
+    
+    /**
+     * Receive blocked counts by reason and the running totals, on the main thread
+     * at most once per dispatch interval
+     * @param listener the summary listener to use, or null
+     */
+    public void setAdBlockSummaryListener(@Nullable OnAdBlockSummaryListener listener) {
+        adBlockEvents.setSummaryListener(listener);
+    }
+    
+    /**
+     * @param intervalMs shortest time between two deliveries of ad block events,
+     *                   {@link AdBlockEventDispatcher#DEFAULT_INTERVAL_MS} by default
+     */
+    public void setAdBlockDispatchInterval(long intervalMs) {
+        adBlockEvents.setDispatchInterval(intervalMs);
+    }
+
+    /**
+     * Receive TTFB, paint, layout shift, long task and transfer metrics of every page load,
+     * with the number of requests the ad blocker stopped during it
+     * @param listener listener called on the main thread, or null to stop measuring
+     */
+    public void setPageMetricsListener(@Nullable PageMetricsListener listener) {
+        pageMetrics.setPageMetricsListener(listener);
+    }
+    
+    /**
+     * Set listener for top-level navigations stopped by the blocklist.
+     * Called on the main thread so an interstitial can be shown directly.
+     * @param listener the navigation blocked listener to use
+     */
+    public void setNavigationBlockedListener(OnNavigationBlockedListener listener) {
+        this.navigationBlockedListener = listener;
+    }
+    
+    /**
+     * Load a blocked URL anyway and allow its host for the rest of the session
+     * @param url URL the user chose to proceed to
+     */
+    public void proceedToBlockedUrl(String url) {
+        try {
+            adBlocker.allowNavigation(new java.net.URL(url).getHost());
+        } catch (java.net.MalformedURLException e) {
+            return;
+        }
+        loadUrl(url);
     }
 
     /**
@@ -318,6 +925,24 @@ public class NextWebView extends WebView {
         return adBlocker.isBlockedDomain(domain);
     }
     
+    /**
+     * Enable detection of trackers cloaked behind first-party subdomains via CNAME.
+     * Pass null to disable.
+     * @param resolver resolver used to follow CNAME chains, e.g. {@link com.levelpixel.nextwebview.components.DnsOverHttpsCnameResolver}
+     */
+    public void setCnameResolver(@Nullable CnameResolver resolver) {
+        adBlocker.setCnameResolver(resolver);
+    }
+    
+    /**
+     * Set how long a request may wait for an uncached CNAME lookup before it is allowed.
+     * Navigation checks on the UI thread never wait.
+     * @param timeoutMs timeout in milliseconds
+     */
+    public void setCnameLookupTimeout(long timeoutMs) {
+        adBlocker.setCnameLookupTimeout(timeoutMs);
+    }
+    
     /**
      * Add a custom ad URL pattern for regex-based blocking
      * @param pattern regex pattern to match against URLs
@@ -334,6 +959,14 @@ public class NextWebView extends WebView {
         return adBlocker.getBlockedRequestCount();
     }
     
+    /**
+     * Get the number of popups and redirects blocked by the injected page script
+     * @return count of blocked script attempts
+     */
+    public int getBlockedRedirectAttemptCount() {
+        return redirectProtection.getScriptBlockedCount();
+    }
+    
     /**
      * Get the number of DOM elements hidden in this session
      * @return count of hidden elements
@@ -347,6 +980,7 @@ public class NextWebView extends WebView {
      */
     public void resetBlockStats() {
         adBlocker.resetBlockStats();
+        redirectProtection.resetScriptBlockedCount();
     }
     
     /**
@@ -354,9 +988,189 @@ public class NextWebView extends WebView {
      * Useful after settings changes
      */
     public void applyProtectionScripts() {
+        long start = System.nanoTime();
         adBlocker.injectAdBlockingScripts(this);
+        AD_BLOCK_SCRIPT_LATENCY.recordSince(start);
+        
+        start = System.nanoTime();
         redirectProtection.injectRedirectProtectionScripts(this);
+        REDIRECT_SCRIPT_LATENCY.recordSince(start);
+        
+        start = System.nanoTime();
         privacyEnhancement.applyPrivacyProtections(this);
+        PRIVACY_SCRIPT_LATENCY.recordSince(start);
+    }
+
+    /**
+     * Block with the blocklist and URL patterns of a shared component instead of a
+     * private copy, so many WebViews hold the rules in memory once
+     * @param filters component that owns the shared filter state
+     */
+    public void setSharedAdBlockFilters(AdBlockingComponent filters) {
+        adBlocker.shareFilterState(filters);
+    }
+    
+    /**
+     * Wipe page state and app callbacks so the view can be handed out again
+     */
+    void recycle() {
+        stopLoading();
+        stopFindInPage();
+        loadUrl("about:blank");
+        clearHistory();
+        clearHistoryOnPageFinished = true;
+        
+        setProgressListener(null);
+        setAdBlockListener(null);
+        setNavigationBlockedListener(null);
+        setMediaDetectedListener(null);
+        setDownloadEventListener(null);
+        setDownloadInspectedListener(null);
+        setCustomDownloadListener(null);
+        setRenderProcessGoneListener(null);
+        setPageMetricsListener(null);
+        setAdBlockSummaryListener(null);
+        resetBlockStats();
+        adBlockEvents.clear();
+        networkInspector.clear();
+        lastThumbnail = null;
+        
+        // Clients the previous user installed must not see the next user's pages
+        pipelineClient.setDelegate(null);
+        setupWebChromeClient();
+        
+        // Stages added by the previous user would clash with the next one's
+        for (InterceptorPipeline.StageStats stage : interceptors.getStageStats()) {
+            if (!builtInStages.contains(stage.getName())) {
+                interceptors.removeStage(stage.getName());
+            } else {
+                interceptors.setStageEnabled(stage.getName(), true);
+            }
+        }
+        setStaticResourceCache(null);
+        cachePolicy = new CachePolicy(getContext());
+        
+        // Settings and feature flags go back to what a new view starts with
+        javascriptEnabled = true;
+        WebSettings settings = getSettings();
+        settings.setUserAgentString(null);
+        settings.setUseWideViewPort(false);
+        settings.setLoadWithOverviewMode(false);
+        setupWebView();
+        adBlocker.setAdBlockEnabled(true);
+        adBlocker.setAggressiveAdBlockMode(false);
+        adBlocker.setCnameResolver(null);
+        adBlockEvents.setDispatchInterval(AdBlockEventDispatcher.DEFAULT_INTERVAL_MS);
+        redirectProtection.setPopupBlockEnabled(true);
+        redirectProtection.setRedirectBlockEnabled(true);
+        privacyEnhancement.setCookieBlockingEnabled(false);
+        privacyEnhancement.setIntelligentTrackingPrevention(false);
+        privacyEnhancement.applyCookiePolicy(this);
+        downloadHandler.setUseSystemDownloader(true);
+    }
+
+    @Override
+    public void onVisibilityAggregated(boolean isVisible) {
+        super.onVisibilityAggregated(isVisible);
+        shownOnScreen = isVisible;
+        updatePauseState();
+    }
+    
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        // A pooled view may have moved to another activity
+        hostPaused = hostLifecycle != null && hostLifecycle.isPaused(findActivity());
+        updatePauseState();
+    }
+    
+    @Override
+    protected void onDetachedFromWindow() {
+        shownOnScreen = false;
+        updatePauseState();
+        super.onDetachedFromWindow();
+    }
+    
+    void setHostPaused(boolean paused) {
+        hostPaused = paused;
+        updatePauseState();
+    }
+    
+    /**
+     * Pause animations and media while the view is off screen or its activity is
+     * paused, and hold back background requests until it is visible again
+     */
+    private void updatePauseState() {
+        // WebView's constructor reports visibility before init() ran
+        if (renderProcessGone || backgroundThrottle == null) return;
+        boolean pause = hostPaused || !shownOnScreen;
+        backgroundThrottle.setVisible(!pause);
+        if (pause == pausedBySelf) return;
+        pausedBySelf = pause;
+        if (pause) {
+            onPause();
+            evaluateJavascript(PAUSE_MEDIA_SCRIPT, null);
+        } else {
+            onResume();
+        }
+    }
+    
+    /**
+     * @return log of the latest requests and navigations with the pipeline's decision on each
+     */
+    public NetworkInspector getNetworkInspector() {
+        return networkInspector;
+    }
+    
+    /**
+     * @return component that holds back requests while the view is hidden
+     */
+    public BackgroundRequestThrottle getBackgroundRequestThrottle() {
+        return backgroundThrottle;
+    }
+    
+    /**
+     * Set who replaces this view when its renderer dies. Without a listener the view
+     * removes and destroys itself, so the loss does not take the app down.
+     * @param listener listener that detaches the view and builds a new one, or null
+     */
+    public void setRenderProcessGoneListener(@Nullable OnRenderProcessGoneListener listener) {
+        this.renderProcessGoneListener = listener;
+    }
+    
+    /**
+     * @return true if the renderer crashed or was killed; only destroy() may be called then
+     */
+    public boolean isRenderProcessGone() {
+        return renderProcessGone;
+    }
+    
+    private boolean handleRenderProcessGone(boolean crashed) {
+        renderProcessGone = true;
+        Log.w(TAG, crashed ? "Renderer crashed" : "Renderer was killed to reclaim memory");
+        OnRenderProcessGoneListener listener = renderProcessGoneListener;
+        if (listener != null && listener.onRenderProcessGone(this, crashed)) {
+            return true;
+        }
+        ViewParent parent = getParent();
+        if (parent instanceof ViewGroup) {
+            ((ViewGroup) parent).removeView(this);
+        }
+        destroy();
+        return true;
+    }
+    
+    @Override
+    public void destroy() {
+        if (hostLifecycle != null) {
+            hostLifecycle.unregister(this);
+        }
+        // Held requests must not keep interception threads of a dead view waiting
+        backgroundThrottle.setVisible(true);
+        adBlockEvents.clear();
+        adBlocker.release();
+        downloadHandler.release();
+        super.destroy();
     }
 
     /**
@@ -376,6 +1190,7 @@ public class NextWebView extends WebView {
         }
         
         settings.setUserAgentString(newUserAgent);
+        userAgent = newUserAgent;
         settings.setUseWideViewPort(enabled);
         settings.setLoadWithOverviewMode(enabled);
         
@@ -403,6 +1218,50 @@ public class NextWebView extends WebView {
         clearMatches();
     }
     
+    /**
+     * Capture a downscaled snapshot of the visible page. The pixels are copied from the
+     * window surface off the main thread, so only a view on screen is captured; a hidden
+     * view hands back its last thumbnail rather than rendering the page on the main thread.
+     * @param scale fraction of the view size, e.g. 0.25f
+     * @param listener receives the bitmap on the main thread, or null if none was captured yet
+     */
+    public void captureThumbnail(float scale, OnThumbnailCapturedListener listener) {
+        int width = Math.round(getWidth() * scale);
+        int height = Math.round(getHeight() * scale);
+        Activity activity = findActivity();
+        Window window = activity != null ? activity.getWindow() : null;
+        if (width <= 0 || height <= 0 || window == null || !isShown() || !isAttachedToWindow()) {
+            listener.onThumbnailCaptured(lastThumbnail);
+            return;
+        }
+        Bitmap thumbnail = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        int[] location = new int[2];
+        getLocationInWindow(location);
+        Rect source = new Rect(location[0], location[1], location[0] + getWidth(), location[1] + getHeight());
+        PixelCopy.request(window, source, thumbnail, result -> {
+            // The surface may not be ready, e.g. mid layout; the previous snapshot stands in
+            if (result == PixelCopy.SUCCESS) {
+                lastThumbnail = thumbnail;
+            }
+            listener.onThumbnailCaptured(lastThumbnail);
+        }, new Handler(Looper.getMainLooper()));
+    }
+    
+    /**
+     * @return the activity the view is shown in, looking through context wrappers
+     */
+    @Nullable
+    Activity findActivity() {
+        Context context = getContext();
+        while (context instanceof ContextWrapper) {
+            if (context instanceof Activity) {
+                return (Activity) context;
+            }
+            context = ((ContextWrapper) context).getBaseContext();
+        }
+        return null;
+    }
+    
     /**
      * Check if the WebView's URL is currently using HTTPS
      * @return true if using secure connection
@@ -0,0 +1,214 @@
+package com.levelpixel.nextwebview;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.MutableContextWrapper;
+import android.content.res.Configuration;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.SystemClock;
+import android.view.ViewGroup;
+import android.view.ViewParent;
+
+import androidx.annotation.Nullable;
+
+import com.levelpixel.nextwebview.components.AdBlockingComponent;
+
+import java.util.ArrayDeque;
+
+/**
+ * Pool of pre-built NextWebView instances so new tabs skip WebView construction
+ * and component setup. Idle instances are created while the main thread has
+ * nothing else to do and share one copy of the ad block filters.
+ * All methods must be called on the main thread.
+ */
+public class NextWebViewPool implements ComponentCallbacks2 {
+
+    // How long a memory warning keeps the pool shrunk
+    private static final long TRIM_RECOVERY_MS = 60_000;
+
+    /**
+     * Applies app settings to every new instance before it enters the pool
+     */
+    public interface Configurator {
+        void configure(NextWebView webView);
+    }
+
+    private final Context appContext;
+    private final AdBlockingComponent sharedFilters;
+    private final ArrayDeque<NextWebView> idleViews = new ArrayDeque<>();
+    private final int baseSize;
+    private Configurator configurator;
+
+    // Reduced size after onTrimMemory, restored once memory pressure has passed
+    private int trimmedSize;
+    private long trimmedAt = -1;
+
+    private boolean prewarmScheduled = false;
+    private boolean released = false;
+
+    private final MessageQueue.IdleHandler prewarmHandler = () -> {
+        // Build one instance per idle pass so input and frames are never delayed long
+        if (!released && idleViews.size() < getTargetSize()) {
+            idleViews.add(createView());
+        }
+        prewarmScheduled = !released && idleViews.size() < getTargetSize();
+        return prewarmScheduled;
+    };
+
+    /**
+     * @param context any context, the pool keeps only the application context
+     */
+    public NextWebViewPool(Context context) {
+        this.appContext = context.getApplicationContext();
+        this.baseSize = sizeForMemoryClass(appContext);
+        this.trimmedSize = baseSize;
+        this.sharedFilters = new AdBlockingComponent(appContext);
+        this.sharedFilters.loadAdBlockListFromResource(true, null);
+        appContext.registerComponentCallbacks(this);
+    }
+
+    /**
+     * Pick a pool size from the per-app heap limit
+     */
+    private static int sizeForMemoryClass(Context context) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        if (activityManager == null || activityManager.isLowRamDevice()) return 0;
+        int memoryClass = activityManager.getMemoryClass();
+        if (memoryClass <= 128) return 1;
+        if (memoryClass <= 256) return 2;
+        return 3;
+    }
+
+    /**
+     * Set a configurator for new instances and start filling the pool
+     * @param configurator settings to apply, or null for defaults
+     */
+    public void setConfigurator(@Nullable Configurator configurator) {
+        this.configurator = configurator;
+        prewarm();
+    }
+
+    /**
+     * Fill the pool in idle time on the main thread
+     */
+    public void prewarm() {
+        if (released || prewarmScheduled || idleViews.size() >= getTargetSize()) return;
+        prewarmScheduled = true;
+        Looper.myQueue().addIdleHandler(prewarmHandler);
+    }
+
+    /**
+     * Take a ready instance from the pool, or build one if the pool is empty
+     * @param context context the view is shown in, usually the activity
+     * @return a configured NextWebView showing a blank page
+     */
+    public NextWebView acquire(Context context) {
+        NextWebView webView = idleViews.poll();
+        // Idle views lose their renderer along with the visible ones
+        while (webView != null && webView.isRenderProcessGone()) {
+            webView = idleViews.poll();
+        }
+        if (webView == null) {
+            webView = createView();
+        }
+        ((MutableContextWrapper) webView.getContext()).setBaseContext(context);
+        prewarm();
+        return webView;
+    }
+
+    /**
+     * Return an instance to the pool. Its page, history and listeners are wiped;
+     * if the pool is full the instance is destroyed instead.
+     * @param webView view obtained from acquire
+     */
+    public void release(NextWebView webView) {
+        ViewParent parent = webView.getParent();
+        if (parent instanceof ViewGroup) {
+            ((ViewGroup) parent).removeView(webView);
+        }
+        if (released || idleViews.size() >= getTargetSize() || webView.isRenderProcessGone()
+                || !(webView.getContext() instanceof MutableContextWrapper)) {
+            webView.destroy();
+            return;
+        }
+        webView.recycle();
+        // Never keep an activity alive through a pooled view
+        ((MutableContextWrapper) webView.getContext()).setBaseContext(appContext);
+        idleViews.add(webView);
+    }
+
+    private NextWebView createView() {
+        NextWebView webView = new NextWebView(new MutableContextWrapper(appContext));
+        webView.setSharedAdBlockFilters(sharedFilters);
+        if (configurator != null) {
+            configurator.configure(webView);
+        }
+        return webView;
+    }
+
+    /**
+     * @return filter state shared by every pooled instance, changes apply to all of them
+     */
+    public AdBlockingComponent getSharedFilters() {
+        return sharedFilters;
+    }
+
+    public int getIdleCount() {
+        return idleViews.size();
+    }
+
+    /**
+     * @return number of idle instances the pool currently keeps
+     */
+    public int getTargetSize() {
+        if (trimmedAt >= 0 && SystemClock.elapsedRealtime() - trimmedAt > TRIM_RECOVERY_MS) {
+            trimmedAt = -1;
+            trimmedSize = baseSize;
+        }
+        return trimmedSize;
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        int size;
+        if (level >= TRIM_MEMORY_BACKGROUND || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            size = 0;
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            size = Math.min(baseSize, 1);
+        } else {
+            return;
+        }
+        trimmedSize = Math.min(trimmedSize, size);
+        trimmedAt = SystemClock.elapsedRealtime();
+        shrinkTo(trimmedSize);
+    }
+
+    @Override
+    public void onLowMemory() {
+        onTrimMemory(TRIM_MEMORY_COMPLETE);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    private void shrinkTo(int size) {
+        while (idleViews.size() > size) {
+            idleViews.poll().destroy();
+        }
+    }
+
+    /**
+     * Destroy all idle instances and stop pre-warming
+     */
+    public void shutdown() {
+        released = true;
+        Looper.myQueue().removeIdleHandler(prewarmHandler);
+        prewarmScheduled = false;
+        shrinkTo(0);
+        sharedFilters.release();
+        appContext.unregisterComponentCallbacks(this);
+    }
+}
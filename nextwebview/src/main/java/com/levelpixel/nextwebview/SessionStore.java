@@ -0,0 +1,469 @@
+package com.levelpixel.nextwebview;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+/**
+ * Tab list that survives process death. Every change is appended to a journal
+ * of CRC-checked records, which is compacted into a snapshot once it has grown;
+ * at startup the journal is replayed in one pass, stopping at the first damaged
+ * record so a crash mid-write loses at most the last change.
+ *
+ * The replay runs on a background thread. Until it is done the session reads as
+ * empty and changes are held back, then applied on top of the restored tabs; use
+ * {@link #whenReady} before reading it.
+ *
+ * One instance per process is shared through {@link #getInstance}, so activities
+ * can refer to tabs by id instead of passing the list around.
+ */
+public class SessionStore {
+    private static final String TAG = "SessionStore";
+
+    private static final int MAGIC = 0x4E575353; // "NWSS"
+    private static final int VERSION = 1;
+
+    private static final byte RECORD_OPEN = 1;
+    private static final byte RECORD_CLOSE = 2;
+    private static final byte RECORD_MOVE = 3;
+    private static final byte RECORD_NAVIGATE = 4;
+    private static final byte RECORD_SELECT = 5;
+
+    // Journal records written since the last snapshot before compacting
+    private static final int COMPACT_THRESHOLD = 256;
+    // Longer URLs, e.g. data: URLs, are not worth restoring
+    private static final int MAX_URL_BYTES = 16 * 1024;
+    private static final int MAX_RECORD_BYTES = 64 * 1024;
+
+    private static SessionStore instance;
+
+    /**
+     * A tab as recorded in the session
+     */
+    public static final class TabRecord {
+        private final long id;
+        private final String url;
+        private final String title;
+
+        TabRecord(long id, String url, String title) {
+            this.id = id;
+            this.url = url;
+            this.title = title;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+    }
+
+    private final File file;
+    private final List<TabRecord> tabs = new ArrayList<>();
+    private long selectedId = -1;
+    private long maxId = 0;
+    private int recordsSinceSnapshot = 0;
+
+    // Journal writes happen here in submission order
+    private final ExecutorService io = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "nextwebview-session");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private DataOutputStream journal;
+
+    // Set once the file has been replayed, with the callbacks and changes waiting for it
+    private boolean ready = false;
+    private final List<Runnable> readyCallbacks = new ArrayList<>();
+    private final List<Runnable> pendingChanges = new ArrayList<>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * @return the session of this process, stored in the app's files directory
+     */
+    public static synchronized SessionStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new SessionStore(new File(context.getApplicationContext().getFilesDir(),
+                    "nextwebview-session.journal"));
+        }
+        return instance;
+    }
+
+    /**
+     * Open a session file and start replaying whatever it holds in the background
+     * @param file journal file, created if missing
+     */
+    public SessionStore(File file) {
+        this.file = file;
+        io.execute(this::load);
+    }
+
+    private void load() {
+        List<TabRecord> snapshot;
+        long selected;
+        List<Runnable> callbacks;
+        synchronized (this) {
+            replay();
+            snapshot = new ArrayList<>(tabs);
+            selected = selectedId;
+            ready = true;
+            // Their journal records queue up behind the snapshot written below
+            for (Runnable change : pendingChanges) {
+                change.run();
+            }
+            pendingChanges.clear();
+            callbacks = new ArrayList<>(readyCallbacks);
+            readyCallbacks.clear();
+        }
+        // Start from a clean snapshot so a damaged tail is never appended to
+        writeSnapshot(snapshot, selected);
+        for (Runnable callback : callbacks) {
+            mainHandler.post(callback);
+        }
+    }
+
+    /**
+     * @return true once the session file has been replayed
+     */
+    public synchronized boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Run a callback on the main thread once the session file has been replayed,
+     * right away if it already has been
+     */
+    public void whenReady(Runnable callback) {
+        synchronized (this) {
+            if (!ready) {
+                readyCallbacks.add(callback);
+                return;
+            }
+        }
+        callback.run();
+    }
+
+    /**
+     * Hold a change back until the replay is done, so it applies to the restored tabs
+     * @return true if the change was held back
+     */
+    private boolean deferUntilReady(Runnable change) {
+        if (ready) return false;
+        pendingChanges.add(change);
+        return true;
+    }
+
+    public synchronized List<TabRecord> getTabs() {
+        return Collections.unmodifiableList(new ArrayList<>(tabs));
+    }
+
+    @Nullable
+    public synchronized TabRecord getTab(long id) {
+        int index = indexOf(id);
+        return index >= 0 ? tabs.get(index) : null;
+    }
+
+    /**
+     * @return id of the selected tab, or -1 if none
+     */
+    public synchronized long getSelectedId() {
+        return selectedId;
+    }
+
+    /**
+     * @return an id no recorded tab has used
+     */
+    public synchronized long nextTabId() {
+        return maxId + 1;
+    }
+
+    /**
+     * @param index position in the tab list, clamped to its size
+     */
+    public synchronized void recordOpen(long id, int index, String url, @Nullable String title) {
+        if (deferUntilReady(() -> recordOpen(id, index, url, title))) return;
+        if (indexOf(id) >= 0) return;
+        String tabUrl = url != null ? url : "";
+        int position = Math.max(0, Math.min(index, tabs.size()));
+        tabs.add(position, new TabRecord(id, tabUrl, title != null ? title : ""));
+        maxId = Math.max(maxId, id);
+        append(RECORD_OPEN, id, position, tabUrl, title);
+    }
+
+    public synchronized void recordClose(long id) {
+        if (deferUntilReady(() -> recordClose(id))) return;
+        int index = indexOf(id);
+        if (index < 0) return;
+        tabs.remove(index);
+        if (selectedId == id) {
+            selectedId = -1;
+        }
+        append(RECORD_CLOSE, id, 0, null, null);
+    }
+
+    public synchronized void recordMove(long id, int toIndex) {
+        if (deferUntilReady(() -> recordMove(id, toIndex))) return;
+        int index = indexOf(id);
+        if (index < 0) return;
+        int position = Math.max(0, Math.min(toIndex, tabs.size() - 1));
+        if (index == position) return;
+        tabs.add(position, tabs.remove(index));
+        append(RECORD_MOVE, id, position, null, null);
+    }
+
+    public synchronized void recordNavigate(long id, String url, @Nullable String title) {
+        if (deferUntilReady(() -> recordNavigate(id, url, title))) return;
+        int index = indexOf(id);
+        if (index < 0 || url == null) return;
+        TabRecord tab = tabs.get(index);
+        String newTitle = title != null ? title : tab.title;
+        if (tab.url.equals(url) && tab.title.equals(newTitle)) return;
+        tabs.set(index, new TabRecord(id, url, newTitle));
+        append(RECORD_NAVIGATE, id, 0, url, newTitle);
+    }
+
+    public synchronized void recordSelect(long id) {
+        if (deferUntilReady(() -> recordSelect(id))) return;
+        if (selectedId == id || indexOf(id) < 0) return;
+        selectedId = id;
+        append(RECORD_SELECT, id, 0, null, null);
+    }
+
+    /**
+     * Forget every tab
+     */
+    public synchronized void clear() {
+        if (deferUntilReady(this::clear)) return;
+        tabs.clear();
+        selectedId = -1;
+        compact();
+    }
+
+    private int indexOf(long id) {
+        for (int i = 0; i < tabs.size(); i++) {
+            if (tabs.get(i).id == id) return i;
+        }
+        return -1;
+    }
+
+    private void append(byte type, long id, int index, @Nullable String url, @Nullable String title) {
+        byte[] record = encode(type, id, index, url, title);
+        if (++recordsSinceSnapshot >= COMPACT_THRESHOLD) {
+            compact();
+            return;
+        }
+        io.execute(() -> {
+            try {
+                if (journal == null) {
+                    boolean fresh = file.length() == 0;
+                    journal = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+                    if (fresh) {
+                        journal.writeInt(MAGIC);
+                        journal.writeInt(VERSION);
+                    }
+                }
+                journal.write(record);
+                journal.flush();
+            } catch (IOException e) {
+                Log.w(TAG, "Could not append to session journal", e);
+                closeJournal();
+            }
+        });
+    }
+
+    /**
+     * Replace the journal with a snapshot of the current tabs
+     */
+    private void compact() {
+        recordsSinceSnapshot = 0;
+        List<TabRecord> snapshot = new ArrayList<>(tabs);
+        long selected = selectedId;
+        io.execute(() -> writeSnapshot(snapshot, selected));
+    }
+
+    private void writeSnapshot(List<TabRecord> snapshot, long selected) {
+        closeJournal();
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream fileOut = new FileOutputStream(temp)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for (int i = 0; i < snapshot.size(); i++) {
+                TabRecord tab = snapshot.get(i);
+                out.write(encode(RECORD_OPEN, tab.id, i, tab.url, tab.title));
+            }
+            if (selected >= 0) {
+                out.write(encode(RECORD_SELECT, selected, 0, null, null));
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write session snapshot", e);
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            Log.w(TAG, "Could not replace session journal");
+            temp.delete();
+        }
+    }
+
+    private void closeJournal() {
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException ignored) {
+            }
+            journal = null;
+        }
+    }
+
+    /**
+     * Record layout: payload length, payload, CRC32 of the payload.
+     * The payload is the type, tab id, index, URL and title.
+     */
+    private static byte[] encode(byte type, long id, int index, @Nullable String url, @Nullable String title) {
+        try {
+            ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream();
+            DataOutputStream payload = new DataOutputStream(payloadBytes);
+            payload.writeByte(type);
+            payload.writeLong(id);
+            payload.writeInt(index);
+            writeString(payload, url);
+            writeString(payload, title);
+            byte[] data = payloadBytes.toByteArray();
+
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(data.length + 8);
+            DataOutputStream record = new DataOutputStream(recordBytes);
+            record.writeInt(data.length);
+            record.write(data);
+            record.writeInt((int) crc.getValue());
+            return recordBytes.toByteArray();
+        } catch (IOException e) {
+            // Writing to memory does not fail
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, @Nullable String value) throws IOException {
+        byte[] bytes = value != null ? value.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        if (bytes.length > MAX_URL_BYTES) {
+            bytes = new byte[0];
+        }
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_URL_BYTES) throw new IOException("Bad string length " + length);
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Apply every intact record in order, stopping at the first damaged one
+     */
+    private void replay() {
+        if (!file.exists()) return;
+        int applied = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                Log.w(TAG, "Ignoring session file with unknown format");
+                return;
+            }
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (length <= 0 || length > MAX_RECORD_BYTES) break;
+                byte[] data = new byte[length];
+                in.readFully(data);
+                CRC32 crc = new CRC32();
+                crc.update(data);
+                if (in.readInt() != (int) crc.getValue()) break;
+                apply(new DataInputStream(new ByteArrayInputStream(data)));
+                applied++;
+            }
+        } catch (IOException e) {
+            // A record cut short by a crash, keep what was read before it
+        }
+        Log.i(TAG, "Restored " + tabs.size() + " tabs from " + applied + " records");
+    }
+
+    private void apply(DataInputStream record) throws IOException {
+        byte type = record.readByte();
+        long id = record.readLong();
+        int index = record.readInt();
+        String url = readString(record);
+        String title = readString(record);
+        int position = indexOf(id);
+        maxId = Math.max(maxId, id);
+        switch (type) {
+            case RECORD_OPEN:
+                if (position < 0) {
+                    tabs.add(Math.max(0, Math.min(index, tabs.size())), new TabRecord(id, url, title));
+                }
+                break;
+            case RECORD_CLOSE:
+                if (position >= 0) {
+                    tabs.remove(position);
+                }
+                if (selectedId == id) {
+                    selectedId = -1;
+                }
+                break;
+            case RECORD_MOVE:
+                if (position >= 0) {
+                    tabs.add(Math.max(0, Math.min(index, tabs.size() - 1)), tabs.remove(position));
+                }
+                break;
+            case RECORD_NAVIGATE:
+                if (position >= 0) {
+                    tabs.set(position, new TabRecord(id, url, title));
+                }
+                break;
+            case RECORD_SELECT:
+                if (position >= 0) {
+                    selectedId = id;
+                }
+                break;
+            default:
+                throw new IOException("Unknown record type " + type);
+        }
+    }
+}
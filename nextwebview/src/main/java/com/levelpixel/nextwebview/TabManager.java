@@ -0,0 +1,776 @@
+package com.levelpixel.nextwebview;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.ViewGroup;
+import android.view.ViewParent;
+import android.webkit.WebView;
+
+import androidx.annotation.Nullable;
+
+import com.levelpixel.nextwebview.components.ThumbnailCache;
+import com.levelpixel.nextwebview.interfaces.PageLifecycleObserver;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Keeps browser tabs as live NextWebView instances so switching tabs swaps views
+ * instead of reloading pages. At most maxLiveTabs views are kept; the least
+ * recently used tab beyond that is reduced to its saveState bundle and rebuilt
+ * with restoreState when it is selected again.
+ *
+ * Background tabs are hibernated when memory runs low or after they sat unused
+ * for a while: their state is compressed to an app-private file, their view is
+ * freed, and selecting them again restores the file in the background.
+ *
+ * With a SessionStore attached, tab changes are journaled so the tab list
+ * survives process death and other activities can work on it by tab id.
+ * A tab being hidden is captured into the shared ThumbnailCache for the tab list.
+ *
+ * When a renderer crashes or is killed, the dead view is dropped and the tab is
+ * rebuilt from the history checkpointed at its last page load.
+ * All methods must be called on the main thread.
+ */
+public class TabManager implements ComponentCallbacks2 {
+
+    // Stage each tab view uses to keep its tab's title and URL current
+    private static final String STAGE_TAB_STATE = "tab-manager";
+
+    private static final long DEFAULT_HIBERNATE_AFTER_MS = 10 * 60 * 1000;
+    private static final long IDLE_CHECK_INTERVAL_MS = 60 * 1000;
+    private static final long DEFAULT_HIBERNATION_BUDGET_BYTES = 16 * 1024 * 1024;
+    private static final float THUMBNAIL_SCALE = 0.25f;
+
+    /**
+     * Callbacks for the app's tab UI
+     */
+    public interface Listener {
+        /**
+         * A tab got a new view, either on creation or when it was restored.
+         * Apply settings and listeners here.
+         */
+        void onViewCreated(Tab tab, NextWebView webView);
+
+        /**
+         * The selected tab changed
+         * @param tab selected tab, its view is attached to the container
+         */
+        default void onTabSelected(Tab tab) {
+        }
+
+        default void onTabClosed(Tab tab) {
+        }
+
+        /**
+         * The title or URL of a tab changed
+         */
+        default void onTabUpdated(Tab tab) {
+        }
+
+        /**
+         * A tab lost its renderer and its view was discarded. The selected tab
+         * already shows a fresh view; background tabs are rebuilt when selected.
+         * @param crashed false if the system killed the renderer to reclaim memory
+         * @param goneCount renderer losses handled by this manager so far
+         * @param restoredCount tabs that kept their history, the others reload their URL
+         */
+        default void onRenderProcessGone(Tab tab, boolean crashed, int goneCount, int restoredCount) {
+        }
+    }
+
+    /**
+     * One browser tab, live or reduced to its saved state
+     */
+    public static final class Tab {
+        private final long id;
+        private String title;
+        private String url;
+        private NextWebView webView;
+        private Bundle savedState;
+        private boolean hibernated;
+        private long lastUsed;
+
+        Tab(long id, String url) {
+            this.id = id;
+            this.url = url;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        @Nullable
+        public String getTitle() {
+            return title;
+        }
+
+        @Nullable
+        public String getUrl() {
+            return url;
+        }
+
+        /**
+         * @return the live view, or null if the tab is not resident
+         */
+        @Nullable
+        public NextWebView getWebView() {
+            return webView;
+        }
+
+        public boolean isLive() {
+            return webView != null;
+        }
+
+        /**
+         * @return true if the tab's state is on disk and it has no view
+         */
+        public boolean isHibernated() {
+            return hibernated;
+        }
+    }
+
+    private final ViewGroup container;
+    private final NextWebViewPool pool;
+    private final List<Tab> tabs = new ArrayList<>();
+    private int maxLiveTabs;
+    private Listener listener;
+    private Tab currentTab;
+    private long nextId = 1;
+    private long lastSwitchNanos;
+
+    private final Context appContext;
+    private final TabStateStore stateStore;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private long hibernateAfterMs = DEFAULT_HIBERNATE_AFTER_MS;
+    private boolean idleCheckScheduled = false;
+    private final Runnable idleCheck = this::hibernateIdleTabs;
+    private SessionStore session;
+    private final ThumbnailCache thumbnails;
+    private int renderProcessGoneCount = 0;
+    private int restoredAfterGoneCount = 0;
+
+    /**
+     * @param container view group the selected tab's view is attached to
+     * @param pool pool new views are taken from and returned to, or null to build views directly
+     * @param maxLiveTabs number of tabs that keep a live view
+     */
+    public TabManager(ViewGroup container, @Nullable NextWebViewPool pool, int maxLiveTabs) {
+        this.container = container;
+        this.pool = pool;
+        this.maxLiveTabs = Math.max(1, maxLiveTabs);
+        this.appContext = container.getContext().getApplicationContext();
+        this.stateStore = new TabStateStore(new File(appContext.getFilesDir(), "nextwebview-tabs"),
+                DEFAULT_HIBERNATION_BUDGET_BYTES);
+        // A tab whose state was dropped for the budget falls back to its URL
+        this.stateStore.setEvictionListener(tabId -> {
+            Tab tab = getTab(tabId);
+            if (tab != null) {
+                tab.hibernated = false;
+            }
+        });
+        this.thumbnails = ThumbnailCache.getInstance(appContext);
+        appContext.registerComponentCallbacks(this);
+    }
+
+    public void setListener(@Nullable Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Journal tab changes to a session. If no tabs are open yet, the tabs of the
+     * session are restored; they load their last URL when first selected. Attach
+     * from {@link SessionStore#whenReady}, before that the session reads as empty.
+     * @param session session to restore from and record to
+     */
+    public void attachSession(SessionStore session) {
+        this.session = session;
+        if (!tabs.isEmpty()) {
+            // Make the session match the tabs that already exist
+            session.clear();
+            for (int i = 0; i < tabs.size(); i++) {
+                Tab tab = tabs.get(i);
+                session.recordOpen(tab.id, i, tab.url, tab.title);
+            }
+            if (currentTab != null) {
+                session.recordSelect(currentTab.id);
+            }
+            pruneStates();
+            return;
+        }
+        syncWithSession();
+    }
+
+    /**
+     * Apply tab changes another component made to the attached session: close
+     * removed tabs, add new ones, follow the order and selection
+     */
+    public void syncWithSession() {
+        if (session == null) return;
+        List<SessionStore.TabRecord> records = session.getTabs();
+        List<Tab> ordered = new ArrayList<>();
+        for (SessionStore.TabRecord record : records) {
+            Tab tab = getTab(record.getId());
+            if (tab == null) {
+                // Added elsewhere or restored, the view is built on selection from the
+                // state an earlier process hibernated, or else from the URL
+                tab = new Tab(record.getId(), record.getUrl());
+                tab.title = record.getTitle();
+                tab.hibernated = true;
+                tabs.add(tab);
+            }
+            nextId = Math.max(nextId, record.getId() + 1);
+            ordered.add(tab);
+        }
+
+        // Drop removed tabs before releasing them, so no removed tab is picked as a neighbour
+        List<Tab> removed = new ArrayList<>(tabs);
+        removed.removeAll(ordered);
+        tabs.clear();
+        tabs.addAll(ordered);
+        if (removed.contains(currentTab)) {
+            currentTab = null;
+        }
+        for (Tab tab : removed) {
+            releaseTab(tab);
+            if (listener != null) {
+                listener.onTabClosed(tab);
+            }
+        }
+
+        Tab selected = getTab(session.getSelectedId());
+        if (selected == null && currentTab == null && !tabs.isEmpty()) {
+            selected = tabs.get(tabs.size() - 1);
+        }
+        if (selected != null) {
+            selectTab(selected);
+        }
+        pruneStates();
+    }
+
+    /**
+     * Drop hibernated states of tabs the session no longer has
+     */
+    private void pruneStates() {
+        Set<Long> liveIds = new HashSet<>();
+        for (Tab tab : tabs) {
+            liveIds.add(tab.id);
+        }
+        stateStore.prune(liveIds);
+    }
+
+    /**
+     * Move a tab to another position in the tab list
+     */
+    public void moveTab(Tab tab, int toIndex) {
+        if (!tabs.remove(tab)) return;
+        toIndex = Math.max(0, Math.min(toIndex, tabs.size()));
+        tabs.add(toIndex, tab);
+        if (session != null) {
+            session.recordMove(tab.id, toIndex);
+        }
+    }
+
+    /**
+     * Open a tab and select it
+     * @param url URL to load
+     * @return the new tab
+     */
+    public Tab openTab(String url) {
+        return openTab(url, false);
+    }
+
+    /**
+     * Open a tab
+     * @param url URL to load
+     * @param background true to load it without selecting it
+     * @return the new tab
+     */
+    public Tab openTab(String url, boolean background) {
+        if (session != null) {
+            nextId = Math.max(nextId, session.nextTabId());
+        }
+        Tab tab = new Tab(nextId++, url);
+        tabs.add(tab);
+        if (session != null) {
+            session.recordOpen(tab.id, tabs.size() - 1, url, null);
+        }
+        createView(tab).loadUrl(url);
+        tab.lastUsed = SystemClock.elapsedRealtime();
+        if (background) {
+            tab.webView.onPause();
+            trimLiveTabs();
+            scheduleIdleCheck();
+        } else {
+            selectTab(tab);
+        }
+        return tab;
+    }
+
+    /**
+     * Show a tab. Resident tabs are a view swap; others are rebuilt from their saved state.
+     * @param tab tab to select
+     */
+    public void selectTab(Tab tab) {
+        if (!tabs.contains(tab)) {
+            throw new IllegalArgumentException("Tab " + tab.id + " is not managed here");
+        }
+        long start = System.nanoTime();
+        if (tab != currentTab) {
+            if (currentTab != null && currentTab.webView != null) {
+                // Still on screen, so the copy comes from the window surface
+                captureThumbnail(currentTab, null);
+                detach(currentTab.webView);
+                currentTab.webView.onPause();
+            }
+            if (tab.webView == null) {
+                restore(tab);
+            }
+            currentTab = tab;
+            tab.webView.onResume();
+            container.addView(tab.webView, new ViewGroup.LayoutParams(
+                    ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+        }
+        tab.lastUsed = SystemClock.elapsedRealtime();
+        if (session != null) {
+            session.recordSelect(tab.id);
+        }
+        trimLiveTabs();
+        scheduleIdleCheck();
+        lastSwitchNanos = System.nanoTime() - start;
+        if (listener != null) {
+            listener.onTabSelected(tab);
+        }
+    }
+
+    /**
+     * Close a tab and free its view. Closing the selected tab selects its neighbour.
+     * @param tab tab to close
+     */
+    public void closeTab(Tab tab) {
+        int index = tabs.indexOf(tab);
+        if (index < 0) return;
+        tabs.remove(index);
+        releaseTab(tab);
+        if (session != null) {
+            session.recordClose(tab.id);
+        }
+        if (listener != null) {
+            listener.onTabClosed(tab);
+        }
+        if (tab == currentTab) {
+            currentTab = null;
+            if (!tabs.isEmpty()) {
+                selectTab(tabs.get(Math.min(index, tabs.size() - 1)));
+            }
+        }
+    }
+
+    /**
+     * Free the view, saved state and thumbnail of a tab that is no longer in the list
+     */
+    private void releaseTab(Tab tab) {
+        if (tab.webView != null) {
+            detach(tab.webView);
+            releaseView(tab);
+        }
+        tab.savedState = null;
+        discardHibernatedState(tab);
+        thumbnails.remove(tab.id);
+    }
+
+    @Nullable
+    public Tab getTab(long id) {
+        for (Tab tab : tabs) {
+            if (tab.id == id) return tab;
+        }
+        return null;
+    }
+
+    /**
+     * @return tabs in the order they were opened
+     */
+    public List<Tab> getTabs() {
+        return Collections.unmodifiableList(tabs);
+    }
+
+    @Nullable
+    public Tab getCurrentTab() {
+        return currentTab;
+    }
+
+    /**
+     * @return the view of the selected tab, or null if there are no tabs
+     */
+    @Nullable
+    public NextWebView getCurrentWebView() {
+        return currentTab != null ? currentTab.webView : null;
+    }
+
+    public int getLiveTabCount() {
+        int live = 0;
+        for (Tab tab : tabs) {
+            if (tab.webView != null) live++;
+        }
+        return live;
+    }
+
+    /**
+     * Change how many tabs keep a live view, demoting tabs if there are now too many
+     */
+    public void setMaxLiveTabs(int maxLiveTabs) {
+        this.maxLiveTabs = Math.max(1, maxLiveTabs);
+        trimLiveTabs();
+    }
+
+    public int getMaxLiveTabs() {
+        return maxLiveTabs;
+    }
+
+    /**
+     * @return how long the last selectTab call took, in milliseconds
+     */
+    public double getLastSwitchMillis() {
+        return lastSwitchNanos / 1_000_000.0;
+    }
+
+    /**
+     * Snapshot a live tab into the thumbnail cache, e.g. before showing the tab list
+     * @param onCaptured run on the main thread once the cache holds the new thumbnail, may be null
+     */
+    public void captureThumbnail(Tab tab, @Nullable Runnable onCaptured) {
+        if (tab.webView == null) {
+            if (onCaptured != null) {
+                onCaptured.run();
+            }
+            return;
+        }
+        tab.webView.captureThumbnail(THUMBNAIL_SCALE, thumbnail -> {
+            if (thumbnail != null && tabs.contains(tab)) {
+                thumbnails.put(tab.id, thumbnail);
+            }
+            if (onCaptured != null) {
+                onCaptured.run();
+            }
+        });
+    }
+
+    /**
+     * @return the cache tab thumbnails are stored in, keyed by tab id
+     */
+    public ThumbnailCache getThumbnailCache() {
+        return thumbnails;
+    }
+
+    /**
+     * @return renderer crashes and kills handled so far
+     */
+    public int getRenderProcessGoneCount() {
+        return renderProcessGoneCount;
+    }
+
+    /**
+     * @return tabs that kept their history after losing their renderer
+     */
+    public int getRestoredAfterGoneCount() {
+        return restoredAfterGoneCount;
+    }
+
+    /**
+     * Close every tab and release all views
+     */
+    public void closeAll() {
+        releaseAll();
+        stateStore.clear();
+        thumbnails.clear();
+        if (session != null) {
+            session.clear();
+        }
+    }
+
+    /**
+     * Release every view and stop hibernation. The attached session keeps the
+     * tabs for the next start. The manager cannot be used afterwards.
+     */
+    public void shutdown() {
+        releaseAll();
+        handler.removeCallbacks(idleCheck);
+        idleCheckScheduled = false;
+        stateStore.shutdown();
+        appContext.unregisterComponentCallbacks(this);
+    }
+
+    private void releaseAll() {
+        for (Tab tab : tabs) {
+            if (tab.webView != null) {
+                detach(tab.webView);
+                releaseView(tab);
+            }
+            tab.savedState = null;
+        }
+        tabs.clear();
+        currentTab = null;
+    }
+
+    /**
+     * Write a background tab's state to disk and free its view and saved bundle
+     * @param tab tab to hibernate, the selected tab is never hibernated
+     * @return true if the tab is hibernated afterwards
+     */
+    public boolean hibernateTab(Tab tab) {
+        if (tab == currentTab || !tabs.contains(tab)) return false;
+        if (tab.hibernated) return true;
+        if (tab.webView != null) {
+            demote(tab);
+        }
+        Bundle state = tab.savedState;
+        tab.savedState = null;
+        if (state == null) return false;
+        stateStore.write(tab.id, state, tab.lastUsed);
+        tab.hibernated = true;
+        return true;
+    }
+
+    /**
+     * Hibernate every background tab
+     * @return number of tabs hibernated
+     */
+    public int hibernateBackgroundTabs() {
+        int count = 0;
+        for (Tab tab : new ArrayList<>(tabs)) {
+            if (tab != currentTab && !tab.hibernated && hibernateTab(tab)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param idleMs how long a background tab may sit unused before it is hibernated,
+     *               0 to hibernate only under memory pressure
+     */
+    public void setHibernateAfter(long idleMs) {
+        this.hibernateAfterMs = idleMs;
+        handler.removeCallbacks(idleCheck);
+        idleCheckScheduled = false;
+        scheduleIdleCheck();
+    }
+
+    /**
+     * @param budgetBytes disk space hibernated states may use; the least recently
+     *                    used states beyond it are dropped and those tabs reload their URL
+     */
+    public void setHibernationBudget(long budgetBytes) {
+        stateStore.setBudget(budgetBytes);
+    }
+
+    /**
+     * @return compressed bytes of hibernated state on disk
+     */
+    public long getHibernatedBytes() {
+        return stateStore.getStoredBytes();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_BACKGROUND || level == TRIM_MEMORY_RUNNING_LOW
+                || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            hibernateBackgroundTabs();
+        } else if (level == TRIM_MEMORY_RUNNING_MODERATE) {
+            // Only move saved bundles out of the heap, live tabs stay instant
+            for (Tab tab : new ArrayList<>(tabs)) {
+                if (tab.webView == null && tab.savedState != null) {
+                    hibernateTab(tab);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        onTrimMemory(TRIM_MEMORY_COMPLETE);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    private void scheduleIdleCheck() {
+        if (idleCheckScheduled || hibernateAfterMs <= 0) return;
+        idleCheckScheduled = true;
+        handler.postDelayed(idleCheck, Math.min(hibernateAfterMs, IDLE_CHECK_INTERVAL_MS));
+    }
+
+    private void hibernateIdleTabs() {
+        idleCheckScheduled = false;
+        long now = SystemClock.elapsedRealtime();
+        boolean pending = false;
+        for (Tab tab : new ArrayList<>(tabs)) {
+            if (tab == currentTab || tab.hibernated) continue;
+            if (now - tab.lastUsed >= hibernateAfterMs) {
+                hibernateTab(tab);
+            } else {
+                pending = true;
+            }
+        }
+        if (pending) {
+            scheduleIdleCheck();
+        }
+    }
+
+    private void discardHibernatedState(Tab tab) {
+        if (tab.hibernated) {
+            tab.hibernated = false;
+            stateStore.remove(tab.id);
+        }
+    }
+
+    /**
+     * Reduce least recently used background tabs to their saved state until
+     * at most maxLiveTabs views are left
+     */
+    private void trimLiveTabs() {
+        while (getLiveTabCount() > maxLiveTabs) {
+            Tab eldest = null;
+            for (Tab tab : tabs) {
+                if (tab.webView != null && tab != currentTab
+                        && (eldest == null || tab.lastUsed < eldest.lastUsed)) {
+                    eldest = tab;
+                }
+            }
+            if (eldest == null) return;
+            demote(eldest);
+        }
+    }
+
+    /**
+     * Save a tab's history and page state, then free its view
+     */
+    private void demote(Tab tab) {
+        if (tab.webView == null || tab == currentTab) return;
+        Bundle state = new Bundle();
+        if (tab.webView.saveState(state) != null) {
+            tab.savedState = state;
+        }
+        tab.url = tab.webView.getUrl() != null ? tab.webView.getUrl() : tab.url;
+        tab.title = tab.webView.getTitle() != null ? tab.webView.getTitle() : tab.title;
+        detach(tab.webView);
+        releaseView(tab);
+    }
+
+    private void restore(Tab tab) {
+        NextWebView webView = createView(tab);
+        if (tab.hibernated) {
+            // The view is shown right away and filled in once the file is read
+            tab.hibernated = false;
+            stateStore.read(tab.id, state -> {
+                stateStore.remove(tab.id);
+                if (tab.webView != webView) return;
+                if ((state == null || webView.restoreState(state) == null) && tab.url != null) {
+                    webView.loadUrl(tab.url);
+                }
+            });
+            return;
+        }
+        Bundle state = tab.savedState;
+        tab.savedState = null;
+        if (state == null || webView.restoreState(state) == null) {
+            // Nothing usable was saved, fall back to loading the last URL
+            if (tab.url != null) {
+                webView.loadUrl(tab.url);
+            }
+        }
+    }
+
+    private NextWebView createView(Tab tab) {
+        Context context = container.getContext();
+        NextWebView webView = pool != null ? pool.acquire(context) : new NextWebView(context);
+        webView.addPageLifecycleObserver(STAGE_TAB_STATE, new PageLifecycleObserver() {
+            @Override
+            public void onPageStarted(WebView view, String url) {
+                updateTab(tab, url, null);
+            }
+
+            @Override
+            public void onPageFinished(WebView view, String url) {
+                updateTab(tab, url, view.getTitle());
+                // A dead renderer cannot be asked for its history, so keep a copy
+                Bundle state = new Bundle();
+                if (view.saveState(state) != null) {
+                    tab.savedState = state;
+                }
+            }
+        });
+        webView.setRenderProcessGoneListener((view, crashed) -> {
+            recoverTab(tab, webView, crashed);
+            return true;
+        });
+        tab.webView = webView;
+        if (listener != null) {
+            listener.onViewCreated(tab, webView);
+        }
+        return webView;
+    }
+
+    /**
+     * Replace a view whose renderer is gone. The selected tab is rebuilt right away.
+     */
+    private void recoverTab(Tab tab, NextWebView deadView, boolean crashed) {
+        detach(deadView);
+        deadView.destroy();
+        if (tab.webView != deadView) return;
+        tab.webView = null;
+        renderProcessGoneCount++;
+        if (tab.savedState != null) {
+            restoredAfterGoneCount++;
+        }
+        if (tab == currentTab) {
+            currentTab = null;
+            selectTab(tab);
+        }
+        if (listener != null) {
+            listener.onRenderProcessGone(tab, crashed, renderProcessGoneCount, restoredAfterGoneCount);
+        }
+    }
+
+    private void updateTab(Tab tab, String url, @Nullable String title) {
+        if ("about:blank".equals(url)) return;
+        tab.url = url;
+        if (title != null) {
+            tab.title = title;
+            // Journal finished pages only, started ones would double the writes
+            if (session != null) {
+                session.recordNavigate(tab.id, url, title);
+            }
+        }
+        if (listener != null) {
+            listener.onTabUpdated(tab);
+        }
+    }
+
+    private void releaseView(Tab tab) {
+        NextWebView webView = tab.webView;
+        tab.webView = null;
+        if (pool != null) {
+            pool.release(webView);
+        } else {
+            webView.destroy();
+        }
+    }
+
+    private static void detach(NextWebView webView) {
+        ViewParent parent = webView.getParent();
+        if (parent instanceof ViewGroup) {
+            ((ViewGroup) parent).removeView(webView);
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package com.levelpixel.nextwebview;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Parcel;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compressed WebView state bundles of hibernated tabs, one file per tab.
+ * Files are written and read on a background thread; the oldest states are
+ * deleted when the store grows past its byte budget. Tab ids last as long as
+ * the session, so states of an earlier process are kept until {@link #prune}
+ * drops those of tabs that are gone.
+ * Public methods must be called on the main thread.
+ */
+class TabStateStore {
+    private static final String TAG = "TabStateStore";
+
+    /**
+     * Receives a restored bundle on the main thread
+     */
+    interface Callback {
+        void onStateLoaded(@Nullable Bundle state);
+    }
+
+    /**
+     * Told on the main thread when a state was deleted to stay within the budget
+     */
+    interface EvictionListener {
+        void onStateEvicted(long tabId);
+    }
+
+    private final File directory;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService io = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "nextwebview-tab-state");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Compressed size and last use of every stored state, main thread only
+    private final Map<Long, long[]> stored = new HashMap<>();
+    private long storedBytes = 0;
+    private long budgetBytes;
+    private EvictionListener evictionListener;
+
+    // Until the files of earlier processes are indexed, removals and pruning wait for them
+    private boolean indexed = false;
+    private final Set<Long> removedBeforeIndex = new HashSet<>();
+    private Set<Long> pendingLiveIds;
+
+    TabStateStore(File directory, long budgetBytes) {
+        this.directory = directory;
+        this.budgetBytes = budgetBytes;
+        io.execute(this::index);
+    }
+
+    /**
+     * Count the states left by earlier processes, as used before any of this one
+     */
+    private void index() {
+        directory.mkdirs();
+        Map<Long, Long> sizes = new HashMap<>();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (!name.endsWith(".state")) {
+                    // A write cut short by process death
+                    file.delete();
+                    continue;
+                }
+                try {
+                    sizes.put(Long.parseLong(name.substring(0, name.length() - 6)), file.length());
+                } catch (NumberFormatException e) {
+                    file.delete();
+                }
+            }
+        }
+        mainHandler.post(() -> {
+            indexed = true;
+            for (Map.Entry<Long, Long> file : sizes.entrySet()) {
+                long tabId = file.getKey();
+                if (stored.containsKey(tabId) || removedBeforeIndex.contains(tabId)) continue;
+                stored.put(tabId, new long[]{file.getValue(), 0});
+                storedBytes += file.getValue();
+            }
+            removedBeforeIndex.clear();
+            if (pendingLiveIds != null) {
+                prune(pendingLiveIds);
+                pendingLiveIds = null;
+            }
+            enforceBudget();
+        });
+    }
+
+    void setEvictionListener(@Nullable EvictionListener listener) {
+        this.evictionListener = listener;
+    }
+
+    void setBudget(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+        enforceBudget();
+    }
+
+    long getStoredBytes() {
+        return storedBytes;
+    }
+
+    boolean contains(long tabId) {
+        return stored.containsKey(tabId);
+    }
+
+    /**
+     * Store a tab's state. Compression and the write happen in the background.
+     * @param lastUsed when the tab was last selected, older states are evicted first
+     */
+    void write(long tabId, Bundle state, long lastUsed) {
+        byte[] raw;
+        Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeBundle(state);
+            raw = parcel.marshall();
+        } finally {
+            parcel.recycle();
+        }
+
+        remove(tabId);
+        // Size is unknown until compressed, the entry is counted once written
+        long[] entry = {0, lastUsed};
+        stored.put(tabId, entry);
+        File file = file(tabId);
+        io.execute(() -> {
+            long size = writeFile(file, raw);
+            mainHandler.post(() -> {
+                if (stored.get(tabId) != entry) return;
+                if (size < 0) {
+                    stored.remove(tabId);
+                    return;
+                }
+                entry[0] = size;
+                storedBytes += size;
+                enforceBudget();
+            });
+        });
+    }
+
+    /**
+     * Load a tab's state in the background
+     * @param callback receives the bundle, or null if nothing usable was stored
+     */
+    void read(long tabId, Callback callback) {
+        // Before the index is built, any tab may have a state from an earlier process
+        if (indexed && !stored.containsKey(tabId)) {
+            callback.onStateLoaded(null);
+            return;
+        }
+        ClassLoader classLoader = getClass().getClassLoader();
+        io.execute(() -> {
+            byte[] raw = readFile(file(tabId));
+            mainHandler.post(() -> {
+                if (raw == null) {
+                    callback.onStateLoaded(null);
+                    return;
+                }
+                Parcel parcel = Parcel.obtain();
+                try {
+                    parcel.unmarshall(raw, 0, raw.length);
+                    parcel.setDataPosition(0);
+                    callback.onStateLoaded(parcel.readBundle(classLoader));
+                } catch (RuntimeException e) {
+                    Log.w(TAG, "Discarding unreadable state of tab " + tabId, e);
+                    callback.onStateLoaded(null);
+                } finally {
+                    parcel.recycle();
+                }
+            });
+        });
+    }
+
+    void remove(long tabId) {
+        long[] entry = stored.remove(tabId);
+        if (entry == null) {
+            if (indexed) return;
+            removedBeforeIndex.add(tabId);
+        } else {
+            storedBytes -= entry[0];
+        }
+        File file = file(tabId);
+        io.execute(file::delete);
+    }
+
+    /**
+     * Delete the states of tabs that are no longer open
+     * @param liveIds ids of every open tab, e.g. all tabs of the session
+     */
+    void prune(Set<Long> liveIds) {
+        if (!indexed) {
+            pendingLiveIds = new HashSet<>(liveIds);
+            return;
+        }
+        for (Long tabId : new HashSet<>(stored.keySet())) {
+            if (!liveIds.contains(tabId)) {
+                remove(tabId);
+            }
+        }
+    }
+
+    void clear() {
+        for (Long tabId : new HashMap<>(stored).keySet()) {
+            remove(tabId);
+        }
+    }
+
+    void shutdown() {
+        io.shutdown();
+    }
+
+    /**
+     * Delete the states of the least recently used tabs until the store fits its budget
+     */
+    private void enforceBudget() {
+        while (storedBytes > budgetBytes && !stored.isEmpty()) {
+            long eldestId = -1;
+            long eldestUse = Long.MAX_VALUE;
+            for (Map.Entry<Long, long[]> entry : stored.entrySet()) {
+                if (entry.getValue()[1] < eldestUse) {
+                    eldestUse = entry.getValue()[1];
+                    eldestId = entry.getKey();
+                }
+            }
+            remove(eldestId);
+            if (evictionListener != null) {
+                evictionListener.onStateEvicted(eldestId);
+            }
+        }
+    }
+
+    private File file(long tabId) {
+        return new File(directory, tabId + ".state");
+    }
+
+    /**
+     * Compress to a temporary file and rename it, so a crash never leaves a truncated state
+     * @return compressed size, or -1 if the write failed
+     */
+    private static long writeFile(File file, byte[] raw) {
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(temp);
+            GZIPOutputStream gzip = new GZIPOutputStream(out);
+            gzip.write(raw);
+            gzip.finish();
+            out.getFD().sync();
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write " + file, e);
+            temp.delete();
+            return -1;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            return -1;
+        }
+        return file.length();
+    }
+
+    @Nullable
+    private static byte[] readFile(File file) {
+        try (InputStream in = new GZIPInputStream(new FileInputStream(file))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[16 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read " + file, e);
+            return null;
+        }
+    }
+}
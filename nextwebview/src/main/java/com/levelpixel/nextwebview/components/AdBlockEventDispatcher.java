@@ -0,0 +1,167 @@
+package com.levelpixel.nextwebview.components;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.Nullable;
+
+import com.levelpixel.nextwebview.interfaces.OnAdBlockSummaryListener;
+import com.levelpixel.nextwebview.interfaces.OnAdBlockedListener;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Collects the blocking events of one view from the threads they happen on and
+ * hands them to the app on the main thread, at most once per dispatch interval.
+ * Posting an event is a counter increment and, only while a per-event listener
+ * is set, a node in a lock-free queue; nothing blocks the interception threads.
+ */
+public class AdBlockEventDispatcher {
+
+    public static final long DEFAULT_INTERVAL_MS = 250;
+    // Never more often than once per frame
+    private static final long MIN_INTERVAL_MS = 16;
+    // Per-event callbacks beyond this many per batch are dropped, the summary still counts them
+    private static final int MAX_QUEUED_EVENTS = 256;
+
+    private static final class Event {
+        final String url;
+        final BlockReason reason;
+        final String detail;
+
+        Event(String url, BlockReason reason, @Nullable String detail) {
+            this.url = url;
+            this.reason = reason;
+            this.detail = detail;
+        }
+    }
+
+    private final AdBlockingComponent adBlocker;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable drainTask = this::drain;
+    private final ConcurrentLinkedQueue<Event> events = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queuedEvents = new AtomicInteger();
+    private final AtomicIntegerArray counts = new AtomicIntegerArray(BlockReason.values().length);
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile long intervalMs = DEFAULT_INTERVAL_MS;
+    private volatile OnAdBlockedListener eventListener;
+    private volatile OnAdBlockSummaryListener summaryListener;
+
+    // Totals in the previous dispatch, main thread only
+    private int deliveredRequests = 0;
+    private int deliveredElements = 0;
+
+    /**
+     * @param adBlocker component whose request and element totals are reported
+     */
+    public AdBlockEventDispatcher(AdBlockingComponent adBlocker) {
+        this.adBlocker = adBlocker;
+    }
+
+    /**
+     * @param listener receives every event, followed by the stats, in each dispatch
+     */
+    public void setAdBlockedListener(@Nullable OnAdBlockedListener listener) {
+        this.eventListener = listener;
+    }
+
+    /**
+     * @param listener receives one summary per dispatch
+     */
+    public void setSummaryListener(@Nullable OnAdBlockSummaryListener listener) {
+        this.summaryListener = listener;
+    }
+
+    /**
+     * @param intervalMs shortest time between two dispatches, at least one frame
+     */
+    public void setDispatchInterval(long intervalMs) {
+        this.intervalMs = Math.max(MIN_INTERVAL_MS, intervalMs);
+    }
+
+    /**
+     * Report a blocked request, navigation or dialog. Safe on any thread.
+     * @param detail what matched, e.g. a CNAME target or dialog message, or null
+     */
+    public void post(String url, BlockReason reason, @Nullable String detail) {
+        if (eventListener == null && summaryListener == null) return;
+        counts.incrementAndGet(reason.ordinal());
+        if (eventListener != null) {
+            if (queuedEvents.incrementAndGet() <= MAX_QUEUED_EVENTS) {
+                events.offer(new Event(url, reason, detail));
+            } else {
+                queuedEvents.decrementAndGet();
+            }
+        }
+        schedule();
+    }
+
+    /**
+     * Report that the ad blocker's totals changed. Safe on any thread.
+     */
+    public void statsChanged() {
+        if (eventListener == null && summaryListener == null) return;
+        schedule();
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            mainHandler.postDelayed(drainTask, intervalMs);
+        }
+    }
+
+    private void drain() {
+        // Events posted from here on schedule the next dispatch
+        scheduled.set(false);
+        int[] batch = new int[counts.length()];
+        boolean blocked = false;
+        for (int i = 0; i < batch.length; i++) {
+            batch[i] = counts.getAndSet(i, 0);
+            blocked |= batch[i] > 0;
+        }
+
+        int requests = adBlocker.getBlockedRequestCount();
+        int elements = adBlocker.getHiddenElementCount();
+        boolean statsChanged = requests != deliveredRequests || elements != deliveredElements;
+        // Totals start over when the stats are reset
+        int newRequests = requests >= deliveredRequests ? requests - deliveredRequests : requests;
+        int newElements = elements >= deliveredElements ? elements - deliveredElements : elements;
+        deliveredRequests = requests;
+        deliveredElements = elements;
+
+        OnAdBlockedListener listener = eventListener;
+        Event event;
+        while ((event = events.poll()) != null) {
+            queuedEvents.decrementAndGet();
+            if (listener != null) {
+                listener.onAdBlocked(event.url, event.reason, event.detail);
+            }
+        }
+        if (listener != null && statsChanged) {
+            listener.onAdBlockStats(requests, elements);
+        }
+
+        OnAdBlockSummaryListener summary = summaryListener;
+        if (summary != null && (blocked || statsChanged)) {
+            summary.onAdBlockSummary(new AdBlockSummary(batch, requests, elements, newRequests, newElements));
+        }
+    }
+
+    /**
+     * Drop pending events and forget the delivered totals, e.g. after the stats were reset
+     */
+    public void clear() {
+        mainHandler.removeCallbacks(drainTask);
+        scheduled.set(false);
+        events.clear();
+        queuedEvents.set(0);
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        deliveredRequests = 0;
+        deliveredElements = 0;
+    }
+}
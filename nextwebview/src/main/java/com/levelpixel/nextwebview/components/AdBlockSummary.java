@@ -0,0 +1,94 @@
+package com.levelpixel.nextwebview.components;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Blocking activity of one view since the previous summary, with its running totals
+ */
+public class AdBlockSummary {
+    private static final BlockReason[] REASONS = BlockReason.values();
+
+    private final int[] counts;
+    private final int eventCount;
+    private final int requestsBlocked;
+    private final int elementsHidden;
+    private final int newlyBlockedRequests;
+    private final int newlyHiddenElements;
+
+    AdBlockSummary(int[] counts, int requestsBlocked, int elementsHidden,
+                   int newlyBlockedRequests, int newlyHiddenElements) {
+        this.counts = counts;
+        int total = 0;
+        for (int count : counts) {
+            total += count;
+        }
+        this.eventCount = total;
+        this.requestsBlocked = requestsBlocked;
+        this.elementsHidden = elementsHidden;
+        this.newlyBlockedRequests = newlyBlockedRequests;
+        this.newlyHiddenElements = newlyHiddenElements;
+    }
+
+    /**
+     * @return events with the given reason since the previous summary
+     */
+    public int getCount(BlockReason reason) {
+        return counts[reason.ordinal()];
+    }
+
+    /**
+     * @return event counts by reason since the previous summary, without zero counts
+     */
+    public Map<BlockReason, Integer> getCounts() {
+        Map<BlockReason, Integer> map = new EnumMap<>(BlockReason.class);
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                map.put(REASONS[i], counts[i]);
+            }
+        }
+        return Collections.unmodifiableMap(map);
+    }
+
+    /**
+     * @return requests, navigations and dialogs blocked since the previous summary
+     */
+    public int getEventCount() {
+        return eventCount;
+    }
+
+    /**
+     * @return requests the ad blocker stopped since its stats were last reset
+     */
+    public int getRequestsBlocked() {
+        return requestsBlocked;
+    }
+
+    /**
+     * @return page elements hidden since the stats were last reset
+     */
+    public int getElementsHidden() {
+        return elementsHidden;
+    }
+
+    /**
+     * @return requests the ad blocker stopped since the previous summary
+     */
+    public int getNewlyBlockedRequests() {
+        return newlyBlockedRequests;
+    }
+
+    /**
+     * @return page elements hidden since the previous summary
+     */
+    public int getNewlyHiddenElements() {
+        return newlyHiddenElements;
+    }
+
+    @Override
+    public String toString() {
+        return eventCount + " blocked " + getCounts() + ", " + requestsBlocked + " requests and "
+                + elementsHidden + " elements in total";
+    }
+}
@@ -1,6 +1,7 @@
 package com.levelpixel.nextwebview.components;
 
 import android.content.Context;
+import android.net.Uri;
 import android.util.Log;
 import android.webkit.WebResourceRequest;
 import android.webkit.WebResourceResponse;
@@ -9,6 +10,7 @@ import android.webkit.WebView;
 import androidx.annotation.Nullable;
 
 import com.levelpixel.nextwebview.R;
+import com.levelpixel.nextwebview.interfaces.CnameResolver;
 import com.levelpixel.nextwebview.interfaces.OnAdBlockedListener;
 
 import java.io.BufferedReader;
@@ -16,12 +18,14 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
 /**
@@ -30,22 +34,48 @@ import java.util.regex.Pattern;
 public class AdBlockingComponent {
     private static final String TAG = "AdBlockingComponent";
     
+    // Time spent in each rule category, and how often each one matched
+    private static final MetricsRegistry METRICS = MetricsRegistry.getInstance();
+    private static final MetricsRegistry.Histogram DOMAIN_RULE_LATENCY = METRICS.histogram("adblock.rule.domain-blocklist");
+    private static final MetricsRegistry.Histogram PATTERN_RULE_LATENCY = METRICS.histogram("adblock.rule.url-pattern");
+    private static final MetricsRegistry.Histogram CNAME_RULE_LATENCY = METRICS.histogram("adblock.rule.cname-uncloaking");
+    private static final MetricsRegistry.Histogram PIXEL_RULE_LATENCY = METRICS.histogram("adblock.rule.tracking-pixel");
+    private static final MetricsRegistry.Counter DOMAIN_RULE_MATCHES = METRICS.counter("adblock.match.domain-blocklist");
+    private static final MetricsRegistry.Counter PATTERN_RULE_MATCHES = METRICS.counter("adblock.match.url-pattern");
+    private static final MetricsRegistry.Counter CNAME_RULE_MATCHES = METRICS.counter("adblock.match.cname-uncloaking");
+    private static final MetricsRegistry.Counter PIXEL_RULE_MATCHES = METRICS.counter("adblock.match.tracking-pixel");
+
+    // Substrings checked before the regex patterns
+    private static final String[] BASIC_AD_PATTERNS = {
+            "/ad/", "/ads/", "pop-under", "popunder", "click.php", "track.php",
+            "banner.", "analytics.", "tracker."
+    };
+    private static final String TRACKING_PIXEL_RULE = "aggressive:tracking-pixel";
+
     // Set to store domains that should be blocked
-    private Set<String> adBlockList;
+    private volatile Set<String> adBlockList;
     
     // Pattern-based blocking for more sophisticated detection
-    private List<Pattern> adUrlPatterns;
+    private volatile List<Pattern> adUrlPatterns;
+    
+    // Optional CNAME uncloaking stage, null when disabled
+    private volatile CnameUncloakingComponent cnameUncloaker;
+    // Kept for uncloakers created later, -1 for the uncloaker's default
+    private volatile long cnameLookupTimeoutMs = -1;
+    
+    // Hosts the user explicitly chose to visit despite the blocklist
+    private final Set<String> allowedNavigationHosts = ConcurrentHashMap.newKeySet();
     
-    // Tracking stats
-    private int requestsBlocked = 0;
+    // Tracking stats, requests are counted on the WebView IO threads
+    private final AtomicInteger requestsBlocked = new AtomicInteger();
     private int elementsHidden = 0;
     
     // Control flags
     private boolean adBlockEnabled = true;
     private boolean aggressiveAdBlockMode = false;
     
-    // Listener for ad blocking events
-    private OnAdBlockedListener adBlockedListener;
+    // Hands blocking events to the app on the main thread
+    private volatile AdBlockEventDispatcher eventDispatcher;
     
     private Context context;
     
@@ -121,11 +151,22 @@ public class AdBlockingComponent {
 
     public AdBlockingComponent(Context context) {
         this.context = context;
-        this.adBlockList = new HashSet<>();
-        this.adUrlPatterns = new ArrayList<>();
+        // Concurrent so one filter state can be shared by every pooled WebView
+        this.adBlockList = ConcurrentHashMap.newKeySet();
+        this.adUrlPatterns = new CopyOnWriteArrayList<>();
         initializeAdPatterns();
     }
     
+    /**
+     * Use the blocklist and URL patterns of another component instead of a private copy.
+     * Domains and patterns added to either component apply to both.
+     * @param source component that owns the filter state
+     */
+    public void shareFilterState(AdBlockingComponent source) {
+        this.adBlockList = source.adBlockList;
+        this.adUrlPatterns = source.adUrlPatterns;
+    }
+    
     /**
      * Initialize regex patterns for advanced ad detection
      */
@@ -151,6 +192,15 @@ public class AdBlockingComponent {
         }
     }
     
+    /**
+     * Context a URL is evaluated in. Documents are top-level navigations,
+     * subresources are everything a page loads
+     */
+    public enum RuleContext {
+        DOCUMENT,
+        SUBRESOURCE
+    }
+    
     /**
      * Check if a request should be blocked
      * 
@@ -159,50 +209,234 @@ public class AdBlockingComponent {
      */
     @Nullable
     public WebResourceResponse processRequest(WebResourceRequest request) {
+        RuleMatch match = matchRequest(request);
+        if (match == null) {
+            return null; // Not blocked
+        }
+        return blockRequest(request, match);
+    }
+    
+    /**
+     * Find the rule that blocks a request without blocking it
+     * 
+     * @param request WebResourceRequest to check
+     * @return the matching rule, or null if the request may load
+     */
+    @Nullable
+    public RuleMatch matchRequest(WebResourceRequest request) {
         if (!adBlockEnabled) {
             return null;
         }
         
-        String url = request.getUrl().toString().toLowerCase();
         String host = request.getUrl().getHost();
+        RuleContext ruleContext = request.isForMainFrame() ? RuleContext.DOCUMENT : RuleContext.SUBRESOURCE;
+        if (ruleContext == RuleContext.DOCUMENT && isNavigationAllowed(host)) {
+            return null;
+        }
+        
+        return matchRule(request.getUrl().toString().toLowerCase(), host, ruleContext, true);
+    }
+    
+    /**
+     * Count a request matched by {@link #matchRequest} as blocked
+     * 
+     * @return the empty response to serve instead
+     */
+    public WebResourceResponse blockRequest(WebResourceRequest request, RuleMatch match) {
+        recordBlockedRequest(request.getUrl().toString().toLowerCase(), match);
+        return createEmptyResponse();
+    }
+    
+    /**
+     * Check a top-level navigation against the blocklist before any page load starts
+     * 
+     * @param request WebResourceRequest for the navigation
+     * @return the block reason if the navigation should be stopped, null otherwise
+     */
+    @Nullable
+    public String checkNavigation(WebResourceRequest request) {
+        RuleMatch match = matchNavigation(request);
+        return match != null ? match.describe() : null;
+    }
+    
+    /**
+     * Same as {@link #checkNavigation}, with the rule that matched
+     * 
+     * @param request WebResourceRequest for the navigation
+     * @return the matching rule if the navigation should be stopped, null otherwise
+     */
+    @Nullable
+    public RuleMatch matchNavigation(WebResourceRequest request) {
+        return matchNavigation(request.getUrl());
+    }
+    
+    /**
+     * Same as {@link #matchNavigation(WebResourceRequest)}, for a URL loaded
+     * directly, e.g. typed or from a bookmark
+     * 
+     * @param uri URL of the navigation
+     * @return the matching rule if the navigation should be stopped, null otherwise
+     */
+    @Nullable
+    public RuleMatch matchNavigation(Uri uri) {
+        if (!adBlockEnabled) {
+            return null;
+        }
+        
+        String host = uri.getHost();
+        if (isNavigationAllowed(host)) {
+            return null;
+        }
         
+        String url = uri.toString().toLowerCase();
+        // Navigations are checked on the UI thread, where a CNAME lookup must not be awaited
+        RuleMatch match = matchRule(url, host, RuleContext.DOCUMENT, false);
+        if (match != null) {
+            recordBlockedRequest(url, match);
+        }
+        return match;
+    }
+    
+    /**
+     * Allow top-level navigations to a host for the rest of the session,
+     * e.g. after the user chose to proceed from an interstitial
+     * @param host host to allow
+     */
+    public void allowNavigation(String host) {
+        if (host != null) {
+            allowedNavigationHosts.add(host.toLowerCase());
+        }
+    }
+    
+    private boolean isNavigationAllowed(@Nullable String host) {
+        return host != null && !allowedNavigationHosts.isEmpty()
+                && allowedNavigationHosts.contains(host.toLowerCase());
+    }
+    
+    /**
+     * Run the domain and URL rules against a request
+     * 
+     * @param url lower-cased URL
+     * @param host request host, may be null
+     * @param ruleContext whether the URL is a document or a subresource
+     * @param awaitCname whether a cold CNAME lookup may be waited for, false on the UI thread
+     * @return the matching rule, or null if no rule matched
+     */
+    @Nullable
+    private RuleMatch matchRule(String url, @Nullable String host, RuleContext ruleContext, boolean awaitCname) {
         // First check our domain blacklist
-        if (host != null && adBlockList.contains(host)) {
-            requestsBlocked++;
-            if (adBlockedListener != null) {
-                adBlockedListener.onAdBlocked(url, "Domain in blocklist");
-                adBlockedListener.onAdBlockStats(requestsBlocked, elementsHidden);
-            }
-            return createEmptyResponse();
+        long start = System.nanoTime();
+        boolean domainBlocked = host != null && adBlockList.contains(host.toLowerCase());
+        DOMAIN_RULE_LATENCY.recordSince(start);
+        if (domainBlocked) {
+            DOMAIN_RULE_MATCHES.increment();
+            return new RuleMatch(BlockReason.DOMAIN_BLOCKLIST, host.toLowerCase());
         }
 
         // Check for ad patterns in URL
-        if (matchesAdPattern(url)) {
-            requestsBlocked++;
-            if (adBlockedListener != null) {
-                adBlockedListener.onAdBlocked(url, "Matches ad pattern");
-                adBlockedListener.onAdBlockStats(requestsBlocked, elementsHidden);
+        start = System.nanoTime();
+        String adPattern = findAdPattern(url);
+        PATTERN_RULE_LATENCY.recordSince(start);
+        if (adPattern != null) {
+            PATTERN_RULE_MATCHES.increment();
+            return new RuleMatch(BlockReason.URL_PATTERN, adPattern);
+        }
+        
+        // Follow the CNAME chain of hosts that passed the direct check
+        CnameUncloakingComponent uncloaker = cnameUncloaker;
+        if (uncloaker != null && host != null) {
+            start = System.nanoTime();
+            String cloakedTarget = awaitCname
+                    ? uncloaker.findBlockedTarget(host.toLowerCase(), this::isHostOrParentBlocked)
+                    : uncloaker.findCachedBlockedTarget(host.toLowerCase(), this::isHostOrParentBlocked);
+            CNAME_RULE_LATENCY.recordSince(start);
+            if (cloakedTarget != null) {
+                CNAME_RULE_MATCHES.increment();
+                return new RuleMatch(BlockReason.CNAME_CLOAKED, cloakedTarget);
             }
-            return createEmptyResponse();
         }
         
-        // Additional checks for aggressive mode
-        if (aggressiveAdBlockMode) {
+        // Additional checks for aggressive mode, only meaningful for subresources
+        if (aggressiveAdBlockMode && ruleContext == RuleContext.SUBRESOURCE) {
             // Check for suspicious file types often used in ads
-            if (url.endsWith(".gif") || url.contains("beacon") || url.contains("pixel")) {
-                // Check dimensions - tracking pixels are usually small
-                if (url.contains("1x1") || url.contains("pixel.gif")) {
-                    requestsBlocked++;
-                    if (adBlockedListener != null) {
-                        adBlockedListener.onAdBlocked(url, "Tracking pixel detected");
-                        adBlockedListener.onAdBlockStats(requestsBlocked, elementsHidden);
-                    }
-                    return createEmptyResponse();
-                }
+            start = System.nanoTime();
+            boolean trackingPixel = (url.endsWith(".gif") || url.contains("beacon") || url.contains("pixel"))
+                    // Check dimensions - tracking pixels are usually small
+                    && (url.contains("1x1") || url.contains("pixel.gif"));
+            PIXEL_RULE_LATENCY.recordSince(start);
+            if (trackingPixel) {
+                PIXEL_RULE_MATCHES.increment();
+                return new RuleMatch(BlockReason.TRACKING_PIXEL, TRACKING_PIXEL_RULE);
             }
         }
         
-        return null; // Not blocked
+        return null;
+    }
+    
+    /**
+     * Check a host and each of its parent domains against the blocklist
+     */
+    private boolean isHostOrParentBlocked(String host) {
+        String candidate = host;
+        while (true) {
+            if (adBlockList.contains(candidate)) {
+                return true;
+            }
+            int dot = candidate.indexOf('.');
+            if (dot < 0 || candidate.indexOf('.', dot + 1) < 0) {
+                return false; // Stop at the registrable domain
+            }
+            candidate = candidate.substring(dot + 1);
+        }
+    }
+    
+    /**
+     * Enable CNAME uncloaking with the given resolver, or disable it with null
+     * @param resolver resolver used to follow CNAME chains
+     */
+    public void setCnameResolver(@Nullable CnameResolver resolver) {
+        CnameUncloakingComponent previous = cnameUncloaker;
+        CnameUncloakingComponent uncloaker = null;
+        if (resolver != null) {
+            uncloaker = new CnameUncloakingComponent(resolver);
+            if (cnameLookupTimeoutMs >= 0) {
+                uncloaker.setLookupTimeout(cnameLookupTimeoutMs);
+            }
+        }
+        cnameUncloaker = uncloaker;
+        if (previous != null) {
+            previous.shutdown();
+        }
+    }
+    
+    /**
+     * Set how long a request may wait for a cold CNAME lookup
+     * @param timeoutMs timeout in milliseconds
+     */
+    public void setCnameLookupTimeout(long timeoutMs) {
+        this.cnameLookupTimeoutMs = Math.max(0, timeoutMs);
+        CnameUncloakingComponent uncloaker = cnameUncloaker;
+        if (uncloaker != null) {
+            uncloaker.setLookupTimeout(cnameLookupTimeoutMs);
+        }
+    }
+    
+    /**
+     * Release background resources
+     */
+    public void release() {
+        setCnameResolver(null);
+    }
+    
+    /**
+     * Update stats and notify the listener about a blocked request
+     */
+    private void recordBlockedRequest(String url, RuleMatch match) {
+        requestsBlocked.incrementAndGet();
+        AdBlockEventDispatcher dispatcher = eventDispatcher;
+        if (dispatcher != null) {
+            dispatcher.post(url, match.getReason(), match.getDetail());
+        }
     }
     
     /**
@@ -217,8 +451,9 @@ public class AdBlockingComponent {
                 int newlyBlocked = Integer.parseInt(value);
                 elementsHidden += newlyBlocked;
                 
-                if (adBlockedListener != null && newlyBlocked > 0) {
-                    adBlockedListener.onAdBlockStats(requestsBlocked, elementsHidden);
+                AdBlockEventDispatcher dispatcher = eventDispatcher;
+                if (dispatcher != null && newlyBlocked > 0) {
+                    dispatcher.statsChanged();
                 }
             } catch (NumberFormatException e) {
                 Log.e(TAG, "Error parsing blocked elements count", e);
@@ -263,32 +498,27 @@ public class AdBlockingComponent {
     }
     
     /**
-     * Check if a URL matches any of our ad patterns
+     * Find the first of our ad patterns a URL matches
      * @param url URL to check
-     * @return true if URL matches ad pattern
+     * @return the matching substring or regex, or null if none matches
      */
-    private boolean matchesAdPattern(String url) {
+    @Nullable
+    private String findAdPattern(String url) {
         // First check basic patterns
-        if (url.contains("/ad/") ||
-                url.contains("/ads/") ||
-                url.contains("pop-under") ||
-                url.contains("popunder") ||
-                url.contains("click.php") ||
-                url.contains("track.php") ||
-                url.contains("banner.") ||
-                url.contains("analytics.") ||
-                url.contains("tracker.")) {
-            return true;
+        for (String basicPattern : BASIC_AD_PATTERNS) {
+            if (url.contains(basicPattern)) {
+                return basicPattern;
+            }
         }
         
         // Then check regex patterns
         for (Pattern pattern : adUrlPatterns) {
             if (pattern.matcher(url).matches()) {
-                return true;
+                return pattern.pattern();
             }
         }
         
-        return false;
+        return null;
     }
     
     /**
@@ -351,13 +581,13 @@ public class AdBlockingComponent {
      * Reset ad blocking statistics
      */
     public void resetBlockStats() {
-        requestsBlocked = 0;
+        requestsBlocked.set(0);
         elementsHidden = 0;
     }
     
     // Getters for stats
     public int getBlockedRequestCount() {
-        return requestsBlocked;
+        return requestsBlocked.get();
     }
     
     public int getHiddenElementCount() {
@@ -377,8 +607,24 @@ public class AdBlockingComponent {
         return adBlockEnabled;
     }
     
-    // Listener management
-    public void setAdBlockListener(OnAdBlockedListener listener) {
-        this.adBlockedListener = listener;
+    // Event dispatch
+    public void setEventDispatcher(@Nullable AdBlockEventDispatcher dispatcher) {
+        this.eventDispatcher = dispatcher;
+    }
+    
+    /**
+     * Forwards to the event dispatcher, creating one for a component used without a NextWebView.
+     * Events now arrive batched on the main thread instead of on the blocking thread.
+     * @deprecated use {@link #setEventDispatcher} and {@link AdBlockEventDispatcher#setAdBlockedListener}
+     */
+    @Deprecated
+    public synchronized void setAdBlockListener(@Nullable OnAdBlockedListener listener) {
+        AdBlockEventDispatcher dispatcher = eventDispatcher;
+        if (dispatcher == null) {
+            if (listener == null) return;
+            dispatcher = new AdBlockEventDispatcher(this);
+            eventDispatcher = dispatcher;
+        }
+        dispatcher.setAdBlockedListener(listener);
     }
 }
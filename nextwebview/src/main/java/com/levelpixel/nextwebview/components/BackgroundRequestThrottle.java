@@ -0,0 +1,237 @@
+package com.levelpixel.nextwebview.components;
+
+import android.net.Uri;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Quiets the network of a view that is not on screen. Hyperlink auditing pings
+ * are answered at once with an empty 204. Once the page has loaded, data calls
+ * that repeat an earlier URL are taken for polling and held: a held request
+ * waits on its interception thread and continues untouched, in the order it
+ * arrived, when the view becomes visible again or its maximum delay runs out.
+ *
+ * The interception threads are shared by every WebView in the process, so only
+ * two requests are held at once across all views; requests beyond that limit
+ * go out normally.
+ */
+public class BackgroundRequestThrottle {
+
+    private static final int MAX_HELD_REQUESTS = 2;
+    private static final long DEFAULT_MAX_DELAY_MS = 60_000;
+
+    // Data call URLs remembered per page to recognize polling
+    private static final int MAX_RECENT_DATA_CALLS = 64;
+
+    // Held requests of every view together
+    private static final AtomicInteger heldInProcess = new AtomicInteger();
+
+    // Accept values of fetch and XHR calls for data, as opposed to images and frames
+    private static final Pattern DATA_ACCEPT_PATTERN = Pattern.compile("json|xml|text/plain|\\*/\\*");
+    // Subresources a hidden page still needs to finish rendering
+    private static final Pattern STATIC_ASSET_PATTERN = Pattern.compile(
+            "\\.(js|mjs|css|png|jpe?g|gif|webp|avif|svg|ico|woff2?|ttf|otf|mp4|webm|m3u8|mpd|m4s|ts|mp3|aac)$");
+
+    private final ArrayDeque<CountDownLatch> held = new ArrayDeque<>();
+    private final Map<String, Boolean> recentDataCalls =
+            new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                    return size() > MAX_RECENT_DATA_CALLS;
+                }
+            };
+    private volatile boolean visible = false;
+    private volatile boolean pageLoaded = false;
+    private volatile long maxDelayMs = DEFAULT_MAX_DELAY_MS;
+
+    private final AtomicLong deferredCount = new AtomicLong();
+    private final AtomicLong answeredCount = new AtomicLong();
+    private final AtomicLong timedOutCount = new AtomicLong();
+    private final AtomicLong overflowCount = new AtomicLong();
+
+    /**
+     * Answer pings and hold polling calls while the view is hidden
+     * @return an empty 204 for pings, null for everything else, which goes on
+     * through the remaining stages, after a wait if it was held
+     */
+    @Nullable
+    public WebResourceResponse intercept(WebResourceRequest request) {
+        Kind kind = classify(request);
+        if (kind == Kind.DATA || kind == Kind.POLL) {
+            // Remembered while visible too, so the first poll after hiding is recognized
+            synchronized (recentDataCalls) {
+                recentDataCalls.put(request.getUrl().toString(), Boolean.TRUE);
+            }
+        }
+        if (visible) return null;
+        if (kind == Kind.BEACON) {
+            answeredCount.incrementAndGet();
+            return new WebResourceResponse("text/plain", "utf-8", 204, "No Content",
+                    Collections.emptyMap(), new ByteArrayInputStream(new byte[0]));
+        }
+        if (kind != Kind.POLL) return null;
+
+        CountDownLatch gate = new CountDownLatch(1);
+        synchronized (this) {
+            if (visible) return null;
+            if (heldInProcess.incrementAndGet() > MAX_HELD_REQUESTS) {
+                heldInProcess.decrementAndGet();
+                overflowCount.incrementAndGet();
+                return null;
+            }
+            held.add(gate);
+        }
+        deferredCount.incrementAndGet();
+        try {
+            if (!gate.await(maxDelayMs, TimeUnit.MILLISECONDS)) {
+                timedOutCount.incrementAndGet();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            synchronized (this) {
+                held.remove(gate);
+                heldInProcess.decrementAndGet();
+                // Wake the next request only now, so they continue in arrival order
+                if (visible && !held.isEmpty()) {
+                    held.peek().countDown();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * What the throttle does with a request while the view is hidden
+     */
+    enum Kind {
+        // Needed by the page, goes out normally
+        NONE,
+        // Hyperlink auditing ping, answered with an empty 204
+        BEACON,
+        // First data call to a URL after the load, goes out normally
+        DATA,
+        // Data call repeating an earlier URL, held until the view is visible
+        POLL
+    }
+
+    /**
+     * @return true if the request is answered or held while the view is hidden
+     */
+    public boolean isDeferrable(WebResourceRequest request) {
+        Kind kind = classify(request);
+        return kind == Kind.BEACON || kind == Kind.POLL;
+    }
+
+    Kind classify(WebResourceRequest request) {
+        if (request.isForMainFrame()) return Kind.NONE;
+        Uri uri = request.getUrl();
+        String scheme = uri.getScheme();
+        if (!"http".equals(scheme) && !"https".equals(scheme)) return Kind.NONE;
+
+        // Hyperlink auditing pings announce themselves
+        String accept = null;
+        Map<String, String> headers = request.getRequestHeaders();
+        if (headers != null) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                String name = header.getKey();
+                if ("Ping-From".equalsIgnoreCase(name) || "Ping-To".equalsIgnoreCase(name)) return Kind.BEACON;
+                if ("Accept".equalsIgnoreCase(name)) {
+                    accept = header.getValue();
+                }
+            }
+        }
+
+        // Requests while the page loads are part of the load
+        if (!pageLoaded) return Kind.NONE;
+        String path = uri.getPath() != null ? uri.getPath().toLowerCase(Locale.ROOT) : "";
+        if (STATIC_ASSET_PATTERN.matcher(path).find()) return Kind.NONE;
+        // Lazy images and subframe documents are part of the page, not background traffic
+        if (accept != null && (accept.startsWith("image/") || accept.startsWith("text/html")
+                || accept.startsWith("text/css"))) {
+            return Kind.NONE;
+        }
+        if (accept != null && !DATA_ACCEPT_PATTERN.matcher(accept).find()) return Kind.NONE;
+        // Only a URL the page fetched before is taken for polling
+        synchronized (recentDataCalls) {
+            return recentDataCalls.containsKey(uri.toString()) ? Kind.POLL : Kind.DATA;
+        }
+    }
+
+    /**
+     * Held requests continue in order when the view becomes visible
+     */
+    public void setVisible(boolean visible) {
+        synchronized (this) {
+            this.visible = visible;
+            if (visible && !held.isEmpty()) {
+                held.peek().countDown();
+            }
+        }
+    }
+
+    /**
+     * @param loaded true once the main document has finished loading
+     */
+    public void setPageLoaded(boolean loaded) {
+        this.pageLoaded = loaded;
+        if (!loaded) {
+            synchronized (recentDataCalls) {
+                recentDataCalls.clear();
+            }
+        }
+    }
+
+    /**
+     * @param maxDelayMs longest time a request is held before it goes out anyway
+     */
+    public void setMaxDelay(long maxDelayMs) {
+        this.maxDelayMs = Math.max(0, maxDelayMs);
+    }
+
+    /**
+     * @return pings answered with an empty response since creation
+     */
+    public long getAnsweredCount() {
+        return answeredCount.get();
+    }
+
+    /**
+     * @return requests held since creation
+     */
+    public long getDeferredCount() {
+        return deferredCount.get();
+    }
+
+    /**
+     * @return held requests that went out because their maximum delay ran out
+     */
+    public long getTimedOutCount() {
+        return timedOutCount.get();
+    }
+
+    /**
+     * @return polling calls that went out because too many were held in the process already
+     */
+    public long getOverflowCount() {
+        return overflowCount.get();
+    }
+
+    public synchronized int getHeldCount() {
+        return held.size();
+    }
+}
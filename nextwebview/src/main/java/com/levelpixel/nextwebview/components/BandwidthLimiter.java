@@ -0,0 +1,74 @@
+package com.levelpixel.nextwebview.components;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Token bucket shared by all downloads to cap their combined bandwidth.
+ * The rate can be changed at any time; zero means unlimited.
+ */
+public class BandwidthLimiter {
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+    private static final long MAX_WAIT_NANOS = 100_000_000L;
+
+    private volatile long bytesPerSecond;
+    private double tokens;
+    private long lastRefillNanos = System.nanoTime();
+
+    public BandwidthLimiter(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Take tokens for bytes that were just read, waiting while the bucket is in debt.
+     * A chunk larger than the bucket is allowed through and paid back afterwards.
+     *
+     * @param bytes number of bytes transferred
+     */
+    public void acquire(int bytes) throws InterruptedIOException {
+        while (true) {
+            long rate = bytesPerSecond;
+            if (rate <= 0) {
+                return;
+            }
+
+            long waitNanos;
+            synchronized (this) {
+                refill(rate);
+                if (tokens > 0) {
+                    tokens -= bytes;
+                    return;
+                }
+                waitNanos = (long) (-tokens * NANOS_PER_SECOND / rate) + 1;
+            }
+
+            // Sleep in short slices so rate changes take effect quickly
+            try {
+                long sleepNanos = Math.min(waitNanos, MAX_WAIT_NANOS);
+                Thread.sleep(sleepNanos / 1_000_000, (int) (sleepNanos % 1_000_000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while throttled");
+            }
+        }
+    }
+
+    private void refill(long rate) {
+        long now = System.nanoTime();
+        tokens = Math.min(rate, tokens + (double) (now - lastRefillNanos) * rate / NANOS_PER_SECOND);
+        lastRefillNanos = now;
+    }
+
+    /**
+     * Change the limit at runtime
+     * @param bytesPerSecond combined rate limit, 0 for unlimited
+     */
+    public synchronized void setRate(long bytesPerSecond) {
+        this.bytesPerSecond = Math.max(0, bytesPerSecond);
+        tokens = Math.min(tokens, this.bytesPerSecond);
+        lastRefillNanos = System.nanoTime();
+    }
+
+    public long getRate() {
+        return bytesPerSecond;
+    }
+}
@@ -0,0 +1,47 @@
+package com.levelpixel.nextwebview.components;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Why a request or navigation was stopped, shared by the blocking components,
+ * the network inspector and ad-block events
+ */
+public enum BlockReason {
+    NONE(""),
+    DOMAIN_BLOCKLIST("Domain in blocklist"),
+    URL_PATTERN("Matches ad pattern"),
+    CNAME_CLOAKED("CNAME-cloaked tracker"),
+    TRACKING_PIXEL("Tracking pixel detected"),
+    POPUP("Popup blocked"),
+    SUSPICIOUS_REDIRECT("Suspicious redirect blocked"),
+    SCRIPT_POPUP("Popup blocked by script guard"),
+    SCRIPT_PUSH_STATE("Redirect blocked via history.pushState"),
+    SCRIPT_LOCATION_ASSIGN("Redirect blocked via location.assign"),
+    SCRIPT_LOCATION_HREF("Redirect blocked via location.href"),
+    SCRIPT_REDIRECT("Redirect blocked by script guard"),
+    TRACKING_PARAMETERS("Tracking parameters removed"),
+    EXCESSIVE_REDIRECTS("Excessive redirects detected"),
+    SCAM_ALERT("Blocked scam alert"),
+    SCAM_CONFIRM("Blocked scam confirm");
+
+    private final String description;
+
+    BlockReason(String description) {
+        this.description = description;
+    }
+
+    /**
+     * @return the human-readable reason, as passed to OnAdBlockedListener
+     */
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * @param detail what matched, e.g. a CNAME target or dialog message, or null
+     * @return the description followed by the detail
+     */
+    public String describe(@Nullable String detail) {
+        return detail != null ? description + ": " + detail : description;
+    }
+}
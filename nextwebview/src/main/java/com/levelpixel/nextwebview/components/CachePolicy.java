@@ -0,0 +1,198 @@
+package com.levelpixel.nextwebview.components;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.os.SystemClock;
+import android.webkit.WebSettings;
+
+import androidx.annotation.Nullable;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Picks the WebView cache mode for each top-level navigation from connectivity,
+ * how recently the page was loaded and why it is being loaded. Subclasses can
+ * override {@link #decide} to change the rules.
+ *
+ * The cache mode applies to the whole page load, so it cannot tell documents
+ * from subresources; fingerprinted assets are covered by StaticResourceCache.
+ */
+public class CachePolicy {
+
+    public enum Connectivity {
+        OFFLINE,
+        METERED,
+        UNMETERED
+    }
+
+    public enum NavigationIntent {
+        // A new URL: typed, a link or loadUrl
+        NAVIGATE,
+        // The user asked for fresh content
+        RELOAD,
+        // History navigation, expected to be instant
+        BACK_FORWARD
+    }
+
+    /**
+     * Why a cache mode was chosen, counted per decision in the MetricsRegistry
+     * as cache-policy.decision.&lt;name&gt;
+     */
+    public enum Decision {
+        OFFLINE_CACHE,
+        HISTORY_CACHE,
+        RELOAD_REVALIDATE,
+        METERED_RECENT_CACHE,
+        METERED_NETWORK,
+        UNMETERED_NETWORK,
+        FORCED
+    }
+
+    private static final Decision[] DECISIONS = Decision.values();
+    private static final MetricsRegistry.Counter[] DECISION_COUNTERS = new MetricsRegistry.Counter[DECISIONS.length];
+    static {
+        for (Decision decision : DECISIONS) {
+            DECISION_COUNTERS[decision.ordinal()] = MetricsRegistry.getInstance().counter(
+                    "cache-policy.decision." + decision.name().toLowerCase(Locale.ROOT).replace('_', '-'));
+        }
+    }
+
+    private static final int MAX_TRACKED_PAGES = 200;
+    private static final long DEFAULT_METERED_MAX_STALENESS_MS = 30 * 60 * 1000;
+
+    private final ConnectivityManager connectivityManager;
+    private volatile long meteredMaxStalenessMs = DEFAULT_METERED_MAX_STALENESS_MS;
+    private volatile Integer forcedCacheMode;
+
+    // Last time each page finished loading, in elapsedRealtime
+    private final LinkedHashMap<String, Long> lastLoaded = new LinkedHashMap<String, Long>(32, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_TRACKED_PAGES;
+        }
+    };
+
+    public CachePolicy(Context context) {
+        this.connectivityManager = (ConnectivityManager) context.getApplicationContext()
+                .getSystemService(Context.CONNECTIVITY_SERVICE);
+    }
+
+    /**
+     * Choose and count the cache mode for a navigation
+     * @return one of the WebSettings LOAD_ constants
+     */
+    public final int resolve(@Nullable String url, NavigationIntent intent) {
+        Integer forced = forcedCacheMode;
+        Decision decision = forced != null ? Decision.FORCED : decide(url, intent, getConnectivity());
+        DECISION_COUNTERS[decision.ordinal()].increment();
+        return forced != null ? forced : cacheModeFor(decision);
+    }
+
+    /**
+     * Default rules: offline and history navigations use any cached copy, reloads
+     * revalidate, and metered networks reuse pages loaded within the staleness window
+     */
+    protected Decision decide(@Nullable String url, NavigationIntent intent, Connectivity connectivity) {
+        if (connectivity == Connectivity.OFFLINE) return Decision.OFFLINE_CACHE;
+        if (intent == NavigationIntent.BACK_FORWARD) return Decision.HISTORY_CACHE;
+        if (intent == NavigationIntent.RELOAD) return Decision.RELOAD_REVALIDATE;
+        if (connectivity == Connectivity.METERED) {
+            long age = getPageAgeMillis(url);
+            return age >= 0 && age <= meteredMaxStalenessMs ? Decision.METERED_RECENT_CACHE : Decision.METERED_NETWORK;
+        }
+        return Decision.UNMETERED_NETWORK;
+    }
+
+    /**
+     * @return the WebSettings cache mode a decision stands for
+     */
+    public static int cacheModeFor(Decision decision) {
+        switch (decision) {
+            case OFFLINE_CACHE:
+            case HISTORY_CACHE:
+            case METERED_RECENT_CACHE:
+                return WebSettings.LOAD_CACHE_ELSE_NETWORK;
+            default:
+                // Chromium revalidates on reload and honours Cache-Control otherwise
+                return WebSettings.LOAD_DEFAULT;
+        }
+    }
+
+    public Connectivity getConnectivity() {
+        if (connectivityManager == null) return Connectivity.UNMETERED;
+        try {
+            Network network = connectivityManager.getActiveNetwork();
+            NetworkCapabilities capabilities = network != null
+                    ? connectivityManager.getNetworkCapabilities(network) : null;
+            if (capabilities == null || !capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)) {
+                return Connectivity.OFFLINE;
+            }
+            return capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED)
+                    ? Connectivity.UNMETERED : Connectivity.METERED;
+        } catch (SecurityException e) {
+            // Without ACCESS_NETWORK_STATE assume a normal connection
+            return Connectivity.UNMETERED;
+        }
+    }
+
+    /**
+     * Remember that a page finished loading, making it fresh for metered reuse
+     */
+    public void recordPageLoaded(String url) {
+        synchronized (lastLoaded) {
+            lastLoaded.put(url, SystemClock.elapsedRealtime());
+        }
+    }
+
+    /**
+     * @return milliseconds since the page last finished loading, or -1 if unknown
+     */
+    public long getPageAgeMillis(@Nullable String url) {
+        if (url == null) return -1;
+        synchronized (lastLoaded) {
+            Long loadedAt = lastLoaded.get(url);
+            return loadedAt == null ? -1 : SystemClock.elapsedRealtime() - loadedAt;
+        }
+    }
+
+    /**
+     * @param maxStalenessMs how old a page may be to be reused from cache on a metered network
+     */
+    public void setMeteredMaxStaleness(long maxStalenessMs) {
+        this.meteredMaxStalenessMs = maxStalenessMs;
+    }
+
+    /**
+     * Use one cache mode for every navigation, bypassing the rules
+     * @param cacheMode a WebSettings LOAD_ constant, or null to use the rules again
+     */
+    public void setForcedCacheMode(@Nullable Integer cacheMode) {
+        this.forcedCacheMode = cacheMode;
+    }
+
+    /**
+     * @return the cache mode between navigations, so requests a loaded page makes
+     * later are not served from a stale cache
+     */
+    public int getIdleCacheMode() {
+        Integer forced = forcedCacheMode;
+        return forced != null ? forced : WebSettings.LOAD_DEFAULT;
+    }
+
+    /**
+     * @return how often each decision was made by every policy in the process, read
+     * from the MetricsRegistry, which also resets them
+     */
+    public static Map<Decision, Long> getDecisionCounts() {
+        Map<Decision, Long> counts = new EnumMap<>(Decision.class);
+        for (Decision decision : DECISIONS) {
+            counts.put(decision, DECISION_COUNTERS[decision.ordinal()].get());
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,198 @@
+package com.levelpixel.nextwebview.components;
+
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.levelpixel.nextwebview.interfaces.CnameResolver;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Predicate;
+
+/**
+ * Component that uncloaks trackers hidden behind first-party subdomains
+ * by following their CNAME chain
+ */
+public class CnameUncloakingComponent {
+    private static final String TAG = "CnameUncloaking";
+
+    // Cache bounds
+    private static final int MAX_CACHE_ENTRIES = 2048;
+    private static final long MIN_TTL_MS = 60_000;
+    private static final long MAX_TTL_MS = 24 * 60 * 60_000L;
+    private static final long NEGATIVE_TTL_MS = 10 * 60_000;
+    private static final long ERROR_TTL_MS = 60_000;
+    private static final long DEFAULT_LOOKUP_TIMEOUT_MS = 50;
+
+    private final CnameResolver resolver;
+    private final ExecutorService lookupExecutor;
+
+    // Resolved chains by host, including negative entries with an empty chain
+    private final Map<String, CacheEntry> cache = new ConcurrentHashMap<>();
+
+    // Lookups in progress, so concurrent requests for one host share a query
+    private final Map<String, CompletableFuture<List<String>>> pendingLookups = new ConcurrentHashMap<>();
+
+    private volatile long lookupTimeoutMs = DEFAULT_LOOKUP_TIMEOUT_MS;
+    // Set by shutdown; interception threads may still call in afterwards
+    private volatile boolean released = false;
+
+    public CnameUncloakingComponent(CnameResolver resolver) {
+        this.resolver = resolver;
+        this.lookupExecutor = Executors.newFixedThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "nextwebview-cname");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Find the first host in the CNAME chain of a host that the blocklist matches.
+     * A cold lookup waits at most the lookup timeout; if it takes longer the
+     * request is allowed and the answer is used for later requests.
+     *
+     * @param host request host
+     * @param isBlocked blocklist check for a single host
+     * @return the blocked CNAME target, or null if none was found in time
+     */
+    @Nullable
+    public String findBlockedTarget(String host, Predicate<String> isBlocked) {
+        return findBlockedTarget(getChain(host, lookupTimeoutMs), isBlocked);
+    }
+
+    /**
+     * Same as {@link #findBlockedTarget}, but never waits, for callers on the UI thread.
+     * A cold host starts a lookup in the background and is not blocked this time.
+     */
+    @Nullable
+    public String findCachedBlockedTarget(String host, Predicate<String> isBlocked) {
+        return findBlockedTarget(getChain(host, 0), isBlocked);
+    }
+
+    @Nullable
+    private static String findBlockedTarget(List<String> chain, Predicate<String> isBlocked) {
+        for (String target : chain) {
+            if (isBlocked.test(target)) {
+                return target;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the CNAME chain of a host from cache or a deadline-bounded lookup
+     * @param timeoutMs how long to wait for a cold lookup, 0 to only start it
+     */
+    private List<String> getChain(String host, long timeoutMs) {
+        long now = System.currentTimeMillis();
+        CacheEntry entry = cache.get(host);
+        if (entry != null && entry.expiresAt > now) {
+            return entry.chain;
+        }
+
+        if (released) {
+            return Collections.emptyList();
+        }
+
+        CompletableFuture<List<String>> lookup;
+        try {
+            lookup = pendingLookups.computeIfAbsent(host, this::startLookup);
+        } catch (RejectedExecutionException e) {
+            // Shut down between the check and the lookup
+            return Collections.emptyList();
+        }
+        if (timeoutMs <= 0 && !lookup.isDone()) {
+            return Collections.emptyList();
+        }
+        try {
+            return lookup.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            return Collections.emptyList();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Collections.emptyList();
+        } catch (ExecutionException e) {
+            return Collections.emptyList();
+        }
+    }
+
+    private CompletableFuture<List<String>> startLookup(String host) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                CnameResolver.Answer answer = resolver.resolve(host);
+                long ttlMs = answer.chain.isEmpty()
+                        ? NEGATIVE_TTL_MS
+                        : Math.max(MIN_TTL_MS, Math.min(MAX_TTL_MS, answer.ttlSeconds * 1000));
+                putCache(host, answer.chain, ttlMs);
+                return answer.chain;
+            } catch (Exception e) {
+                Log.w(TAG, "CNAME lookup failed for " + host, e);
+                putCache(host, Collections.emptyList(), ERROR_TTL_MS);
+                return Collections.<String>emptyList();
+            } finally {
+                pendingLookups.remove(host);
+            }
+        }, lookupExecutor);
+    }
+
+    private void putCache(String host, List<String> chain, long ttlMs) {
+        long now = System.currentTimeMillis();
+        if (cache.size() >= MAX_CACHE_ENTRIES) {
+            cache.values().removeIf(entry -> entry.expiresAt <= now);
+            if (cache.size() >= MAX_CACHE_ENTRIES) {
+                cache.clear();
+            }
+        }
+        cache.put(host, new CacheEntry(chain, now + ttlMs));
+    }
+
+    /**
+     * Set how long a request may wait for a cold lookup
+     * @param timeoutMs timeout in milliseconds
+     */
+    public void setLookupTimeout(long timeoutMs) {
+        this.lookupTimeoutMs = timeoutMs;
+    }
+
+    /**
+     * Clear all cached answers
+     */
+    public void clearCache() {
+        cache.clear();
+    }
+
+    public int getCacheSize() {
+        return cache.size();
+    }
+
+    /**
+     * Stop the lookup threads. Later calls still answer from the cache but start no lookups.
+     */
+    public void shutdown() {
+        released = true;
+        lookupExecutor.shutdownNow();
+    }
+
+    /**
+     * Cached CNAME chain with its expiry time
+     */
+    private static class CacheEntry {
+        final List<String> chain;
+        final long expiresAt;
+
+        CacheEntry(List<String> chain, long expiresAt) {
+            this.chain = chain;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package com.levelpixel.nextwebview.components;
+
+import androidx.annotation.Nullable;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+/**
+ * Parser for static DASH manifests. Picks the highest-bandwidth video and audio
+ * representations of the first period.
+ */
+class DashManifestParser {
+
+    private static final Pattern DURATION = Pattern.compile(
+            "P(?:(\\d+)D)?(?:T(?:(\\d+)H)?(?:(\\d+)M)?(?:([\\d.]+)S)?)?");
+    private static final Pattern BYTE_RANGE = Pattern.compile("(\\d+)-(\\d+)");
+    private static final Pattern TEMPLATE_IDENTIFIER = Pattern.compile(
+            "\\$(RepresentationID|Number|Time|Bandwidth)(?:%0(\\d+)d)?\\$");
+
+    private DashManifestParser() {
+    }
+
+    static MediaManifest parse(String url, String text) throws IOException {
+        Element mpd = parseXml(text);
+        if ("dynamic".equals(mpd.getAttribute("type"))) {
+            throw new IOException("Live DASH manifests are not supported");
+        }
+        Element period = child(mpd, "Period");
+        if (period == null) {
+            throw new IOException("Manifest has no period");
+        }
+
+        double periodSeconds = parseDuration(period.getAttribute("duration"));
+        if (periodSeconds <= 0) {
+            periodSeconds = parseDuration(mpd.getAttribute("mediaPresentationDuration"));
+        }
+        String periodBase = baseUrl(baseUrl(url, mpd), period);
+
+        Element bestVideo = null;
+        Element bestVideoSet = null;
+        Element bestAudio = null;
+        Element bestAudioSet = null;
+        for (Element adaptationSet : children(period, "AdaptationSet")) {
+            for (Element representation : children(adaptationSet, "Representation")) {
+                String type = contentType(adaptationSet, representation);
+                if (type.equals("video") && bandwidth(representation) > bandwidth(bestVideo)) {
+                    bestVideo = representation;
+                    bestVideoSet = adaptationSet;
+                } else if (type.equals("audio") && bandwidth(representation) > bandwidth(bestAudio)) {
+                    bestAudio = representation;
+                    bestAudioSet = adaptationSet;
+                }
+            }
+        }
+
+        // Audio-only manifests are saved as the main file
+        if (bestVideo == null) {
+            bestVideo = bestAudio;
+            bestVideoSet = bestAudioSet;
+            bestAudio = null;
+        }
+        if (bestVideo == null) {
+            throw new IOException("Manifest has no playable representation");
+        }
+
+        List<MediaManifest.Segment> video = segments(periodBase, period, bestVideoSet, bestVideo, periodSeconds);
+        String videoMime = attribute("mimeType", bestVideo, bestVideoSet);
+        String videoExtension = videoMime != null && videoMime.contains("webm") ? "webm" : "mp4";
+        if (bestAudio == null) {
+            return new MediaManifest(video, videoExtension, Collections.emptyList(), "");
+        }
+        List<MediaManifest.Segment> audio = segments(periodBase, period, bestAudioSet, bestAudio, periodSeconds);
+        String audioMime = attribute("mimeType", bestAudio, bestAudioSet);
+        return new MediaManifest(video, videoExtension, audio,
+                audioMime != null && audioMime.contains("webm") ? "webm" : "m4a");
+    }
+
+    /**
+     * List the segments of a representation from its SegmentTemplate, SegmentList or BaseURL
+     */
+    private static List<MediaManifest.Segment> segments(String periodBase, Element period, Element adaptationSet,
+                                                        Element representation, double periodSeconds)
+            throws IOException {
+        String base = baseUrl(baseUrl(periodBase, adaptationSet), representation);
+        Element[] levels = {representation, adaptationSet, period};
+        List<MediaManifest.Segment> segments = new ArrayList<>();
+
+        Element[] templates = {child(representation, "SegmentTemplate"),
+                child(adaptationSet, "SegmentTemplate"), child(period, "SegmentTemplate")};
+        if (templates[0] != null || templates[1] != null || templates[2] != null) {
+            String id = representation.getAttribute("id");
+            long bandwidth = bandwidth(representation);
+            String initialization = attribute("initialization", templates);
+            String media = attribute("media", templates);
+            if (media == null) {
+                throw new IOException("SegmentTemplate without media attribute");
+            }
+            long timescale = parseLong(attribute("timescale", templates), 1);
+            long number = parseLong(attribute("startNumber", templates), 1);
+
+            if (initialization != null) {
+                segments.add(new MediaManifest.Segment(MediaManifest.resolve(base,
+                        expandTemplate(initialization, id, bandwidth, 0, 0))));
+            }
+
+            Element timeline = null;
+            for (Element template : templates) {
+                if (template != null && (timeline = child(template, "SegmentTimeline")) != null) break;
+            }
+            if (timeline != null) {
+                long time = 0;
+                long periodEnd = (long) (periodSeconds * timescale);
+                for (Element s : children(timeline, "S")) {
+                    if (s.hasAttribute("t")) {
+                        time = parseLong(s.getAttribute("t"), 0);
+                    }
+                    long duration = parseLong(s.getAttribute("d"), 0);
+                    long repeat = parseLong(s.getAttribute("r"), 0);
+                    if (duration <= 0) {
+                        throw new IOException("SegmentTimeline entry without duration");
+                    }
+                    if (repeat < 0) {
+                        // Repeat until the end of the period
+                        repeat = Math.max(0, (periodEnd - time + duration - 1) / duration - 1);
+                    }
+                    for (long i = 0; i <= repeat; i++) {
+                        segments.add(new MediaManifest.Segment(MediaManifest.resolve(base,
+                                expandTemplate(media, id, bandwidth, number++, time))));
+                        time += duration;
+                    }
+                }
+            } else {
+                long duration = parseLong(attribute("duration", templates), 0);
+                if (duration <= 0 || periodSeconds <= 0) {
+                    throw new IOException("Cannot count segments without durations");
+                }
+                long count = (long) Math.ceil(periodSeconds * timescale / duration);
+                for (long i = 0; i < count; i++) {
+                    segments.add(new MediaManifest.Segment(MediaManifest.resolve(base,
+                            expandTemplate(media, id, bandwidth, number + i, i * duration))));
+                }
+            }
+            return segments;
+        }
+
+        Element segmentList = null;
+        for (Element level : levels) {
+            if ((segmentList = child(level, "SegmentList")) != null) break;
+        }
+        if (segmentList != null) {
+            Element initialization = child(segmentList, "Initialization");
+            if (initialization != null) {
+                segments.add(rangedSegment(base, initialization.getAttribute("sourceURL"),
+                        initialization.getAttribute("range")));
+            }
+            for (Element segmentUrl : children(segmentList, "SegmentURL")) {
+                segments.add(rangedSegment(base, segmentUrl.getAttribute("media"),
+                        segmentUrl.getAttribute("mediaRange")));
+            }
+            return segments;
+        }
+
+        // SegmentBase or a plain BaseURL: the representation is a single file, which
+        // the media engine fetches in ranged chunks
+        segments.add(new MediaManifest.Segment(base));
+        return segments;
+    }
+
+    /**
+     * @param range "first-last" byte positions; a missing or malformed range loads the whole file
+     */
+    private static MediaManifest.Segment rangedSegment(String base, String source, String range)
+            throws IOException {
+        String url = source.isEmpty() ? base : MediaManifest.resolve(base, source);
+        Matcher matcher = BYTE_RANGE.matcher(range.trim());
+        if (!matcher.matches()) {
+            return new MediaManifest.Segment(url);
+        }
+        long start = parseLong(matcher.group(1), -1);
+        long end = parseLong(matcher.group(2), -1);
+        if (start < 0 || end < start) {
+            return new MediaManifest.Segment(url);
+        }
+        return new MediaManifest.Segment(url, start, end - start + 1, null, null);
+    }
+
+    static String expandTemplate(String template, String id, long bandwidth, long number, long time) {
+        StringBuffer result = new StringBuffer();
+        Matcher matcher = TEMPLATE_IDENTIFIER.matcher(template.replace("$$", "\u0000"));
+        while (matcher.find()) {
+            String value;
+            switch (matcher.group(1)) {
+                case "RepresentationID":
+                    value = id;
+                    break;
+                case "Bandwidth":
+                    value = Long.toString(bandwidth);
+                    break;
+                case "Time":
+                    value = Long.toString(time);
+                    break;
+                default:
+                    value = Long.toString(number);
+                    break;
+            }
+            if (matcher.group(2) != null) {
+                int width = Integer.parseInt(matcher.group(2));
+                StringBuilder padded = new StringBuilder();
+                for (int i = value.length(); i < width; i++) {
+                    padded.append('0');
+                }
+                value = padded.append(value).toString();
+            }
+            matcher.appendReplacement(result, Matcher.quoteReplacement(value));
+        }
+        matcher.appendTail(result);
+        return result.toString().replace("\u0000", "$");
+    }
+
+    private static String contentType(Element adaptationSet, Element representation) {
+        String type = adaptationSet.getAttribute("contentType");
+        if (!type.isEmpty()) return type;
+        String mime = attribute("mimeType", representation, adaptationSet);
+        if (mime == null) return "";
+        return mime.substring(0, Math.max(0, mime.indexOf('/')));
+    }
+
+    private static long bandwidth(@Nullable Element representation) {
+        return representation == null ? -1 : parseLong(representation.getAttribute("bandwidth"), 0);
+    }
+
+    /**
+     * Resolve the BaseURL child of an element against the inherited base
+     */
+    private static String baseUrl(String inherited, Element element) throws IOException {
+        Element base = child(element, "BaseURL");
+        return base != null ? MediaManifest.resolve(inherited, base.getTextContent()) : inherited;
+    }
+
+    /**
+     * @return the attribute from the innermost element that has it
+     */
+    @Nullable
+    private static String attribute(String name, Element... elements) {
+        for (Element element : elements) {
+            if (element != null && element.hasAttribute(name)) {
+                return element.getAttribute(name);
+            }
+        }
+        return null;
+    }
+
+    @Nullable
+    private static Element child(Element parent, String name) {
+        List<Element> matches = children(parent, name);
+        return matches.isEmpty() ? null : matches.get(0);
+    }
+
+    private static List<Element> children(Element parent, String name) {
+        List<Element> result = new ArrayList<>();
+        for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node instanceof Element) {
+                String nodeName = node.getNodeName();
+                if (nodeName.substring(nodeName.indexOf(':') + 1).equals(name)) {
+                    result.add((Element) node);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Parse an ISO 8601 duration such as PT1H2M3.5S
+     * @return seconds, or 0 if the value is missing
+     */
+    static double parseDuration(String value) {
+        Matcher matcher = DURATION.matcher(value.trim());
+        if (value.isEmpty() || !matcher.matches()) return 0;
+        double seconds = 0;
+        if (matcher.group(1) != null) seconds += Long.parseLong(matcher.group(1)) * 86400;
+        if (matcher.group(2) != null) seconds += Long.parseLong(matcher.group(2)) * 3600;
+        if (matcher.group(3) != null) seconds += Long.parseLong(matcher.group(3)) * 60;
+        if (matcher.group(4) != null) seconds += Double.parseDouble(matcher.group(4));
+        return seconds;
+    }
+
+    private static long parseLong(@Nullable String value, long defaultValue) {
+        if (value == null || value.isEmpty()) return defaultValue;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static Element parseXml(String text) throws IOException {
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setExpandEntityReferences(false);
+            Document document = factory.newDocumentBuilder().parse(new InputSource(new StringReader(text)));
+            return document.getDocumentElement();
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IOException("Malformed DASH manifest", e);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.levelpixel.nextwebview.components;
+
+import com.levelpixel.nextwebview.interfaces.CnameResolver;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * CnameResolver backed by a DNS-over-HTTPS JSON endpoint
+ * (application/dns-json, as served by Cloudflare and Google)
+ */
+public class DnsOverHttpsCnameResolver implements CnameResolver {
+    public static final String CLOUDFLARE_ENDPOINT = "https://cloudflare-dns.com/dns-query";
+
+    private static final int DNS_TYPE_CNAME = 5;
+    private static final int TIMEOUT_MS = 2000;
+    private static final int MAX_RESPONSE_BYTES = 64 * 1024;
+
+    private final String endpoint;
+
+    public DnsOverHttpsCnameResolver() {
+        this(CLOUDFLARE_ENDPOINT);
+    }
+
+    public DnsOverHttpsCnameResolver(String endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    @Override
+    public Answer resolve(String host) throws IOException {
+        // Querying type A returns the whole CNAME chain ahead of the addresses
+        URL url = new URL(endpoint + "?type=A&name=" + URLEncoder.encode(host, "UTF-8"));
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(TIMEOUT_MS);
+        connection.setReadTimeout(TIMEOUT_MS);
+        connection.setRequestProperty("Accept", "application/dns-json");
+
+        try {
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                throw new IOException("DNS query failed with HTTP " + connection.getResponseCode());
+            }
+            try (InputStream in = connection.getInputStream()) {
+                return parseAnswer(readLimited(in));
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Extract the CNAME records and the smallest TTL from a dns-json response
+     */
+    private static Answer parseAnswer(String body) throws IOException {
+        try {
+            JSONArray records = new JSONObject(body).optJSONArray("Answer");
+            List<String> chain = new ArrayList<>();
+            long ttl = Long.MAX_VALUE;
+            if (records != null) {
+                for (int i = 0; i < records.length(); i++) {
+                    JSONObject record = records.optJSONObject(i);
+                    if (record == null) continue;
+                    ttl = Math.min(ttl, record.optLong("TTL", ttl));
+                    if (record.optInt("type") == DNS_TYPE_CNAME) {
+                        chain.add(stripTrailingDot(record.optString("data").toLowerCase()));
+                    }
+                }
+            }
+            return new Answer(chain, ttl == Long.MAX_VALUE ? 0 : ttl);
+        } catch (JSONException e) {
+            throw new IOException("Malformed DNS response", e);
+        }
+    }
+
+    private static String readLimited(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+            if (out.size() > MAX_RESPONSE_BYTES) {
+                throw new IOException("DNS response too large");
+            }
+        }
+        return out.toString("UTF-8");
+    }
+
+    private static String stripTrailingDot(String name) {
+        return name.endsWith(".") ? name.substring(0, name.length() - 1) : name;
+    }
+}
@@ -0,0 +1,150 @@
+package com.levelpixel.nextwebview.components;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.annotation.Nullable;
+
+import com.levelpixel.nextwebview.interfaces.DownloadEventListener;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Turns download engine callbacks into listener events on the main thread.
+ * Progress is sampled at most PROGRESS_INTERVAL_MS apart per download and all
+ * pending samples are delivered together, so many transfers cost one main-thread
+ * message per interval.
+ */
+class DownloadEventDispatcher {
+    private static final long PROGRESS_INTERVAL_MS = 250;
+
+    // Weight of the newest sample in the smoothed rate
+    private static final double RATE_SMOOTHING = 0.3;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Map<Long, RateTracker> trackers = new ConcurrentHashMap<>();
+
+    // Latest unsent sample per download, guarded by itself
+    private final Map<Long, DownloadProgress> pendingProgress = new LinkedHashMap<>();
+    private boolean flushScheduled = false;
+
+    private volatile DownloadEventListener listener;
+
+    void setListener(@Nullable DownloadEventListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Record progress of a download. Called on download threads for every chunk.
+     */
+    void onProgress(DownloadTask task) {
+        if (listener == null) return;
+        RateTracker tracker = trackers.computeIfAbsent(task.getId(), id -> new RateTracker());
+        DownloadProgress progress = tracker.sample(task, SystemClock.elapsedRealtime());
+        if (progress == null) return;
+
+        synchronized (pendingProgress) {
+            pendingProgress.put(task.getId(), progress);
+            if (flushScheduled) return;
+            flushScheduled = true;
+        }
+        mainHandler.postDelayed(this::flushProgress, PROGRESS_INTERVAL_MS);
+    }
+
+    private void flushProgress() {
+        List<DownloadProgress> updates;
+        synchronized (pendingProgress) {
+            updates = new ArrayList<>(pendingProgress.values());
+            pendingProgress.clear();
+            flushScheduled = false;
+        }
+        DownloadEventListener current = listener;
+        if (current == null || updates.isEmpty()) return;
+
+        // Drop samples of downloads that finished while the batch was waiting
+        List<DownloadProgress> running = new ArrayList<>(updates.size());
+        for (DownloadProgress progress : updates) {
+            if (trackers.containsKey(progress.getDownloadId())) {
+                running.add(progress);
+            }
+        }
+        if (!running.isEmpty()) {
+            current.onDownloadProgress(running);
+        }
+    }
+
+    /**
+     * Report a state change. Called on download threads or the main thread.
+     */
+    void onStateChanged(DownloadTask task, @Nullable Exception error) {
+        DownloadTask.State state = task.getState();
+        if (state == DownloadTask.State.RUNNING) {
+            trackers.put(task.getId(), new RateTracker());
+        } else {
+            trackers.remove(task.getId());
+        }
+
+        DownloadEventListener current = listener;
+        if (current == null) return;
+        long id = task.getId();
+        String fileName = task.getFileName();
+        mainHandler.post(() -> {
+            switch (state) {
+                case QUEUED:
+                    current.onDownloadQueued(id, fileName);
+                    break;
+                case RUNNING:
+                    current.onDownloadStarted(id, fileName);
+                    break;
+                case PAUSED:
+                    current.onDownloadPaused(id, fileName);
+                    break;
+                case COMPLETED:
+                    current.onDownloadCompleted(id, fileName, task.getDestination());
+                    break;
+                case FAILED:
+                    current.onDownloadFailed(id, fileName,
+                            error != null && error.getMessage() != null ? error.getMessage() : "Download failed");
+                    break;
+                case CANCELLED:
+                    current.onDownloadCancelled(id, fileName);
+                    break;
+            }
+        });
+    }
+
+    /**
+     * Throttles samples of one download and smooths its transfer rate
+     */
+    private static class RateTracker {
+        private long lastTime = -1;
+        private long lastBytes;
+        private double bytesPerSecond;
+
+        @Nullable
+        synchronized DownloadProgress sample(DownloadTask task, long now) {
+            long bytes = task.getDownloadedBytes();
+            if (lastTime < 0) {
+                lastTime = now;
+                lastBytes = bytes;
+                return null;
+            }
+            long elapsed = now - lastTime;
+            if (elapsed < PROGRESS_INTERVAL_MS) return null;
+
+            double instantRate = Math.max(0, bytes - lastBytes) * 1000.0 / elapsed;
+            bytesPerSecond = bytesPerSecond == 0
+                    ? instantRate
+                    : RATE_SMOOTHING * instantRate + (1 - RATE_SMOOTHING) * bytesPerSecond;
+            lastTime = now;
+            lastBytes = bytes;
+            return new DownloadProgress(task.getId(), task.getFileName(), bytes, task.getTotalBytes(),
+                    (long) bytesPerSecond);
+        }
+    }
+}
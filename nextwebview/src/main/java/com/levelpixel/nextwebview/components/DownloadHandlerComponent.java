@@ -4,22 +4,222 @@ import android.app.DownloadManager;
 import android.content.Context;
 import android.net.Uri;
 import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
 import android.webkit.CookieManager;
 import android.webkit.DownloadListener;
 import android.webkit.URLUtil;
+import android.webkit.WebView;
 import android.widget.Toast;
 
+import androidx.annotation.Nullable;
+
+import com.levelpixel.nextwebview.interfaces.DownloadEventListener;
+import com.levelpixel.nextwebview.interfaces.OnDownloadInspectedListener;
+import com.levelpixel.nextwebview.interfaces.OnMediaDetectedListener;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * Component for handling file downloads
  */
 public class DownloadHandlerComponent {
+    private static final String TAG = "DownloadHandler";
     
     private Context context;
     private boolean useSystemDownloader = true;
     private DownloadListener customDownloadListener;
     
+    // Built-in engine used when the system downloader is disabled, shared by every view
+    private final SharedDownloads shared = SharedDownloads.getInstance();
+    private volatile OnDownloadInspectedListener inspectedListener;
+    private final DownloadEventDispatcher eventDispatcher = new DownloadEventDispatcher();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private File downloadDirectory;
+    
+    // blob: and data: downloads, read from the page rather than the network
+    private final InlineDownloadBridge inlineBridge;
+    private final Map<Long, DownloadTask> inlineTasks = new LinkedHashMap<>();
+    private WebView webView;
+    
+    // Stream manifests requested by the current page, most recent last
+    private static final int MAX_DETECTED_MEDIA = 20;
+    private final Set<String> detectedMedia = new LinkedHashSet<>();
+    private volatile OnMediaDetectedListener mediaDetectedListener;
+    
     public DownloadHandlerComponent(Context context) {
         this.context = context;
+        this.inlineBridge = new InlineDownloadBridge(new InlineDownloadBridge.Host() {
+            @Override
+            public void onInlineStateChanged(DownloadTask task, @Nullable Exception error) {
+                if (isFinished(task.getState())) {
+                    shared.releaseDestination(task);
+                }
+                onDownloadStateChanged(task, error);
+            }
+            
+            @Override
+            public void onInlineProgress(DownloadTask task) {
+                eventDispatcher.onProgress(task);
+            }
+            
+            @Override
+            public void onInlineVerdict(DownloadTask task) {
+                onDownloadVerdict(task);
+            }
+        });
+    }
+    
+    /**
+     * Queue and engines of the built-in downloader. They are shared by every view
+     * and never shut down, so a download outlives the tab that started it. Events
+     * go to the component that queued the task for as long as it is not released.
+     */
+    private static final class SharedDownloads {
+        private static SharedDownloads instance;
+        
+        final BandwidthLimiter bandwidthLimiter = new BandwidthLimiter(0);
+        final SegmentedDownloadEngine downloadEngine;
+        final MediaDownloadEngine mediaEngine;
+        final DownloadScheduler scheduler;
+        final Map<Long, DownloadHandlerComponent> owners = new ConcurrentHashMap<>();
+        
+        // Destinations of unfinished downloads of every view, so no two share a file
+        private final Set<String> reservedDestinations = new HashSet<>();
+        private final Map<Long, String> taskDestinations = new HashMap<>();
+        
+        static synchronized SharedDownloads getInstance() {
+            if (instance == null) {
+                instance = new SharedDownloads();
+            }
+            return instance;
+        }
+        
+        private SharedDownloads() {
+            SegmentedDownloadEngine.Callback engineCallback = new SegmentedDownloadEngine.Callback() {
+                @Override
+                public void onProgress(DownloadTask task) {
+                    DownloadHandlerComponent owner = owners.get(task.getId());
+                    if (owner != null) {
+                        owner.eventDispatcher.onProgress(task);
+                    }
+                }
+                
+                @Override
+                public void onVerdict(DownloadTask task) {
+                    DownloadHandlerComponent owner = owners.get(task.getId());
+                    if (owner != null) {
+                        owner.onDownloadVerdict(task);
+                    }
+                }
+            };
+            downloadEngine = new SegmentedDownloadEngine(engineCallback);
+            downloadEngine.setBandwidthLimiter(bandwidthLimiter);
+            mediaEngine = new MediaDownloadEngine(engineCallback);
+            mediaEngine.setBandwidthLimiter(bandwidthLimiter);
+            scheduler = new DownloadScheduler(this::runTransfer, this::onStateChanged);
+        }
+        
+        /**
+         * Send stream manifests to the media engine and everything else to the segmented engine
+         */
+        private void runTransfer(DownloadTask task) throws IOException {
+            if (MediaDownloadEngine.isMediaManifest(task.getUrl(), task.getMimeType())) {
+                mediaEngine.execute(task);
+            } else {
+                downloadEngine.execute(task);
+            }
+        }
+        
+        private void onStateChanged(DownloadTask task, @Nullable Exception error) {
+            DownloadHandlerComponent owner;
+            if (isFinished(task.getState())) {
+                owner = owners.remove(task.getId());
+                releaseDestination(task);
+            } else {
+                owner = owners.get(task.getId());
+            }
+            if (owner != null) {
+                owner.onDownloadStateChanged(task, error);
+            } else if (task.getState() == DownloadTask.State.FAILED && error != null) {
+                Log.e(TAG, "Download failed: " + task.getUrl(), error);
+            }
+        }
+        
+        /**
+         * Pick a file that does not collide with a finished or unfinished download
+         */
+        synchronized File reserveDestination(File directory, String fileName) {
+            File candidate = new File(directory, fileName);
+            int dot = fileName.lastIndexOf('.');
+            String base = dot > 0 ? fileName.substring(0, dot) : fileName;
+            String extension = dot > 0 ? fileName.substring(dot) : "";
+            for (int i = 1; candidate.exists()
+                    || SegmentedDownloadEngine.getPartialFile(candidate).exists()
+                    || reservedDestinations.contains(candidate.getPath()); i++) {
+                candidate = new File(directory, base + " (" + i + ")" + extension);
+            }
+            reservedDestinations.add(candidate.getPath());
+            return candidate;
+        }
+        
+        /**
+         * Reserve a given file, e.g. the destination of an interrupted download
+         * @return false if a queued or running download already writes it
+         */
+        synchronized boolean reserveDestination(File destination) {
+            return reservedDestinations.add(destination.getPath());
+        }
+        
+        /**
+         * Tie the destination of a task to it until the task finishes
+         */
+        synchronized void bindDestination(DownloadTask task) {
+            String path = task.getDestination().getPath();
+            reservedDestinations.add(path);
+            taskDestinations.put(task.getId(), path);
+        }
+        
+        synchronized void releaseDestination(DownloadTask task) {
+            String path = taskDestinations.remove(task.getId());
+            if (path != null) {
+                reservedDestinations.remove(path);
+            }
+        }
+    }
+    
+    private static boolean isFinished(DownloadTask.State state) {
+        return state == DownloadTask.State.COMPLETED || state == DownloadTask.State.FAILED
+                || state == DownloadTask.State.CANCELLED;
+    }
+    
+    /**
+     * Queue a task on the shared scheduler with this component as its owner
+     */
+    private void enqueue(DownloadTask task) {
+        shared.owners.put(task.getId(), this);
+        shared.bindDestination(task);
+        shared.scheduler.enqueue(task);
+    }
+    
+    /**
+     * Register the bridge that streams blob: downloads out of the page.
+     * Must be called before the page that creates the blob is loaded.
+     */
+    public void attachWebView(WebView webView) {
+        this.webView = webView;
+        webView.addJavascriptInterface(inlineBridge, InlineDownloadBridge.BRIDGE_NAME);
     }
     
     /**
@@ -34,16 +234,10 @@ public class DownloadHandlerComponent {
                 return;
             }
 
-            // Security check for potentially dangerous file types
-            boolean isPotentiallyDangerous = 
-                    contentDisposition != null && (
-                    contentDisposition.toLowerCase().contains(".exe") ||
-                    contentDisposition.toLowerCase().contains(".msi") ||
-                    contentDisposition.toLowerCase().contains(".apk") ||
-                    contentDisposition.toLowerCase().contains(".bat") ||
-                    contentDisposition.toLowerCase().contains(".cmd") ||
-                    contentDisposition.toLowerCase().contains(".sh") ||
-                    contentDisposition.toLowerCase().contains(".jar"));
+            // Security check for potentially dangerous file types by name,
+            // the built-in engine also sniffs the content as it arrives
+            String fileName = URLUtil.guessFileName(url, contentDisposition, mimeType);
+            boolean isPotentiallyDangerous = DownloadInspector.isExecutableFileName(fileName);
             
             if (isPotentiallyDangerous) {
                 Toast.makeText(context, "Warning: Downloading executable files may be unsafe", 
@@ -51,6 +245,25 @@ public class DownloadHandlerComponent {
                 // Still allow the download but show a warning
             }
 
+            // DownloadManager cannot fetch blob: and data: URLs, stream them from the page instead
+            if (InlineDownloadBridge.isInlineUrl(url)) {
+                DownloadTask task = new DownloadTask(url, userAgent, null, mimeType, uniqueDestination(fileName));
+                synchronized (inlineTasks) {
+                    inlineTasks.put(task.getId(), task);
+                }
+                shared.bindDestination(task);
+                inlineBridge.start(webView, task);
+                Toast.makeText(context, "Downloading: " + fileName, Toast.LENGTH_SHORT).show();
+                return;
+            }
+
+            // The system downloader would only save the playlist of a stream
+            if (MediaDownloadEngine.isMediaManifest(url, mimeType)) {
+                enqueueMediaDownload(url, userAgent, mimeType, fileName, DownloadTask.Priority.USER_INITIATED);
+                Toast.makeText(context, "Downloading: " + fileName, Toast.LENGTH_SHORT).show();
+                return;
+            }
+
             // Use system download manager 
             if (useSystemDownloader) {
                 DownloadManager.Request request = new DownloadManager.Request(Uri.parse(url));
@@ -62,7 +275,6 @@ public class DownloadHandlerComponent {
                 request.addRequestHeader("User-Agent", userAgent);
 
                 // Configure download with better descriptions
-                String fileName = URLUtil.guessFileName(url, contentDisposition, mimeType);
                 request.setDescription("Downloading: " + fileName);
                 request.setTitle(fileName);
                 request.allowScanningByMediaScanner();
@@ -81,10 +293,318 @@ public class DownloadHandlerComponent {
                             "Download failed: " + e.getMessage(), 
                             Toast.LENGTH_LONG).show();
                 }
+            } else {
+                // Use the built-in segmented download engine
+                String cookies = CookieManager.getInstance().getCookie(url);
+                File destination = uniqueDestination(fileName);
+                enqueue(new DownloadTask(url, userAgent, cookies, mimeType, destination));
+                Toast.makeText(context, "Downloading: " + fileName, Toast.LENGTH_SHORT).show();
             }
         };
     }
     
+    /**
+     * Warn about executable content sniffed from a built-in download
+     */
+    private void onDownloadVerdict(DownloadTask task) {
+        DownloadVerdict verdict = task.getVerdict();
+        if (verdict.isDangerous() && verdict.isExtensionMismatch()) {
+            mainHandler.post(() -> Toast.makeText(context,
+                    "Warning: " + task.getFileName() + " contains executable code",
+                    Toast.LENGTH_LONG).show());
+        }
+        OnDownloadInspectedListener listener = inspectedListener;
+        if (listener != null) {
+            listener.onDownloadVerdict(task.getId(), task.getFileName(), verdict);
+        }
+    }
+    
+    /**
+     * Report results and failures of built-in engine downloads
+     */
+    private void onDownloadStateChanged(DownloadTask task, @Nullable Exception error) {
+        eventDispatcher.onStateChanged(task, error);
+        OnDownloadInspectedListener listener = inspectedListener;
+        if (task.getState() == DownloadTask.State.COMPLETED && listener != null && task.getSha256() != null) {
+            listener.onDownloadHashed(task.getId(), task.getFileName(), task.getSha256());
+        }
+        if (task.getState() == DownloadTask.State.FAILED && error != null) {
+            Log.e(TAG, "Download failed: " + task.getUrl(), error);
+            mainHandler.post(() -> Toast.makeText(context,
+                    "Download failed: " + error.getMessage(), Toast.LENGTH_LONG).show());
+        }
+    }
+    
+    /**
+     * Queue a download on the built-in engine with the page's cookies
+     * 
+     * @param url URL to download
+     * @param userAgent User-Agent to send
+     * @param fileName file name in the download directory
+     * @param priority scheduling lane
+     * @return id of the queued download
+     */
+    public long enqueueDownload(String url, String userAgent, String fileName, DownloadTask.Priority priority) {
+        String cookies = CookieManager.getInstance().getCookie(url);
+        DownloadTask task = new DownloadTask(url, userAgent, cookies, null, uniqueDestination(fileName));
+        task.setPriority(priority);
+        enqueue(task);
+        return task.getId();
+    }
+    
+    /**
+     * Queue an HLS or DASH stream, saved as a single file with the playlist extension replaced
+     * 
+     * @param manifestUrl URL of the .m3u8 or .mpd manifest
+     * @param userAgent User-Agent to send
+     * @param fileName file name in the download directory
+     * @param priority scheduling lane
+     * @return id of the queued download
+     */
+    public long enqueueMediaDownload(String manifestUrl, String userAgent, String fileName,
+                                     DownloadTask.Priority priority) {
+        return enqueueMediaDownload(manifestUrl, userAgent, null, fileName, priority);
+    }
+    
+    private long enqueueMediaDownload(String manifestUrl, String userAgent, @Nullable String mimeType,
+                                      String fileName, DownloadTask.Priority priority) {
+        MediaManifest.Format format = MediaManifest.detect(manifestUrl, mimeType);
+        if (mimeType == null) {
+            // Lets the scheduler route manifests whose URL has no playlist extension
+            mimeType = format == MediaManifest.Format.DASH ? "application/dash+xml" : "application/vnd.apple.mpegurl";
+        }
+        String cookies = CookieManager.getInstance().getCookie(manifestUrl);
+        File destination = uniqueDestination(mediaFileName(fileName, format));
+        DownloadTask task = new DownloadTask(manifestUrl, userAgent, cookies, mimeType, destination);
+        task.setPriority(priority);
+        enqueue(task);
+        return task.getId();
+    }
+    
+    /**
+     * Replace the playlist extension with the likely container; the media engine
+     * corrects it once the manifest shows e.g. fragmented MP4 HLS
+     */
+    private static String mediaFileName(String fileName, @Nullable MediaManifest.Format format) {
+        int dot = fileName.lastIndexOf('.');
+        String base = dot > 0 ? fileName.substring(0, dot) : fileName;
+        return base + (format == MediaManifest.Format.DASH ? ".mp4" : ".ts");
+    }
+    
+    /**
+     * Record a subresource request if it is an HLS or DASH manifest
+     */
+    public void observeRequest(String url) {
+        if (!MediaDownloadEngine.isMediaManifest(url, null)) return;
+        synchronized (detectedMedia) {
+            if (!detectedMedia.add(url)) return;
+            if (detectedMedia.size() > MAX_DETECTED_MEDIA) {
+                detectedMedia.remove(detectedMedia.iterator().next());
+            }
+        }
+        OnMediaDetectedListener listener = mediaDetectedListener;
+        if (listener != null) {
+            listener.onMediaDetected(url);
+        }
+    }
+    
+    /**
+     * Forget manifests of the previous page
+     */
+    public void clearDetectedMedia() {
+        synchronized (detectedMedia) {
+            detectedMedia.clear();
+        }
+    }
+    
+    /**
+     * @return manifests requested by the current page, in request order
+     */
+    public List<String> getDetectedMedia() {
+        synchronized (detectedMedia) {
+            return new ArrayList<>(detectedMedia);
+        }
+    }
+    
+    /**
+     * Set listener for manifests requested by the page. Called on the WebView's IO thread.
+     */
+    public void setMediaDetectedListener(OnMediaDetectedListener listener) {
+        this.mediaDetectedListener = listener;
+    }
+    
+    public boolean pauseDownload(long id) {
+        return shared.scheduler.pause(id);
+    }
+    
+    /**
+     * Resume a download; this component receives its events from now on
+     */
+    public boolean resumeDownload(long id) {
+        DownloadTask task = shared.scheduler.getTask(id);
+        if (task == null) return false;
+        // A failed task gave up its owner and destination
+        shared.owners.put(id, this);
+        shared.bindDestination(task);
+        if (shared.scheduler.resume(id)) return true;
+        if (isFinished(task.getState())) {
+            shared.owners.remove(id);
+            shared.releaseDestination(task);
+        }
+        return false;
+    }
+    
+    public boolean cancelDownload(long id) {
+        DownloadTask inlineTask;
+        synchronized (inlineTasks) {
+            inlineTask = inlineTasks.get(id);
+        }
+        if (inlineTask != null) {
+            // The bridge reports CANCELLED once it stops writing
+            if (inlineTask.getState() != DownloadTask.State.RUNNING) return false;
+            inlineTask.requestStop();
+            return true;
+        }
+        return shared.scheduler.cancel(id);
+    }
+    
+    @Nullable
+    public DownloadTask getDownload(long id) {
+        synchronized (inlineTasks) {
+            DownloadTask inlineTask = inlineTasks.get(id);
+            if (inlineTask != null) return inlineTask;
+        }
+        return shared.scheduler.getTask(id);
+    }
+    
+    /**
+     * @return snapshot of built-in engine downloads of every view followed by
+     * this view's blob: and data: downloads
+     */
+    public List<DownloadTask> getDownloads() {
+        List<DownloadTask> downloads = new ArrayList<>(shared.scheduler.getTasks());
+        synchronized (inlineTasks) {
+            downloads.addAll(inlineTasks.values());
+        }
+        return downloads;
+    }
+    
+    /**
+     * Limit concurrent built-in downloads; applies to every view
+     */
+    public void setMaxConcurrentDownloads(int max) {
+        shared.scheduler.setMaxConcurrent(max);
+    }
+    
+    /**
+     * Limit concurrent built-in downloads per host; applies to every view
+     */
+    public void setMaxDownloadsPerHost(int max) {
+        shared.scheduler.setMaxPerHost(max);
+    }
+    
+    /**
+     * Limit the combined bandwidth of built-in downloads of every view
+     * @param bytesPerSecond rate limit, 0 for unlimited
+     */
+    public void setDownloadBandwidthLimit(long bytesPerSecond) {
+        shared.bandwidthLimiter.setRate(bytesPerSecond);
+    }
+    
+    /**
+     * Resume built-in engine downloads that were interrupted by process death.
+     * Uses the page cookies currently stored for each URL.
+     * @return number of downloads resumed
+     */
+    public int resumeInterruptedDownloads() {
+        File[] mapFiles = getDownloadDirectory().listFiles(
+                (dir, name) -> name.endsWith(SegmentedDownloadEngine.SEGMENT_MAP_SUFFIX));
+        if (mapFiles == null) return 0;
+        
+        int resumed = 0;
+        for (File mapFile : mapFiles) {
+            String[] details = SegmentedDownloadEngine.readInterruptedDownload(mapFile);
+            if (details == null) continue;
+            
+            String path = mapFile.getPath();
+            File destination = new File(path.substring(0,
+                    path.length() - SegmentedDownloadEngine.SEGMENT_MAP_SUFFIX.length()));
+            // Already resumed, still running in this process, or failed and resumable by id
+            if (isScheduled(destination) || !shared.reserveDestination(destination)) continue;
+            String url = details[0];
+            String cookies = CookieManager.getInstance().getCookie(url);
+            DownloadTask task = new DownloadTask(url, details[1], cookies,
+                    details[2].isEmpty() ? null : details[2], destination);
+            task.setPriority(DownloadTask.Priority.BACKGROUND);
+            enqueue(task);
+            resumed++;
+        }
+        return resumed;
+    }
+    
+    /**
+     * @return true if the scheduler has an unfinished or failed task writing the file
+     */
+    private boolean isScheduled(File destination) {
+        for (DownloadTask task : shared.scheduler.getTasks()) {
+            if (task.getDestination().equals(destination)
+                    && task.getState() != DownloadTask.State.COMPLETED
+                    && task.getState() != DownloadTask.State.CANCELLED) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Pick a file in the download directory that does not collide with
+     * a finished or in-progress download
+     */
+    private File uniqueDestination(String fileName) {
+        return shared.reserveDestination(getDownloadDirectory(), fileName);
+    }
+    
+    /**
+     * Get the directory the built-in engine saves to, app-specific external storage by default
+     */
+    public File getDownloadDirectory() {
+        if (downloadDirectory == null) {
+            File external = context.getExternalFilesDir(Environment.DIRECTORY_DOWNLOADS);
+            downloadDirectory = external != null ? external : new File(context.getFilesDir(), "downloads");
+        }
+        if (!downloadDirectory.exists() && !downloadDirectory.mkdirs()) {
+            Log.w(TAG, "Could not create download directory " + downloadDirectory);
+        }
+        return downloadDirectory;
+    }
+    
+    public void setDownloadDirectory(File directory) {
+        this.downloadDirectory = directory;
+    }
+    
+    /**
+     * Set the maximum number of parallel range requests per built-in download; applies to every view
+     * @param maxSegments segment count, at least 1
+     */
+    public void setMaxDownloadSegments(int maxSegments) {
+        shared.downloadEngine.setMaxSegments(maxSegments);
+    }
+    
+    /**
+     * Detach from the view. Built-in downloads keep running in the shared queue
+     * without reporting to this component; blob: and data: downloads stop with the page.
+     */
+    public void release() {
+        shared.owners.values().removeIf(owner -> owner == this);
+        inlineBridge.shutdown();
+        // Inline downloads end with their page
+        synchronized (inlineTasks) {
+            for (DownloadTask task : inlineTasks.values()) {
+                shared.releaseDestination(task);
+            }
+        }
+    }
+    
     // Getters and setters
     public void setUseSystemDownloader(boolean enabled) {
         this.useSystemDownloader = enabled;
@@ -98,6 +618,22 @@ public class DownloadHandlerComponent {
         this.customDownloadListener = listener;
     }
     
+    /**
+     * Set listener for content verdicts and SHA-256 hashes of built-in downloads.
+     * Called on download threads.
+     */
+    public void setDownloadInspectedListener(OnDownloadInspectedListener listener) {
+        this.inspectedListener = listener;
+    }
+    
+    /**
+     * Set listener for queued, started, progress, completed and failed events of
+     * built-in downloads. Called on the main thread.
+     */
+    public void setDownloadEventListener(@Nullable DownloadEventListener listener) {
+        eventDispatcher.setListener(listener);
+    }
+    
     public DownloadListener getCustomDownloadListener() {
         return customDownloadListener;
     }
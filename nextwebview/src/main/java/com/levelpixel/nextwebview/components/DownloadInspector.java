@@ -0,0 +1,225 @@
+package com.levelpixel.nextwebview.components;
+
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Computes SHA-256 of a download while it is written and sniffs its type from the first chunk.
+ * Bytes are hashed in file order: the segment at the hash frontier is hashed straight from
+ * the network buffer, and bytes other segments wrote ahead of the frontier are read back once
+ * when the frontier reaches them. With N equal segments that is up to (N-1)/N of the file,
+ * which is why downloads with an expected SHA-256 are fetched as a single segment. A resumed
+ * download also reads back what it wrote before the interruption.
+ */
+public class DownloadInspector {
+
+    private static final int CATCH_UP_BUFFER_SIZE = 64 * 1024;
+    private static final int SNIFF_LENGTH = 512;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    // Extensions of installers and programs the OS runs directly, lower case without the dot.
+    // Web assets such as .js are left out, they are ordinary page downloads.
+    private static final Set<String> EXECUTABLE_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "exe", "msi", "com", "scr", "bat", "cmd", "ps1", "vbs",
+            "apk", "xapk", "apks", "apkm", "dex", "jar", "class",
+            "dmg", "pkg", "deb", "rpm", "run", "appimage", "sh"
+    ));
+
+    private final String fileName;
+    private final MessageDigest digest;
+    private long frontier = 0;
+    private DownloadVerdict verdict;
+    private ByteBuffer catchUpBuffer;
+
+    public DownloadInspector(String fileName) {
+        this.fileName = fileName;
+        try {
+            this.digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * Feed a chunk that was just written and counted in its segment's progress
+     *
+     * @return the verdict if this chunk produced it, null otherwise
+     */
+    @Nullable
+    synchronized DownloadVerdict onChunkWritten(long position, byte[] buffer, int length,
+                                                FileChannel channel,
+                                                List<SegmentedDownloadEngine.Segment> segments)
+            throws IOException {
+        DownloadVerdict newVerdict = null;
+        if (position == 0 && verdict == null) {
+            verdict = sniff(buffer, length, fileName);
+            newVerdict = verdict;
+        }
+
+        if (position == frontier) {
+            digest.update(buffer, 0, length);
+            frontier += length;
+        }
+        catchUp(channel, segments);
+        return newVerdict;
+    }
+
+    /**
+     * Hash bytes that were written ahead of the frontier and are now contiguous with it
+     */
+    private void catchUp(FileChannel channel, List<SegmentedDownloadEngine.Segment> segments)
+            throws IOException {
+        for (SegmentedDownloadEngine.Segment segment : segments) {
+            if (segment.end >= 0 && segment.end < frontier) continue;
+            if (segment.start > frontier) return;
+
+            long contiguousEnd = segment.start + segment.downloaded;
+            while (frontier < contiguousEnd) {
+                if (catchUpBuffer == null) {
+                    catchUpBuffer = ByteBuffer.allocate(CATCH_UP_BUFFER_SIZE);
+                }
+                catchUpBuffer.clear();
+                catchUpBuffer.limit((int) Math.min(CATCH_UP_BUFFER_SIZE, contiguousEnd - frontier));
+                int read = channel.read(catchUpBuffer, frontier);
+                if (read <= 0) {
+                    throw new IOException("Unexpected end of partial file while hashing");
+                }
+                digest.update(catchUpBuffer.array(), 0, read);
+                frontier += read;
+            }
+            if (!segment.isComplete()) return;
+        }
+    }
+
+    /**
+     * Start over, used when a download without range support restarts from the first byte
+     */
+    synchronized void reset() {
+        digest.reset();
+        frontier = 0;
+        verdict = null;
+    }
+
+    /**
+     * Finish hashing once every segment is complete
+     *
+     * @return lower-case hex SHA-256 of the file
+     */
+    synchronized String finish(FileChannel channel, List<SegmentedDownloadEngine.Segment> segments)
+            throws IOException {
+        catchUp(channel, segments);
+        if (verdict == null) {
+            // The first chunk was written before a resume, sniff its header from the file
+            ByteBuffer head = ByteBuffer.allocate(SNIFF_LENGTH);
+            int read = Math.max(0, channel.read(head, 0));
+            verdict = sniff(head.array(), read, fileName);
+        }
+        return toHex(digest.digest());
+    }
+
+    @Nullable
+    public synchronized DownloadVerdict getVerdict() {
+        return verdict;
+    }
+
+    /**
+     * Identify the content type from its magic bytes
+     *
+     * @param head first bytes of the file
+     * @param length number of valid bytes in head
+     * @param fileName file name, used to detect a mismatching extension
+     */
+    public static DownloadVerdict sniff(byte[] head, int length, String fileName) {
+        DownloadVerdict.Kind kind = sniffKind(head, length);
+        boolean mismatch = kind != DownloadVerdict.Kind.UNKNOWN
+                && kind != DownloadVerdict.Kind.ZIP_ARCHIVE
+                && !isExecutableFileName(fileName);
+        return new DownloadVerdict(kind, mismatch);
+    }
+
+    private static DownloadVerdict.Kind sniffKind(byte[] b, int n) {
+        if (startsWith(b, n, 'M', 'Z')) {
+            return DownloadVerdict.Kind.WINDOWS_EXECUTABLE;
+        }
+        if (startsWith(b, n, 0x7F, 'E', 'L', 'F')) {
+            return DownloadVerdict.Kind.ELF_EXECUTABLE;
+        }
+        if (startsWith(b, n, 0xFE, 0xED, 0xFA, 0xCE) || startsWith(b, n, 0xFE, 0xED, 0xFA, 0xCF)
+                || startsWith(b, n, 0xCE, 0xFA, 0xED, 0xFE) || startsWith(b, n, 0xCF, 0xFA, 0xED, 0xFE)) {
+            return DownloadVerdict.Kind.MACH_O_EXECUTABLE;
+        }
+        if (startsWith(b, n, 0xCA, 0xFE, 0xBA, 0xBE)) {
+            // Shared by Java classes and universal Mach-O binaries
+            return DownloadVerdict.Kind.JAVA_CLASS;
+        }
+        if (startsWith(b, n, 'd', 'e', 'x', '\n')) {
+            return DownloadVerdict.Kind.ANDROID_DEX;
+        }
+        if (startsWith(b, n, 0xD0, 0xCF, 0x11, 0xE0, 0xA1, 0xB1, 0x1A, 0xE1)) {
+            // OLE compound file, the container of MSI installers
+            return DownloadVerdict.Kind.WINDOWS_INSTALLER;
+        }
+        if (startsWith(b, n, '#', '!')) {
+            return DownloadVerdict.Kind.SCRIPT;
+        }
+        if (startsWith(b, n, 'P', 'K', 0x03, 0x04)) {
+            return sniffZipEntry(b, n);
+        }
+        return DownloadVerdict.Kind.UNKNOWN;
+    }
+
+    /**
+     * Tell APKs and JARs apart from plain archives by the name of the first local file entry
+     */
+    private static DownloadVerdict.Kind sniffZipEntry(byte[] b, int n) {
+        if (n < 30) return DownloadVerdict.Kind.ZIP_ARCHIVE;
+        int nameLength = (b[26] & 0xFF) | ((b[27] & 0xFF) << 8);
+        int nameEnd = Math.min(n, 30 + nameLength);
+        String name = new String(b, 30, nameEnd - 30, StandardCharsets.UTF_8);
+        if (name.equals("AndroidManifest.xml") || name.equals("classes.dex")
+                || name.startsWith("META-INF/com/android/")) {
+            return DownloadVerdict.Kind.ANDROID_PACKAGE;
+        }
+        if (name.startsWith("META-INF/")) {
+            return DownloadVerdict.Kind.JAVA_ARCHIVE;
+        }
+        return DownloadVerdict.Kind.ZIP_ARCHIVE;
+    }
+
+    private static boolean startsWith(byte[] b, int n, int... magic) {
+        if (n < magic.length) return false;
+        for (int i = 0; i < magic.length; i++) {
+            if ((b[i] & 0xFF) != magic[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Check whether a file name has an extension of a file type that can run code
+     */
+    public static boolean isExecutableFileName(@Nullable String fileName) {
+        if (fileName == null) return false;
+        int dot = fileName.lastIndexOf('.');
+        return dot >= 0 && EXECUTABLE_EXTENSIONS.contains(fileName.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] out = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            out[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+            out[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xF];
+        }
+        return new String(out);
+    }
+}
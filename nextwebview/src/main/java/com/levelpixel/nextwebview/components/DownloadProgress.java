@@ -0,0 +1,63 @@
+package com.levelpixel.nextwebview.components;
+
+/**
+ * Snapshot of a running download's progress and throughput
+ */
+public class DownloadProgress {
+    private final long downloadId;
+    private final String fileName;
+    private final long downloadedBytes;
+    private final long totalBytes;
+    private final long bytesPerSecond;
+
+    DownloadProgress(long downloadId, String fileName, long downloadedBytes, long totalBytes,
+                     long bytesPerSecond) {
+        this.downloadId = downloadId;
+        this.fileName = fileName;
+        this.downloadedBytes = downloadedBytes;
+        this.totalBytes = totalBytes;
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    public long getDownloadId() {
+        return downloadId;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public long getDownloadedBytes() {
+        return downloadedBytes;
+    }
+
+    /**
+     * @return total size in bytes, or -1 if unknown
+     */
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * @return smoothed transfer rate
+     */
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * @return estimated time until completion in milliseconds, or -1 if unknown
+     */
+    public long getEtaMillis() {
+        if (totalBytes <= 0 || bytesPerSecond <= 0) return -1;
+        return Math.max(0, totalBytes - downloadedBytes) * 1000 / bytesPerSecond;
+    }
+
+    /**
+     * @return completed fraction in percent, or -1 if the total size is unknown
+     */
+    public int getPercent() {
+        if (totalBytes <= 0) return -1;
+        return (int) Math.min(100, downloadedBytes * 100 / totalBytes);
+    }
+}
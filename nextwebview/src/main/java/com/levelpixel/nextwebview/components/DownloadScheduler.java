@@ -0,0 +1,332 @@
+package com.levelpixel.nextwebview.components;
+
+import android.os.Process;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Download queue with a global and a per-host cap on concurrent transfers
+ * and separate lanes for user-initiated and background downloads
+ */
+public class DownloadScheduler {
+    private static final String TAG = "DownloadScheduler";
+
+    private static final int DEFAULT_MAX_CONCURRENT = 3;
+    private static final int DEFAULT_MAX_PER_HOST = 2;
+
+    /**
+     * Performs the actual transfer of a task. Must return promptly once a stop is requested.
+     */
+    public interface Transfer {
+        void run(DownloadTask task) throws IOException;
+    }
+
+    /**
+     * Receives task state changes. Called on scheduler threads.
+     */
+    public interface Listener {
+        void onStateChanged(DownloadTask task, @Nullable Exception error);
+    }
+
+    private final ExecutorService workerExecutor;
+    private final Transfer transfer;
+    private final Listener listener;
+
+    // Every task known to the scheduler, in submission order
+    private final Map<Long, DownloadTask> tasks = new LinkedHashMap<>();
+
+    // Waiting tasks per priority lane
+    private final ArrayDeque<DownloadTask> userLane = new ArrayDeque<>();
+    private final ArrayDeque<DownloadTask> backgroundLane = new ArrayDeque<>();
+
+    // Running transfers
+    private final Map<String, Integer> activePerHost = new HashMap<>();
+    private int activeCount = 0;
+
+    private int maxConcurrent = DEFAULT_MAX_CONCURRENT;
+    private int maxPerHost = DEFAULT_MAX_PER_HOST;
+    private boolean shutdown = false;
+
+    public DownloadScheduler(Transfer transfer, @Nullable Listener listener) {
+        this.transfer = transfer;
+        this.listener = listener;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workerExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(() -> {
+                // Keep transfers from competing with page rendering for CPU
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runnable.run();
+            }, "nextwebview-download-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Add a task to its priority lane and start it when a slot is free.
+     * After shutdown the task fails right away.
+     */
+    public void enqueue(DownloadTask task) {
+        boolean rejected;
+        synchronized (this) {
+            tasks.put(task.getId(), task);
+            rejected = shutdown;
+            if (rejected) {
+                task.setState(DownloadTask.State.FAILED);
+            } else {
+                task.setState(DownloadTask.State.QUEUED);
+                laneFor(task).add(task);
+            }
+        }
+        if (rejected) {
+            notifyStateChanged(task, new IOException("Download scheduler is shut down"));
+            return;
+        }
+        notifyStateChanged(task, null);
+        schedule();
+    }
+
+    /**
+     * Pause a queued or running task. Progress is kept so it can be resumed.
+     * @return true if the task was paused
+     */
+    public boolean pause(long id) {
+        DownloadTask task;
+        synchronized (this) {
+            task = tasks.get(id);
+            if (task == null) return false;
+            if (task.getState() == DownloadTask.State.QUEUED) {
+                laneFor(task).remove(task);
+                task.setState(DownloadTask.State.PAUSED);
+            } else if (task.getState() == DownloadTask.State.RUNNING) {
+                // The worker reports PAUSED once the transfer has stopped
+                task.requestStop();
+                return true;
+            } else {
+                return false;
+            }
+        }
+        notifyStateChanged(task, null);
+        return true;
+    }
+
+    /**
+     * Queue a paused or failed task again
+     * @return true if the task was queued
+     */
+    public boolean resume(long id) {
+        DownloadTask task;
+        synchronized (this) {
+            task = tasks.get(id);
+            if (shutdown || task == null || (task.getState() != DownloadTask.State.PAUSED
+                    && task.getState() != DownloadTask.State.FAILED)) {
+                return false;
+            }
+            task.clearStopRequest();
+            task.setState(DownloadTask.State.QUEUED);
+            laneFor(task).add(task);
+        }
+        notifyStateChanged(task, null);
+        schedule();
+        return true;
+    }
+
+    /**
+     * Cancel a task and delete its partial data
+     * @return true if the task was cancelled
+     */
+    public boolean cancel(long id) {
+        DownloadTask task;
+        boolean running;
+        synchronized (this) {
+            task = tasks.get(id);
+            if (task == null || task.getState() == DownloadTask.State.COMPLETED
+                    || task.getState() == DownloadTask.State.CANCELLED) {
+                return false;
+            }
+            running = task.getState() == DownloadTask.State.RUNNING;
+            laneFor(task).remove(task);
+            task.requestStop();
+            task.setState(DownloadTask.State.CANCELLED);
+        }
+        if (!running) {
+            // A running worker deletes the files itself once it has stopped writing
+            deletePartialFiles(task);
+            notifyStateChanged(task, null);
+        }
+        return true;
+    }
+
+    /**
+     * Start as many waiting tasks as the caps allow, user lane first
+     */
+    private void schedule() {
+        List<DownloadTask> started = new ArrayList<>();
+        synchronized (this) {
+            // Transfers that finish after shutdown must not start new ones
+            while (!shutdown && activeCount < maxConcurrent) {
+                DownloadTask next = pollEligible(userLane);
+                if (next == null) {
+                    next = pollEligible(backgroundLane);
+                }
+                if (next == null) break;
+
+                activeCount++;
+                activePerHost.merge(next.getHost(), 1, Integer::sum);
+                next.setState(DownloadTask.State.RUNNING);
+                started.add(next);
+            }
+        }
+
+        for (DownloadTask task : started) {
+            notifyStateChanged(task, null);
+            workerExecutor.execute(() -> runTask(task));
+        }
+    }
+
+    /**
+     * Remove the first task in a lane whose host is below its cap
+     */
+    @Nullable
+    private DownloadTask pollEligible(ArrayDeque<DownloadTask> lane) {
+        Iterator<DownloadTask> iterator = lane.iterator();
+        while (iterator.hasNext()) {
+            DownloadTask task = iterator.next();
+            Integer hostCount = activePerHost.get(task.getHost());
+            if (hostCount == null || hostCount < maxPerHost) {
+                iterator.remove();
+                return task;
+            }
+        }
+        return null;
+    }
+
+    private void runTask(DownloadTask task) {
+        Exception error = null;
+        try {
+            transfer.run(task);
+        } catch (IOException e) {
+            error = e;
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Unexpected download error", e);
+            error = e;
+        }
+
+        boolean cancelled;
+        synchronized (this) {
+            activeCount--;
+            String host = task.getHost();
+            Integer hostCount = activePerHost.get(host);
+            if (hostCount == null || hostCount <= 1) {
+                activePerHost.remove(host);
+            } else {
+                activePerHost.put(host, hostCount - 1);
+            }
+
+            cancelled = task.getState() == DownloadTask.State.CANCELLED;
+            if (!cancelled) {
+                if (error != null && !task.isStopRequested()) {
+                    task.setState(DownloadTask.State.FAILED);
+                } else if (task.isStopRequested()) {
+                    task.setState(DownloadTask.State.PAUSED);
+                    error = null;
+                } else {
+                    task.setState(DownloadTask.State.COMPLETED);
+                }
+            }
+        }
+
+        if (cancelled) {
+            deletePartialFiles(task);
+            error = null;
+        }
+        notifyStateChanged(task, error);
+        schedule();
+    }
+
+    private static void deletePartialFiles(DownloadTask task) {
+        SegmentedDownloadEngine.getPartialFile(task.getDestination()).delete();
+        SegmentedDownloadEngine.getSegmentMapFile(task.getDestination()).delete();
+    }
+
+    private ArrayDeque<DownloadTask> laneFor(DownloadTask task) {
+        return task.getPriority() == DownloadTask.Priority.BACKGROUND ? backgroundLane : userLane;
+    }
+
+    private void notifyStateChanged(DownloadTask task, @Nullable Exception error) {
+        if (listener != null) {
+            listener.onStateChanged(task, error);
+        }
+    }
+
+    @Nullable
+    public synchronized DownloadTask getTask(long id) {
+        return tasks.get(id);
+    }
+
+    /**
+     * @return snapshot of all tasks in submission order
+     */
+    public synchronized List<DownloadTask> getTasks() {
+        return new ArrayList<>(tasks.values());
+    }
+
+    /**
+     * Forget completed, failed and cancelled tasks
+     */
+    public synchronized void clearFinished() {
+        tasks.values().removeIf(task -> task.getState() == DownloadTask.State.COMPLETED
+                || task.getState() == DownloadTask.State.FAILED
+                || task.getState() == DownloadTask.State.CANCELLED);
+    }
+
+    public void setMaxConcurrent(int maxConcurrent) {
+        synchronized (this) {
+            this.maxConcurrent = Math.max(1, maxConcurrent);
+        }
+        schedule();
+    }
+
+    public void setMaxPerHost(int maxPerHost) {
+        synchronized (this) {
+            this.maxPerHost = Math.max(1, maxPerHost);
+        }
+        schedule();
+    }
+
+    /**
+     * Stop accepting new work. Running transfers finish; queued tasks fail and
+     * keep their partial data, so they can be resumed by a new scheduler.
+     */
+    public void shutdown() {
+        List<DownloadTask> dropped = new ArrayList<>();
+        synchronized (this) {
+            if (shutdown) return;
+            shutdown = true;
+            dropped.addAll(userLane);
+            dropped.addAll(backgroundLane);
+            userLane.clear();
+            backgroundLane.clear();
+            for (DownloadTask task : dropped) {
+                task.setState(DownloadTask.State.FAILED);
+            }
+        }
+        workerExecutor.shutdown();
+        for (DownloadTask task : dropped) {
+            notifyStateChanged(task, new IOException("Download scheduler is shut down"));
+        }
+    }
+}
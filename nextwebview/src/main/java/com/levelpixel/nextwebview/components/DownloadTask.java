@@ -0,0 +1,204 @@
+package com.levelpixel.nextwebview.components;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * State of a single download handled by the built-in download engine
+ */
+public class DownloadTask {
+
+    public enum State {
+        QUEUED,
+        RUNNING,
+        PAUSED,
+        COMPLETED,
+        FAILED,
+        CANCELLED
+    }
+
+    /**
+     * Scheduling lane, user-initiated downloads always start before background ones
+     */
+    public enum Priority {
+        USER_INITIATED,
+        BACKGROUND
+    }
+
+    private static final AtomicLong NEXT_ID = new AtomicLong(1);
+
+    private final long id;
+    private final String url;
+    private final String userAgent;
+    private final String cookies;
+    private final String mimeType;
+    private volatile File destination;
+
+    private volatile State state = State.QUEUED;
+    private volatile Priority priority = Priority.USER_INITIATED;
+    private volatile long totalBytes = -1;
+    private volatile boolean stopRequested = false;
+    private volatile boolean transferAborted = false;
+    private final AtomicLong downloadedBytes = new AtomicLong();
+
+    // Integrity results from streaming inspection
+    private volatile DownloadVerdict verdict;
+    private volatile String sha256;
+    private volatile String expectedSha256;
+
+    public DownloadTask(String url, String userAgent, String cookies, String mimeType, File destination) {
+        this.id = NEXT_ID.getAndIncrement();
+        this.url = url;
+        this.userAgent = userAgent;
+        this.cookies = cookies;
+        this.mimeType = mimeType;
+        this.destination = destination;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getUserAgent() {
+        return userAgent;
+    }
+
+    public String getCookies() {
+        return cookies;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    public File getDestination() {
+        return destination;
+    }
+
+    /**
+     * Move the download to another file before any bytes are written, e.g. once
+     * a media manifest reveals the real container
+     */
+    void setDestination(File destination) {
+        this.destination = destination;
+    }
+
+    public String getFileName() {
+        return destination.getName();
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    void setState(State state) {
+        this.state = state;
+    }
+
+    public Priority getPriority() {
+        return priority;
+    }
+
+    public void setPriority(Priority priority) {
+        this.priority = priority;
+    }
+
+    /**
+     * @return host of the download URL, empty if it cannot be parsed
+     */
+    public String getHost() {
+        try {
+            String host = new URL(url).getHost();
+            return host != null ? host.toLowerCase() : "";
+        } catch (MalformedURLException e) {
+            return "";
+        }
+    }
+
+    /**
+     * @return total size in bytes, or -1 if the server did not report it
+     */
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    void setTotalBytes(long totalBytes) {
+        this.totalBytes = totalBytes;
+    }
+
+    public long getDownloadedBytes() {
+        return downloadedBytes.get();
+    }
+
+    void setDownloadedBytes(long bytes) {
+        downloadedBytes.set(bytes);
+    }
+
+    long addDownloadedBytes(long bytes) {
+        return downloadedBytes.addAndGet(bytes);
+    }
+
+    /**
+     * @return content type sniffed from the first bytes, null until they arrive
+     */
+    public DownloadVerdict getVerdict() {
+        return verdict;
+    }
+
+    void setVerdict(DownloadVerdict verdict) {
+        this.verdict = verdict;
+    }
+
+    /**
+     * @return lower-case hex SHA-256 of the file, null until the download completes
+     */
+    public String getSha256() {
+        return sha256;
+    }
+
+    void setSha256(String sha256) {
+        this.sha256 = sha256;
+    }
+
+    public String getExpectedSha256() {
+        return expectedSha256;
+    }
+
+    /**
+     * Fail the download if the file does not match this hash. The built-in engine
+     * then fetches the file as a single stream instead of parallel segments.
+     * @param expectedSha256 hex SHA-256, or null to skip verification
+     */
+    public void setExpectedSha256(String expectedSha256) {
+        this.expectedSha256 = expectedSha256;
+    }
+
+    boolean isStopRequested() {
+        return stopRequested;
+    }
+
+    void requestStop() {
+        stopRequested = true;
+    }
+
+    void clearStopRequest() {
+        stopRequested = false;
+    }
+
+    /**
+     * @return true if the transfer should stop, either on request or after a failure
+     */
+    boolean shouldStopTransfer() {
+        return stopRequested || transferAborted;
+    }
+
+    void setTransferAborted(boolean aborted) {
+        transferAborted = aborted;
+    }
+}
@@ -0,0 +1,53 @@
+package com.levelpixel.nextwebview.components;
+
+/**
+ * Result of sniffing the first bytes of a download
+ */
+public class DownloadVerdict {
+
+    public enum Kind {
+        WINDOWS_EXECUTABLE,
+        WINDOWS_INSTALLER,
+        ELF_EXECUTABLE,
+        MACH_O_EXECUTABLE,
+        ANDROID_PACKAGE,
+        ANDROID_DEX,
+        JAVA_ARCHIVE,
+        JAVA_CLASS,
+        SCRIPT,
+        ZIP_ARCHIVE,
+        UNKNOWN
+    }
+
+    private final Kind kind;
+    private final boolean extensionMismatch;
+
+    DownloadVerdict(Kind kind, boolean extensionMismatch) {
+        this.kind = kind;
+        this.extensionMismatch = extensionMismatch;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return true if the content can run code on a device or desktop
+     */
+    public boolean isDangerous() {
+        return kind != Kind.ZIP_ARCHIVE && kind != Kind.UNKNOWN;
+    }
+
+    /**
+     * @return true if the content type does not match the file extension,
+     * e.g. an executable saved as .pdf
+     */
+    public boolean isExtensionMismatch() {
+        return extensionMismatch;
+    }
+
+    @Override
+    public String toString() {
+        return kind + (extensionMismatch ? " (extension mismatch)" : "");
+    }
+}
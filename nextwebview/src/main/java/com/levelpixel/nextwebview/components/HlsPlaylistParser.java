@@ -0,0 +1,244 @@
+package com.levelpixel.nextwebview.components;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Parser for HLS master and media playlists
+ */
+class HlsPlaylistParser {
+
+    private static final Pattern ATTRIBUTE = Pattern.compile("([A-Z0-9-]+)=(\"[^\"]*\"|[^,]*)");
+
+    private HlsPlaylistParser() {
+    }
+
+    /**
+     * Parse a playlist, following a master playlist to its highest-bandwidth variant
+     * and that variant's separate audio rendition, if any
+     */
+    static MediaManifest parse(String url, String text, MediaManifest.Loader loader) throws IOException {
+        if (!text.contains("#EXT-X-STREAM-INF")) {
+            return new MediaManifest(parseMedia(url, text), videoExtension(text), Collections.emptyList(), "");
+        }
+
+        // Master playlist: pick the variant with the highest bandwidth
+        String[] lines = text.split("\r?\n");
+        Map<String, String> audioGroups = new HashMap<>();
+        String bestUri = null;
+        String bestAudioGroup = null;
+        long bestBandwidth = -1;
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i].trim();
+            if (line.startsWith("#EXT-X-MEDIA:")) {
+                Map<String, String> attributes = parseAttributes(line);
+                if ("AUDIO".equals(attributes.get("TYPE")) && attributes.containsKey("URI")) {
+                    // Prefer the default rendition of each group
+                    String group = attributes.get("GROUP-ID");
+                    if (!audioGroups.containsKey(group) || "YES".equals(attributes.get("DEFAULT"))) {
+                        audioGroups.put(group, resolveUri(url, attributes.get("URI")));
+                    }
+                }
+            } else if (line.startsWith("#EXT-X-STREAM-INF:")) {
+                Map<String, String> attributes = parseAttributes(line);
+                String uri = nextUri(lines, i + 1);
+                long bandwidth = parseLong(attributes.get("BANDWIDTH"));
+                if (uri != null && bandwidth > bestBandwidth) {
+                    bestBandwidth = bandwidth;
+                    bestUri = MediaManifest.resolve(url, uri);
+                    bestAudioGroup = attributes.get("AUDIO");
+                }
+            }
+        }
+        if (bestUri == null) {
+            throw new IOException("Master playlist has no variants");
+        }
+
+        String videoText = loader.load(bestUri);
+        List<MediaManifest.Segment> video = parseMedia(bestUri, videoText);
+        String audioUri = bestAudioGroup != null ? audioGroups.get(bestAudioGroup) : null;
+        if (audioUri == null) {
+            return new MediaManifest(video, videoExtension(videoText), Collections.emptyList(), "");
+        }
+        String audioText = loader.load(audioUri);
+        List<MediaManifest.Segment> audio = parseMedia(audioUri, audioText);
+        return new MediaManifest(video, videoExtension(videoText), audio,
+                isFragmented(audioText) ? "m4a" : extensionOf(audio));
+    }
+
+    /**
+     * Parse a media playlist into its segments, initialization section first
+     */
+    static List<MediaManifest.Segment> parseMedia(String url, String text) throws IOException {
+        List<MediaManifest.Segment> segments = new ArrayList<>();
+        String keyUrl = null;
+        byte[] keyIv = null;
+        long mediaSequence = 0;
+        long rangeLength = -1;
+        long rangeOffset = -1;
+        boolean ended = false;
+
+        // Where the previous byte range ended, per resource
+        Map<String, Long> nextOffsets = new HashMap<>();
+
+        for (String rawLine : text.split("\r?\n")) {
+            String line = rawLine.trim();
+            if (line.isEmpty()) continue;
+
+            if (line.startsWith("#EXT-X-MEDIA-SEQUENCE:")) {
+                mediaSequence = parseLong(line.substring(line.indexOf(':') + 1));
+            } else if (line.startsWith("#EXT-X-KEY:")) {
+                Map<String, String> attributes = parseAttributes(line);
+                String method = attributes.get("METHOD");
+                if ("NONE".equals(method)) {
+                    keyUrl = null;
+                    keyIv = null;
+                } else if ("AES-128".equals(method)) {
+                    keyUrl = resolveUri(url, attributes.get("URI"));
+                    keyIv = attributes.containsKey("IV") ? parseIv(attributes.get("IV")) : null;
+                } else {
+                    throw new IOException("Unsupported HLS encryption: " + method);
+                }
+            } else if (line.startsWith("#EXT-X-MAP:")) {
+                Map<String, String> attributes = parseAttributes(line);
+                String mapUrl = resolveUri(url, attributes.get("URI"));
+                long[] range = parseByteRange(attributes.get("BYTERANGE"), 0);
+                segments.add(new MediaManifest.Segment(mapUrl, range[0], range[1], null, null));
+            } else if (line.startsWith("#EXT-X-BYTERANGE:")) {
+                String[] parts = line.substring(line.indexOf(':') + 1).split("@");
+                rangeLength = parseLong(parts[0]);
+                rangeOffset = parts.length > 1 ? parseLong(parts[1]) : -1;
+            } else if (line.startsWith("#EXT-X-ENDLIST")) {
+                ended = true;
+            } else if (!line.startsWith("#")) {
+                String segmentUrl = MediaManifest.resolve(url, line);
+                long offset = 0;
+                if (rangeLength >= 0) {
+                    Long next = nextOffsets.get(segmentUrl);
+                    offset = rangeOffset >= 0 ? rangeOffset : (next != null ? next : 0);
+                    nextOffsets.put(segmentUrl, offset + rangeLength);
+                }
+
+                // Without an explicit IV the media sequence number is the IV
+                byte[] iv = keyIv;
+                if (keyUrl != null && iv == null) {
+                    iv = new byte[16];
+                    long sequence = mediaSequence;
+                    for (int i = 15; i >= 8; i--) {
+                        iv[i] = (byte) sequence;
+                        sequence >>>= 8;
+                    }
+                }
+                segments.add(new MediaManifest.Segment(segmentUrl, offset, rangeLength, keyUrl, iv));
+                mediaSequence++;
+                rangeLength = -1;
+                rangeOffset = -1;
+            }
+        }
+
+        if (!ended) {
+            throw new IOException("Live HLS playlists are not supported");
+        }
+        if (segments.isEmpty()) {
+            throw new IOException("Playlist has no segments");
+        }
+        return segments;
+    }
+
+    static Map<String, String> parseAttributes(String line) {
+        Map<String, String> attributes = new HashMap<>();
+        Matcher matcher = ATTRIBUTE.matcher(line.substring(line.indexOf(':') + 1));
+        while (matcher.find()) {
+            String value = matcher.group(2);
+            if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+                value = value.substring(1, value.length() - 1);
+            }
+            attributes.put(matcher.group(1), value);
+        }
+        return attributes;
+    }
+
+    private static String nextUri(String[] lines, int from) {
+        for (int i = from; i < lines.length; i++) {
+            String line = lines[i].trim();
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                return line;
+            }
+        }
+        return null;
+    }
+
+    private static String resolveUri(String base, String uri) throws IOException {
+        if (uri == null) {
+            throw new IOException("Playlist tag is missing its URI");
+        }
+        return MediaManifest.resolve(base, uri);
+    }
+
+    /**
+     * @return {offset, length}, length -1 for the whole resource
+     */
+    private static long[] parseByteRange(String value, long defaultOffset) {
+        if (value == null) {
+            return new long[]{0, -1};
+        }
+        String[] parts = value.split("@");
+        return new long[]{parts.length > 1 ? parseLong(parts[1]) : defaultOffset, parseLong(parts[0])};
+    }
+
+    private static byte[] parseIv(String value) throws IOException {
+        String hex = value.toLowerCase(Locale.ROOT);
+        if (hex.startsWith("0x")) {
+            hex = hex.substring(2);
+        }
+        if (hex.length() != 32) {
+            throw new IOException("Bad HLS IV: " + value);
+        }
+        byte[] iv = new byte[16];
+        for (int i = 0; i < 16; i++) {
+            iv[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return iv;
+    }
+
+    /**
+     * Fragmented MP4 playlists declare their initialization section in EXT-X-MAP
+     */
+    private static boolean isFragmented(String text) {
+        return text.contains("#EXT-X-MAP:");
+    }
+
+    private static String videoExtension(String text) {
+        return isFragmented(text) ? "mp4" : "ts";
+    }
+
+    private static String extensionOf(List<MediaManifest.Segment> segments) {
+        String path = segments.get(segments.size() - 1).url;
+        int query = path.indexOf('?');
+        if (query >= 0) {
+            path = path.substring(0, query);
+        }
+        int dot = path.lastIndexOf('.');
+        if (dot < 0 || dot < path.lastIndexOf('/')) {
+            return "ts";
+        }
+        String extension = path.substring(dot + 1).toLowerCase(Locale.ROOT);
+        return extension.equals("m4s") || extension.equals("mp4") ? "m4a" : extension;
+    }
+
+    private static long parseLong(String value) {
+        if (value == null) return -1;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
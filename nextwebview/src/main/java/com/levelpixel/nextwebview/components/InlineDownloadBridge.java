@@ -0,0 +1,305 @@
+package com.levelpixel.nextwebview.components;
+
+import android.util.Base64;
+import android.util.Log;
+import android.webkit.JavascriptInterface;
+import android.webkit.WebView;
+
+import androidx.annotation.Nullable;
+
+import org.json.JSONObject;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Downloads blob: and data: URLs, which DownloadManager cannot fetch.
+ * Blobs are pulled from the page through a JavaScript bridge in fixed-size chunks and
+ * data URLs are decoded in chunks, so peak memory stays bounded by the chunk size.
+ */
+class InlineDownloadBridge {
+    private static final String TAG = "InlineDownload";
+
+    static final String BRIDGE_NAME = "NextWebViewBlobBridge";
+
+    // Raw bytes per chunk, a multiple of 3 so base64 chunks decode independently
+    private static final int CHUNK_SIZE = 3 * 64 * 1024;
+
+    /**
+     * Receives state changes and progress of inline downloads
+     */
+    interface Host {
+        void onInlineStateChanged(DownloadTask task, @Nullable Exception error);
+        void onInlineProgress(DownloadTask task);
+        void onInlineVerdict(DownloadTask task);
+    }
+
+    /**
+     * Script that reads a blob slice by slice and hands each slice to the bridge as base64
+     */
+    private static final String BLOB_READER_JS =
+            "(async function(token, url) {" +
+                    "  const bridge = window." + BRIDGE_NAME + ";" +
+                    "  try {" +
+                    "    const blob = await (await fetch(url)).blob();" +
+                    "    bridge.onStart(token, blob.size);" +
+                    "    for (let offset = 0; offset < blob.size; offset += " + CHUNK_SIZE + ") {" +
+                    "      const bytes = new Uint8Array(await blob.slice(offset, offset + " + CHUNK_SIZE + ").arrayBuffer());" +
+                    "      let binary = '';" +
+                    "      for (let i = 0; i < bytes.length; i += 0x8000) {" +
+                    "        binary += String.fromCharCode.apply(null, bytes.subarray(i, i + 0x8000));" +
+                    "      }" +
+                    "      if (!bridge.onChunk(token, btoa(binary))) return;" +
+                    "    }" +
+                    "    bridge.onComplete(token);" +
+                    "  } catch (e) {" +
+                    "    bridge.onError(token, String(e));" +
+                    "  }" +
+                    "})";
+
+    private final Host host;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private ExecutorService dataUrlExecutor;
+
+    InlineDownloadBridge(Host host) {
+        this.host = host;
+    }
+
+    /**
+     * @return true if the URL uses a scheme this bridge handles
+     */
+    static boolean isInlineUrl(String url) {
+        return url.regionMatches(true, 0, "blob:", 0, 5) || url.regionMatches(true, 0, "data:", 0, 5);
+    }
+
+    /**
+     * Start a blob: or data: download into the task's destination
+     */
+    void start(@Nullable WebView webView, DownloadTask task) {
+        if (task.getUrl().regionMatches(true, 0, "data:", 0, 5)) {
+            startDataDownload(task);
+        } else if (webView != null) {
+            startBlobDownload(webView, task);
+        } else {
+            fail(task, null, new IOException("No page to read the blob from"));
+        }
+    }
+
+    private void startBlobDownload(WebView webView, DownloadTask task) {
+        String token = UUID.randomUUID().toString();
+        try {
+            sessions.put(token, new Session(task));
+        } catch (IOException e) {
+            fail(task, null, e);
+            return;
+        }
+        task.setState(DownloadTask.State.RUNNING);
+        host.onInlineStateChanged(task, null);
+        webView.evaluateJavascript(BLOB_READER_JS + "(" + JSONObject.quote(token) + ", "
+                + JSONObject.quote(task.getUrl()) + ");", null);
+    }
+
+    /**
+     * Decode a data URL in base64-aligned chunks on a background thread
+     */
+    private synchronized void startDataDownload(DownloadTask task) {
+        if (dataUrlExecutor == null) {
+            dataUrlExecutor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "nextwebview-data-url");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        task.setState(DownloadTask.State.RUNNING);
+        host.onInlineStateChanged(task, null);
+        dataUrlExecutor.execute(() -> {
+            Session session = null;
+            try {
+                session = new Session(task);
+                writeDataUrl(task.getUrl(), session);
+                finish(session);
+            } catch (IOException | IllegalArgumentException e) {
+                fail(task, session, e);
+            }
+        });
+    }
+
+    private void writeDataUrl(String url, Session session) throws IOException {
+        int comma = url.indexOf(',');
+        if (comma < 0) {
+            throw new IOException("Malformed data URL");
+        }
+        String header = url.substring(5, comma);
+        boolean base64 = header.endsWith(";base64");
+        session.task.setTotalBytes(base64 ? (url.length() - comma - 1) / 4 * 3 : -1);
+
+        if (base64) {
+            // Four base64 characters per three bytes, so aligned slices decode on their own
+            int charsPerChunk = CHUNK_SIZE / 3 * 4;
+            for (int start = comma + 1; start < url.length(); start += charsPerChunk) {
+                int end = Math.min(url.length(), start + charsPerChunk);
+                session.write(Base64.decode(url.substring(start, end), Base64.DEFAULT));
+            }
+        } else {
+            byte[] buffer = new byte[CHUNK_SIZE];
+            int length = 0;
+            for (int i = comma + 1; i < url.length(); i++) {
+                char c = url.charAt(i);
+                if (c == '%' && i + 2 < url.length()) {
+                    buffer[length++] = (byte) Integer.parseInt(url.substring(i + 1, i + 3), 16);
+                    i += 2;
+                } else {
+                    buffer[length++] = (byte) c;
+                }
+                if (length == buffer.length) {
+                    session.write(buffer, length);
+                    length = 0;
+                }
+            }
+            session.write(buffer, length);
+        }
+    }
+
+    @JavascriptInterface
+    public void onStart(String token, double size) {
+        Session session = sessions.get(token);
+        if (session != null) {
+            session.task.setTotalBytes((long) size);
+        }
+    }
+
+    /**
+     * @return false if the page should stop sending chunks
+     */
+    @JavascriptInterface
+    public boolean onChunk(String token, String base64Chunk) {
+        Session session = sessions.get(token);
+        if (session == null) return false;
+        try {
+            session.write(Base64.decode(base64Chunk, Base64.DEFAULT));
+            return true;
+        } catch (IOException | IllegalArgumentException e) {
+            sessions.remove(token);
+            fail(session.task, session, e);
+            return false;
+        }
+    }
+
+    @JavascriptInterface
+    public void onComplete(String token) {
+        Session session = sessions.remove(token);
+        if (session == null) return;
+        try {
+            finish(session);
+        } catch (IOException e) {
+            fail(session.task, session, e);
+        }
+    }
+
+    @JavascriptInterface
+    public void onError(String token, String message) {
+        Session session = sessions.remove(token);
+        if (session != null) {
+            fail(session.task, session, new IOException(message));
+        }
+    }
+
+    private void finish(Session session) throws IOException {
+        session.close();
+        DownloadTask task = session.task;
+        task.setTotalBytes(task.getDownloadedBytes());
+        task.setSha256(session.hexDigest());
+        task.setState(DownloadTask.State.COMPLETED);
+        host.onInlineStateChanged(task, null);
+    }
+
+    private void fail(DownloadTask task, @Nullable Session session, Exception error) {
+        if (session != null) {
+            session.discard();
+        }
+        if (task.isStopRequested()) {
+            task.setState(DownloadTask.State.CANCELLED);
+            host.onInlineStateChanged(task, null);
+            return;
+        }
+        Log.e(TAG, "Inline download failed: " + task.getFileName(), error);
+        task.setState(DownloadTask.State.FAILED);
+        host.onInlineStateChanged(task, error);
+    }
+
+    synchronized void shutdown() {
+        if (dataUrlExecutor != null) {
+            dataUrlExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Open output file of one inline download, hashed and sniffed as it is written
+     */
+    private class Session {
+        final DownloadTask task;
+        final OutputStream out;
+        final MessageDigest digest;
+        boolean sniffed = false;
+
+        Session(DownloadTask task) throws IOException {
+            this.task = task;
+            this.out = new FileOutputStream(task.getDestination());
+            try {
+                this.digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                out.close();
+                throw new IOException(e);
+            }
+        }
+
+        void write(byte[] bytes) throws IOException {
+            write(bytes, bytes.length);
+        }
+
+        void write(byte[] bytes, int length) throws IOException {
+            if (task.isStopRequested()) {
+                throw new InterruptedIOException("Download cancelled");
+            }
+            if (length == 0) return;
+            if (!sniffed) {
+                sniffed = true;
+                task.setVerdict(DownloadInspector.sniff(bytes, length, task.getFileName()));
+                host.onInlineVerdict(task);
+            }
+            out.write(bytes, 0, length);
+            digest.update(bytes, 0, length);
+            task.addDownloadedBytes(length);
+            host.onInlineProgress(task);
+        }
+
+        String hexDigest() {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        }
+
+        void close() throws IOException {
+            out.close();
+        }
+
+        void discard() {
+            try {
+                out.close();
+            } catch (IOException ignored) {
+            }
+            task.getDestination().delete();
+        }
+    }
+}
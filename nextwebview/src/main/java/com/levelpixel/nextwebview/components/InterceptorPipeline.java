@@ -0,0 +1,479 @@
+package com.levelpixel.nextwebview.components;
+
+import android.graphics.Bitmap;
+import android.net.http.SslError;
+import android.util.Log;
+import android.webkit.RenderProcessGoneDetail;
+import android.webkit.SslErrorHandler;
+import android.webkit.WebResourceError;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+import android.webkit.WebView;
+import android.webkit.WebViewClient;
+
+import androidx.annotation.Nullable;
+
+import com.levelpixel.nextwebview.interfaces.NavigationInterceptor;
+import com.levelpixel.nextwebview.interfaces.OnRenderProcessGoneListener;
+import com.levelpixel.nextwebview.interfaces.PageLifecycleObserver;
+import com.levelpixel.nextwebview.interfaces.RequestInterceptor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ordered stages that requests, navigations and page lifecycle events pass through.
+ * Built-in components and app hooks are registered the same way, so apps can add
+ * callbacks without replacing the WebViewClient that does the blocking.
+ *
+ * Every stage records its latency per decision in the MetricsRegistry as
+ * "stage.<name>.<decision>", and each pass through the pipeline as "pipeline.<callback>".
+ */
+public class InterceptorPipeline {
+    private static final String TAG = "InterceptorPipeline";
+
+    public enum StageType {
+        REQUEST,
+        NAVIGATION,
+        LIFECYCLE
+    }
+
+    // Decision names per stage type, indexed by the DECISION_ constants
+    private static final int DECISION_CONTINUE = 0;
+    private static final int DECISION_SHORT_CIRCUIT = 1;
+    private static final int DECISION_PAGE_STARTED = 0;
+    private static final int DECISION_PAGE_FINISHED = 1;
+    private static final String[][] DECISIONS = {
+            {"passed", "intercepted"},
+            {"allowed", "overridden"},
+            {"page-started", "page-finished"}
+    };
+
+    private final MetricsRegistry metrics = MetricsRegistry.getInstance();
+    private final MetricsRegistry.Histogram requestLatency = metrics.histogram("pipeline.should-intercept-request");
+    private final MetricsRegistry.Histogram navigationLatency = metrics.histogram("pipeline.should-override-url-loading");
+    private final MetricsRegistry.Histogram pageStartedLatency = metrics.histogram("pipeline.page-started");
+    private final MetricsRegistry.Histogram pageFinishedLatency = metrics.histogram("pipeline.page-finished");
+
+    private final List<Stage<RequestInterceptor>> requestStages = new CopyOnWriteArrayList<>();
+    private final List<Stage<NavigationInterceptor>> navigationStages = new CopyOnWriteArrayList<>();
+    private final List<Stage<PageLifecycleObserver>> lifecycleStages = new CopyOnWriteArrayList<>();
+    private volatile DecisionObserver decisionObserver;
+
+    /**
+     * Told the outcome of every request and navigation, on the thread that decided it
+     */
+    public interface DecisionObserver {
+        /**
+         * @param stage name of the stage that answered the request, or null if none did
+         * @param nanos time spent in the pipeline
+         */
+        void onRequestDecided(WebView view, WebResourceRequest request, @Nullable String stage, long nanos);
+
+        /**
+         * @param stage name of the stage that cancelled the navigation, or null if none did
+         * @param nanos time spent in the pipeline
+         */
+        void onNavigationDecided(WebView view, WebResourceRequest request, @Nullable String stage, long nanos);
+    }
+
+    public void addRequestInterceptor(String name, RequestInterceptor interceptor) {
+        addStage(requestStages, new Stage<>(name, StageType.REQUEST, interceptor, metrics));
+    }
+
+    public void addNavigationInterceptor(String name, NavigationInterceptor interceptor) {
+        addStage(navigationStages, new Stage<>(name, StageType.NAVIGATION, interceptor, metrics));
+    }
+
+    public void addPageLifecycleObserver(String name, PageLifecycleObserver observer) {
+        addStage(lifecycleStages, new Stage<>(name, StageType.LIFECYCLE, observer, metrics));
+    }
+
+    private static <T> void addStage(List<Stage<T>> stages, Stage<T> stage) {
+        for (Stage<T> existing : stages) {
+            if (existing.name.equals(stage.name)) {
+                throw new IllegalArgumentException("Stage already registered: " + stage.name);
+            }
+        }
+        stages.add(stage);
+    }
+
+    /**
+     * Remove every stage with the given name
+     * @return true if a stage was removed
+     */
+    public boolean removeStage(String name) {
+        boolean removed = requestStages.removeIf(stage -> stage.name.equals(name));
+        removed |= navigationStages.removeIf(stage -> stage.name.equals(name));
+        removed |= lifecycleStages.removeIf(stage -> stage.name.equals(name));
+        return removed;
+    }
+
+    /**
+     * Enable or disable every stage with the given name. Disabled stages cost nothing.
+     * @return true if a stage with the name exists
+     */
+    public boolean setStageEnabled(String name, boolean enabled) {
+        boolean found = false;
+        for (Stage<?> stage : allStages()) {
+            if (stage.name.equals(name)) {
+                stage.enabled = enabled;
+                found = true;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return true if a stage with the given name exists and is enabled
+     */
+    public boolean isStageEnabled(String name) {
+        for (Stage<?> stage : allStages()) {
+            if (stage.name.equals(name) && stage.enabled) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return timing counters of every stage in pipeline order
+     */
+    public List<StageStats> getStageStats() {
+        List<StageStats> stats = new ArrayList<>();
+        for (Stage<?> stage : allStages()) {
+            stats.add(new StageStats(stage));
+        }
+        return stats;
+    }
+
+    public void resetStageStats() {
+        for (Stage<?> stage : allStages()) {
+            stage.invocations.set(0);
+            stage.shortCircuits.set(0);
+            stage.totalNanos.set(0);
+        }
+    }
+
+    public void setDecisionObserver(@Nullable DecisionObserver observer) {
+        this.decisionObserver = observer;
+    }
+
+    private List<Stage<?>> allStages() {
+        List<Stage<?>> stages = new ArrayList<>(requestStages);
+        stages.addAll(navigationStages);
+        stages.addAll(lifecycleStages);
+        return stages;
+    }
+
+    /**
+     * Run request stages until one returns a response
+     * @return the response of the short-circuiting stage, or null
+     */
+    @Nullable
+    public WebResourceResponse interceptRequest(WebView view, WebResourceRequest request) {
+        long pipelineStart = System.nanoTime();
+        for (Stage<RequestInterceptor> stage : requestStages) {
+            if (!stage.enabled) continue;
+            long start = System.nanoTime();
+            WebResourceResponse response = stage.handler.intercept(view, request);
+            boolean intercepted = response != null;
+            stage.record(start, intercepted ? DECISION_SHORT_CIRCUIT : DECISION_CONTINUE, intercepted);
+            if (intercepted) {
+                requestDecided(view, request, stage.name, pipelineStart);
+                return response;
+            }
+        }
+        requestDecided(view, request, null, pipelineStart);
+        return null;
+    }
+
+    private void requestDecided(WebView view, WebResourceRequest request, @Nullable String stage, long pipelineStart) {
+        long elapsed = System.nanoTime() - pipelineStart;
+        requestLatency.record(elapsed);
+        DecisionObserver observer = decisionObserver;
+        if (observer != null) {
+            observer.onRequestDecided(view, request, stage, elapsed);
+        }
+    }
+
+    /**
+     * Run navigation stages until one cancels the navigation
+     * @return true if a stage cancelled the navigation
+     */
+    public boolean interceptNavigation(WebView view, WebResourceRequest request) {
+        long pipelineStart = System.nanoTime();
+        for (Stage<NavigationInterceptor> stage : navigationStages) {
+            if (!stage.enabled) continue;
+            long start = System.nanoTime();
+            boolean handled = stage.handler.shouldOverride(view, request);
+            stage.record(start, handled ? DECISION_SHORT_CIRCUIT : DECISION_CONTINUE, handled);
+            if (handled) {
+                navigationDecided(view, request, stage.name, pipelineStart);
+                return true;
+            }
+        }
+        navigationDecided(view, request, null, pipelineStart);
+        return false;
+    }
+
+    private void navigationDecided(WebView view, WebResourceRequest request, @Nullable String stage, long pipelineStart) {
+        long elapsed = System.nanoTime() - pipelineStart;
+        navigationLatency.record(elapsed);
+        DecisionObserver observer = decisionObserver;
+        if (observer != null) {
+            observer.onNavigationDecided(view, request, stage, elapsed);
+        }
+    }
+
+    public void dispatchPageStarted(WebView view, String url) {
+        long pipelineStart = System.nanoTime();
+        for (Stage<PageLifecycleObserver> stage : lifecycleStages) {
+            if (!stage.enabled) continue;
+            long start = System.nanoTime();
+            stage.handler.onPageStarted(view, url);
+            stage.record(start, DECISION_PAGE_STARTED, false);
+        }
+        pageStartedLatency.recordSince(pipelineStart);
+    }
+
+    public void dispatchPageFinished(WebView view, String url) {
+        long pipelineStart = System.nanoTime();
+        for (Stage<PageLifecycleObserver> stage : lifecycleStages) {
+            if (!stage.enabled) continue;
+            long start = System.nanoTime();
+            stage.handler.onPageFinished(view, url);
+            stage.record(start, DECISION_PAGE_FINISHED, false);
+        }
+        pageFinishedLatency.recordSince(pipelineStart);
+    }
+
+    /**
+     * Create the WebViewClient that drives this pipeline
+     */
+    public PipelineWebViewClient createWebViewClient() {
+        return new PipelineWebViewClient(this);
+    }
+
+    /**
+     * WebViewClient that runs the pipeline first and then an optional app client,
+     * so an app client set with setWebViewClient no longer replaces the blocking
+     */
+    public static class PipelineWebViewClient extends WebViewClient {
+        private final InterceptorPipeline pipeline;
+        private volatile WebViewClient delegate;
+        private OnRenderProcessGoneListener renderProcessGoneListener;
+
+        PipelineWebViewClient(InterceptorPipeline pipeline) {
+            this.pipeline = pipeline;
+        }
+
+        public void setDelegate(@Nullable WebViewClient delegate) {
+            if (delegate != null) {
+                Log.i(TAG, "App WebViewClient runs after the interceptor pipeline");
+            }
+            this.delegate = delegate;
+        }
+
+        @Nullable
+        public WebViewClient getDelegate() {
+            return delegate;
+        }
+
+        /**
+         * @param listener handles renderer loss the app client left unhandled,
+         *                 without one the default kills the app
+         */
+        public void setRenderProcessGoneListener(@Nullable OnRenderProcessGoneListener listener) {
+            this.renderProcessGoneListener = listener;
+        }
+
+        @Override
+        public void onPageStarted(WebView view, String url, Bitmap favicon) {
+            pipeline.dispatchPageStarted(view, url);
+            WebViewClient client = delegate;
+            if (client != null) {
+                client.onPageStarted(view, url, favicon);
+            }
+        }
+
+        @Override
+        public void onPageFinished(WebView view, String url) {
+            pipeline.dispatchPageFinished(view, url);
+            WebViewClient client = delegate;
+            if (client != null) {
+                client.onPageFinished(view, url);
+            }
+        }
+
+        @Override
+        public void onPageCommitVisible(WebView view, String url) {
+            WebViewClient client = delegate;
+            if (client != null) {
+                client.onPageCommitVisible(view, url);
+            }
+        }
+
+        @Override
+        public WebResourceResponse shouldInterceptRequest(WebView view, WebResourceRequest request) {
+            WebResourceResponse response = pipeline.interceptRequest(view, request);
+            if (response != null) {
+                return response;
+            }
+            WebViewClient client = delegate;
+            return client != null ? client.shouldInterceptRequest(view, request) : null;
+        }
+
+        @Override
+        public boolean shouldOverrideUrlLoading(WebView view, WebResourceRequest request) {
+            if (pipeline.interceptNavigation(view, request)) {
+                return true;
+            }
+            WebViewClient client = delegate;
+            return client != null && client.shouldOverrideUrlLoading(view, request);
+        }
+
+        @Override
+        public void onReceivedError(WebView view, WebResourceRequest request, WebResourceError error) {
+            WebViewClient client = delegate;
+            if (client != null) {
+                client.onReceivedError(view, request, error);
+            }
+        }
+
+        @Override
+        public void onReceivedHttpError(WebView view, WebResourceRequest request, WebResourceResponse errorResponse) {
+            WebViewClient client = delegate;
+            if (client != null) {
+                client.onReceivedHttpError(view, request, errorResponse);
+            }
+        }
+
+        @Override
+        public void onReceivedSslError(WebView view, SslErrorHandler handler, SslError error) {
+            WebViewClient client = delegate;
+            if (client != null) {
+                client.onReceivedSslError(view, handler, error);
+            } else {
+                super.onReceivedSslError(view, handler, error);
+            }
+        }
+
+        @Override
+        public void doUpdateVisitedHistory(WebView view, String url, boolean isReload) {
+            WebViewClient client = delegate;
+            if (client != null) {
+                client.doUpdateVisitedHistory(view, url, isReload);
+            }
+        }
+
+        @Override
+        public boolean onRenderProcessGone(WebView view, RenderProcessGoneDetail detail) {
+            WebViewClient client = delegate;
+            if (client != null && client.onRenderProcessGone(view, detail)) {
+                return true;
+            }
+            OnRenderProcessGoneListener listener = renderProcessGoneListener;
+            if (listener != null) {
+                return listener.onRenderProcessGone(view, detail.didCrash());
+            }
+            return super.onRenderProcessGone(view, detail);
+        }
+    }
+
+    /**
+     * A named handler with its enable flag, timing counters and latency histograms
+     */
+    private static class Stage<T> {
+        final String name;
+        final StageType type;
+        final T handler;
+        volatile boolean enabled = true;
+        final AtomicLong invocations = new AtomicLong();
+        final AtomicLong shortCircuits = new AtomicLong();
+        final AtomicLong totalNanos = new AtomicLong();
+        // One histogram per decision of the stage type
+        final MetricsRegistry.Histogram[] latency;
+
+        Stage(String name, StageType type, T handler, MetricsRegistry metrics) {
+            this.name = name;
+            this.type = type;
+            this.handler = handler;
+            String[] decisions = DECISIONS[type.ordinal()];
+            this.latency = new MetricsRegistry.Histogram[decisions.length];
+            for (int i = 0; i < decisions.length; i++) {
+                latency[i] = metrics.histogram("stage." + name + "." + decisions[i]);
+            }
+        }
+
+        void record(long startNanos, int decision, boolean shortCircuited) {
+            long elapsed = System.nanoTime() - startNanos;
+            totalNanos.addAndGet(elapsed);
+            invocations.incrementAndGet();
+            if (shortCircuited) {
+                shortCircuits.incrementAndGet();
+            }
+            latency[decision].record(elapsed);
+        }
+    }
+
+    /**
+     * Snapshot of one stage's counters
+     */
+    public static class StageStats {
+        private final String name;
+        private final StageType type;
+        private final boolean enabled;
+        private final long invocations;
+        private final long shortCircuits;
+        private final long totalNanos;
+
+        StageStats(Stage<?> stage) {
+            this.name = stage.name;
+            this.type = stage.type;
+            this.enabled = stage.enabled;
+            this.invocations = stage.invocations.get();
+            this.shortCircuits = stage.shortCircuits.get();
+            this.totalNanos = stage.totalNanos.get();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public StageType getType() {
+            return type;
+        }
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public long getInvocations() {
+            return invocations;
+        }
+
+        /**
+         * @return how often this stage answered and skipped the stages after it
+         */
+        public long getShortCircuits() {
+            return shortCircuits;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        public long getAverageMicros() {
+            return invocations == 0 ? 0 : totalNanos / invocations / 1000;
+        }
+
+        @Override
+        public String toString() {
+            return name + " (" + type + (enabled ? "" : ", disabled") + "): " + invocations
+                    + " calls, " + shortCircuits + " short-circuits, avg " + getAverageMicros() + " us";
+        }
+    }
+}
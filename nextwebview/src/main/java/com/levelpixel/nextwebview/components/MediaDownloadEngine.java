@@ -0,0 +1,539 @@
+package com.levelpixel.nextwebview.components;
+
+import android.os.Process;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Download engine for HLS and DASH streams. Segments are fetched with bounded
+ * parallelism and appended in playlist order to a single file, so at most one
+ * window of segments is held in memory. A separate audio rendition is saved
+ * next to the video as {@code <name>.audio.<ext>}.
+ * Pausing keeps nothing, a resumed media download starts over.
+ */
+public class MediaDownloadEngine {
+    private static final String TAG = "MediaDownload";
+
+    private static final int DEFAULT_MAX_PARALLEL_SEGMENTS = 4;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Single-file representations are fetched in ranges of this size
+    private static final long SINGLE_FILE_CHUNK_SIZE = 4 * 1024 * 1024;
+    private static final int MAX_MANIFEST_SIZE = 8 * 1024 * 1024;
+    private static final int CONNECT_TIMEOUT_MS = 15000;
+    private static final int READ_TIMEOUT_MS = 30000;
+    private static final int MAX_RETRIES = 3;
+    private static final long RETRY_BACKOFF_MS = 1000;
+
+    private final ExecutorService segmentExecutor;
+    private final SegmentedDownloadEngine.Callback callback;
+    private volatile int maxParallelSegments = DEFAULT_MAX_PARALLEL_SEGMENTS;
+    private volatile BandwidthLimiter bandwidthLimiter;
+
+    public MediaDownloadEngine(@Nullable SegmentedDownloadEngine.Callback callback) {
+        this.callback = callback;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.segmentExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runnable.run();
+            }, "nextwebview-media-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return true if the URL or MIME type identifies an HLS or DASH manifest
+     */
+    public static boolean isMediaManifest(String url, @Nullable String mimeType) {
+        return MediaManifest.detect(url, mimeType) != null;
+    }
+
+    /**
+     * Download the manifest of a task and every segment of its chosen rendition.
+     * Returns normally when the download completed or a stop was requested.
+     *
+     * @param task the download to run, its URL points at the manifest
+     * @throws IOException if the manifest is unsupported or a segment failed after retries
+     */
+    public void execute(DownloadTask task) throws IOException {
+        task.setTransferAborted(false);
+        task.setDownloadedBytes(0);
+        task.setTotalBytes(-1);
+
+        String text = fetchText(task, task.getUrl());
+        MediaManifest.Format format = MediaManifest.sniff(text);
+        if (format == null) {
+            format = MediaManifest.detect(task.getUrl(), task.getMimeType());
+        }
+        MediaManifest manifest;
+        if (format == MediaManifest.Format.HLS) {
+            manifest = HlsPlaylistParser.parse(task.getUrl(), text, url -> fetchText(task, url));
+        } else if (format == MediaManifest.Format.DASH) {
+            manifest = DashManifestParser.parse(task.getUrl(), text);
+        } else {
+            throw new IOException("Not an HLS or DASH manifest");
+        }
+        task.setDestination(withExtension(task.getDestination(), manifest.videoExtension));
+        List<MediaManifest.Segment> videoSegments = splitSingleFile(task, manifest.videoSegments);
+        List<MediaManifest.Segment> audioSegments = splitSingleFile(task, manifest.audioSegments);
+
+        File partialFile = SegmentedDownloadEngine.getPartialFile(task.getDestination());
+        File audioFile = audioSegments.isEmpty() ? null
+                : getAudioFile(task.getDestination(), manifest.audioExtension);
+        File audioPartialFile = audioFile != null ? SegmentedDownloadEngine.getPartialFile(audioFile) : null;
+        Progress progress = new Progress(videoSegments.size() + audioSegments.size());
+        Map<String, byte[]> keys = new ConcurrentHashMap<>();
+
+        boolean finished = false;
+        try {
+            MessageDigest digest = newDigest();
+            downloadTrack(task, videoSegments, partialFile, digest, keys, progress);
+            if (audioPartialFile != null && !task.shouldStopTransfer()) {
+                downloadTrack(task, audioSegments, audioPartialFile, null, keys, progress);
+            }
+            if (task.isStopRequested()) {
+                return;
+            }
+            task.setTotalBytes(task.getDownloadedBytes());
+            task.setSha256(toHex(digest.digest()));
+
+            String expected = task.getExpectedSha256();
+            if (expected != null && !expected.equalsIgnoreCase(task.getSha256())) {
+                throw new IOException("Integrity check failed: expected SHA-256 " + expected
+                        + " but got " + task.getSha256());
+            }
+            if (!partialFile.renameTo(task.getDestination())
+                    || (audioFile != null && !audioPartialFile.renameTo(audioFile))) {
+                throw new IOException("Could not move completed download to " + task.getDestination());
+            }
+            finished = true;
+        } finally {
+            if (!finished) {
+                // Segments are not tracked across runs, so partial output is useless
+                partialFile.delete();
+                if (audioPartialFile != null) {
+                    audioPartialFile.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Fetch the segments of one track through a sliding window of parallel requests
+     * and write them to the file in playlist order
+     */
+    private void downloadTrack(DownloadTask task, List<MediaManifest.Segment> segments, File file,
+                               @Nullable MessageDigest digest, Map<String, byte[]> keys,
+                               Progress progress) throws IOException {
+        if (isSingleFile(segments)) {
+            streamTrack(task, segments.get(0), file, digest, progress);
+            return;
+        }
+        ArrayDeque<Future<byte[]>> window = new ArrayDeque<>();
+        int next = 0;
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE)) {
+            while (next < segments.size() && window.size() < maxParallelSegments) {
+                window.add(submit(task, segments.get(next++), keys));
+            }
+            while (!window.isEmpty() && !task.shouldStopTransfer()) {
+                byte[] data = await(task, window.poll());
+                if (data == null) break;
+
+                if (digest != null) {
+                    inspect(task, digest, data, data.length);
+                }
+                out.write(data);
+                progress.onSegmentWritten(task, data.length);
+
+                if (next < segments.size()) {
+                    window.add(submit(task, segments.get(next++), keys));
+                }
+            }
+        } catch (IOException e) {
+            task.setTransferAborted(true);
+            throw e;
+        } finally {
+            for (Future<byte[]> pending : window) {
+                pending.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Stream a single-file track from a server that ignores byte ranges straight to disk.
+     * Written bytes cannot be fetched again, so there are no retries.
+     */
+    private void streamTrack(DownloadTask task, MediaManifest.Segment segment, File file,
+                             @Nullable MessageDigest digest, Progress progress) throws IOException {
+        HttpURLConnection connection = openConnection(task, segment.url);
+        long written = 0;
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE)) {
+            int status = connection.getResponseCode();
+            if (status >= 400) {
+                throw new IOException("HTTP " + status + " for " + segment.url);
+            }
+            byte[] buffer = new byte[BUFFER_SIZE];
+            try (InputStream in = connection.getInputStream()) {
+                int read;
+                while (!task.shouldStopTransfer() && (read = in.read(buffer)) > 0) {
+                    if (bandwidthLimiter != null) {
+                        bandwidthLimiter.acquire(read);
+                    }
+                    if (digest != null) {
+                        inspect(task, digest, buffer, read);
+                    }
+                    out.write(buffer, 0, read);
+                    written += read;
+                    task.addDownloadedBytes(read);
+                    if (callback != null) {
+                        callback.onProgress(task);
+                    }
+                }
+            }
+            progress.onSegmentWritten(task, written);
+        } catch (IOException e) {
+            task.setTransferAborted(true);
+            throw e;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Sniff the first bytes of the main track and hash everything written to it
+     */
+    private void inspect(DownloadTask task, MessageDigest digest, byte[] data, int length) {
+        if (task.getVerdict() == null) {
+            task.setVerdict(DownloadInspector.sniff(data, length, task.getFileName()));
+            if (callback != null) {
+                callback.onVerdict(task);
+            }
+        }
+        digest.update(data, 0, length);
+    }
+
+    /**
+     * A track that is one whole unencrypted file, e.g. a DASH SegmentBase representation
+     */
+    private static boolean isSingleFile(List<MediaManifest.Segment> segments) {
+        return segments.size() == 1 && segments.get(0).length < 0 && segments.get(0).keyUrl == null;
+    }
+
+    /**
+     * Split a single-file track into ranged chunks so no more than a window of chunks
+     * is held in memory. Left whole, to be streamed, when the server ignores ranges.
+     */
+    private static List<MediaManifest.Segment> splitSingleFile(DownloadTask task,
+                                                               List<MediaManifest.Segment> segments)
+            throws IOException {
+        if (!isSingleFile(segments)) return segments;
+        String url = segments.get(0).url;
+        HttpURLConnection connection = openConnection(task, url);
+        connection.setRequestProperty("Range", "bytes=0-0");
+        long total = -1;
+        try {
+            int status = connection.getResponseCode();
+            if (status >= 400) {
+                throw new IOException("HTTP " + status + " for " + url);
+            }
+            String contentRange = connection.getHeaderField("Content-Range");
+            if (status == HttpURLConnection.HTTP_PARTIAL && contentRange != null) {
+                total = Long.parseLong(contentRange.substring(contentRange.lastIndexOf('/') + 1).trim());
+            }
+        } catch (NumberFormatException e) {
+            // Unknown total size, e.g. "bytes 0-0/*"
+            total = -1;
+        } finally {
+            connection.disconnect();
+        }
+        if (total <= 0) return segments;
+
+        List<MediaManifest.Segment> chunks = new ArrayList<>();
+        for (long offset = 0; offset < total; offset += SINGLE_FILE_CHUNK_SIZE) {
+            chunks.add(new MediaManifest.Segment(url, offset,
+                    Math.min(SINGLE_FILE_CHUNK_SIZE, total - offset), null, null));
+        }
+        return chunks;
+    }
+
+    private Future<byte[]> submit(DownloadTask task, MediaManifest.Segment segment, Map<String, byte[]> keys) {
+        return segmentExecutor.submit(() -> fetchSegmentWithRetry(task, segment, keys));
+    }
+
+    @Nullable
+    private static byte[] await(DownloadTask task, Future<byte[]> future) throws IOException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (task.shouldStopTransfer()) return null;
+            throw e.getCause() instanceof IOException
+                    ? (IOException) e.getCause()
+                    : new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Download interrupted");
+        }
+    }
+
+    @Nullable
+    private byte[] fetchSegmentWithRetry(DownloadTask task, MediaManifest.Segment segment,
+                                         Map<String, byte[]> keys) throws IOException {
+        int attempt = 0;
+        while (true) {
+            try {
+                byte[] data = fetchSegment(task, segment);
+                if (data == null || segment.keyUrl == null) {
+                    return data;
+                }
+                return decrypt(data, getKey(task, segment.keyUrl, keys), segment.iv);
+            } catch (IOException e) {
+                if (task.shouldStopTransfer() || ++attempt > MAX_RETRIES) {
+                    throw e;
+                }
+                Log.w(TAG, "Segment " + segment.url + " failed, retry " + attempt, e);
+                try {
+                    Thread.sleep(RETRY_BACKOFF_MS * attempt);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Read one segment into memory, counting bytes towards progress as they arrive
+     * @return segment data, or null if a stop was requested
+     */
+    @Nullable
+    private byte[] fetchSegment(DownloadTask task, MediaManifest.Segment segment) throws IOException {
+        HttpURLConnection connection = openConnection(task, segment.url);
+        if (segment.length >= 0) {
+            connection.setRequestProperty("Range",
+                    "bytes=" + segment.offset + "-" + (segment.offset + segment.length - 1));
+        }
+        long counted = 0;
+        try {
+            int status = connection.getResponseCode();
+            if (status >= 400) {
+                throw new IOException("HTTP " + status + " for " + segment.url);
+            }
+            if (segment.length >= 0 && status != HttpURLConnection.HTTP_PARTIAL) {
+                throw new IOException("Server ignored byte range of " + segment.url);
+            }
+
+            ByteArrayOutputStream data = new ByteArrayOutputStream(
+                    segment.length > 0 ? (int) segment.length : BUFFER_SIZE);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            try (InputStream in = connection.getInputStream()) {
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    if (task.shouldStopTransfer()) {
+                        return null;
+                    }
+                    if (bandwidthLimiter != null) {
+                        bandwidthLimiter.acquire(read);
+                    }
+                    data.write(buffer, 0, read);
+                    task.addDownloadedBytes(read);
+                    counted += read;
+                    if (callback != null) {
+                        callback.onProgress(task);
+                    }
+                }
+            }
+            counted = 0;
+            return data.toByteArray();
+        } finally {
+            // A failed attempt's bytes are downloaded again on retry
+            if (counted > 0) {
+                task.addDownloadedBytes(-counted);
+            }
+            connection.disconnect();
+        }
+    }
+
+    private static byte[] getKey(DownloadTask task, String keyUrl, Map<String, byte[]> keys) throws IOException {
+        byte[] key = keys.get(keyUrl);
+        if (key == null) {
+            key = readAll(openConnection(task, keyUrl), 1024);
+            if (key.length != 16) {
+                throw new IOException("Bad AES-128 key length " + key.length);
+            }
+            keys.put(keyUrl, key);
+        }
+        return key;
+    }
+
+    private static byte[] decrypt(byte[] data, byte[] key, byte[] iv) throws IOException {
+        try {
+            Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+            cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
+            return cipher.doFinal(data);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Could not decrypt segment", e);
+        }
+    }
+
+    private static String fetchText(DownloadTask task, String url) throws IOException {
+        return new String(readAll(openConnection(task, url), MAX_MANIFEST_SIZE), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readAll(HttpURLConnection connection, int maxSize) throws IOException {
+        try {
+            int status = connection.getResponseCode();
+            if (status >= 400) {
+                throw new IOException("HTTP " + status + " for " + connection.getURL());
+            }
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            try (InputStream in = connection.getInputStream()) {
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    data.write(buffer, 0, read);
+                    if (data.size() > maxSize) {
+                        throw new IOException("Response too large: " + connection.getURL());
+                    }
+                }
+            }
+            return data.toByteArray();
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Open a connection with the page's User-Agent, and its cookies when on the page's host
+     */
+    private static HttpURLConnection openConnection(DownloadTask task, String url) throws IOException {
+        URL target = new URL(url);
+        HttpURLConnection connection = (HttpURLConnection) target.openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        connection.setRequestProperty("Accept-Encoding", "identity");
+        if (task.getCookies() != null && target.getHost().equalsIgnoreCase(task.getHost())) {
+            connection.setRequestProperty("cookie", task.getCookies());
+        }
+        if (task.getUserAgent() != null) {
+            connection.setRequestProperty("User-Agent", task.getUserAgent());
+        }
+        return connection;
+    }
+
+    private static MessageDigest newDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Swap the extension of a destination for the container the manifest uses,
+     * skipping names taken by finished or in-progress downloads
+     */
+    static File withExtension(File destination, String extension) {
+        String name = destination.getName();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        if (name.equals(base + "." + extension)) {
+            return destination;
+        }
+        File candidate = new File(destination.getParentFile(), base + "." + extension);
+        for (int i = 1; candidate.exists() || SegmentedDownloadEngine.getPartialFile(candidate).exists(); i++) {
+            candidate = new File(destination.getParentFile(), base + " (" + i + ")." + extension);
+        }
+        return candidate;
+    }
+
+    /**
+     * Get the file a separate audio rendition is saved to
+     */
+    public static File getAudioFile(File destination, String extension) {
+        String name = destination.getName();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        return new File(destination.getParentFile(), base + ".audio." + extension);
+    }
+
+    /**
+     * Set how many segments of one download are fetched at once
+     * @param maxParallelSegments window size, at least 1
+     */
+    public void setMaxParallelSegments(int maxParallelSegments) {
+        this.maxParallelSegments = Math.max(1, maxParallelSegments);
+    }
+
+    /**
+     * Share a bandwidth limiter with the other download engines
+     * @param limiter limiter to use, or null for no limit
+     */
+    public void setBandwidthLimiter(@Nullable BandwidthLimiter limiter) {
+        this.bandwidthLimiter = limiter;
+    }
+
+    /**
+     * Stop accepting work once running segments finish
+     */
+    public void shutdown() {
+        segmentExecutor.shutdown();
+    }
+
+    /**
+     * Estimates the total size from the average size of the segments written so far
+     */
+    private static class Progress {
+        private final int totalSegments;
+        private int writtenSegments;
+        private long writtenBytes;
+
+        Progress(int totalSegments) {
+            this.totalSegments = totalSegments;
+        }
+
+        void onSegmentWritten(DownloadTask task, long bytes) {
+            writtenSegments++;
+            writtenBytes += bytes;
+            task.setTotalBytes(Math.max(task.getDownloadedBytes(),
+                    writtenBytes / writtenSegments * totalSegments));
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.levelpixel.nextwebview.components;
+
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Segments of the rendition chosen from an HLS playlist or DASH manifest
+ */
+class MediaManifest {
+
+    enum Format {
+        HLS,
+        DASH
+    }
+
+    /**
+     * Loads nested playlists referenced by a manifest
+     */
+    interface Loader {
+        String load(String url) throws IOException;
+    }
+
+    final List<Segment> videoSegments;
+    // Container of the main file, e.g. ts or mp4
+    final String videoExtension;
+    final List<Segment> audioSegments;
+    final String audioExtension;
+
+    MediaManifest(List<Segment> videoSegments, String videoExtension,
+                  List<Segment> audioSegments, String audioExtension) {
+        this.videoSegments = videoSegments;
+        this.videoExtension = videoExtension;
+        this.audioSegments = audioSegments;
+        this.audioExtension = audioExtension;
+    }
+
+    /**
+     * Recognize a manifest by MIME type or by the extension of the URL path
+     * @return manifest format, or null if the URL is not a manifest
+     */
+    @Nullable
+    static Format detect(String url, @Nullable String mimeType) {
+        if (mimeType != null) {
+            String mime = mimeType.toLowerCase(Locale.ROOT);
+            if (mime.contains("mpegurl")) return Format.HLS;
+            if (mime.startsWith("application/dash+xml")) return Format.DASH;
+        }
+        String path;
+        try {
+            path = new URL(url).getPath().toLowerCase(Locale.ROOT);
+        } catch (MalformedURLException e) {
+            return null;
+        }
+        if (path.endsWith(".m3u8")) return Format.HLS;
+        if (path.endsWith(".mpd")) return Format.DASH;
+        return null;
+    }
+
+    /**
+     * Recognize a manifest from its first characters
+     */
+    @Nullable
+    static Format sniff(String text) {
+        String head = text.substring(0, Math.min(text.length(), 512)).trim();
+        if (head.startsWith("#EXTM3U")) return Format.HLS;
+        if (head.contains("<MPD")) return Format.DASH;
+        return null;
+    }
+
+    static String resolve(String base, String reference) throws IOException {
+        try {
+            return new URL(new URL(base), reference.trim()).toString();
+        } catch (MalformedURLException e) {
+            throw new IOException("Bad media URL: " + reference, e);
+        }
+    }
+
+    /**
+     * One media segment, optionally a byte range of a larger resource
+     */
+    static class Segment {
+        final String url;
+        final long offset;
+        final long length; // -1 for the whole resource
+
+        // AES-128 key and IV when the segment is encrypted
+        @Nullable final String keyUrl;
+        @Nullable final byte[] iv;
+
+        Segment(String url, long offset, long length, @Nullable String keyUrl, @Nullable byte[] iv) {
+            this.url = url;
+            this.offset = offset;
+            this.length = length;
+            this.keyUrl = keyUrl;
+            this.iv = iv;
+        }
+
+        Segment(String url) {
+            this(url, 0, -1, null, null);
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package com.levelpixel.nextwebview.components;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide counters and latency histograms for the interception hot paths.
+ * Metrics are looked up by name once and kept by their callers; recording is a
+ * few atomic adds without locks or allocation, cheap enough to stay on in release
+ * builds.
+ *
+ * Histograms bucket nanosecond values by power of two with eight linear
+ * sub-buckets each, like HdrHistogram with one significant digit: percentiles
+ * are within 12.5% of the recorded value up to about 18 minutes.
+ */
+public class MetricsRegistry {
+    private static final String TAG = "MetricsRegistry";
+
+    // Linear sub-buckets per power of two
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    // Largest tracked value is 2^MAX_EXPONENT ns, larger values land in the last bucket
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT;
+
+    private static final MetricsRegistry instance = new MetricsRegistry();
+
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private volatile boolean enabled = true;
+
+    /**
+     * @return the registry every NextWebView records into
+     */
+    public static MetricsRegistry getInstance() {
+        return instance;
+    }
+
+    /**
+     * @return the counter with the given name, created on first use
+     */
+    public Counter counter(String name) {
+        return counters.computeIfAbsent(name, key -> new Counter());
+    }
+
+    /**
+     * @return the histogram with the given name, created on first use
+     */
+    public Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, key -> new Histogram());
+    }
+
+    /**
+     * Turn recording on or off; metrics keep their values while off
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Zero every metric. Recording that races with the reset may survive it.
+     */
+    public void reset() {
+        for (Counter counter : counters.values()) {
+            counter.value.reset();
+        }
+        for (Histogram histogram : histograms.values()) {
+            histogram.reset();
+        }
+    }
+
+    public Snapshot snapshot() {
+        Map<String, Long> counterValues = new TreeMap<>();
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            counterValues.put(entry.getKey(), entry.getValue().get());
+        }
+        Map<String, HistogramSnapshot> histogramValues = new TreeMap<>();
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            histogramValues.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return new Snapshot(counterValues, histogramValues);
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) Math.max(0, value);
+        }
+        int exponent = Math.min(63 - Long.numberOfLeadingZeros(value), MAX_EXPONENT);
+        if (exponent == MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    static long bucketLowerBound(int index) {
+        int magnitude = index / SUB_BUCKET_COUNT;
+        if (magnitude == 0) {
+            return index;
+        }
+        return (long) (SUB_BUCKET_COUNT + index % SUB_BUCKET_COUNT) << (magnitude - 1);
+    }
+
+    static long bucketWidth(int index) {
+        int magnitude = index / SUB_BUCKET_COUNT;
+        return magnitude == 0 ? 1 : 1L << (magnitude - 1);
+    }
+
+    /**
+     * Monotonic event count
+     */
+    public final class Counter {
+        private final LongAdder value = new LongAdder();
+
+        public void increment() {
+            if (enabled) {
+                value.increment();
+            }
+        }
+
+        public void add(long amount) {
+            if (enabled) {
+                value.add(amount);
+            }
+        }
+
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    /**
+     * Log-bucketed distribution of nanosecond latencies
+     */
+    public final class Histogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        public void record(long nanos) {
+            if (!enabled) return;
+            if (nanos < 0) {
+                nanos = 0;
+            }
+            buckets.incrementAndGet(bucketIndex(nanos));
+            sum.add(nanos);
+            long current = max.get();
+            while (nanos > current && !max.compareAndSet(current, nanos)) {
+                current = max.get();
+            }
+        }
+
+        /**
+         * Record the time since a System.nanoTime() reading
+         */
+        public void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                buckets.set(i, 0);
+            }
+            sum.reset();
+            max.set(0);
+        }
+
+        HistogramSnapshot snapshot() {
+            long[] counts = new long[BUCKET_COUNT];
+            long count = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                counts[i] = buckets.get(i);
+                count += counts[i];
+            }
+            return new HistogramSnapshot(counts, count, sum.sum(), max.get());
+        }
+    }
+
+    /**
+     * Values of one histogram at snapshot time
+     */
+    public static final class HistogramSnapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sumNanos;
+        private final long maxNanos;
+
+        HistogramSnapshot(long[] counts, long count, long sumNanos, long maxNanos) {
+            this.counts = counts;
+            this.count = count;
+            this.sumNanos = sumNanos;
+            this.maxNanos = maxNanos;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSumNanos() {
+            return sumNanos;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        public long getMeanNanos() {
+            return count == 0 ? 0 : sumNanos / count;
+        }
+
+        /**
+         * @param percentile between 0 and 100
+         * @return the middle of the bucket holding the percentile, or 0 without values
+         */
+        public long getPercentileNanos(double percentile) {
+            if (count == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(count * Math.min(100, Math.max(0, percentile)) / 100));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(bucketLowerBound(i) + bucketWidth(i) / 2, maxNanos);
+                }
+            }
+            return maxNanos;
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("count", count);
+            json.put("mean_ns", getMeanNanos());
+            json.put("p50_ns", getPercentileNanos(50));
+            json.put("p90_ns", getPercentileNanos(90));
+            json.put("p99_ns", getPercentileNanos(99));
+            json.put("p999_ns", getPercentileNanos(99.9));
+            json.put("max_ns", maxNanos);
+            return json;
+        }
+    }
+
+    /**
+     * Values of every metric at one point in time, sorted by name
+     */
+    public static final class Snapshot {
+        private final Map<String, Long> counters;
+        private final Map<String, HistogramSnapshot> histograms;
+
+        Snapshot(Map<String, Long> counters, Map<String, HistogramSnapshot> histograms) {
+            this.counters = Collections.unmodifiableMap(counters);
+            this.histograms = Collections.unmodifiableMap(histograms);
+        }
+
+        public Map<String, Long> getCounters() {
+            return counters;
+        }
+
+        public Map<String, HistogramSnapshot> getHistograms() {
+            return histograms;
+        }
+
+        /**
+         * @return {"counters": {name: value}, "histograms": {name: {count, mean_ns, p50_ns, ...}}}
+         */
+        public String toJson() {
+            try {
+                JSONObject counterJson = new JSONObject();
+                for (Map.Entry<String, Long> entry : counters.entrySet()) {
+                    counterJson.put(entry.getKey(), (long) entry.getValue());
+                }
+                JSONObject histogramJson = new JSONObject();
+                for (Map.Entry<String, HistogramSnapshot> entry : histograms.entrySet()) {
+                    histogramJson.put(entry.getKey(), entry.getValue().toJson());
+                }
+                JSONObject json = new JSONObject();
+                json.put("counters", counterJson);
+                json.put("histograms", histogramJson);
+                return json.toString();
+            } catch (JSONException e) {
+                // Only thrown for non-finite numbers, which are never put here
+                Log.w(TAG, "Could not export metrics", e);
+                return "{}";
+            }
+        }
+    }
+}
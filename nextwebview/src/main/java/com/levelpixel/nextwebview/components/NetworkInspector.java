@@ -0,0 +1,477 @@
+package com.levelpixel.nextwebview.components;
+
+import android.util.Log;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebView;
+
+import androidx.annotation.Nullable;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Log of the latest requests and navigations of one view, with what the
+ * pipeline decided about each: the stage that answered, the rule that matched,
+ * the guessed resource type and the time the decision took.
+ *
+ * Entries live in a ring buffer of parallel arrays, so recording stores a few
+ * references and primitives without allocating, and the log can stay on in
+ * release builds. Stages explain a block with {@link #annotate} before they
+ * return; the pipeline then records the outcome on the same thread.
+ */
+public class NetworkInspector implements InterceptorPipeline.DecisionObserver {
+    private static final String TAG = "NetworkInspector";
+
+    public static final int DEFAULT_CAPACITY = 500;
+
+    public enum Kind {
+        REQUEST,
+        NAVIGATION
+    }
+
+    public enum Decision {
+        // No stage answered, the request went to the network
+        ALLOWED,
+        // A stage answered the request, by blocking it or from a cache
+        INTERCEPTED,
+        // A stage cancelled the navigation
+        CANCELLED
+    }
+
+    public enum ResourceType {
+        DOCUMENT,
+        SUBFRAME,
+        SCRIPT,
+        STYLESHEET,
+        IMAGE,
+        FONT,
+        MEDIA,
+        OTHER
+    }
+
+    private static final Kind[] KINDS = Kind.values();
+    private static final Decision[] DECISIONS = Decision.values();
+    private static final BlockReason[] REASONS = BlockReason.values();
+    private static final ResourceType[] RESOURCE_TYPES = ResourceType.values();
+
+    /**
+     * Reason and rule left by the stage that is deciding on this thread
+     */
+    private static final class Annotation {
+        BlockReason reason;
+        String ruleId;
+    }
+
+    private final ThreadLocal<Annotation> annotation = ThreadLocal.withInitial(Annotation::new);
+
+    // Ring buffer, one slot per index across all arrays
+    private long[] timestamps;
+    private long[] decisionNanos;
+    private String[] urls;
+    private String[] methods;
+    private String[] stages;
+    private String[] ruleIds;
+    private byte[] kinds;
+    private byte[] decisions;
+    private byte[] reasons;
+    private byte[] resourceTypes;
+    private int next = 0;
+    private int size = 0;
+    private volatile int capacity;
+
+    public NetworkInspector() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity number of entries kept, 0 turns recording off
+     */
+    public NetworkInspector(int capacity) {
+        allocate(Math.max(0, capacity));
+    }
+
+    /**
+     * Change the number of entries kept. The newest entries that fit are kept;
+     * 0 turns recording off and frees the buffer.
+     */
+    public synchronized void setCapacity(int capacity) {
+        capacity = Math.max(0, capacity);
+        if (capacity == this.capacity) return;
+        List<Entry> kept = snapshot(null);
+        allocate(capacity);
+        for (int i = Math.max(0, kept.size() - capacity); i < kept.size(); i++) {
+            Entry entry = kept.get(i);
+            store(entry.timestamp, entry.decisionNanos, entry.url, entry.method, entry.stage, entry.ruleId,
+                    entry.kind, entry.decision, entry.reason, entry.resourceType);
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    private void allocate(int capacity) {
+        timestamps = new long[capacity];
+        decisionNanos = new long[capacity];
+        urls = new String[capacity];
+        methods = new String[capacity];
+        stages = new String[capacity];
+        ruleIds = new String[capacity];
+        kinds = new byte[capacity];
+        decisions = new byte[capacity];
+        reasons = new byte[capacity];
+        resourceTypes = new byte[capacity];
+        next = 0;
+        size = 0;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Explain why the current stage is about to block the request or navigation
+     * it is deciding. Must be called on the thread that runs the stage.
+     *
+     * @param ruleId the rule that matched, or null
+     */
+    public void annotate(BlockReason reason, @Nullable String ruleId) {
+        if (capacity == 0) return;
+        Annotation current = annotation.get();
+        current.reason = reason;
+        current.ruleId = ruleId;
+    }
+
+    @Override
+    public void onRequestDecided(WebView view, WebResourceRequest request,
+                                 @Nullable String stage, long nanos) {
+        record(Kind.REQUEST, request, stage, nanos);
+    }
+
+    @Override
+    public void onNavigationDecided(WebView view, WebResourceRequest request,
+                                    @Nullable String stage, long nanos) {
+        record(Kind.NAVIGATION, request, stage, nanos);
+    }
+
+    private void record(Kind kind, WebResourceRequest request, @Nullable String stage, long nanos) {
+        if (capacity == 0) return;
+        Annotation current = annotation.get();
+        BlockReason reason = current.reason != null ? current.reason : BlockReason.NONE;
+        String ruleId = current.ruleId;
+        current.reason = null;
+        current.ruleId = null;
+
+        Decision decision = stage == null ? Decision.ALLOWED
+                : kind == Kind.NAVIGATION ? Decision.CANCELLED : Decision.INTERCEPTED;
+        String url = request.getUrl().toString();
+        ResourceType resourceType = guessResourceType(request);
+        long timestamp = System.currentTimeMillis();
+        synchronized (this) {
+            if (capacity == 0) return;
+            store(timestamp, nanos, url, request.getMethod(), stage, ruleId, kind, decision, reason, resourceType);
+        }
+    }
+
+    private void store(long timestamp, long nanos, String url, String method, @Nullable String stage,
+                       @Nullable String ruleId, Kind kind, Decision decision, BlockReason reason,
+                       ResourceType resourceType) {
+        timestamps[next] = timestamp;
+        decisionNanos[next] = nanos;
+        urls[next] = url;
+        methods[next] = method;
+        stages[next] = stage;
+        ruleIds[next] = ruleId;
+        kinds[next] = (byte) kind.ordinal();
+        decisions[next] = (byte) decision.ordinal();
+        reasons[next] = (byte) reason.ordinal();
+        resourceTypes[next] = (byte) resourceType.ordinal();
+        next = (next + 1) % capacity;
+        size = Math.min(size + 1, capacity);
+    }
+
+    /**
+     * Guess what a request loads from its frame, Accept header and file extension
+     */
+    static ResourceType guessResourceType(WebResourceRequest request) {
+        if (request.isForMainFrame()) return ResourceType.DOCUMENT;
+        Map<String, String> headers = request.getRequestHeaders();
+        String accept = null;
+        if (headers != null) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                if ("Accept".equalsIgnoreCase(header.getKey())) {
+                    accept = header.getValue();
+                    break;
+                }
+            }
+        }
+        if (accept != null) {
+            if (accept.startsWith("text/html")) return ResourceType.SUBFRAME;
+            if (accept.startsWith("text/css")) return ResourceType.STYLESHEET;
+            if (accept.startsWith("image/")) return ResourceType.IMAGE;
+        }
+
+        String path = request.getUrl().getPath();
+        if (path == null) return ResourceType.OTHER;
+        int dot = path.lastIndexOf('.');
+        if (dot < 0 || dot < path.lastIndexOf('/')) return ResourceType.OTHER;
+        switch (path.substring(dot + 1).toLowerCase(Locale.ROOT)) {
+            case "js":
+            case "mjs":
+                return ResourceType.SCRIPT;
+            case "css":
+                return ResourceType.STYLESHEET;
+            case "png":
+            case "jpg":
+            case "jpeg":
+            case "gif":
+            case "webp":
+            case "avif":
+            case "svg":
+            case "ico":
+                return ResourceType.IMAGE;
+            case "woff":
+            case "woff2":
+            case "ttf":
+            case "otf":
+                return ResourceType.FONT;
+            case "mp4":
+            case "webm":
+            case "m3u8":
+            case "mpd":
+            case "m4s":
+            case "ts":
+            case "mp3":
+            case "aac":
+                return ResourceType.MEDIA;
+            default:
+                return ResourceType.OTHER;
+        }
+    }
+
+    /**
+     * @return every recorded entry, oldest first
+     */
+    public List<Entry> getEntries() {
+        return query(null);
+    }
+
+    /**
+     * @param filter entries to keep, or null for all
+     * @return the matching entries, oldest first
+     */
+    public List<Entry> query(@Nullable Predicate<Entry> filter) {
+        return snapshot(filter);
+    }
+
+    private synchronized List<Entry> snapshot(@Nullable Predicate<Entry> filter) {
+        List<Entry> entries = new ArrayList<>(size);
+        int first = (next - size + capacity) % Math.max(1, capacity);
+        for (int i = 0; i < size; i++) {
+            int slot = (first + i) % capacity;
+            Entry entry = new Entry(timestamps[slot], decisionNanos[slot], urls[slot], methods[slot],
+                    stages[slot], ruleIds[slot], KINDS[kinds[slot]], DECISIONS[decisions[slot]],
+                    REASONS[reasons[slot]], RESOURCE_TYPES[resourceTypes[slot]]);
+            if (filter == null || filter.test(entry)) {
+                entries.add(entry);
+            }
+        }
+        return Collections.unmodifiableList(entries);
+    }
+
+    public synchronized void clear() {
+        // Drop the references so old URLs can be collected
+        allocate(capacity);
+    }
+
+    /**
+     * @return every entry as a HAR 1.2 log
+     */
+    public String exportHar() {
+        return exportHar(null);
+    }
+
+    /**
+     * Export entries as a HAR 1.2 log. Responses are not observed, so only the
+     * request and the decision are filled in; the decision time is the wait timing
+     * and the pipeline's findings are in the custom fields _decision, _reason,
+     * _rule, _resourceType and _stage.
+     *
+     * @param filter entries to export, or null for all
+     */
+    public String exportHar(@Nullable Predicate<Entry> filter) {
+        try {
+            JSONArray harEntries = new JSONArray();
+            for (Entry entry : query(filter)) {
+                harEntries.put(toHarEntry(entry));
+            }
+            JSONObject creator = new JSONObject();
+            creator.put("name", "NextWebView");
+            creator.put("version", "1.0");
+            JSONObject log = new JSONObject();
+            log.put("version", "1.2");
+            log.put("creator", creator);
+            log.put("entries", harEntries);
+            JSONObject har = new JSONObject();
+            har.put("log", log);
+            return har.toString();
+        } catch (JSONException e) {
+            // Only thrown for non-finite numbers, which are never put here
+            Log.w(TAG, "Could not export HAR", e);
+            return "{}";
+        }
+    }
+
+    private static JSONObject toHarEntry(Entry entry) throws JSONException {
+        double millis = entry.decisionNanos / 1_000_000.0;
+
+        JSONObject request = new JSONObject();
+        request.put("method", entry.method != null ? entry.method : "GET");
+        request.put("url", entry.url);
+        request.put("httpVersion", "");
+        request.put("cookies", new JSONArray());
+        request.put("headers", new JSONArray());
+        request.put("queryString", new JSONArray());
+        request.put("headersSize", -1);
+        request.put("bodySize", -1);
+
+        JSONObject content = new JSONObject();
+        content.put("size", 0);
+        content.put("mimeType", "");
+        JSONObject response = new JSONObject();
+        response.put("status", 0);
+        response.put("statusText", "");
+        response.put("httpVersion", "");
+        response.put("cookies", new JSONArray());
+        response.put("headers", new JSONArray());
+        response.put("content", content);
+        response.put("redirectURL", "");
+        response.put("headersSize", -1);
+        response.put("bodySize", -1);
+
+        JSONObject timings = new JSONObject();
+        timings.put("send", 0);
+        timings.put("wait", millis);
+        timings.put("receive", 0);
+
+        JSONObject har = new JSONObject();
+        har.put("startedDateTime", Instant.ofEpochMilli(entry.timestamp).toString());
+        har.put("time", millis);
+        har.put("request", request);
+        har.put("response", response);
+        har.put("cache", new JSONObject());
+        har.put("timings", timings);
+        har.put("_kind", entry.kind.name());
+        har.put("_decision", entry.decision.name());
+        har.put("_reason", entry.reason.name());
+        if (entry.ruleId != null) {
+            har.put("_rule", entry.ruleId);
+        }
+        har.put("_resourceType", entry.resourceType.name());
+        if (entry.stage != null) {
+            har.put("_stage", entry.stage);
+        }
+        return har;
+    }
+
+    /**
+     * One recorded request or navigation
+     */
+    public static final class Entry {
+        private final long timestamp;
+        private final long decisionNanos;
+        private final String url;
+        private final String method;
+        private final String stage;
+        private final String ruleId;
+        private final Kind kind;
+        private final Decision decision;
+        private final BlockReason reason;
+        private final ResourceType resourceType;
+
+        Entry(long timestamp, long decisionNanos, String url, String method, @Nullable String stage,
+              @Nullable String ruleId, Kind kind, Decision decision, BlockReason reason,
+              ResourceType resourceType) {
+            this.timestamp = timestamp;
+            this.decisionNanos = decisionNanos;
+            this.url = url;
+            this.method = method;
+            this.stage = stage;
+            this.ruleId = ruleId;
+            this.kind = kind;
+            this.decision = decision;
+            this.reason = reason;
+            this.resourceType = resourceType;
+        }
+
+        /**
+         * @return wall clock time of the decision in milliseconds since the epoch
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * @return time the pipeline took to decide
+         */
+        public long getDecisionNanos() {
+            return decisionNanos;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        /**
+         * @return name of the stage that intercepted or cancelled, null if allowed
+         */
+        @Nullable
+        public String getStage() {
+            return stage;
+        }
+
+        /**
+         * @return the rule that matched, e.g. a blocklist domain or URL pattern
+         */
+        @Nullable
+        public String getRuleId() {
+            return ruleId;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public Decision getDecision() {
+            return decision;
+        }
+
+        /**
+         * @return why the stage blocked, NONE if it did not say or nothing was blocked
+         */
+        public BlockReason getReason() {
+            return reason;
+        }
+
+        public ResourceType getResourceType() {
+            return resourceType;
+        }
+
+        @Override
+        public String toString() {
+            return kind + " " + decision + (reason != BlockReason.NONE ? " " + reason : "")
+                    + (ruleId != null ? " [" + ruleId + "]" : "") + (stage != null ? " by " + stage : "")
+                    + " (" + resourceType + ", " + decisionNanos / 1000 + " us): " + url;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.levelpixel.nextwebview.components;
+
+/**
+ * Real user metrics of one page load, as reported by the page's PerformanceObservers.
+ * Times are milliseconds since navigation start, -1 when the browser did not report them.
+ */
+public class PageMetrics {
+    private final String url;
+    private final long ttfbMillis;
+    private final long firstContentfulPaintMillis;
+    private final long largestContentfulPaintMillis;
+    private final double cumulativeLayoutShift;
+    private final int longTaskCount;
+    private final long longTaskMillis;
+    private final long transferredBytes;
+    private final int resourceCount;
+    private final int blockedRequests;
+
+    PageMetrics(String url, long ttfbMillis, long firstContentfulPaintMillis,
+                long largestContentfulPaintMillis, double cumulativeLayoutShift, int longTaskCount,
+                long longTaskMillis, long transferredBytes, int resourceCount, int blockedRequests) {
+        this.url = url;
+        this.ttfbMillis = ttfbMillis;
+        this.firstContentfulPaintMillis = firstContentfulPaintMillis;
+        this.largestContentfulPaintMillis = largestContentfulPaintMillis;
+        this.cumulativeLayoutShift = cumulativeLayoutShift;
+        this.longTaskCount = longTaskCount;
+        this.longTaskMillis = longTaskMillis;
+        this.transferredBytes = transferredBytes;
+        this.resourceCount = resourceCount;
+        this.blockedRequests = blockedRequests;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * @return time until the first byte of the document arrived
+     */
+    public long getTtfbMillis() {
+        return ttfbMillis;
+    }
+
+    public long getFirstContentfulPaintMillis() {
+        return firstContentfulPaintMillis;
+    }
+
+    public long getLargestContentfulPaintMillis() {
+        return largestContentfulPaintMillis;
+    }
+
+    public double getCumulativeLayoutShift() {
+        return cumulativeLayoutShift;
+    }
+
+    /**
+     * @return main-thread tasks longer than 50 ms
+     */
+    public int getLongTaskCount() {
+        return longTaskCount;
+    }
+
+    public long getLongTaskMillis() {
+        return longTaskMillis;
+    }
+
+    /**
+     * @return bytes of the document and its resources; cross-origin resources
+     * without Timing-Allow-Origin count as 0
+     */
+    public long getTransferredBytes() {
+        return transferredBytes;
+    }
+
+    public int getResourceCount() {
+        return resourceCount;
+    }
+
+    /**
+     * @return requests the ad blocker stopped during this page load
+     */
+    public int getBlockedRequests() {
+        return blockedRequests;
+    }
+
+    @Override
+    public String toString() {
+        return url + ": ttfb " + ttfbMillis + " ms, fcp " + firstContentfulPaintMillis + " ms, lcp "
+                + largestContentfulPaintMillis + " ms, cls " + cumulativeLayoutShift + ", " + longTaskCount
+                + " long tasks (" + longTaskMillis + " ms), " + transferredBytes + " bytes in "
+                + resourceCount + " resources, " + blockedRequests + " blocked";
+    }
+}
@@ -0,0 +1,194 @@
+package com.levelpixel.nextwebview.components;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.webkit.JavascriptInterface;
+import android.webkit.WebView;
+
+import com.levelpixel.nextwebview.interfaces.PageMetricsListener;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Collects real user metrics of each page load. A script injected as soon as the
+ * document commits registers buffered PerformanceObservers for paints, layout
+ * shifts and long tasks, and reports one summary per navigation when the page is
+ * hidden, left or has settled. Summaries are joined with the number of requests
+ * the ad blocker stopped during the same navigation.
+ */
+public class PageMetricsComponent {
+    private static final String TAG = "PageMetrics";
+
+    public static final String BRIDGE_NAME = "NextWebViewMetricsBridge";
+    // Report this long after the load event if the page is still shown
+    private static final long SETTLE_MS = 10_000;
+    private static final int MAX_TRACKED_NAVIGATIONS = 8;
+    private static final String NAVIGATION_ID_PLACEHOLDER = "__NAVIGATION_ID__";
+
+    /**
+     * Observers are buffered, so entries from before the injection still arrive.
+     * Injecting twice into one document is a no-op.
+     */
+    private static final String PAGE_METRICS_JS =
+            "(function() {" +
+                    "var nav = " + NAVIGATION_ID_PLACEHOLDER + ";" +
+                    "if (!window.PerformanceObserver || (window.__nwPerf && window.__nwPerf.nav === nav)) return;" +
+                    "var m = window.__nwPerf = { nav: nav, fcp: -1, lcp: -1, cls: 0, longTasks: 0, longTaskMs: 0, sent: false };" +
+                    "function observe(type, callback) {" +
+                    "  try {" +
+                    "    new PerformanceObserver(function(list) { list.getEntries().forEach(callback); })" +
+                    "      .observe({ type: type, buffered: true });" +
+                    "  } catch (e) {}" +
+                    "}" +
+                    "observe('paint', function(e) { if (e.name === 'first-contentful-paint') m.fcp = e.startTime; });" +
+                    "observe('largest-contentful-paint', function(e) { m.lcp = e.renderTime || e.loadTime || e.startTime; });" +
+                    "observe('layout-shift', function(e) { if (!e.hadRecentInput) m.cls += e.value; });" +
+                    "observe('longtask', function(e) { m.longTasks++; m.longTaskMs += e.duration; });" +
+                    "function send() {" +
+                    "  if (m.sent || !window." + BRIDGE_NAME + ") return;" +
+                    "  m.sent = true;" +
+                    "  var n = performance.getEntriesByType('navigation')[0];" +
+                    "  var resources = performance.getEntriesByType('resource');" +
+                    "  var bytes = n ? n.transferSize || 0 : 0;" +
+                    "  for (var i = 0; i < resources.length; i++) bytes += resources[i].transferSize || 0;" +
+                    "  var summary = { nav: nav, url: location.href," +
+                    "    ttfb: n ? Math.round(n.responseStart) : -1," +
+                    "    fcp: Math.round(m.fcp), lcp: Math.round(m.lcp), cls: Math.round(m.cls * 10000) / 10000," +
+                    "    longTasks: m.longTasks, longTaskMs: Math.round(m.longTaskMs)," +
+                    "    bytes: bytes, resources: resources.length };" +
+                    "  try { " + BRIDGE_NAME + ".reportPageMetrics(JSON.stringify([summary])); } catch (e) {}" +
+                    "}" +
+                    "document.addEventListener('visibilitychange', function() {" +
+                    "  if (document.visibilityState === 'hidden') send();" +
+                    "});" +
+                    "window.addEventListener('pagehide', send);" +
+                    "function settle() { setTimeout(send, " + SETTLE_MS + "); }" +
+                    "if (document.readyState === 'complete') settle(); else window.addEventListener('load', settle);" +
+                    "})();";
+
+    private final AdBlockingComponent adBlocker;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final MetricsBridge javascriptBridge = new MetricsBridge();
+    private volatile PageMetricsListener listener;
+
+    // Blocked request counts at the start and end of recent navigations, by navigation id
+    private final Map<Long, int[]> navigations = new LinkedHashMap<>();
+    private long currentNavigationId = 0;
+
+    /**
+     * @param adBlocker component whose blocked request count is attributed to each page
+     */
+    public PageMetricsComponent(AdBlockingComponent adBlocker) {
+        this.adBlocker = adBlocker;
+    }
+
+    public void setPageMetricsListener(PageMetricsListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Get the bridge object to register with addJavascriptInterface under {@link #BRIDGE_NAME}
+     */
+    public Object getJavascriptBridge() {
+        return javascriptBridge;
+    }
+
+    /**
+     * Start a navigation and install the observers in its document
+     */
+    public void onPageStarted(WebView view) {
+        if (listener == null) return;
+        int blocked = adBlocker.getBlockedRequestCount();
+        long navigationId;
+        synchronized (navigations) {
+            int[] previous = navigations.get(currentNavigationId);
+            if (previous != null) {
+                previous[1] = blocked;
+            }
+            navigationId = ++currentNavigationId;
+            navigations.put(navigationId, new int[]{blocked, -1});
+            Iterator<Long> eldest = navigations.keySet().iterator();
+            while (navigations.size() > MAX_TRACKED_NAVIGATIONS) {
+                eldest.next();
+                eldest.remove();
+            }
+        }
+        inject(view, navigationId);
+    }
+
+    /**
+     * Install the observers again in case the first injection ran before the document existed
+     */
+    public void onPageFinished(WebView view) {
+        if (listener == null) return;
+        long navigationId;
+        synchronized (navigations) {
+            navigationId = currentNavigationId;
+            if (!navigations.containsKey(navigationId)) return;
+        }
+        inject(view, navigationId);
+    }
+
+    private static void inject(WebView view, long navigationId) {
+        view.evaluateJavascript(PAGE_METRICS_JS.replace(NAVIGATION_ID_PLACEHOLDER,
+                Long.toString(navigationId)), null);
+    }
+
+    /**
+     * Handle a batch of summaries from the page. Each navigation is reported once.
+     *
+     * @param batchJson JSON array of summaries
+     */
+    void onPageMetrics(String batchJson) {
+        PageMetricsListener current = listener;
+        if (current == null) return;
+        JSONArray batch;
+        try {
+            batch = new JSONArray(batchJson);
+        } catch (JSONException e) {
+            Log.w(TAG, "Malformed page metrics batch", e);
+            return;
+        }
+        for (int i = 0; i < batch.length(); i++) {
+            JSONObject summary = batch.optJSONObject(i);
+            if (summary == null) continue;
+            int[] blockedCounts;
+            synchronized (navigations) {
+                blockedCounts = navigations.remove(summary.optLong("nav", -1));
+            }
+            if (blockedCounts == null) continue;
+            int end = blockedCounts[1] >= 0 ? blockedCounts[1] : adBlocker.getBlockedRequestCount();
+            PageMetrics metrics = new PageMetrics(
+                    summary.optString("url"),
+                    summary.optLong("ttfb", -1),
+                    summary.optLong("fcp", -1),
+                    summary.optLong("lcp", -1),
+                    summary.optDouble("cls", 0),
+                    summary.optInt("longTasks"),
+                    summary.optLong("longTaskMs"),
+                    summary.optLong("bytes"),
+                    summary.optInt("resources"),
+                    // Stats may have been reset in between
+                    Math.max(0, end - blockedCounts[0]));
+            mainHandler.post(() -> current.onPageMetrics(metrics));
+        }
+    }
+
+    /**
+     * Receives page metric summaries from the injected script.
+     * Called on the WebView's JavaBridge thread.
+     */
+    private class MetricsBridge {
+        @JavascriptInterface
+        public void reportPageMetrics(String batchJson) {
+            onPageMetrics(batchJson);
+        }
+    }
+}
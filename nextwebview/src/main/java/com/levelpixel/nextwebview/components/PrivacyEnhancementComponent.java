@@ -1,59 +1,152 @@
 package com.levelpixel.nextwebview.components;
 
+import android.net.Uri;
+import android.webkit.CookieManager;
+import android.webkit.WebResourceRequest;
 import android.webkit.WebView;
 
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
 /**
  * Component for privacy enhancements like cookie banner blocking
  */
 public class PrivacyEnhancementComponent {
     
     private boolean cookieBlockingEnabled = false;
-    private boolean intelligentTrackingPrevention = true;
+    private boolean intelligentTrackingPrevention = false;
     
     /**
-     * JavaScript to block cookie banners and consent popups
+     * Query parameters that only carry click and campaign tracking. Any parameter
+     * starting with utm_ is stripped as well.
+     */
+    private static final Set<String> TRACKING_PARAMETERS = new HashSet<>(Arrays.asList(
+            "fbclid", "gclid", "gclsrc", "dclid", "gbraid", "wbraid", "msclkid", "yclid",
+            "twclid", "ttclid", "igshid", "li_fat_id", "mc_eid", "mc_cid", "_hsenc", "_hsmi",
+            "mkt_tok", "oly_anon_id", "oly_enc_id", "vero_id", "vero_conv", "wickedid",
+            "_openstat", "rb_clickid", "s_cid", "ef_id", "srsltid"
+    ));
+    private static final String UTM_PREFIX = "utm_";
+    
+    /**
+     * Known cookie banner containers, joined into a single selector so each scan
+     * walks the DOM once instead of once per selector
+     */
+    private static final String[] COOKIE_BANNER_SELECTORS = {
+            ".cookie-banner", ".cookie-notice", ".cookie-policy", ".cookies-popup", ".cookie-consent",
+            ".cookie-alert", "#cookie-banner", "#cookie-notice", "#cookie-policy", "#cookies",
+            ".consent-banner", ".consent-popup", ".gdpr-banner", ".gdpr-consent", ".gdpr-popup",
+            "[data-cookie-notice]", "[data-gdpr]", "[aria-label*=\"cookie\"]", "[aria-label*=\"consent\"]",
+            "div[class*=\"cookie\"][class*=\"banner\"]", "div[class*=\"cookie\"][class*=\"notice\"]",
+            "div[class*=\"gdpr\"][class*=\"banner\"]", "div[class*=\"gdpr\"][class*=\"consent\"]"
+    };
+
+    /**
+     * Button labels that accept a consent dialog, compiled into one regex alternation
+     */
+    private static final String[] COOKIE_ACCEPT_PHRASES = {
+            "accept all", "accept", "i agree", "agree", "got it", "continue", "ok", "consent"
+    };
+
+    /**
+     * JavaScript consent engine that hides cookie banners and accepts consent popups.
+     * Scans are debounced through idle callbacks, the observer disconnects once the
+     * banner is handled, and the action that worked is remembered per site so repeat
+     * visits try it first.
      */
     private static final String COOKIE_BANNER_BLOCKER_JS =
-            "function blockCookieBanners() {" +
-                    "  let removed = 0;" +
-                    "  const selectors = [" +
-                    "    '.cookie-banner', '.cookie-notice', '.cookie-policy', '.cookies-popup', '.cookie-consent'," +
-                    "    '.cookie-alert', '#cookie-banner', '#cookie-notice', '#cookie-policy', '#cookies'," +
-                    "    '.consent-banner', '.consent-popup', '.gdpr-banner', '.gdpr-consent', '.gdpr-popup'," +
-                    "    '[data-cookie-notice]', '[data-gdpr]', '[aria-label*=\"cookie\"]', '[aria-label*=\"consent\"]'," +
-                    "    'div[class*=\"cookie\"][class*=\"banner\"], div[class*=\"cookie\"][class*=\"notice\"]'," +
-                    "    'div[class*=\"gdpr\"][class*=\"banner\"], div[class*=\"gdpr\"][class*=\"consent\"]'" +
-                    "  ];" +
-                    "  selectors.forEach(selector => {" +
+            "(function() {" +
+                    "  if (window.nextwebviewConsent) return;" +
+                    "  window.nextwebviewConsent = true;" +
+                    "  const STORAGE_KEY = 'nextwebview.consentAction';" +
+                    "  const BANNER_SELECTOR = '" + String.join(", ", COOKIE_BANNER_SELECTORS) + "';" +
+                    "  const ACCEPT_RE = /\\b(" + String.join("|", COOKIE_ACCEPT_PHRASES) + ")\\b/;" +
+                    "  const CONTEXT_RE = /(cookie|consent|gdpr)/;" +
+                    "  const MAX_OBSERVE_MS = 30000;" +
+                    "  const idle = window.requestIdleCallback || function(cb) { return setTimeout(cb, 100); };" +
+                    "  let observer = null;" +
+                    "  let scanQueued = false;" +
+                    "  let handled = false;" +
+
+                    // Per-site memory of the action that dismissed the banner last time
+                    "  function rememberedAction() {" +
+                    "    try { return localStorage.getItem(STORAGE_KEY); } catch (e) { return null; }" +
+                    "  }" +
+                    "  function rememberAction(action) {" +
+                    "    try { localStorage.setItem(STORAGE_KEY, action); } catch (e) {}" +
+                    "  }" +
+
+                    // One combined query for every known banner container
+                    "  function hideBanners() {" +
+                    "    let hidden = 0;" +
                     "    try {" +
-                    "      document.querySelectorAll(selector).forEach(el => {" +
-                    "        if (el && el.style) {" +
+                    "      document.querySelectorAll(BANNER_SELECTOR).forEach(el => {" +
+                    "        if (el.style && el.getAttribute('data-dune-blocked-cookie') !== 'true') {" +
                     "          el.style.setProperty('display', 'none', 'important');" +
                     "          el.setAttribute('data-dune-blocked-cookie', 'true');" +
-                    "          removed++;" +
+                    "          hidden++;" +
                     "        }" +
                     "      });" +
                     "    } catch (e) {}" +
-                    "  });" +
-                    
-                    // Also accept cookies automatically to prevent recurring banners
-                    "  ['accept', 'agree', 'continue', 'got it', 'ok', 'accept all', 'i agree', 'consent']" +
-                    "    .forEach(text => {" +
-                    "      document.querySelectorAll('button, a, .button').forEach(el => {" +
-                    "        if (el.textContent.toLowerCase().includes(text)) {" +
-                    "          if (el.textContent.toLowerCase().includes('cookie') || " +
-                    "              el.textContent.toLowerCase().includes('consent') || " +
-                    "              el.textContent.toLowerCase().includes('gdpr')) {" +
-                    "            try { el.click(); removed++; } catch(e) {}" +
-                    "          }" +
-                    "        }" +
-                    "      });" +
-                    "    });" +
-                    "  return removed;" +
-                    "}" +
-                    "blockCookieBanners();" +
-                    "new MutationObserver(() => blockCookieBanners()).observe(document.body, { childList: true, subtree: true });";
-    
+                    "    return hidden > 0;" +
+                    "  }" +
+
+                    // Single pass over the clickable elements against the compiled phrase set
+                    "  function clickAccept() {" +
+                    "    const candidates = document.querySelectorAll('button, a, .button');" +
+                    "    for (let i = 0; i < candidates.length; i++) {" +
+                    "      const text = (candidates[i].textContent || '').toLowerCase();" +
+                    "      if (ACCEPT_RE.test(text) && CONTEXT_RE.test(text)) {" +
+                    "        try { candidates[i].click(); return true; } catch (e) {}" +
+                    "      }" +
+                    "    }" +
+                    "    return false;" +
+                    "  }" +
+
+                    "  function scan() {" +
+                    "    scanQueued = false;" +
+                    "    if (handled) return;" +
+                    "    const preferred = rememberedAction();" +
+                    "    let action = null;" +
+                    "    if (preferred === 'hide') {" +
+                    "      if (hideBanners()) action = 'hide';" +
+                    "      else if (clickAccept()) action = 'click';" +
+                    "    } else {" +
+                    "      if (clickAccept()) action = 'click';" +
+                    "      if (hideBanners() && !action) action = 'hide';" +
+                    "    }" +
+                    "    if (action) {" +
+                    "      handled = true;" +
+                    "      rememberAction(action);" +
+                    "      stop();" +
+                    "    }" +
+                    "  }" +
+
+                    "  function stop() {" +
+                    "    if (observer) { observer.disconnect(); observer = null; }" +
+                    "  }" +
+
+                    // Debounce bursts of mutations into one idle-time scan
+                    "  function queueScan() {" +
+                    "    if (scanQueued || handled) return;" +
+                    "    scanQueued = true;" +
+                    "    idle(scan, { timeout: 500 });" +
+                    "  }" +
+
+                    "  scan();" +
+                    "  if (!handled && document.body) {" +
+                    "    observer = new MutationObserver(queueScan);" +
+                    "    observer.observe(document.body, { childList: true, subtree: true });" +
+                    "    setTimeout(stop, MAX_OBSERVE_MS);" +
+                    "  }" +
+                    "})();";
+
     /**
      * Apply privacy enhancing scripts to a WebView
      */
@@ -62,10 +155,126 @@ public class PrivacyEnhancementComponent {
             webView.evaluateJavascript(COOKIE_BANNER_BLOCKER_JS, null);
         }
         
-        if (intelligentTrackingPrevention) {
-            // Apply third-party cookie blocking via WebView settings
-            // This is handled by the main nextwebview class as it requires direct WebSettings access
+        applyCookiePolicy(webView);
+    }
+    
+    /**
+     * Apply the third-party cookie policy for the current tracking prevention setting
+     */
+    public void applyCookiePolicy(WebView webView) {
+        CookieManager.getInstance().setAcceptThirdPartyCookies(webView, !intelligentTrackingPrevention);
+    }
+    
+    /**
+     * Get the navigation URL with known tracking parameters removed
+     * 
+     * @param url URL being navigated to
+     * @return the cleaned URL, or null if tracking prevention is off or nothing was stripped
+     */
+    @Nullable
+    public String stripTrackingParameters(String url) {
+        if (!intelligentTrackingPrevention || url == null) {
+            return null;
+        }
+        
+        int queryStart = url.indexOf('?');
+        if (queryStart < 0) {
+            return null;
+        }
+        int fragmentStart = url.indexOf('#', queryStart);
+        int queryEnd = fragmentStart < 0 ? url.length() : fragmentStart;
+        
+        // Single pass over the query, only building a new URL once a parameter is dropped
+        StringBuilder cleaned = null;
+        int kept = 0;
+        int paramStart = queryStart + 1;
+        while (paramStart <= queryEnd) {
+            int paramEnd = url.indexOf('&', paramStart);
+            if (paramEnd < 0 || paramEnd > queryEnd) {
+                paramEnd = queryEnd;
+            }
+            
+            if (isTrackingParameter(url, paramStart, paramEnd)) {
+                if (cleaned == null) {
+                    // Everything kept so far is still contiguous in the original URL
+                    cleaned = new StringBuilder(url.length());
+                    cleaned.append(url, 0, kept == 0 ? queryStart : paramStart - 1);
+                }
+            } else if (paramEnd > paramStart) {
+                if (cleaned != null) {
+                    cleaned.append(kept == 0 ? '?' : '&').append(url, paramStart, paramEnd);
+                }
+                kept++;
+            }
+            paramStart = paramEnd + 1;
+        }
+        
+        if (cleaned == null) {
+            return null;
+        }
+        if (fragmentStart >= 0) {
+            cleaned.append(url, fragmentStart, url.length());
+        }
+        return cleaned.toString();
+    }
+    
+    /**
+     * Headers for sending a navigation again at its cleaned URL: the request's own
+     * headers, plus the Referer the page would have sent under the default
+     * strict-origin-when-cross-origin policy, which loadUrl leaves out
+     * 
+     * @param request navigation being replaced
+     * @param referrerUrl URL of the page the navigation started from, or null
+     */
+    public static Map<String, String> navigationHeaders(WebResourceRequest request, @Nullable String referrerUrl) {
+        Map<String, String> headers = new HashMap<>();
+        Map<String, String> original = request.getRequestHeaders();
+        if (original != null) {
+            headers.putAll(original);
+        }
+        for (String name : headers.keySet()) {
+            if ("Referer".equalsIgnoreCase(name)) return headers;
+        }
+        String referrer = referrerFor(referrerUrl, request.getUrl());
+        if (referrer != null) {
+            headers.put("Referer", referrer);
+        }
+        return headers;
+    }
+    
+    @Nullable
+    private static String referrerFor(@Nullable String from, Uri to) {
+        if (from == null) return null;
+        Uri source = Uri.parse(from);
+        String scheme = source.getScheme();
+        if (!"https".equals(scheme) && !"http".equals(scheme) || source.getHost() == null) return null;
+        // Never downgrade from https to http
+        if ("https".equals(scheme) && !"https".equals(to.getScheme())) return null;
+        
+        boolean sameOrigin = scheme.equals(to.getScheme()) && source.getHost().equalsIgnoreCase(to.getHost())
+                && source.getPort() == to.getPort();
+        if (sameOrigin) {
+            int fragment = from.indexOf('#');
+            return fragment < 0 ? from : from.substring(0, fragment);
+        }
+        return scheme + "://" + source.getHost() + (source.getPort() != -1 ? ":" + source.getPort() : "") + "/";
+    }
+    
+    /**
+     * Check whether the query parameter between start and end has a tracking name
+     */
+    private static boolean isTrackingParameter(String url, int start, int end) {
+        int nameEnd = url.indexOf('=', start);
+        if (nameEnd < 0 || nameEnd > end) {
+            nameEnd = end;
+        }
+        if (nameEnd == start) {
+            return false;
+        }
+        if (url.regionMatches(true, start, UTM_PREFIX, 0, UTM_PREFIX.length())) {
+            return true;
         }
+        return TRACKING_PARAMETERS.contains(url.substring(start, nameEnd).toLowerCase(Locale.ROOT));
     }
     
     // Getters and setters
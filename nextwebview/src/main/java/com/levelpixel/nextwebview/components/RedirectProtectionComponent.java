@@ -1,21 +1,30 @@
 package com.levelpixel.nextwebview.components;
 
 import android.util.Log;
+import android.webkit.JavascriptInterface;
 import android.webkit.WebResourceRequest;
 import android.webkit.WebView;
 
-import com.levelpixel.nextwebview.interfaces.OnAdBlockedListener;
+import androidx.annotation.Nullable;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Component responsible for redirect and popup protection
  */
 public class RedirectProtectionComponent {
     private static final String TAG = "RedirectProtection";
+    private static final MetricsRegistry.Histogram BRIDGE_LATENCY =
+            MetricsRegistry.getInstance().histogram("scripts.redirect-protection.report");
     
     // Control flags
     private boolean popupBlockEnabled = true;
@@ -27,18 +36,62 @@ public class RedirectProtectionComponent {
     private static final int MAX_HISTORY_SIZE = 20;
     private static final long SUSPICIOUS_REDIRECT_TIME_MS = 500; // Redirects faster than this are suspicious
     
-    // Listener for notification
-    private OnAdBlockedListener adBlockedListener;
+    // Hands blocking events to the app on the main thread
+    private volatile AdBlockEventDispatcher eventDispatcher;
+    
+    // JavaScript bridge for blocked attempts reported by the injected script
+    public static final String BRIDGE_NAME = "NextWebViewRedirectBridge";
+    private static final int MAX_BATCH_SIZE = 50;
+    private static final long FLUSH_INTERVAL_MS = 2000;
+    private static final String EVENT_POPUP = "popup";
+    private static final String EVENT_PUSH_STATE = "pushState";
+    private static final String EVENT_LOCATION_ASSIGN = "locationAssign";
+    private static final String EVENT_LOCATION_HREF = "locationHref";
+    private final RedirectBridge javascriptBridge = new RedirectBridge();
+    private final AtomicInteger scriptBlockedCount = new AtomicInteger();
+    // Token the script of the current page reports with; the previous page's is still
+    // accepted for the flush it sends while being left
+    private volatile String pageToken = UUID.randomUUID().toString();
+    private volatile String previousPageToken;
 
     /**
      * Enhanced JavaScript code to prevent unwanted redirects.
      */
     private static final String ENHANCED_REDIRECT_HANDLER_JS =
-            "window.nextwebview = window.nextwebview || {};" +
+            "(function(token) {" +
+                    "window.nextwebview = window.nextwebview || {};" +
+                    "if (nextwebview.redirectGuardInstalled) return;" +
+                    "nextwebview.redirectGuardInstalled = true;" +
                     "nextwebview.lastClickTime = 0;" +
                     "nextwebview.originalHref = '';" +
                     "nextwebview.redirectAttempts = 0;" +
                     
+                    // Buffer blocked attempts and flush them to Java in batches. The queue and
+                    // the token stay in this closure, out of reach of the page's own scripts.
+                    "let blockedQueue = [];" +
+                    "let flushTimer = null;" +
+                    "const flushBlocked = function() {" +
+                    "  if (flushTimer) { clearTimeout(flushTimer); flushTimer = null; }" +
+                    "  if (blockedQueue.length === 0 || !window." + BRIDGE_NAME + ") return;" +
+                    "  const batch = blockedQueue;" +
+                    "  blockedQueue = [];" +
+                    "  try { " + BRIDGE_NAME + ".reportBlockedAttempts(token, JSON.stringify(batch)); } catch (e) {}" +
+                    "};" +
+                    "const reportBlocked = function(type, url) {" +
+                    "  console.log('Blocked ' + type + ': ' + url);" +
+                    "  nextwebview.redirectAttempts++;" +
+                    "  if (blockedQueue.length < " + MAX_BATCH_SIZE + ") {" +
+                    "    blockedQueue.push({ type: type, url: String(url), time: Date.now() });" +
+                    "  }" +
+                    "  if (!flushTimer) {" +
+                    "    flushTimer = setTimeout(flushBlocked, " + FLUSH_INTERVAL_MS + ");" +
+                    "  }" +
+                    "};" +
+                    "document.addEventListener('visibilitychange', function() {" +
+                    "  if (document.visibilityState === 'hidden') flushBlocked();" +
+                    "});" +
+                    "window.addEventListener('pagehide', flushBlocked);" +
+                    
                     // Track clicks more reliably
                     "document.addEventListener('mousedown', function(e) {" +
                     "  const target = e.target;" +
@@ -55,8 +108,7 @@ public class RedirectProtectionComponent {
                     "  const timeSinceClick = Date.now() - nextwebview.lastClickTime;" +
                     "  const isRecentClick = timeSinceClick < 1000;" +
                     "  if (!isRecentClick) {" +
-                    "    console.log('Blocked popup: ' + url);" +
-                    "    nextwebview.redirectAttempts++;" +
+                    "    reportBlocked('" + EVENT_POPUP + "', url);" +
                     "    return null;" +
                     "  }" +
                     "  return originalWindowOpen.call(this, url, name, features);" +
@@ -71,8 +123,7 @@ public class RedirectProtectionComponent {
                     "                          url.includes('track.php') || " +
                     "                          url.includes('click.php');" +
                     "    if (isSuspicious) {" +
-                    "      console.log('Blocked redirect via history.pushState to: ' + url);" +
-                    "      nextwebview.redirectAttempts++;" +
+                    "      reportBlocked('" + EVENT_PUSH_STATE + "', url);" +
                     "      return;" +
                     "    }" +
                     "  }" +
@@ -88,8 +139,7 @@ public class RedirectProtectionComponent {
                     "                          url.includes('track.php') || " +
                     "                          url.includes('click.php');" +
                     "    if (isSuspicious) {" +
-                    "      console.log('Blocked redirect via location.assign to: ' + url);" +
-                    "      nextwebview.redirectAttempts++;" +
+                    "      reportBlocked('" + EVENT_LOCATION_ASSIGN + "', url);" +
                     "      return;" +
                     "    }" +
                     "  }" +
@@ -107,8 +157,7 @@ public class RedirectProtectionComponent {
                     "                            url.includes('track.php') || " +
                     "                            url.includes('click.php');" +
                     "        if (isSuspicious) {" +
-                    "          console.log('Blocked redirect via location.href to: ' + url);" +
-                    "          nextwebview.redirectAttempts++;" +
+                    "          reportBlocked('" + EVENT_LOCATION_HREF + "', url);" +
                     "          return;" +
                     "        }" +
                     "      }" +
@@ -116,7 +165,8 @@ public class RedirectProtectionComponent {
                     "    }," +
                     "    get: locationHrefDescriptor.get" +
                     "  });" +
-                    "}";
+                    "}" +
+                    "})";
     
     public RedirectProtectionComponent() {
         navigationHistory = new ArrayList<>();
@@ -131,6 +181,8 @@ public class RedirectProtectionComponent {
      * @return true if navigation should be intercepted
      */
     public boolean processPageStarted(String url, WebView webView) {
+        previousPageToken = pageToken;
+        pageToken = UUID.randomUUID().toString();
         if (!redirectBlockEnabled) return false;
         
         // Record navigation for redirect detection
@@ -164,9 +216,7 @@ public class RedirectProtectionComponent {
                         if (webView != null) {
                             webView.loadUrl(safeUrl);
                         }
-                        if (adBlockedListener != null) {
-                            adBlockedListener.onAdBlocked(url, "Excessive redirects detected");
-                        }
+                        post(url, BlockReason.EXCESSIVE_REDIRECTS);
                         return true;
                     }
                 }
@@ -181,7 +231,78 @@ public class RedirectProtectionComponent {
      */
     public void injectRedirectProtectionScripts(WebView webView) {
         if (!redirectBlockEnabled) return;
-        webView.evaluateJavascript(ENHANCED_REDIRECT_HANDLER_JS, null);
+        webView.evaluateJavascript(ENHANCED_REDIRECT_HANDLER_JS + "(" + JSONObject.quote(pageToken) + ");", null);
+    }
+    
+    /**
+     * Get the bridge object to register with addJavascriptInterface under {@link #BRIDGE_NAME}
+     */
+    public Object getJavascriptBridge() {
+        return javascriptBridge;
+    }
+    
+    /**
+     * Get the number of popups and redirects blocked by the injected script
+     * @return count of blocked script attempts
+     */
+    public int getScriptBlockedCount() {
+        return scriptBlockedCount.get();
+    }
+    
+    /**
+     * Reset the count of blocked script attempts
+     */
+    public void resetScriptBlockedCount() {
+        scriptBlockedCount.set(0);
+    }
+    
+    /**
+     * Handle a batch of blocked attempts flushed from the page
+     * 
+     * @param token token the script was injected with
+     * @param batchJson JSON array of {type, url, time} events
+     */
+    void onBlockedAttempts(String token, String batchJson) {
+        if (token == null || !(token.equals(pageToken) || token.equals(previousPageToken))) {
+            Log.w(TAG, "Ignoring blocked attempts reported without a valid page token");
+            return;
+        }
+        JSONArray batch;
+        try {
+            batch = new JSONArray(batchJson);
+        } catch (JSONException e) {
+            Log.w(TAG, "Malformed blocked attempt batch", e);
+            return;
+        }
+        
+        int count = Math.min(batch.length(), MAX_BATCH_SIZE);
+        scriptBlockedCount.addAndGet(count);
+        
+        AdBlockEventDispatcher dispatcher = eventDispatcher;
+        if (dispatcher == null) return;
+        for (int i = 0; i < count; i++) {
+            JSONObject event = batch.optJSONObject(i);
+            if (event == null) continue;
+            dispatcher.post(event.optString("url"), reasonForEvent(event.optString("type")), null);
+        }
+    }
+    
+    /**
+     * Map a script event type to the reason reported to the listener
+     */
+    static BlockReason reasonForEvent(String type) {
+        switch (type) {
+            case EVENT_POPUP:
+                return BlockReason.SCRIPT_POPUP;
+            case EVENT_PUSH_STATE:
+                return BlockReason.SCRIPT_PUSH_STATE;
+            case EVENT_LOCATION_ASSIGN:
+                return BlockReason.SCRIPT_LOCATION_ASSIGN;
+            case EVENT_LOCATION_HREF:
+                return BlockReason.SCRIPT_LOCATION_HREF;
+            default:
+                return BlockReason.SCRIPT_REDIRECT;
+        }
     }
     
     /**
@@ -191,25 +312,32 @@ public class RedirectProtectionComponent {
      * @return true if the request should be blocked
      */
     public boolean shouldBlockNavigation(WebResourceRequest request) {
+        return matchNavigation(request) != null;
+    }
+    
+    /**
+     * Same as {@link #shouldBlockNavigation}, with the reason for blocking
+     * 
+     * @param request The WebResourceRequest being loaded
+     * @return the reason if the request should be blocked, null otherwise
+     */
+    @Nullable
+    public BlockReason matchNavigation(WebResourceRequest request) {
         String url = request.getUrl().toString().toLowerCase();
         
         // Check for popup patterns
         if (popupBlockEnabled && isProbablePopupUrl(url)) {
-            if (adBlockedListener != null) {
-                adBlockedListener.onAdBlocked(url, "Popup blocked");
-            }
-            return true; // Block the navigation
+            post(url, BlockReason.POPUP);
+            return BlockReason.POPUP; // Block the navigation
         }
         
         // Check for suspicious redirects
         if (redirectBlockEnabled && isProbableRedirectUrl(url)) {
-            if (adBlockedListener != null) {
-                adBlockedListener.onAdBlocked(url, "Suspicious redirect blocked");
-            }
-            return true; // Block the navigation
+            post(url, BlockReason.SUSPICIOUS_REDIRECT);
+            return BlockReason.SUSPICIOUS_REDIRECT; // Block the navigation
         }
         
-        return false; // Allow normal navigation
+        return null; // Allow normal navigation
     }
     
     /**
@@ -263,8 +391,28 @@ public class RedirectProtectionComponent {
         return redirectBlockEnabled;
     }
     
-    // Listener management
-    public void setAdBlockedListener(OnAdBlockedListener listener) {
-        this.adBlockedListener = listener;
+    // Event dispatch
+    public void setEventDispatcher(@Nullable AdBlockEventDispatcher dispatcher) {
+        this.eventDispatcher = dispatcher;
+    }
+    
+    private void post(String url, BlockReason reason) {
+        AdBlockEventDispatcher dispatcher = eventDispatcher;
+        if (dispatcher != null) {
+            dispatcher.post(url, reason, null);
+        }
+    }
+    
+    /**
+     * Receives batches of blocked attempts from the injected script.
+     * Called on the WebView's JavaBridge thread.
+     */
+    private class RedirectBridge {
+        @JavascriptInterface
+        public void reportBlockedAttempts(String token, String batchJson) {
+            long start = System.nanoTime();
+            onBlockedAttempts(token, batchJson);
+            BRIDGE_LATENCY.recordSince(start);
+        }
     }
 }
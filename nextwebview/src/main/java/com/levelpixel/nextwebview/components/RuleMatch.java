@@ -0,0 +1,48 @@
+package com.levelpixel.nextwebview.components;
+
+import androidx.annotation.Nullable;
+
+/**
+ * A blocking rule that matched a request: the kind of rule and the entry that fired
+ */
+public final class RuleMatch {
+    private final BlockReason reason;
+    private final String ruleId;
+
+    RuleMatch(BlockReason reason, @Nullable String ruleId) {
+        this.reason = reason;
+        this.ruleId = ruleId;
+    }
+
+    public BlockReason getReason() {
+        return reason;
+    }
+
+    /**
+     * @return the blocklist entry, URL pattern or CNAME target that matched, or null
+     */
+    @Nullable
+    public String getRuleId() {
+        return ruleId;
+    }
+
+    /**
+     * @return the part of the rule worth showing next to the reason, or null
+     */
+    @Nullable
+    String getDetail() {
+        return reason == BlockReason.CNAME_CLOAKED ? ruleId : null;
+    }
+
+    /**
+     * @return the reason as passed to OnAdBlockedListener
+     */
+    public String describe() {
+        return reason.describe(getDetail());
+    }
+
+    @Override
+    public String toString() {
+        return ruleId != null ? reason + " (" + ruleId + ")" : reason.toString();
+    }
+}
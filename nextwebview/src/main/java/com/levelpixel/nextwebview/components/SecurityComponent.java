@@ -3,7 +3,6 @@ package com.levelpixel.nextwebview.components;
 import android.webkit.WebChromeClient;
 import android.webkit.WebView;
 
-import com.levelpixel.nextwebview.interfaces.OnAdBlockedListener;
 import com.levelpixel.nextwebview.interfaces.OnProgressChangedListener;
 
 /**
@@ -11,7 +10,8 @@ import com.levelpixel.nextwebview.interfaces.OnProgressChangedListener;
  */
 public class SecurityComponent {
     
-    private OnAdBlockedListener adBlockedListener;
+    // Hands blocking events to the app on the main thread
+    private AdBlockEventDispatcher eventDispatcher;
     
     /**
      * Create a WebChromeClient that blocks suspicious JavaScript dialogs
@@ -42,8 +42,8 @@ public class SecurityComponent {
                     message.toLowerCase().contains("winner"))) {
                     
                     result.cancel();
-                    if (adBlockedListener != null) {
-                        adBlockedListener.onAdBlocked(url, "Blocked scam alert: " + message);
+                    if (eventDispatcher != null) {
+                        eventDispatcher.post(url, BlockReason.SCAM_ALERT, message);
                     }
                     return true;
                 }
@@ -60,8 +60,8 @@ public class SecurityComponent {
                     message.toLowerCase().contains("infected"))) {
                     
                     result.cancel();
-                    if (adBlockedListener != null) {
-                        adBlockedListener.onAdBlocked(url, "Blocked scam confirm: " + message);
+                    if (eventDispatcher != null) {
+                        eventDispatcher.post(url, BlockReason.SCAM_CONFIRM, message);
                     }
                     return true;
                 }
@@ -70,8 +70,8 @@ public class SecurityComponent {
         };
     }
     
-    // Listener management
-    public void setAdBlockedListener(OnAdBlockedListener listener) {
-        this.adBlockedListener = listener;
+    // Event dispatch
+    public void setEventDispatcher(AdBlockEventDispatcher dispatcher) {
+        this.eventDispatcher = dispatcher;
     }
 }
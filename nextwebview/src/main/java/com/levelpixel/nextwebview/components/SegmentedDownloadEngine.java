@@ -0,0 +1,563 @@
+package com.levelpixel.nextwebview.components;
+
+import android.os.Process;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Download engine that splits large files into HTTP Range segments fetched
+ * concurrently and written with positional writes into a preallocated file.
+ * Progress is persisted in a small segment map next to the partial file so a
+ * download can resume after process death.
+ */
+public class SegmentedDownloadEngine {
+    private static final String TAG = "SegmentedDownload";
+
+    public static final String PARTIAL_SUFFIX = ".part";
+    public static final String SEGMENT_MAP_SUFFIX = ".nwvmap";
+
+    private static final int SEGMENT_MAP_MAGIC = 0x4E57564D; // "NWVM"
+    // Version 2 stores strings as length-prefixed UTF-8, URLs can exceed writeUTF's 64 KB
+    private static final int SEGMENT_MAP_VERSION = 2;
+    private static final int MAX_MAP_STRING_BYTES = 1024 * 1024;
+
+    private static final long MIN_SEGMENT_SIZE = 2 * 1024 * 1024;
+    private static final int DEFAULT_MAX_SEGMENTS = 4;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int CONNECT_TIMEOUT_MS = 15000;
+    private static final int READ_TIMEOUT_MS = 30000;
+    private static final int MAX_RETRIES = 3;
+    private static final long RETRY_BACKOFF_MS = 1000;
+    private static final long MAP_SAVE_INTERVAL_MS = 1000;
+
+    /**
+     * Receives progress as bytes are written. Called on download threads.
+     */
+    public interface Callback {
+        void onProgress(DownloadTask task);
+
+        /**
+         * Called once the type of the download has been sniffed from its first bytes
+         */
+        default void onVerdict(DownloadTask task) {
+        }
+    }
+
+    private final ExecutorService segmentExecutor;
+    private final Callback callback;
+    private volatile int maxSegments = DEFAULT_MAX_SEGMENTS;
+    private volatile BandwidthLimiter bandwidthLimiter;
+
+    public SegmentedDownloadEngine(@Nullable Callback callback) {
+        this.callback = callback;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.segmentExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runnable.run();
+            }, "nextwebview-segment-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Download a task to its destination, resuming from a saved segment map if one exists.
+     * Returns normally when the download completed or a stop was requested.
+     *
+     * @param task the download to run
+     * @throws IOException if the download failed after retries
+     */
+    public void execute(DownloadTask task) throws IOException {
+        File partialFile = getPartialFile(task.getDestination());
+        File mapFile = getSegmentMapFile(task.getDestination());
+
+        SegmentMap map = SegmentMap.read(mapFile);
+        if (map == null || !map.url.equals(task.getUrl()) || !partialFile.exists()) {
+            map = probe(task);
+        } else {
+            SegmentMap fresh = probe(task);
+            if (fresh.validator.isEmpty() || fresh.totalBytes != map.totalBytes
+                    || !fresh.validator.equals(map.validator)) {
+                // Without an ETag or Last-Modified the resource may have changed, start over
+                map = fresh;
+            }
+        }
+
+        task.setTotalBytes(map.totalBytes);
+        task.setDownloadedBytes(map.downloadedBytes());
+        task.setTransferAborted(false);
+
+        try (RandomAccessFile file = new RandomAccessFile(partialFile, "rw")) {
+            if (map.totalBytes > 0 && file.length() != map.totalBytes) {
+                file.setLength(map.totalBytes);
+            }
+            map.write(mapFile, task.getUserAgent(), task.getMimeType());
+
+            DownloadInspector inspector = new DownloadInspector(task.getFileName());
+            fetchSegments(task, map, file.getChannel(), mapFile, inspector);
+
+            if (task.isStopRequested()) {
+                map.write(mapFile, task.getUserAgent(), task.getMimeType());
+                return;
+            }
+
+            task.setSha256(inspector.finish(file.getChannel(), map.segments));
+            if (task.getVerdict() == null) {
+                task.setVerdict(inspector.getVerdict());
+                notifyVerdict(task);
+            }
+        }
+
+        String expected = task.getExpectedSha256();
+        if (expected != null && !expected.equalsIgnoreCase(task.getSha256())) {
+            partialFile.delete();
+            mapFile.delete();
+            throw new IOException("Integrity check failed: expected SHA-256 " + expected
+                    + " but got " + task.getSha256());
+        }
+
+        if (!partialFile.renameTo(task.getDestination())) {
+            throw new IOException("Could not move completed download to " + task.getDestination());
+        }
+        mapFile.delete();
+    }
+
+    /**
+     * Run every unfinished segment concurrently and wait for all of them
+     */
+    private void fetchSegments(DownloadTask task, SegmentMap map, FileChannel channel, File mapFile,
+                               DownloadInspector inspector) throws IOException {
+        List<Future<?>> futures = new ArrayList<>();
+        Segment first = null;
+        for (Segment segment : map.segments) {
+            if (segment.isComplete()) continue;
+            if (first == null) {
+                first = segment;
+                continue;
+            }
+            futures.add(segmentExecutor.submit(() -> {
+                fetchSegmentWithRetry(task, map, segment, channel, mapFile, inspector);
+                return null;
+            }));
+        }
+
+        IOException failure = null;
+        try {
+            // The calling thread downloads the first segment itself
+            if (first != null) {
+                fetchSegmentWithRetry(task, map, first, channel, mapFile, inspector);
+            }
+        } catch (IOException e) {
+            failure = e;
+            task.setTransferAborted(true);
+        }
+
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof IOException
+                            ? (IOException) e.getCause()
+                            : new IOException(e.getCause());
+                    task.setTransferAborted(true);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                task.setTransferAborted(true);
+                failure = new IOException("Download interrupted");
+            }
+        }
+
+        if (failure != null) {
+            map.write(mapFile, task.getUserAgent(), task.getMimeType());
+            throw failure;
+        }
+    }
+
+    private void fetchSegmentWithRetry(DownloadTask task, SegmentMap map, Segment segment,
+                                       FileChannel channel, File mapFile,
+                                       DownloadInspector inspector) throws IOException {
+        int attempt = 0;
+        while (true) {
+            try {
+                fetchSegment(task, map, segment, channel, mapFile, inspector);
+                return;
+            } catch (IOException e) {
+                if (task.shouldStopTransfer() || ++attempt > MAX_RETRIES) {
+                    throw e;
+                }
+                Log.w(TAG, "Segment " + segment.start + " failed, retry " + attempt, e);
+                try {
+                    Thread.sleep(RETRY_BACKOFF_MS * attempt);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Stream one segment from its current offset into the file
+     */
+    private void fetchSegment(DownloadTask task, SegmentMap map, Segment segment,
+                              FileChannel channel, File mapFile,
+                              DownloadInspector inspector) throws IOException {
+        long offset = segment.start + segment.downloaded;
+        HttpURLConnection connection = openConnection(task);
+        if (map.rangeSupported) {
+            connection.setRequestProperty("Range", "bytes=" + offset + "-" + (segment.end >= 0 ? segment.end : ""));
+        } else if (segment.downloaded > 0) {
+            // Without range support the only way to continue is from the beginning
+            task.addDownloadedBytes(-segment.downloaded);
+            segment.downloaded = 0;
+            offset = segment.start;
+            inspector.reset();
+        }
+
+        try {
+            int status = connection.getResponseCode();
+            if (map.rangeSupported && status != HttpURLConnection.HTTP_PARTIAL) {
+                throw new IOException("Expected partial content but got HTTP " + status);
+            }
+            if (status >= 400) {
+                throw new IOException("HTTP " + status);
+            }
+
+            byte[] buffer = new byte[BUFFER_SIZE];
+            try (InputStream in = connection.getInputStream()) {
+                int read;
+                while (!task.shouldStopTransfer() && (read = readChunk(in, buffer, segment)) > 0) {
+                    if (bandwidthLimiter != null) {
+                        bandwidthLimiter.acquire(read);
+                    }
+                    ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, read);
+                    long position = offset;
+                    while (chunk.hasRemaining()) {
+                        position += channel.write(chunk, position);
+                    }
+                    segment.downloaded += read;
+                    task.addDownloadedBytes(read);
+
+                    // Hash and sniff straight from the network buffer
+                    DownloadVerdict verdict = inspector.onChunkWritten(offset, buffer, read, channel, map.segments);
+                    if (verdict != null) {
+                        task.setVerdict(verdict);
+                        notifyVerdict(task);
+                    }
+                    offset += read;
+
+                    if (callback != null) {
+                        callback.onProgress(task);
+                    }
+                    map.maybeWrite(mapFile, task.getUserAgent(), task.getMimeType());
+                }
+            }
+
+            if (!task.shouldStopTransfer() && segment.end >= 0 && !segment.isComplete()) {
+                throw new IOException("Connection closed before segment was complete");
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private void notifyVerdict(DownloadTask task) {
+        if (callback != null && task.getVerdict() != null) {
+            callback.onVerdict(task);
+        }
+    }
+
+    /**
+     * Read up to a buffer of data without going past the end of the segment
+     */
+    private static int readChunk(InputStream in, byte[] buffer, Segment segment) throws IOException {
+        int limit = buffer.length;
+        if (segment.end >= 0) {
+            long remaining = segment.length() - segment.downloaded;
+            if (remaining <= 0) return -1;
+            limit = (int) Math.min(limit, remaining);
+        }
+        return in.read(buffer, 0, limit);
+    }
+
+    /**
+     * Ask for the first byte to learn the size, range support and validator of the resource
+     */
+    private SegmentMap probe(DownloadTask task) throws IOException {
+        HttpURLConnection connection = openConnection(task);
+        connection.setRequestProperty("Range", "bytes=0-0");
+        try {
+            int status = connection.getResponseCode();
+            if (status >= 400) {
+                throw new IOException("HTTP " + status);
+            }
+
+            String validator = connection.getHeaderField("ETag");
+            if (validator == null) {
+                validator = connection.getHeaderField("Last-Modified");
+            }
+
+            long total = -1;
+            boolean rangeSupported = false;
+            String contentRange = connection.getHeaderField("Content-Range");
+            if (status == HttpURLConnection.HTTP_PARTIAL && contentRange != null) {
+                int slash = contentRange.lastIndexOf('/');
+                if (slash >= 0 && !contentRange.endsWith("*")) {
+                    total = Long.parseLong(contentRange.substring(slash + 1).trim());
+                    rangeSupported = true;
+                }
+            } else {
+                total = connection.getContentLengthLong();
+            }
+
+            // A verified download streams in one piece, so its hash never reads the file back
+            int segments = task.getExpectedSha256() != null ? 1 : maxSegments;
+            return SegmentMap.plan(task.getUrl(), total, rangeSupported,
+                    validator != null ? validator : "", segments);
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed Content-Range header", e);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Open a connection carrying the page's cookies and User-Agent
+     */
+    private static HttpURLConnection openConnection(DownloadTask task) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(task.getUrl()).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        connection.setRequestProperty("Accept-Encoding", "identity");
+        if (task.getCookies() != null) {
+            connection.setRequestProperty("cookie", task.getCookies());
+        }
+        if (task.getUserAgent() != null) {
+            connection.setRequestProperty("User-Agent", task.getUserAgent());
+        }
+        return connection;
+    }
+
+    /**
+     * Set the maximum number of concurrent range requests per download
+     * @param maxSegments segment count, at least 1
+     */
+    public void setMaxSegments(int maxSegments) {
+        this.maxSegments = Math.max(1, maxSegments);
+    }
+
+    /**
+     * Share a bandwidth limiter across every segment of every download
+     * @param limiter limiter to use, or null for no limit
+     */
+    public void setBandwidthLimiter(@Nullable BandwidthLimiter limiter) {
+        this.bandwidthLimiter = limiter;
+    }
+
+    /**
+     * Stop accepting work once running segments finish
+     */
+    public void shutdown() {
+        segmentExecutor.shutdown();
+    }
+
+    public static File getPartialFile(File destination) {
+        return new File(destination.getPath() + PARTIAL_SUFFIX);
+    }
+
+    public static File getSegmentMapFile(File destination) {
+        return new File(destination.getPath() + SEGMENT_MAP_SUFFIX);
+    }
+
+    /**
+     * Read the details of an interrupted download from its segment map
+     *
+     * @param mapFile segment map file
+     * @return {url, userAgent, mimeType}, or null if the map is unreadable
+     */
+    @Nullable
+    public static String[] readInterruptedDownload(File mapFile) {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(mapFile))) {
+            if (in.readInt() != SEGMENT_MAP_MAGIC || in.readInt() != SEGMENT_MAP_VERSION) {
+                return null;
+            }
+            return new String[]{readString(in), readString(in), readString(in)};
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_MAP_STRING_BYTES) {
+            throw new IOException("Corrupt segment map string of " + length + " bytes");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Byte range of the file fetched by one connection
+     */
+    static class Segment {
+        final long start;
+        final long end; // Inclusive, -1 when the total size is unknown
+        volatile long downloaded;
+
+        Segment(long start, long end, long downloaded) {
+            this.start = start;
+            this.end = end;
+            this.downloaded = downloaded;
+        }
+
+        long length() {
+            return end - start + 1;
+        }
+
+        boolean isComplete() {
+            return end >= 0 && downloaded >= length();
+        }
+    }
+
+    /**
+     * Persistent plan of a download: its segments and how far each has got
+     */
+    static class SegmentMap {
+        final String url;
+        final long totalBytes;
+        final boolean rangeSupported;
+        final String validator;
+        final List<Segment> segments;
+        private long lastSaveTime = 0;
+
+        SegmentMap(String url, long totalBytes, boolean rangeSupported, String validator, List<Segment> segments) {
+            this.url = url;
+            this.totalBytes = totalBytes;
+            this.rangeSupported = rangeSupported;
+            this.validator = validator;
+            this.segments = segments;
+        }
+
+        static SegmentMap plan(String url, long totalBytes, boolean rangeSupported, String validator, int maxSegments) {
+            List<Segment> segments = new ArrayList<>();
+            int count = 1;
+            if (rangeSupported && totalBytes >= 2 * MIN_SEGMENT_SIZE) {
+                count = (int) Math.min(maxSegments, totalBytes / MIN_SEGMENT_SIZE);
+            }
+            if (totalBytes <= 0) {
+                segments.add(new Segment(0, -1, 0));
+            } else {
+                long segmentSize = totalBytes / count;
+                for (int i = 0; i < count; i++) {
+                    long start = i * segmentSize;
+                    long end = (i == count - 1) ? totalBytes - 1 : start + segmentSize - 1;
+                    segments.add(new Segment(start, end, 0));
+                }
+            }
+            return new SegmentMap(url, totalBytes, rangeSupported, validator, segments);
+        }
+
+        long downloadedBytes() {
+            long sum = 0;
+            for (Segment segment : segments) {
+                sum += segment.downloaded;
+            }
+            return sum;
+        }
+
+        /**
+         * Save the map if the last save is older than the save interval
+         */
+        void maybeWrite(File mapFile, String userAgent, String mimeType) throws IOException {
+            long now = System.currentTimeMillis();
+            synchronized (this) {
+                if (now - lastSaveTime < MAP_SAVE_INTERVAL_MS) return;
+                lastSaveTime = now;
+            }
+            write(mapFile, userAgent, mimeType);
+        }
+
+        /**
+         * Atomically replace the map file with the current progress
+         */
+        synchronized void write(File mapFile, String userAgent, String mimeType) throws IOException {
+            if (!rangeSupported) return; // Nothing to resume from
+
+            File temp = new File(mapFile.getPath() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new FileOutputStream(temp))) {
+                out.writeInt(SEGMENT_MAP_MAGIC);
+                out.writeInt(SEGMENT_MAP_VERSION);
+                writeString(out, url);
+                writeString(out, userAgent != null ? userAgent : "");
+                writeString(out, mimeType != null ? mimeType : "");
+                out.writeLong(totalBytes);
+                writeString(out, validator);
+                out.writeInt(segments.size());
+                for (Segment segment : segments) {
+                    out.writeLong(segment.start);
+                    out.writeLong(segment.end);
+                    out.writeLong(segment.downloaded);
+                }
+            }
+            if (!temp.renameTo(mapFile)) {
+                throw new IOException("Could not save segment map " + mapFile);
+            }
+        }
+
+        @Nullable
+        static SegmentMap read(File mapFile) {
+            if (!mapFile.exists()) return null;
+            try (DataInputStream in = new DataInputStream(new FileInputStream(mapFile))) {
+                if (in.readInt() != SEGMENT_MAP_MAGIC || in.readInt() != SEGMENT_MAP_VERSION) {
+                    return null;
+                }
+                String url = readString(in);
+                readString(in); // User-Agent
+                readString(in); // MIME type
+                long totalBytes = in.readLong();
+                String validator = readString(in);
+                int count = in.readInt();
+                List<Segment> segments = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    segments.add(new Segment(in.readLong(), in.readLong(), in.readLong()));
+                }
+                return new SegmentMap(url, totalBytes, true, validator, segments);
+            } catch (IOException e) {
+                Log.w(TAG, "Discarding unreadable segment map " + mapFile, e);
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,764 @@
+package com.levelpixel.nextwebview.components;
+
+import android.net.Uri;
+import android.util.Log;
+import android.webkit.CookieManager;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+
+import androidx.annotation.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Disk cache for immutable static subresources: fingerprinted scripts, styles,
+ * fonts and images served with a long max-age. Bodies are written to disk while
+ * they stream to the page, stored by the SHA-256 of their content so identical
+ * files are kept once, evicted least recently used first once the size limit
+ * is reached, and served from memory-mapped files.
+ */
+public class StaticResourceCache {
+    private static final String TAG = "StaticResourceCache";
+
+    private static final int INDEX_MAGIC = 0x4E575343; // "NWSC"
+    private static final int INDEX_VERSION = 1;
+    private static final long INDEX_SAVE_DELAY_MS = 2000;
+
+    // Shortest max-age that marks a response as immutable enough to cache
+    private static final long MIN_MAX_AGE_SECONDS = 7 * 24 * 60 * 60;
+    private static final long MAX_ENTRY_BYTES = 8 * 1024 * 1024;
+    private static final int CONNECT_TIMEOUT_MS = 15000;
+    private static final int READ_TIMEOUT_MS = 30000;
+
+    // File names carrying a content fingerprint, e.g. app.3f2a9c1b.js or chunk-Ab12Cd34Ef56Gh78.css
+    private static final Pattern FINGERPRINTED_ASSET = Pattern.compile(
+            ".*[._-]([0-9a-f]{8,}|(?=[a-z0-9_]*[0-9])[a-z0-9_]{12,})\\."
+                    + "(js|mjs|css|woff2?|ttf|otf|eot|png|jpe?g|gif|webp|avif|svg|ico)$",
+            Pattern.CASE_INSENSITIVE);
+
+    // Response headers replayed on cache hits
+    private static final String[] STORED_HEADERS = {
+            "Content-Type", "Cache-Control", "ETag", "Last-Modified",
+            "Access-Control-Allow-Origin", "Access-Control-Allow-Credentials", "Timing-Allow-Origin"
+    };
+
+    private final File directory;
+    private final File blobDirectory;
+    private final File indexFile;
+    private volatile long maxBytes;
+
+    // Entries by URL in access order, and the number of entries sharing each blob
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final Map<String, Integer> blobReferences = new HashMap<>();
+    private long currentBytes = 0;
+    private boolean loaded = false;
+
+    private final ScheduledExecutorService indexWriter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "nextwebview-static-cache");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private boolean indexSaveScheduled = false;
+
+    // Stats
+    private long hits;
+    private long misses;
+    private long stores;
+    private long evictions;
+    private long bytesServed;
+
+    /**
+     * @param directory directory owned by the cache
+     * @param maxBytes size limit of the stored bodies
+     */
+    public StaticResourceCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.blobDirectory = new File(directory, "blobs");
+        this.indexFile = new File(directory, "index");
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return true if the request is for a fingerprinted static asset this cache handles
+     */
+    public static boolean isCandidate(WebResourceRequest request) {
+        if (request.isForMainFrame() || !"GET".equalsIgnoreCase(request.getMethod())) return false;
+        String scheme = request.getUrl().getScheme();
+        if (!"https".equalsIgnoreCase(scheme) && !"http".equalsIgnoreCase(scheme)) return false;
+        String path = request.getUrl().getPath();
+        return path != null && FINGERPRINTED_ASSET.matcher(path).matches();
+    }
+
+    /**
+     * Serve a candidate request from disk, or fetch it and store the body as it streams
+     *
+     * @param request request from shouldInterceptRequest
+     * @param userAgent User-Agent of the WebView
+     * @param pageUrl URL of the page making the request, used to tell third-party requests apart
+     * @return response to hand to the WebView, or null to let the WebView load it
+     */
+    @Nullable
+    public WebResourceResponse intercept(WebResourceRequest request, @Nullable String userAgent,
+                                         @Nullable String pageUrl) {
+        if (!isCandidate(request)) return null;
+        String url = request.getUrl().toString();
+        boolean thirdParty = isThirdParty(request.getUrl().getHost(),
+                pageUrl != null ? Uri.parse(pageUrl).getHost() : null);
+        Resource resource = load(url, request.getRequestHeaders(), userAgent, thirdParty);
+        if (resource == null) return null;
+        return new WebResourceResponse(resource.mimeType, resource.encoding, 200, "OK",
+                resource.headers, resource.body);
+    }
+
+    /**
+     * Look a URL up on disk, fetching it on a miss
+     *
+     * @param thirdParty true to leave cookies out of the request and ignore the ones set by the response
+     * @return the body with its metadata, or null if the WebView should load the URL itself
+     */
+    @Nullable
+    Resource load(String url, Map<String, String> requestHeaders, @Nullable String userAgent, boolean thirdParty) {
+        Resource cached = serveFromDisk(url);
+        if (cached != null) {
+            return cached;
+        }
+        try {
+            return fetch(url, requestHeaders, userAgent, thirdParty);
+        } catch (IOException e) {
+            // Let the WebView retry the request itself
+            Log.w(TAG, "Fetch failed for " + url, e);
+            return null;
+        }
+    }
+
+    /**
+     * @return true if the hosts differ in their last two labels, or the page host is unknown
+     */
+    static boolean isThirdParty(@Nullable String host, @Nullable String pageHost) {
+        if (host == null || pageHost == null) return true;
+        return !siteOf(host).equals(siteOf(pageHost));
+    }
+
+    private static String siteOf(String host) {
+        String lower = host.toLowerCase(Locale.ROOT);
+        int last = lower.lastIndexOf('.');
+        if (last <= 0) return lower;
+        int previous = lower.lastIndexOf('.', last - 1);
+        return previous < 0 ? lower : lower.substring(previous + 1);
+    }
+
+    @Nullable
+    private Resource serveFromDisk(String url) {
+        Entry entry;
+        synchronized (this) {
+            ensureLoaded();
+            entry = entries.get(url);
+            if (entry == null) {
+                misses++;
+                return null;
+            }
+        }
+
+        File blob = new File(blobDirectory, entry.sha256);
+        try (FileInputStream in = new FileInputStream(blob)) {
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, blob.length());
+            synchronized (this) {
+                hits++;
+                bytesServed += entry.size;
+            }
+            return new Resource(entry.mimeType, entry.encoding, new HashMap<>(entry.headers),
+                    new ByteBufferInputStream(buffer));
+        } catch (IOException e) {
+            Log.w(TAG, "Dropping unreadable cache entry " + url, e);
+            synchronized (this) {
+                Entry removed = entries.remove(url);
+                if (removed != null) {
+                    release(removed);
+                }
+                misses++;
+            }
+            return null;
+        }
+    }
+
+    @Nullable
+    private Resource fetch(String url, Map<String, String> requestHeaders, @Nullable String userAgent,
+                           boolean thirdParty) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        // The WebView has to see redirects itself, for its history, CORS and mixed content checks
+        connection.setInstanceFollowRedirects(false);
+        for (Map.Entry<String, String> header : requestHeaders.entrySet()) {
+            if (thirdParty && "Cookie".equalsIgnoreCase(header.getKey())) continue;
+            connection.setRequestProperty(header.getKey(), header.getValue());
+        }
+        if (userAgent != null) {
+            connection.setRequestProperty("User-Agent", userAgent);
+        }
+        // Third-party cookies stay out, the same as when the WebView blocks them
+        String cookies = thirdParty ? null : CookieManager.getInstance().getCookie(url);
+        if (cookies != null) {
+            connection.setRequestProperty("Cookie", cookies);
+        }
+
+        // Anything but a plain 200 goes back to the WebView, which loads it again itself
+        if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+            connection.disconnect();
+            return null;
+        }
+        Map<String, String> headers = new HashMap<>();
+        for (String name : STORED_HEADERS) {
+            String value = connection.getHeaderField(name);
+            if (value != null) {
+                headers.put(name, value);
+            }
+        }
+        List<String> setCookies = headerValues(connection, "Set-Cookie");
+        if (setCookies != null && !thirdParty) {
+            for (String setCookie : setCookies) {
+                CookieManager.getInstance().setCookie(url, setCookie);
+            }
+        }
+
+        String contentType = connection.getContentType();
+        String mimeType = mimeTypeOf(contentType);
+        String encoding = charsetOf(contentType);
+        InputStream body = connection.getInputStream();
+
+        // A response that sent or set cookies may be personal, never share it. Entries are
+        // keyed by URL alone, so CORS grants for one origin must not reach pages of another.
+        boolean cacheable = cookies == null && setCookies == null
+                && isImmutable(connection.getHeaderField("Cache-Control"))
+                && isVaryCacheable(connection.getHeaderField("Vary"))
+                && isAnyOrigin(connection.getHeaderField("Access-Control-Allow-Origin"))
+                && connection.getContentLengthLong() <= MAX_ENTRY_BYTES;
+        if (cacheable) {
+            body = new StoringInputStream(body, url, mimeType, encoding, headers);
+        }
+        return new Resource(mimeType, encoding, headers, body);
+    }
+
+    /**
+     * @return true if Cache-Control allows shared storage for at least a week
+     */
+    static boolean isImmutable(@Nullable String cacheControl) {
+        if (cacheControl == null) return false;
+        String value = cacheControl.toLowerCase(Locale.ROOT);
+        if (value.contains("no-store") || value.contains("no-cache") || value.contains("private")) {
+            return false;
+        }
+        if (value.contains("immutable")) return true;
+        for (String directive : value.split(",")) {
+            directive = directive.trim();
+            if (directive.startsWith("max-age=")) {
+                try {
+                    return Long.parseLong(directive.substring(8).trim()) >= MIN_MAX_AGE_SECONDS;
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isVaryCacheable(@Nullable String vary) {
+        if (vary == null) return true;
+        for (String field : vary.split(",")) {
+            String name = field.trim();
+            if (!name.isEmpty() && !name.equalsIgnoreCase("Accept-Encoding")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the response is not limited to the requesting origin
+     */
+    private static boolean isAnyOrigin(@Nullable String allowOrigin) {
+        return allowOrigin == null || allowOrigin.trim().equals("*");
+    }
+
+    /**
+     * @return every value of a response header, whatever the case of its name, or null if absent
+     */
+    @Nullable
+    private static List<String> headerValues(HttpURLConnection connection, String name) {
+        for (Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet()) {
+            if (name.equalsIgnoreCase(header.getKey())) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static String mimeTypeOf(@Nullable String contentType) {
+        if (contentType == null) return "application/octet-stream";
+        int semicolon = contentType.indexOf(';');
+        return (semicolon >= 0 ? contentType.substring(0, semicolon) : contentType).trim();
+    }
+
+    @Nullable
+    private static String charsetOf(@Nullable String contentType) {
+        if (contentType == null) return null;
+        for (String part : contentType.split(";")) {
+            part = part.trim();
+            if (part.toLowerCase(Locale.ROOT).startsWith("charset=")) {
+                return part.substring(8).replace("\"", "").trim();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Add a fully received body to the cache under its content hash
+     */
+    private synchronized void commit(File tempFile, String sha256, String url, String mimeType,
+                                     @Nullable String encoding, Map<String, String> headers, long size) {
+        ensureLoaded();
+        File blob = new File(blobDirectory, sha256);
+        if (blob.exists() || !tempFile.renameTo(blob)) {
+            tempFile.delete();
+        }
+        if (!blob.exists()) return;
+
+        // Count the new reference first, so storing the same body again never deletes it
+        Integer references = blobReferences.get(sha256);
+        blobReferences.put(sha256, references == null ? 1 : references + 1);
+        if (references == null) {
+            currentBytes += size;
+        }
+        Entry previous = entries.put(url, new Entry(sha256, mimeType, encoding, headers, size));
+        if (previous != null) {
+            release(previous);
+        }
+        stores++;
+        trimToSize();
+        scheduleIndexSave();
+    }
+
+    /**
+     * Drop an entry's reference to its blob, deleting the blob if it was the last one
+     */
+    private void release(Entry entry) {
+        Integer references = blobReferences.get(entry.sha256);
+        if (references == null || references <= 1) {
+            blobReferences.remove(entry.sha256);
+            new File(blobDirectory, entry.sha256).delete();
+            currentBytes -= entry.size;
+        } else {
+            blobReferences.put(entry.sha256, references - 1);
+        }
+    }
+
+    private void trimToSize() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (currentBytes > maxBytes && iterator.hasNext()) {
+            Entry eldest = iterator.next();
+            iterator.remove();
+            release(eldest);
+            evictions++;
+        }
+    }
+
+    /**
+     * Load the index and delete blobs it does not reference
+     */
+    private void ensureLoaded() {
+        if (loaded) return;
+        loaded = true;
+        if (!blobDirectory.exists() && !blobDirectory.mkdirs()) {
+            Log.w(TAG, "Could not create cache directory " + blobDirectory);
+        }
+
+        try (DataInputStream in = new DataInputStream(new FileInputStream(indexFile))) {
+            if (in.readInt() == INDEX_MAGIC && in.readInt() == INDEX_VERSION) {
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    String url = in.readUTF();
+                    String sha256 = in.readUTF();
+                    String mimeType = in.readUTF();
+                    String encoding = in.readUTF();
+                    long size = in.readLong();
+                    int headerCount = in.readInt();
+                    Map<String, String> headers = new HashMap<>();
+                    for (int h = 0; h < headerCount; h++) {
+                        headers.put(in.readUTF(), in.readUTF());
+                    }
+                    if (!new File(blobDirectory, sha256).exists()) continue;
+                    entries.put(url, new Entry(sha256, mimeType, encoding.isEmpty() ? null : encoding, headers, size));
+                    Integer references = blobReferences.get(sha256);
+                    blobReferences.put(sha256, references == null ? 1 : references + 1);
+                    if (references == null) {
+                        currentBytes += size;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // Missing or corrupt index, start empty
+        }
+
+        File[] blobs = blobDirectory.listFiles();
+        if (blobs != null) {
+            for (File blob : blobs) {
+                if (!blobReferences.containsKey(blob.getName())) {
+                    blob.delete();
+                }
+            }
+        }
+        trimToSize();
+    }
+
+    private void scheduleIndexSave() {
+        if (indexSaveScheduled) return;
+        indexSaveScheduled = true;
+        indexWriter.schedule(this::saveIndex, INDEX_SAVE_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Write the index through a temporary file so a crash never leaves it half written
+     */
+    private void saveIndex() {
+        File temp = new File(directory, "index.tmp");
+        synchronized (this) {
+            indexSaveScheduled = false;
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                out.writeInt(INDEX_MAGIC);
+                out.writeInt(INDEX_VERSION);
+                out.writeInt(entries.size());
+                // Eldest first, so reloading restores the access order
+                for (Map.Entry<String, Entry> item : entries.entrySet()) {
+                    Entry entry = item.getValue();
+                    out.writeUTF(item.getKey());
+                    out.writeUTF(entry.sha256);
+                    out.writeUTF(entry.mimeType);
+                    out.writeUTF(entry.encoding != null ? entry.encoding : "");
+                    out.writeLong(entry.size);
+                    out.writeInt(entry.headers.size());
+                    for (Map.Entry<String, String> header : entry.headers.entrySet()) {
+                        out.writeUTF(header.getKey());
+                        out.writeUTF(header.getValue());
+                    }
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Could not save cache index", e);
+                temp.delete();
+                return;
+            }
+        }
+        if (!temp.renameTo(indexFile)) {
+            temp.delete();
+        }
+    }
+
+    /**
+     * Change the size limit, evicting entries if the cache is now too large
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        ensureLoaded();
+        trimToSize();
+        scheduleIndexSave();
+    }
+
+    /**
+     * Delete every cached body
+     */
+    public synchronized void clear() {
+        ensureLoaded();
+        for (Entry entry : entries.values()) {
+            new File(blobDirectory, entry.sha256).delete();
+        }
+        entries.clear();
+        blobReferences.clear();
+        currentBytes = 0;
+        scheduleIndexSave();
+    }
+
+    public synchronized CacheStats getStats() {
+        ensureLoaded();
+        return new CacheStats(hits, misses, stores, evictions, bytesServed, currentBytes, maxBytes, entries.size());
+    }
+
+    public synchronized void resetStats() {
+        hits = 0;
+        misses = 0;
+        stores = 0;
+        evictions = 0;
+        bytesServed = 0;
+    }
+
+    /**
+     * Save the index now and stop the background writer
+     */
+    public void shutdown() {
+        indexWriter.shutdown();
+        saveIndex();
+    }
+
+    /**
+     * Metadata of one cached URL
+     */
+    private static class Entry {
+        final String sha256;
+        final String mimeType;
+        final String encoding;
+        final Map<String, String> headers;
+        final long size;
+
+        Entry(String sha256, String mimeType, @Nullable String encoding, Map<String, String> headers, long size) {
+            this.sha256 = sha256;
+            this.mimeType = mimeType;
+            this.encoding = encoding;
+            this.headers = headers;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Body and metadata handed to the WebView
+     */
+    static class Resource {
+        final String mimeType;
+        final String encoding;
+        final Map<String, String> headers;
+        final InputStream body;
+
+        Resource(String mimeType, @Nullable String encoding, Map<String, String> headers, InputStream body) {
+            this.mimeType = mimeType;
+            this.encoding = encoding;
+            this.headers = headers;
+            this.body = body;
+        }
+    }
+
+    /**
+     * Passes the network body to the WebView while copying it to a temporary file.
+     * The copy is committed only if the body was read to the end.
+     */
+    private class StoringInputStream extends FilterInputStream {
+        private final String url;
+        private final String mimeType;
+        private final String encoding;
+        private final Map<String, String> headers;
+        private File tempFile;
+        private OutputStream out;
+        private MessageDigest digest;
+        private long size;
+        private boolean done;
+
+        StoringInputStream(InputStream in, String url, String mimeType, @Nullable String encoding,
+                           Map<String, String> headers) {
+            super(in);
+            this.url = url;
+            this.mimeType = mimeType;
+            this.encoding = encoding;
+            this.headers = new HashMap<>(headers);
+            try {
+                synchronized (StaticResourceCache.this) {
+                    ensureLoaded();
+                }
+                tempFile = File.createTempFile("fetch", ".tmp", blobDirectory);
+                out = new FileOutputStream(tempFile);
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (IOException | NoSuchAlgorithmException e) {
+                abandon();
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            int read = read(single, 0, 1);
+            return read < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (out != null) {
+                if (read > 0) {
+                    try {
+                        out.write(buffer, offset, read);
+                        digest.update(buffer, offset, read);
+                        size += read;
+                        if (size > MAX_ENTRY_BYTES) {
+                            abandon();
+                        }
+                    } catch (IOException e) {
+                        // A full disk must not break the page, just stop storing
+                        abandon();
+                    }
+                } else if (read < 0) {
+                    finish();
+                }
+            }
+            return read;
+        }
+
+        private void finish() {
+            if (done) return;
+            done = true;
+            try {
+                out.close();
+            } catch (IOException e) {
+                abandon();
+                return;
+            }
+            out = null;
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            commit(tempFile, hex.toString(), url, mimeType, encoding, headers, size);
+        }
+
+        private void abandon() {
+            done = true;
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
+                out = null;
+            }
+            if (tempFile != null) {
+                tempFile.delete();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!done) {
+                abandon();
+            }
+            super.close();
+        }
+    }
+
+    /**
+     * InputStream over a memory-mapped file
+     */
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (!buffer.hasRemaining()) return -1;
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+    /**
+     * Snapshot of cache counters
+     */
+    public static class CacheStats {
+        private final long hits;
+        private final long misses;
+        private final long stores;
+        private final long evictions;
+        private final long bytesServed;
+        private final long sizeBytes;
+        private final long maxBytes;
+        private final int entryCount;
+
+        CacheStats(long hits, long misses, long stores, long evictions, long bytesServed,
+                   long sizeBytes, long maxBytes, int entryCount) {
+            this.hits = hits;
+            this.misses = misses;
+            this.stores = stores;
+            this.evictions = evictions;
+            this.bytesServed = bytesServed;
+            this.sizeBytes = sizeBytes;
+            this.maxBytes = maxBytes;
+            this.entryCount = entryCount;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public long getStores() {
+            return stores;
+        }
+
+        public long getEvictions() {
+            return evictions;
+        }
+
+        public long getBytesServed() {
+            return bytesServed;
+        }
+
+        public long getSizeBytes() {
+            return sizeBytes;
+        }
+
+        public long getMaxBytes() {
+            return maxBytes;
+        }
+
+        public int getEntryCount() {
+            return entryCount;
+        }
+
+        public double getHitRate() {
+            long lookups = hits + misses;
+            return lookups == 0 ? 0 : (double) hits / lookups;
+        }
+
+        @Override
+        public String toString() {
+            return "hits=" + hits + " misses=" + misses + " stores=" + stores + " evictions=" + evictions
+                    + " entries=" + entryCount + " size=" + sizeBytes + "/" + maxBytes;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.levelpixel.nextwebview.components;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Tab thumbnails keyed by tab id, in a byte-bounded memory cache backed by
+ * WebP files. Encoding and decoding happen on a background thread, so the
+ * UI thread only ever receives ready bitmaps.
+ */
+public class ThumbnailCache {
+    private static final String TAG = "ThumbnailCache";
+
+    private static final int WEBP_QUALITY = 75;
+    private static final long DEFAULT_DISK_BUDGET_BYTES = 8 * 1024 * 1024;
+
+    private static ThumbnailCache instance;
+
+    /**
+     * Receives a thumbnail on the main thread
+     */
+    public interface Callback {
+        void onThumbnailLoaded(long tabId, @Nullable Bitmap thumbnail);
+    }
+
+    private final File directory;
+    private final long diskBudgetBytes;
+    private final LruCache<Long, Bitmap> memory;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService io = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "nextwebview-thumbnails");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    /**
+     * @return the cache shared by every tab manager and tab list in this process
+     */
+    public static synchronized ThumbnailCache getInstance(Context context) {
+        if (instance == null) {
+            // A thirty-second of the heap holds a few dozen quarter-scale thumbnails
+            int memoryBytes = (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 32);
+            instance = new ThumbnailCache(new File(context.getApplicationContext().getCacheDir(),
+                    "nextwebview-thumbnails"), memoryBytes, DEFAULT_DISK_BUDGET_BYTES);
+        }
+        return instance;
+    }
+
+    /**
+     * @param directory directory owned by the cache
+     * @param memoryBytes size limit of decoded bitmaps in memory
+     * @param diskBudgetBytes size limit of the encoded files
+     */
+    public ThumbnailCache(File directory, int memoryBytes, long diskBudgetBytes) {
+        this.directory = directory;
+        this.diskBudgetBytes = diskBudgetBytes;
+        this.memory = new LruCache<Long, Bitmap>(memoryBytes) {
+            @Override
+            protected int sizeOf(Long key, Bitmap value) {
+                return value.getAllocationByteCount();
+            }
+        };
+    }
+
+    /**
+     * Store a thumbnail; it is written to disk in the background
+     */
+    public void put(long tabId, Bitmap thumbnail) {
+        memory.put(tabId, thumbnail);
+        io.execute(() -> {
+            write(tabId, thumbnail);
+            trimDisk();
+        });
+    }
+
+    /**
+     * @return the thumbnail if it is in memory, without touching the disk
+     */
+    @Nullable
+    public Bitmap peek(long tabId) {
+        return memory.get(tabId);
+    }
+
+    /**
+     * Get a thumbnail, decoding it from disk in the background if needed.
+     * Memory hits are delivered before this method returns.
+     */
+    public void load(long tabId, Callback callback) {
+        Bitmap cached = memory.get(tabId);
+        if (cached != null) {
+            callback.onThumbnailLoaded(tabId, cached);
+            return;
+        }
+        io.execute(() -> {
+            File file = file(tabId);
+            Bitmap decoded = file.exists() ? BitmapFactory.decodeFile(file.getPath()) : null;
+            if (decoded != null) {
+                memory.put(tabId, decoded);
+            }
+            mainHandler.post(() -> callback.onThumbnailLoaded(tabId, decoded));
+        });
+    }
+
+    public void remove(long tabId) {
+        memory.remove(tabId);
+        io.execute(() -> file(tabId).delete());
+    }
+
+    public void clear() {
+        memory.evictAll();
+        io.execute(() -> {
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+        });
+    }
+
+    @SuppressWarnings("deprecation")
+    private void write(long tabId, Bitmap thumbnail) {
+        if (!directory.exists() && !directory.mkdirs()) return;
+        Bitmap.CompressFormat format = Build.VERSION.SDK_INT >= Build.VERSION_CODES.R
+                ? Bitmap.CompressFormat.WEBP_LOSSY : Bitmap.CompressFormat.WEBP;
+        File file = file(tabId);
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            if (thumbnail.isRecycled() || !thumbnail.compress(format, WEBP_QUALITY, out)) {
+                throw new IOException("Could not encode thumbnail");
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write thumbnail of tab " + tabId, e);
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+        }
+    }
+
+    /**
+     * Delete the oldest files until the directory fits its budget
+     */
+    private void trimDisk() {
+        File[] files = directory.listFiles();
+        if (files == null) return;
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= diskBudgetBytes) return;
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File file : files) {
+            if (total <= diskBudgetBytes) break;
+            total -= file.length();
+            file.delete();
+        }
+    }
+
+    private File file(long tabId) {
+        return new File(directory, tabId + ".webp");
+    }
+}
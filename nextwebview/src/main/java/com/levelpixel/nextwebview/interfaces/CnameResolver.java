@@ -0,0 +1,31 @@
+package com.levelpixel.nextwebview.interfaces;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Interface for resolving the CNAME chain of a host, used to uncloak trackers
+ * hidden behind first-party subdomains
+ */
+public interface CnameResolver {
+    /**
+     * Resolve the CNAME chain of a host. Called on a background thread.
+     * @param host host to resolve
+     * @return the chain in resolution order, empty if the host has no CNAME
+     */
+    Answer resolve(String host) throws IOException;
+
+    /**
+     * CNAME chain for a host together with how long it may be cached
+     */
+    final class Answer {
+        public final List<String> chain;
+        public final long ttlSeconds;
+
+        public Answer(List<String> chain, long ttlSeconds) {
+            this.chain = Collections.unmodifiableList(chain);
+            this.ttlSeconds = ttlSeconds;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.levelpixel.nextwebview.interfaces;
+
+import com.levelpixel.nextwebview.components.DownloadProgress;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Interface for the lifecycle of built-in downloads. Called on the main thread,
+ * progress arrives in batches at most a few times per second per download.
+ */
+public interface DownloadEventListener {
+    void onDownloadQueued(long downloadId, String fileName);
+    void onDownloadStarted(long downloadId, String fileName);
+    void onDownloadProgress(List<DownloadProgress> updates);
+    void onDownloadCompleted(long downloadId, String fileName, File file);
+    void onDownloadFailed(long downloadId, String fileName, String reason);
+
+    default void onDownloadPaused(long downloadId, String fileName) {
+    }
+
+    default void onDownloadCancelled(long downloadId, String fileName) {
+    }
+}
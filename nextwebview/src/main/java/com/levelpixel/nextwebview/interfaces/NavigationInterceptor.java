@@ -0,0 +1,12 @@
+package com.levelpixel.nextwebview.interfaces;
+
+import android.webkit.WebResourceRequest;
+import android.webkit.WebView;
+
+/**
+ * Interface for a stage that sees navigations before they start.
+ * Called on the main thread; returning true cancels the navigation and skips later stages.
+ */
+public interface NavigationInterceptor {
+    boolean shouldOverride(WebView view, WebResourceRequest request);
+}
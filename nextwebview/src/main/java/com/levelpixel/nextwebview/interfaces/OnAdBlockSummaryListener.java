@@ -0,0 +1,11 @@
+package com.levelpixel.nextwebview.interfaces;
+
+import com.levelpixel.nextwebview.components.AdBlockSummary;
+
+/**
+ * Interface for batched ad blocking events, called on the main thread at most
+ * once per dispatch interval
+ */
+public interface OnAdBlockSummaryListener {
+    void onAdBlockSummary(AdBlockSummary summary);
+}
@@ -1,9 +1,23 @@
 package com.levelpixel.nextwebview.interfaces;
 
+import androidx.annotation.Nullable;
+
+import com.levelpixel.nextwebview.components.BlockReason;
+
 /**
- * Interface for ad blocking statistics
+ * Interface for ad blocking statistics. Called on the main thread: blocked
+ * events are delivered one by one in batches, followed by the stats once per batch.
+ * Prefer {@link OnAdBlockSummaryListener} unless every event is needed.
  */
 public interface OnAdBlockedListener {
     void onAdBlocked(String url, String reason);
     void onAdBlockStats(int requestsBlocked, int elementsHidden);
+
+    /**
+     * Typed variant of {@link #onAdBlocked(String, String)}, which it calls by default
+     * @param detail what matched, e.g. a CNAME target or dialog message, or null
+     */
+    default void onAdBlocked(String url, BlockReason reason, @Nullable String detail) {
+        onAdBlocked(url, reason.describe(detail));
+    }
 }
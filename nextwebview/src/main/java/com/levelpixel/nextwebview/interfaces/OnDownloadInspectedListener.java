@@ -0,0 +1,11 @@
+package com.levelpixel.nextwebview.interfaces;
+
+import com.levelpixel.nextwebview.components.DownloadVerdict;
+
+/**
+ * Interface for integrity results of built-in downloads, computed while bytes arrive
+ */
+public interface OnDownloadInspectedListener {
+    void onDownloadVerdict(long downloadId, String fileName, DownloadVerdict verdict);
+    void onDownloadHashed(long downloadId, String fileName, String sha256);
+}
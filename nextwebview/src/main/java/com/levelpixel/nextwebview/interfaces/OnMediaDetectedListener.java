@@ -0,0 +1,9 @@
+package com.levelpixel.nextwebview.interfaces;
+
+/**
+ * Interface for HLS and DASH manifests requested by the page,
+ * used to offer a download button for streamed video
+ */
+public interface OnMediaDetectedListener {
+    void onMediaDetected(String manifestUrl);
+}
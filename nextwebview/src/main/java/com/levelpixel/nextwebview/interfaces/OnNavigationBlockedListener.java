@@ -0,0 +1,9 @@
+package com.levelpixel.nextwebview.interfaces;
+
+/**
+ * Interface for top-level navigations stopped by the blocklist,
+ * used to show an interstitial instead of the landing page
+ */
+public interface OnNavigationBlockedListener {
+    void onNavigationBlocked(String url, String reason);
+}
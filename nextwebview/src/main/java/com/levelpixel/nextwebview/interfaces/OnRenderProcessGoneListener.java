@@ -0,0 +1,15 @@
+package com.levelpixel.nextwebview.interfaces;
+
+import android.webkit.WebView;
+
+/**
+ * Interface for a renderer that crashed or was killed by the system. The view
+ * cannot be used afterwards; return true once it has been detached and replaced.
+ */
+public interface OnRenderProcessGoneListener {
+    /**
+     * @param crashed false if the system killed the renderer to reclaim memory
+     * @return true if the view was taken care of
+     */
+    boolean onRenderProcessGone(WebView view, boolean crashed);
+}
@@ -0,0 +1,12 @@
+package com.levelpixel.nextwebview.interfaces;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Interface for receiving a downscaled snapshot of the page, on the main thread
+ */
+public interface OnThumbnailCapturedListener {
+    void onThumbnailCaptured(@Nullable Bitmap thumbnail);
+}
@@ -0,0 +1,14 @@
+package com.levelpixel.nextwebview.interfaces;
+
+import android.webkit.WebView;
+
+/**
+ * Interface for page lifecycle callbacks, called on the main thread
+ */
+public interface PageLifecycleObserver {
+    default void onPageStarted(WebView view, String url) {
+    }
+
+    default void onPageFinished(WebView view, String url) {
+    }
+}
@@ -0,0 +1,11 @@
+package com.levelpixel.nextwebview.interfaces;
+
+import com.levelpixel.nextwebview.components.PageMetrics;
+
+/**
+ * Interface for per-page load metrics, called on the main thread once per
+ * navigation when the page is hidden, left or has settled
+ */
+public interface PageMetricsListener {
+    void onPageMetrics(PageMetrics metrics);
+}
@@ -0,0 +1,13 @@
+package com.levelpixel.nextwebview.interfaces;
+
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+import android.webkit.WebView;
+
+/**
+ * Interface for a stage that sees every subresource and document request.
+ * Called on the WebView's IO threads; returning a response skips later stages.
+ */
+public interface RequestInterceptor {
+    WebResourceResponse intercept(WebView view, WebResourceRequest request);
+}
@@ -0,0 +1,213 @@
+package com.levelpixel.nextwebview.components;
+
+import com.levelpixel.nextwebview.interfaces.CnameResolver;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of CNAME uncloaking against an offline fake resolver
+ */
+public class CnameUncloakingComponentTest {
+    private static final Set<String> BLOCKLIST = Collections.singleton("tracker.example.net");
+
+    private final FakeResolver resolver = new FakeResolver();
+    private CnameUncloakingComponent uncloaker;
+
+    @After
+    public void tearDown() {
+        if (uncloaker != null) {
+            uncloaker.shutdown();
+        }
+    }
+
+    private CnameUncloakingComponent create(long timeoutMs) {
+        uncloaker = new CnameUncloakingComponent(resolver);
+        uncloaker.setLookupTimeout(timeoutMs);
+        return uncloaker;
+    }
+
+    private static boolean isBlocked(String host) {
+        return BLOCKLIST.contains(host);
+    }
+
+    @Test
+    public void findsBlockedTargetInChain() {
+        resolver.answer("metrics.shop.com", 3600, "shop.edge.example.org", "tracker.example.net");
+        CnameUncloakingComponent uncloaker = create(1000);
+
+        assertEquals("tracker.example.net",
+                uncloaker.findBlockedTarget("metrics.shop.com", CnameUncloakingComponentTest::isBlocked));
+    }
+
+    @Test
+    public void cleanChainIsNotBlocked() {
+        resolver.answer("cdn.shop.com", 3600, "shop.edge.example.org");
+        CnameUncloakingComponent uncloaker = create(1000);
+
+        assertNull(uncloaker.findBlockedTarget("cdn.shop.com", CnameUncloakingComponentTest::isBlocked));
+        assertNull(uncloaker.findBlockedTarget("plain.shop.com", CnameUncloakingComponentTest::isBlocked));
+    }
+
+    @Test
+    public void answersAreCached() {
+        resolver.answer("metrics.shop.com", 3600, "tracker.example.net");
+        CnameUncloakingComponent uncloaker = create(1000);
+
+        uncloaker.findBlockedTarget("metrics.shop.com", CnameUncloakingComponentTest::isBlocked);
+        uncloaker.findBlockedTarget("metrics.shop.com", CnameUncloakingComponentTest::isBlocked);
+        assertEquals(1, resolver.calls("metrics.shop.com"));
+        assertEquals(1, uncloaker.getCacheSize());
+
+        uncloaker.clearCache();
+        uncloaker.findBlockedTarget("metrics.shop.com", CnameUncloakingComponentTest::isBlocked);
+        assertEquals(2, resolver.calls("metrics.shop.com"));
+    }
+
+    @Test
+    public void concurrentRequestsShareOneLookup() throws Exception {
+        resolver.answer("metrics.shop.com", 3600, "tracker.example.net");
+        resolver.hold();
+        CnameUncloakingComponent uncloaker = create(2000);
+
+        ExecutorService threads = Executors.newFixedThreadPool(3);
+        try {
+            Future<?>[] results = new Future<?>[3];
+            for (int i = 0; i < results.length; i++) {
+                results[i] = threads.submit(() ->
+                        uncloaker.findBlockedTarget("metrics.shop.com", CnameUncloakingComponentTest::isBlocked));
+            }
+            Thread.sleep(100);
+            resolver.release();
+            for (Future<?> result : results) {
+                assertEquals("tracker.example.net", result.get(2, TimeUnit.SECONDS));
+            }
+        } finally {
+            threads.shutdownNow();
+        }
+        assertEquals(1, resolver.calls("metrics.shop.com"));
+    }
+
+    @Test
+    public void slowLookupIsUsedForLaterRequests() throws Exception {
+        resolver.answer("metrics.shop.com", 3600, "tracker.example.net");
+        resolver.hold();
+        CnameUncloakingComponent uncloaker = create(20);
+
+        // The cold lookup misses the deadline, so the first request goes through
+        assertNull(uncloaker.findBlockedTarget("metrics.shop.com", CnameUncloakingComponentTest::isBlocked));
+        resolver.release();
+        for (int i = 0; i < 100 && uncloaker.getCacheSize() == 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals("tracker.example.net",
+                uncloaker.findBlockedTarget("metrics.shop.com", CnameUncloakingComponentTest::isBlocked));
+        assertEquals(1, resolver.calls("metrics.shop.com"));
+    }
+
+    @Test
+    public void cachedCheckNeverWaits() throws Exception {
+        resolver.answer("metrics.shop.com", 3600, "tracker.example.net");
+        resolver.hold();
+        CnameUncloakingComponent uncloaker = create(5000);
+
+        long start = System.nanoTime();
+        assertNull(uncloaker.findCachedBlockedTarget("metrics.shop.com", CnameUncloakingComponentTest::isBlocked));
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1000));
+
+        // The lookup it started answers later checks
+        resolver.release();
+        for (int i = 0; i < 100 && uncloaker.getCacheSize() == 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals("tracker.example.net",
+                uncloaker.findCachedBlockedTarget("metrics.shop.com", CnameUncloakingComponentTest::isBlocked));
+        assertEquals(1, resolver.calls("metrics.shop.com"));
+    }
+
+    @Test
+    public void failedLookupIsNotBlockedAndIsCached() {
+        resolver.fail("broken.shop.com");
+        CnameUncloakingComponent uncloaker = create(1000);
+
+        assertNull(uncloaker.findBlockedTarget("broken.shop.com", CnameUncloakingComponentTest::isBlocked));
+        assertNull(uncloaker.findBlockedTarget("broken.shop.com", CnameUncloakingComponentTest::isBlocked));
+        assertEquals(1, resolver.calls("broken.shop.com"));
+    }
+
+    @Test
+    public void lookupsAfterShutdownAreSkipped() {
+        resolver.answer("cached.shop.com", 3600, "tracker.example.net");
+        resolver.answer("metrics.shop.com", 3600, "tracker.example.net");
+        CnameUncloakingComponent uncloaker = create(1000);
+        uncloaker.findBlockedTarget("cached.shop.com", CnameUncloakingComponentTest::isBlocked);
+        uncloaker.shutdown();
+
+        assertNull(uncloaker.findBlockedTarget("metrics.shop.com", CnameUncloakingComponentTest::isBlocked));
+        assertEquals(0, resolver.calls("metrics.shop.com"));
+        // Cached answers keep working
+        assertEquals("tracker.example.net",
+                uncloaker.findBlockedTarget("cached.shop.com", CnameUncloakingComponentTest::isBlocked));
+    }
+
+    /**
+     * Resolver answering from a fixed table, optionally held until released
+     */
+    private static class FakeResolver implements CnameResolver {
+        private final Map<String, Answer> answers = new ConcurrentHashMap<>();
+        private final Set<String> failing = ConcurrentHashMap.newKeySet();
+        private final Map<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+        private volatile CountDownLatch gate = new CountDownLatch(0);
+
+        void answer(String host, long ttlSeconds, String... chain) {
+            answers.put(host, new Answer(Arrays.asList(chain), ttlSeconds));
+        }
+
+        void fail(String host) {
+            failing.add(host);
+        }
+
+        void hold() {
+            gate = new CountDownLatch(1);
+        }
+
+        void release() {
+            gate.countDown();
+        }
+
+        int calls(String host) {
+            AtomicInteger count = calls.get(host);
+            return count != null ? count.get() : 0;
+        }
+
+        @Override
+        public Answer resolve(String host) throws IOException {
+            calls.computeIfAbsent(host, key -> new AtomicInteger()).incrementAndGet();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted", e);
+            }
+            if (failing.contains(host)) {
+                throw new IOException("SERVFAIL");
+            }
+            Answer answer = answers.get(host);
+            return answer != null ? answer : new Answer(Collections.<String>emptyList(), 0);
+        }
+    }
+}
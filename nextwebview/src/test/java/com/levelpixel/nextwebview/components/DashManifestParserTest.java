@@ -0,0 +1,124 @@
+package com.levelpixel.nextwebview.components;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of DASH manifest parsing on inline manifests
+ */
+public class DashManifestParserTest {
+    private static final String URL = "https://media.example.com/movie/manifest.mpd";
+
+    private static String manifest(String period) {
+        return "<?xml version=\"1.0\"?>\n"
+                + "<MPD xmlns=\"urn:mpeg:dash:schema:mpd:2011\" type=\"static\""
+                + " mediaPresentationDuration=\"PT10S\">\n"
+                + "<Period>\n" + period + "</Period>\n</MPD>";
+    }
+
+    private static String segmentList(String initializationRange, String mediaRange) {
+        return manifest("<AdaptationSet mimeType=\"video/mp4\">\n"
+                + "<Representation id=\"v\" bandwidth=\"1000\">\n"
+                + "<BaseURL>video.mp4</BaseURL>\n"
+                + "<SegmentList>\n"
+                + "<Initialization range=\"" + initializationRange + "\"/>\n"
+                + "<SegmentURL mediaRange=\"" + mediaRange + "\"/>\n"
+                + "</SegmentList>\n"
+                + "</Representation>\n</AdaptationSet>\n");
+    }
+
+    @Test
+    public void picksHighestBandwidthRenditions() throws IOException {
+        MediaManifest manifest = DashManifestParser.parse(URL, manifest(
+                "<AdaptationSet contentType=\"video\" mimeType=\"video/mp4\">\n"
+                        + "<Representation id=\"low\" bandwidth=\"500\"><BaseURL>low.mp4</BaseURL></Representation>\n"
+                        + "<Representation id=\"high\" bandwidth=\"3000\"><BaseURL>high.mp4</BaseURL></Representation>\n"
+                        + "</AdaptationSet>\n"
+                        + "<AdaptationSet contentType=\"audio\" mimeType=\"audio/webm\">\n"
+                        + "<Representation id=\"a\" bandwidth=\"128\"><BaseURL>audio.webm</BaseURL></Representation>\n"
+                        + "</AdaptationSet>\n"));
+
+        assertEquals(1, manifest.videoSegments.size());
+        assertEquals("https://media.example.com/movie/high.mp4", manifest.videoSegments.get(0).url);
+        assertEquals("mp4", manifest.videoExtension);
+        assertEquals("https://media.example.com/movie/audio.webm", manifest.audioSegments.get(0).url);
+        assertEquals("webm", manifest.audioExtension);
+    }
+
+    @Test
+    public void expandsNumberedTemplate() throws IOException {
+        MediaManifest manifest = DashManifestParser.parse(URL, manifest(
+                "<AdaptationSet mimeType=\"video/mp4\">\n"
+                        + "<SegmentTemplate initialization=\"$RepresentationID$/init.mp4\""
+                        + " media=\"$RepresentationID$/seg-$Number%03d$.m4s\""
+                        + " timescale=\"1000\" duration=\"4000\" startNumber=\"1\"/>\n"
+                        + "<Representation id=\"v1\" bandwidth=\"1000\"/>\n"
+                        + "</AdaptationSet>\n"));
+
+        // Ten seconds in four-second segments, after the initialization segment
+        assertEquals(4, manifest.videoSegments.size());
+        assertEquals("https://media.example.com/movie/v1/init.mp4", manifest.videoSegments.get(0).url);
+        assertEquals("https://media.example.com/movie/v1/seg-001.m4s", manifest.videoSegments.get(1).url);
+        assertEquals("https://media.example.com/movie/v1/seg-003.m4s", manifest.videoSegments.get(3).url);
+    }
+
+    @Test
+    public void expandsTimelineRepeats() throws IOException {
+        MediaManifest manifest = DashManifestParser.parse(URL, manifest(
+                "<AdaptationSet mimeType=\"video/mp4\">\n"
+                        + "<SegmentTemplate media=\"t-$Time$.m4s\" timescale=\"10\">\n"
+                        + "<SegmentTimeline><S t=\"0\" d=\"20\" r=\"2\"/><S d=\"10\"/></SegmentTimeline>\n"
+                        + "</SegmentTemplate>\n"
+                        + "<Representation id=\"v\" bandwidth=\"1000\"/>\n"
+                        + "</AdaptationSet>\n"));
+
+        assertEquals(4, manifest.videoSegments.size());
+        assertEquals("https://media.example.com/movie/t-0.m4s", manifest.videoSegments.get(0).url);
+        assertEquals("https://media.example.com/movie/t-40.m4s", manifest.videoSegments.get(2).url);
+        assertEquals("https://media.example.com/movie/t-60.m4s", manifest.videoSegments.get(3).url);
+    }
+
+    @Test
+    public void segmentListByteRanges() throws IOException {
+        MediaManifest manifest = DashManifestParser.parse(URL, segmentList("0-99", "100-1099"));
+
+        MediaManifest.Segment initialization = manifest.videoSegments.get(0);
+        assertEquals("https://media.example.com/movie/video.mp4", initialization.url);
+        assertEquals(0, initialization.offset);
+        assertEquals(100, initialization.length);
+        MediaManifest.Segment media = manifest.videoSegments.get(1);
+        assertEquals(100, media.offset);
+        assertEquals(1000, media.length);
+    }
+
+    @Test
+    public void malformedRangeLoadsWholeFile() throws IOException {
+        MediaManifest manifest = DashManifestParser.parse(URL, segmentList("100", "500-100"));
+
+        assertEquals(2, manifest.videoSegments.size());
+        for (MediaManifest.Segment segment : manifest.videoSegments) {
+            assertEquals("https://media.example.com/movie/video.mp4", segment.url);
+            assertEquals(0, segment.offset);
+            assertEquals(-1, segment.length);
+        }
+    }
+
+    @Test
+    public void liveManifestIsRejected() {
+        try {
+            DashManifestParser.parse(URL, "<MPD type=\"dynamic\"><Period/></MPD>");
+            fail("Live manifest was accepted");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void parsesDurations() {
+        assertEquals(3723.5, DashManifestParser.parseDuration("PT1H2M3.5S"), 0.001);
+        assertEquals(86400, DashManifestParser.parseDuration("P1D"), 0.001);
+        assertEquals(0, DashManifestParser.parseDuration(""), 0.001);
+    }
+}
@@ -0,0 +1,39 @@
+package com.levelpixel.nextwebview.components;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of file name and magic byte checks of downloads
+ */
+public class DownloadInspectorTest {
+
+    @Test
+    public void installersAreExecutable() {
+        assertTrue(DownloadInspector.isExecutableFileName("setup.exe"));
+        assertTrue(DownloadInspector.isExecutableFileName("Installer.MSI"));
+        assertTrue(DownloadInspector.isExecutableFileName("app-release.apk"));
+        assertTrue(DownloadInspector.isExecutableFileName("Tool.dmg"));
+        assertTrue(DownloadInspector.isExecutableFileName("run.bat"));
+    }
+
+    @Test
+    public void webAssetsAreNotExecutable() {
+        assertFalse(DownloadInspector.isExecutableFileName("bundle.js"));
+        assertFalse(DownloadInspector.isExecutableFileName("styles.css"));
+        assertFalse(DownloadInspector.isExecutableFileName("report.pdf"));
+        assertFalse(DownloadInspector.isExecutableFileName("README"));
+        assertFalse(DownloadInspector.isExecutableFileName(null));
+    }
+
+    @Test
+    public void executableContentUnderOtherNameIsMismatch() {
+        byte[] head = {'M', 'Z', 0, 0};
+        DownloadVerdict disguised = DownloadInspector.sniff(head, head.length, "invoice.pdf");
+        assertEquals(DownloadVerdict.Kind.WINDOWS_EXECUTABLE, disguised.getKind());
+        assertTrue(disguised.isExtensionMismatch());
+
+        assertFalse(DownloadInspector.sniff(head, head.length, "setup.exe").isExtensionMismatch());
+    }
+}
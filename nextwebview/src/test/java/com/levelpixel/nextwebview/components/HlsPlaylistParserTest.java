@@ -0,0 +1,103 @@
+package com.levelpixel.nextwebview.components;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of HLS playlist parsing on inline playlists
+ */
+public class HlsPlaylistParserTest {
+    private static final String URL = "https://media.example.com/show/master.m3u8";
+
+    private static final String TS_MEDIA = "#EXTM3U\n"
+            + "#EXT-X-TARGETDURATION:6\n"
+            + "#EXTINF:6,\nseg0.ts\n"
+            + "#EXTINF:6,\nseg1.ts\n"
+            + "#EXT-X-ENDLIST\n";
+
+    private static final String FMP4_MEDIA = "#EXTM3U\n"
+            + "#EXT-X-TARGETDURATION:6\n"
+            + "#EXT-X-MAP:URI=\"init.mp4\"\n"
+            + "#EXTINF:6,\nseg0.m4s\n"
+            + "#EXTINF:6,\nseg1.m4s\n"
+            + "#EXT-X-ENDLIST\n";
+
+    private static MediaManifest.Loader loader(Map<String, String> playlists) {
+        return url -> {
+            String text = playlists.get(url);
+            if (text == null) throw new IOException("Not found: " + url);
+            return text;
+        };
+    }
+
+    @Test
+    public void transportStreamIsSavedAsTs() throws IOException {
+        MediaManifest manifest = HlsPlaylistParser.parse(URL, TS_MEDIA, loader(new HashMap<>()));
+
+        assertEquals(2, manifest.videoSegments.size());
+        assertEquals("https://media.example.com/show/seg0.ts", manifest.videoSegments.get(0).url);
+        assertEquals("ts", manifest.videoExtension);
+    }
+
+    @Test
+    public void fragmentedMp4IsSavedAsMp4() throws IOException {
+        Map<String, String> playlists = new HashMap<>();
+        playlists.put("https://media.example.com/show/hi/video.m3u8", FMP4_MEDIA);
+        playlists.put("https://media.example.com/show/audio/en.m3u8", FMP4_MEDIA);
+        String master = "#EXTM3U\n"
+                + "#EXT-X-MEDIA:TYPE=AUDIO,GROUP-ID=\"aud\",NAME=\"en\",DEFAULT=YES,URI=\"audio/en.m3u8\"\n"
+                + "#EXT-X-STREAM-INF:BANDWIDTH=800000,AUDIO=\"aud\"\nlo/video.m3u8\n"
+                + "#EXT-X-STREAM-INF:BANDWIDTH=2400000,AUDIO=\"aud\"\nhi/video.m3u8\n";
+
+        MediaManifest manifest = HlsPlaylistParser.parse(URL, master, loader(playlists));
+
+        // Initialization section first
+        assertEquals(3, manifest.videoSegments.size());
+        assertEquals("https://media.example.com/show/hi/init.mp4", manifest.videoSegments.get(0).url);
+        assertEquals("mp4", manifest.videoExtension);
+        assertEquals("https://media.example.com/show/audio/seg1.m4s", manifest.audioSegments.get(2).url);
+        assertEquals("m4a", manifest.audioExtension);
+    }
+
+    @Test
+    public void byteRangesContinueFromPreviousSegment() throws IOException {
+        String media = "#EXTM3U\n"
+                + "#EXTINF:6,\n#EXT-X-BYTERANGE:1000@0\nall.ts\n"
+                + "#EXTINF:6,\n#EXT-X-BYTERANGE:500\nall.ts\n"
+                + "#EXT-X-ENDLIST\n";
+
+        MediaManifest.Segment second = HlsPlaylistParser.parseMedia(URL, media).get(1);
+        assertEquals(1000, second.offset);
+        assertEquals(500, second.length);
+    }
+
+    @Test
+    public void sequenceNumberIsDefaultIv() throws IOException {
+        String media = "#EXTM3U\n"
+                + "#EXT-X-MEDIA-SEQUENCE:258\n"
+                + "#EXT-X-KEY:METHOD=AES-128,URI=\"key.bin\"\n"
+                + "#EXTINF:6,\nseg0.ts\n"
+                + "#EXT-X-ENDLIST\n";
+
+        MediaManifest.Segment segment = HlsPlaylistParser.parseMedia(URL, media).get(0);
+        assertEquals("https://media.example.com/show/key.bin", segment.keyUrl);
+        byte[] iv = new byte[16];
+        iv[14] = 1;
+        iv[15] = 2;
+        assertArrayEquals(iv, segment.iv);
+    }
+
+    @Test
+    public void livePlaylistIsRejected() {
+        try {
+            HlsPlaylistParser.parseMedia(URL, "#EXTM3U\n#EXTINF:6,\nseg0.ts\n");
+            fail("Live playlist was accepted");
+        } catch (IOException expected) {
+        }
+    }
+}
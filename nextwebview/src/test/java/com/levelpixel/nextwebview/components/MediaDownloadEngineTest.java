@@ -0,0 +1,124 @@
+package com.levelpixel.nextwebview.components;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of single-file DASH representations against an in-process HTTP server
+ */
+public class MediaDownloadEngineTest {
+    // Just over two ranged chunks
+    private static final byte[] MOVIE = new byte[9 * 1024 * 1024];
+
+    static {
+        for (int i = 0; i < MOVIE.length; i++) {
+            MOVIE[i] = (byte) (i * 31);
+        }
+    }
+
+    private HttpServer server;
+    private String baseUrl;
+    private File directory;
+    private MediaDownloadEngine engine;
+    private final List<String> ranges = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        serveManifest("/ranged.mpd", "ranged.mp4");
+        serveManifest("/plain.mpd", "plain.mp4");
+        serveMovie("/ranged.mp4", true);
+        serveMovie("/plain.mp4", false);
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+        directory = Files.createTempDirectory("media").toFile();
+        engine = new MediaDownloadEngine(null);
+    }
+
+    @After
+    public void tearDown() {
+        engine.shutdown();
+        server.stop(0);
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    private void serveManifest(String path, String movie) {
+        byte[] body = ("<MPD type=\"static\" mediaPresentationDuration=\"PT60S\"><Period>"
+                + "<AdaptationSet mimeType=\"video/mp4\"><Representation id=\"v\" bandwidth=\"1000\">"
+                + "<BaseURL>" + movie + "</BaseURL><SegmentBase indexRange=\"0-99\"/>"
+                + "</Representation></AdaptationSet></Period></MPD>").getBytes(StandardCharsets.UTF_8);
+        server.createContext(path, exchange -> {
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+    }
+
+    private void serveMovie(String path, boolean rangeSupported) {
+        server.createContext(path, exchange -> {
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            ranges.add(path + " " + range);
+            int start = 0;
+            int end = MOVIE.length - 1;
+            int status = 200;
+            if (rangeSupported && range != null) {
+                String[] bounds = range.substring("bytes=".length()).split("-");
+                start = Integer.parseInt(bounds[0]);
+                end = Math.min(end, Integer.parseInt(bounds[1]));
+                status = 206;
+                exchange.getResponseHeaders().add("Content-Range",
+                        "bytes " + start + "-" + end + "/" + MOVIE.length);
+            }
+            exchange.sendResponseHeaders(status, end - start + 1);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(MOVIE, start, end - start + 1);
+            }
+        });
+    }
+
+    private DownloadTask download(String manifest) throws IOException {
+        DownloadTask task = new DownloadTask(baseUrl + manifest, "test-agent", null,
+                "application/dash+xml", new File(directory, "movie.mp4"));
+        engine.execute(task);
+        return task;
+    }
+
+    @Test
+    public void singleFileIsFetchedInRanges() throws IOException {
+        DownloadTask task = download("/ranged.mpd");
+
+        assertArrayEquals(MOVIE, Files.readAllBytes(task.getDestination().toPath()));
+        // The size probe, then three chunks of at most 4 MB
+        assertEquals(4, ranges.size());
+        assertTrue(ranges.contains("/ranged.mp4 bytes=0-0"));
+        assertTrue(ranges.contains("/ranged.mp4 bytes=0-4194303"));
+        assertTrue(ranges.contains("/ranged.mp4 bytes=8388608-9437183"));
+    }
+
+    @Test
+    public void singleFileWithoutRangesIsStreamed() throws IOException {
+        DownloadTask task = download("/plain.mpd");
+
+        assertArrayEquals(MOVIE, Files.readAllBytes(task.getDestination().toPath()));
+        assertEquals(MOVIE.length, task.getDownloadedBytes());
+        assertNotNull(task.getSha256());
+    }
+}
@@ -0,0 +1,158 @@
+package com.levelpixel.nextwebview.components;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of segment map persistence and resuming against an in-process HTTP server
+ */
+public class SegmentedDownloadEngineTest {
+    private static final byte[] BODY = new byte[100];
+
+    static {
+        for (int i = 0; i < BODY.length; i++) {
+            BODY[i] = (byte) ('a' + i % 26);
+        }
+    }
+
+    private HttpServer server;
+    private String baseUrl;
+    private File directory;
+    private SegmentedDownloadEngine engine;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        serve("/tagged.bin", "\"v1\"");
+        serve("/untagged.bin", null);
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+        directory = Files.createTempDirectory("segmented").toFile();
+        engine = new SegmentedDownloadEngine(null);
+    }
+
+    @After
+    public void tearDown() {
+        engine.shutdown();
+        server.stop(0);
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    /**
+     * Serve the body with single-range support and an optional ETag
+     */
+    private void serve(String path, String etag) {
+        server.createContext(path, exchange -> {
+            if (etag != null) {
+                exchange.getResponseHeaders().add("ETag", etag);
+            }
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            int start = 0;
+            int end = BODY.length - 1;
+            int status = 200;
+            if (range != null && range.startsWith("bytes=")) {
+                String[] bounds = range.substring(6).split("-", -1);
+                start = Integer.parseInt(bounds[0]);
+                if (!bounds[1].isEmpty()) {
+                    end = Math.min(end, Integer.parseInt(bounds[1]));
+                }
+                status = 206;
+                exchange.getResponseHeaders().add("Content-Range",
+                        "bytes " + start + "-" + end + "/" + BODY.length);
+            }
+            exchange.sendResponseHeaders(status, end - start + 1);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(BODY, start, end - start + 1);
+            }
+        });
+    }
+
+    /**
+     * Leave a half-finished download whose first half holds stale bytes
+     */
+    private DownloadTask interrupted(String path, String validator) throws IOException {
+        File destination = new File(directory, "file.bin");
+        DownloadTask task = new DownloadTask(baseUrl + path, "test-agent", null, null, destination);
+        try (RandomAccessFile partial = new RandomAccessFile(SegmentedDownloadEngine.getPartialFile(destination), "rw")) {
+            byte[] stale = new byte[BODY.length];
+            Arrays.fill(stale, (byte) 'X');
+            partial.write(stale);
+        }
+        SegmentedDownloadEngine.SegmentMap map = new SegmentedDownloadEngine.SegmentMap(task.getUrl(),
+                BODY.length, true, validator,
+                Collections.singletonList(new SegmentedDownloadEngine.Segment(0, BODY.length - 1, 50)));
+        map.write(SegmentedDownloadEngine.getSegmentMapFile(destination), "test-agent", null);
+        return task;
+    }
+
+    @Test
+    public void mapWithLongUrlRoundTrips() throws IOException {
+        char[] path = new char[70 * 1024];
+        Arrays.fill(path, 'p');
+        String url = "https://downloads.example.com/" + new String(path) + "?sig=\u00e9";
+        File mapFile = new File(directory, "long" + SegmentedDownloadEngine.SEGMENT_MAP_SUFFIX);
+        SegmentedDownloadEngine.SegmentMap map = SegmentedDownloadEngine.SegmentMap.plan(
+                url, 10L * 1024 * 1024, true, "\"etag\"", 4);
+        map.segments.get(1).downloaded = 1234;
+        map.write(mapFile, "agent", "application/zip");
+
+        SegmentedDownloadEngine.SegmentMap read = SegmentedDownloadEngine.SegmentMap.read(mapFile);
+        assertNotNull(read);
+        assertEquals(url, read.url);
+        assertEquals("\"etag\"", read.validator);
+        assertEquals(4, read.segments.size());
+        assertEquals(1234, read.segments.get(1).downloaded);
+
+        String[] details = SegmentedDownloadEngine.readInterruptedDownload(mapFile);
+        assertNotNull(details);
+        assertEquals(url, details[0]);
+        assertEquals("agent", details[1]);
+        assertEquals("application/zip", details[2]);
+    }
+
+    @Test
+    public void resumesWhenValidatorMatches() throws IOException {
+        DownloadTask task = interrupted("/tagged.bin", "\"v1\"");
+        engine.execute(task);
+
+        // The stale half was kept, only the rest was fetched
+        byte[] saved = Files.readAllBytes(task.getDestination().toPath());
+        byte[] expected = BODY.clone();
+        Arrays.fill(expected, 0, 50, (byte) 'X');
+        assertArrayEquals(expected, saved);
+    }
+
+    @Test
+    public void restartsWithoutValidator() throws IOException {
+        DownloadTask task = interrupted("/untagged.bin", "");
+        engine.execute(task);
+
+        assertArrayEquals(BODY, Files.readAllBytes(task.getDestination().toPath()));
+        assertFalse(SegmentedDownloadEngine.getSegmentMapFile(task.getDestination()).exists());
+    }
+
+    @Test
+    public void restartsWhenValidatorChanged() throws IOException {
+        DownloadTask task = interrupted("/tagged.bin", "\"v0\"");
+        engine.execute(task);
+
+        assertArrayEquals(BODY, Files.readAllBytes(task.getDestination().toPath()));
+    }
+}
@@ -0,0 +1,281 @@
+package com.levelpixel.nextwebview.components;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local tests of the static resource cache against an in-process HTTP server
+ */
+public class StaticResourceCacheTest {
+    private static final String IMMUTABLE = "public, max-age=31536000, immutable";
+
+    private HttpServer server;
+    private String baseUrl;
+    private final Map<String, AtomicInteger> requestCounts = new ConcurrentHashMap<>();
+    private File directory;
+    private StaticResourceCache cache;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        serve("/app.3f2a9c1b.js", 200, IMMUTABLE, "console.log('app');", null);
+        serve("/copy.5e6f7a8b.js", 200, IMMUTABLE, "console.log('app');", null);
+        serve("/a.11111111.css", 200, IMMUTABLE, repeat('a', 100), null);
+        serve("/b.22222222.css", 200, IMMUTABLE, repeat('b', 100), null);
+        serve("/c.33333333.css", 200, IMMUTABLE, repeat('c', 100), null);
+        serve("/short.44444444.js", 200, "max-age=60", "short", null);
+        serve("/cookie.55555555.js", 200, IMMUTABLE, "personal", "id=1; Path=/");
+        serve("/moved.66666666.js", 302, null, "", "/app.3f2a9c1b.js");
+        serve("/missing.77777777.js", 404, null, "not found", null);
+        serveCors("/font.88888888.woff2", "Origin", "https://shop.example.com");
+        serveCors("/shared.99999999.woff2", null, "*");
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+
+        directory = Files.createTempDirectory("static-cache").toFile();
+        cache = new StaticResourceCache(directory, 1024 * 1024);
+    }
+
+    @After
+    public void tearDown() {
+        cache.shutdown();
+        server.stop(0);
+        deleteRecursively(directory);
+    }
+
+    /**
+     * @param extra Set-Cookie value for 200 responses, Location for redirects
+     */
+    private void serve(String path, int status, String cacheControl, String body, String extra) {
+        requestCounts.put(path, new AtomicInteger());
+        server.createContext(path, exchange -> {
+            requestCounts.get(path).incrementAndGet();
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "text/javascript; charset=utf-8");
+            if (cacheControl != null) {
+                exchange.getResponseHeaders().add("Cache-Control", cacheControl);
+            }
+            if (extra != null) {
+                exchange.getResponseHeaders().add(status / 100 == 3 ? "Location" : "Set-Cookie", extra);
+            }
+            exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        });
+    }
+
+    private void serveCors(String path, String vary, String allowOrigin) {
+        requestCounts.put(path, new AtomicInteger());
+        server.createContext(path, exchange -> {
+            requestCounts.get(path).incrementAndGet();
+            byte[] bytes = "font".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "font/woff2");
+            exchange.getResponseHeaders().add("Cache-Control", IMMUTABLE);
+            exchange.getResponseHeaders().add("Access-Control-Allow-Origin", allowOrigin);
+            if (vary != null) {
+                exchange.getResponseHeaders().add("Vary", vary);
+            }
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        });
+    }
+
+    private StaticResourceCache.Resource load(String path) {
+        return cache.load(baseUrl + path, Collections.emptyMap(), "test-agent", true);
+    }
+
+    private static String read(StaticResourceCache.Resource resource) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = resource.body) {
+            byte[] buffer = new byte[64];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+        return out.toString("UTF-8");
+    }
+
+    private int requests(String path) {
+        return requestCounts.get(path).get();
+    }
+
+    @Test
+    public void missThenHit() throws IOException {
+        StaticResourceCache.Resource first = load("/app.3f2a9c1b.js");
+        assertNotNull(first);
+        assertEquals("text/javascript", first.mimeType);
+        assertEquals("utf-8", first.encoding);
+        assertEquals("console.log('app');", read(first));
+
+        StaticResourceCache.Resource second = load("/app.3f2a9c1b.js");
+        assertNotNull(second);
+        assertEquals("console.log('app');", read(second));
+        assertEquals(IMMUTABLE, second.headers.get("Cache-Control"));
+        assertEquals(1, requests("/app.3f2a9c1b.js"));
+
+        StaticResourceCache.CacheStats stats = cache.getStats();
+        assertEquals(1, stats.getHits());
+        assertEquals(1, stats.getMisses());
+        assertEquals(1, stats.getStores());
+    }
+
+    @Test
+    public void partiallyReadBodyIsNotStored() throws IOException {
+        StaticResourceCache.Resource first = load("/app.3f2a9c1b.js");
+        first.body.read();
+        first.body.close();
+
+        assertEquals(0, cache.getStats().getStores());
+        assertNotNull(load("/app.3f2a9c1b.js"));
+        assertEquals(2, requests("/app.3f2a9c1b.js"));
+    }
+
+    @Test
+    public void identicalBodiesShareOneBlob() throws IOException {
+        read(load("/app.3f2a9c1b.js"));
+        read(load("/copy.5e6f7a8b.js"));
+
+        StaticResourceCache.CacheStats stats = cache.getStats();
+        assertEquals(2, stats.getEntryCount());
+        assertEquals("console.log('app');".length(), stats.getSizeBytes());
+        assertEquals(1, new File(directory, "blobs").listFiles().length);
+    }
+
+    @Test
+    public void storingTheSameBodyTwiceKeepsTheBlob() throws IOException {
+        // Both fetches miss, then commit the same URL and content one after the other
+        StaticResourceCache.Resource first = load("/app.3f2a9c1b.js");
+        StaticResourceCache.Resource second = load("/app.3f2a9c1b.js");
+        read(first);
+        read(second);
+
+        assertEquals(2, cache.getStats().getStores());
+        assertEquals(1, cache.getStats().getEntryCount());
+        StaticResourceCache.Resource cached = load("/app.3f2a9c1b.js");
+        assertNotNull(cached);
+        assertEquals("console.log('app');", read(cached));
+        assertEquals(2, requests("/app.3f2a9c1b.js"));
+    }
+
+    @Test
+    public void leastRecentlyUsedIsEvicted() throws IOException {
+        cache.setMaxBytes(250);
+        read(load("/a.11111111.css"));
+        read(load("/b.22222222.css"));
+        // Touch a so b is the eldest
+        read(load("/a.11111111.css"));
+        read(load("/c.33333333.css"));
+
+        StaticResourceCache.CacheStats stats = cache.getStats();
+        assertEquals(1, stats.getEvictions());
+        assertEquals(2, stats.getEntryCount());
+        assertEquals(200, stats.getSizeBytes());
+
+        read(load("/a.11111111.css"));
+        read(load("/b.22222222.css"));
+        assertEquals(1, requests("/a.11111111.css"));
+        assertEquals(2, requests("/b.22222222.css"));
+    }
+
+    @Test
+    public void redirectIsLeftToTheWebView() {
+        assertNull(load("/moved.66666666.js"));
+        assertEquals(1, requests("/moved.66666666.js"));
+        // The target is not fetched on the WebView's behalf
+        assertEquals(0, requests("/app.3f2a9c1b.js"));
+        assertEquals(0, cache.getStats().getStores());
+    }
+
+    @Test
+    public void errorIsLeftToTheWebView() {
+        assertNull(load("/missing.77777777.js"));
+        assertEquals(0, cache.getStats().getEntryCount());
+    }
+
+    @Test
+    public void shortLivedResponseIsServedButNotStored() throws IOException {
+        assertEquals("short", read(load("/short.44444444.js")));
+        assertEquals("short", read(load("/short.44444444.js")));
+        assertEquals(2, requests("/short.44444444.js"));
+        assertEquals(0, cache.getStats().getStores());
+    }
+
+    @Test
+    public void responseSettingCookiesIsNotStored() throws IOException {
+        assertEquals("personal", read(load("/cookie.55555555.js")));
+        read(load("/cookie.55555555.js"));
+        assertEquals(2, requests("/cookie.55555555.js"));
+        assertEquals(0, cache.getStats().getStores());
+    }
+
+    @Test
+    public void originSpecificCorsIsNotStored() throws IOException {
+        read(load("/font.88888888.woff2"));
+        read(load("/font.88888888.woff2"));
+        assertEquals(2, requests("/font.88888888.woff2"));
+        assertEquals(0, cache.getStats().getStores());
+
+        // A grant to every origin is safe to replay
+        read(load("/shared.99999999.woff2"));
+        StaticResourceCache.Resource cached = load("/shared.99999999.woff2");
+        assertEquals("*", cached.headers.get("Access-Control-Allow-Origin"));
+        assertEquals(1, requests("/shared.99999999.woff2"));
+    }
+
+    @Test
+    public void indexSurvivesRestart() throws IOException {
+        read(load("/app.3f2a9c1b.js"));
+        cache.shutdown();
+
+        cache = new StaticResourceCache(directory, 1024 * 1024);
+        assertEquals("console.log('app');", read(load("/app.3f2a9c1b.js")));
+        assertEquals(1, requests("/app.3f2a9c1b.js"));
+    }
+
+    @Test
+    public void thirdPartyComparesLastTwoLabels() {
+        assertFalse(StaticResourceCache.isThirdParty("cdn.example.com", "www.example.com"));
+        assertFalse(StaticResourceCache.isThirdParty("EXAMPLE.com", "example.com"));
+        assertTrue(StaticResourceCache.isThirdParty("tracker.net", "www.example.com"));
+        assertTrue(StaticResourceCache.isThirdParty("cdn.example.com", null));
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}